@@ -140,7 +140,8 @@ public abstract class AbstractPlayer {
     public abstract void setSpeed(float speed);
 
     /**
-     * 获取当前缓冲的网速
+     * 获取当前缓冲的网速，单位字节/秒
+     * 内核无法提供时返回{@link BandwidthEstimator}的估计值
      */
     public abstract long getTcpSpeed();
 
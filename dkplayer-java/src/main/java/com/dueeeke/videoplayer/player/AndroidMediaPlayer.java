@@ -3,6 +3,7 @@ package com.dueeeke.videoplayer.player;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.media.AudioManager;
+import android.media.MediaDataSource;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Build;
@@ -20,6 +21,7 @@ public class AndroidMediaPlayer extends AbstractPlayer {
 
     public AndroidMediaPlayer(Context context) {
         mAppContext = context.getApplicationContext();
+        BandwidthEstimator.getInstance().attach(mAppContext);
     }
 
     @Override
@@ -38,6 +40,15 @@ public class AndroidMediaPlayer extends AbstractPlayer {
     @Override
     public void setDataSource(String path, Map<String, String> headers) {
         try {
+            MediaDataSourceProvider provider = VideoViewManager.getConfig().mMediaDataSourceProvider;
+            if (provider != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                MediaDataSource dataSource = provider.getMediaDataSource(path);
+                if (dataSource != null) {
+                    //进程内直接读取，不经过本地代理
+                    mMediaPlayer.setDataSource(dataSource);
+                    return;
+                }
+            }
             mMediaPlayer.setDataSource(mAppContext, Uri.parse(path), headers);
         } catch (Exception e) {
             mPlayerEventListener.onError();
@@ -193,8 +204,8 @@ public class AndroidMediaPlayer extends AbstractPlayer {
 
     @Override
     public long getTcpSpeed() {
-        // no support
-        return 0;
+        // 系统播放器不提供网速，使用共享的带宽估计值
+        return BandwidthEstimator.getInstance().getEstimate();
     }
 
     private MediaPlayer.OnErrorListener onErrorListener = new MediaPlayer.OnErrorListener() {
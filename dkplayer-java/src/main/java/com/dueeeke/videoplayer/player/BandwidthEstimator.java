@@ -0,0 +1,154 @@
+package com.dueeeke.videoplayer.player;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * 带宽估计器，所有播放内核共享同一个实例
+ * 估计值取滑动窗口内传输样本速度的加权中位数，样本权重为传输字节数的平方根，
+ * 窗口总权重超出上限时淘汰最旧的样本。样本可以来自代理缓存（videocache的BandwidthListener），
+ * 也可以来自ExoPlayer的TransferListener。
+ * 绑定Context后估计值会持久化，下次启动时在收到新样本之前作为初始估计值
+ */
+public final class BandwidthEstimator {
+
+    private static final String PREFS_NAME = "dkplayer_bandwidth";
+    private static final String KEY_ESTIMATE = "bytes_per_second";
+    private static final String KEY_TIME = "time";
+
+    /**
+     * 滑动窗口的最大总权重
+     */
+    private static final int MAX_WEIGHT = 2000;
+
+    /**
+     * 小于这个字节数的样本误差太大，直接丢弃
+     */
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+
+    /**
+     * 持久化的估计值超过这个时间就不再使用，网络环境可能已经变了
+     */
+    private static final long PERSISTED_TTL = 24 * 60 * 60 * 1000;
+
+    /**
+     * 两次持久化之间的最小间隔
+     */
+    private static final long PERSIST_INTERVAL = 10 * 1000;
+
+    private static BandwidthEstimator sInstance;
+
+    private final ArrayDeque<Sample> mSamples = new ArrayDeque<>();
+    private int mTotalWeight;
+    private long mEstimate;
+    private SharedPreferences mPreferences;
+    private long mLastPersistTime;
+
+    private BandwidthEstimator() {
+    }
+
+    public static BandwidthEstimator getInstance() {
+        if (sInstance == null) {
+            synchronized (BandwidthEstimator.class) {
+                if (sInstance == null) {
+                    sInstance = new BandwidthEstimator();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 绑定Context以持久化估计值，并读取上次保存的估计值，重复调用无副作用
+     */
+    public synchronized void attach(Context context) {
+        if (mPreferences != null) {
+            return;
+        }
+        mPreferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long savedTime = mPreferences.getLong(KEY_TIME, 0);
+        if (mSamples.isEmpty() && System.currentTimeMillis() - savedTime < PERSISTED_TTL) {
+            mEstimate = mPreferences.getLong(KEY_ESTIMATE, 0);
+        }
+    }
+
+    /**
+     * 添加一个传输样本，可以在任意线程调用
+     *
+     * @param bytes         传输的字节数
+     * @param elapsedMillis 传输耗时，单位毫秒
+     */
+    public synchronized void onTransfer(long bytes, long elapsedMillis) {
+        if (bytes < MIN_SAMPLE_BYTES || elapsedMillis <= 0) {
+            return;
+        }
+        Sample sample = new Sample(bytes * 1000 / elapsedMillis, (int) Math.sqrt(bytes));
+        mSamples.addLast(sample);
+        mTotalWeight += sample.weight;
+        while (mTotalWeight > MAX_WEIGHT) {
+            Sample oldest = mSamples.getFirst();
+            int excess = mTotalWeight - MAX_WEIGHT;
+            if (oldest.weight <= excess) {
+                mSamples.removeFirst();
+                mTotalWeight -= oldest.weight;
+            } else {
+                oldest.weight -= excess;
+                mTotalWeight -= excess;
+            }
+        }
+        mEstimate = computeMedian();
+        persistIfNeeded();
+    }
+
+    /**
+     * 获取当前带宽估计值，单位字节/秒，还没有任何样本时返回0
+     */
+    public synchronized long getEstimate() {
+        return mEstimate;
+    }
+
+    private long computeMedian() {
+        Sample[] sorted = mSamples.toArray(new Sample[mSamples.size()]);
+        Arrays.sort(sorted);
+        float half = mTotalWeight / 2f;
+        int accumulated = 0;
+        for (Sample sample : sorted) {
+            accumulated += sample.weight;
+            if (accumulated >= half) {
+                return sample.bytesPerSecond;
+            }
+        }
+        return sorted[sorted.length - 1].bytesPerSecond;
+    }
+
+    private void persistIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (mPreferences == null || now - mLastPersistTime < PERSIST_INTERVAL) {
+            return;
+        }
+        mLastPersistTime = now;
+        mPreferences.edit()
+                .putLong(KEY_ESTIMATE, mEstimate)
+                .putLong(KEY_TIME, now)
+                .apply();
+    }
+
+    private static final class Sample implements Comparable<Sample> {
+
+        final long bytesPerSecond;
+        int weight;
+
+        Sample(long bytesPerSecond, int weight) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.weight = weight;
+        }
+
+        @Override
+        public int compareTo(Sample another) {
+            return bytesPerSecond < another.bytesPerSecond ? -1 : (bytesPerSecond == another.bytesPerSecond ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.dueeeke.videoplayer.player;
+
+import android.media.MediaDataSource;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+/**
+ * 为播放地址提供进程内的数据源，AndroidMediaPlayer和IjkPlayer通过readAt按位置读取数据
+ * 例如直接读取边下边播缓存的数据源，不再经过本地代理的回环socket，仅Android 6.0及以上生效
+ */
+public interface MediaDataSourceProvider {
+
+    /**
+     * @param path 播放地址
+     * @return 数据源，返回null则按原地址播放；使用数据源时不再传递请求头
+     */
+    @Nullable
+    @RequiresApi(api = Build.VERSION_CODES.M)
+    MediaDataSource getMediaDataSource(String path);
+}
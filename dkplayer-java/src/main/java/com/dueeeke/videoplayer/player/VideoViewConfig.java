@@ -35,6 +35,8 @@ public class VideoViewConfig {
 
     public final boolean mAdaptCutout;
 
+    public final MediaDataSourceProvider mMediaDataSourceProvider;
+
     private VideoViewConfig(Builder builder) {
         mIsEnableLog = builder.mIsEnableLog;
         mEnableOrientation = builder.mEnableOrientation;
@@ -56,6 +58,7 @@ public class VideoViewConfig {
             mRenderViewFactory = builder.mRenderViewFactory;
         }
         mAdaptCutout = builder.mAdaptCutout;
+        mMediaDataSourceProvider = builder.mMediaDataSourceProvider;
     }
 
 
@@ -71,6 +74,7 @@ public class VideoViewConfig {
         private int mScreenScaleType;
         private RenderViewFactory mRenderViewFactory;
         private boolean mAdaptCutout = true;
+        private MediaDataSourceProvider mMediaDataSourceProvider;
 
         /**
          * 是否监听设备方向来切换全屏/半屏， 默认不开启
@@ -154,6 +158,14 @@ public class VideoViewConfig {
             return this;
         }
 
+        /**
+         * 设置进程内数据源，AndroidMediaPlayer和IjkPlayer在Android 6.0及以上直接从数据源读取，例如边下边播的缓存
+         */
+        public Builder setMediaDataSourceProvider(@Nullable MediaDataSourceProvider mediaDataSourceProvider) {
+            mMediaDataSourceProvider = mediaDataSourceProvider;
+            return this;
+        }
+
         public VideoViewConfig build() {
             return new VideoViewConfig(this);
         }
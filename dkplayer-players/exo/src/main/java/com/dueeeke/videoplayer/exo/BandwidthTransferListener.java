@@ -0,0 +1,71 @@
+package com.dueeeke.videoplayer.exo;
+
+import android.net.Uri;
+
+import com.dueeeke.videoplayer.player.BandwidthEstimator;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 把ExoPlayer的网络传输样本喂给共享的{@link BandwidthEstimator}
+ * 每传输512K或传输结束时提交一个样本，经过本地代理的传输不计入，本地回环的速度没有参考意义
+ */
+final class BandwidthTransferListener implements TransferListener {
+
+    private static final long SAMPLE_BYTES = 512 * 1024;
+
+    private final Map<DataSource, Transfer> mTransfers = new IdentityHashMap<>();
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    }
+
+    @Override
+    public synchronized void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        if (isNetwork && !isLoopback(dataSpec.uri)) {
+            mTransfers.put(source, new Transfer());
+        }
+    }
+
+    @Override
+    public synchronized void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork, int bytesTransferred) {
+        Transfer transfer = mTransfers.get(source);
+        if (transfer == null) {
+            return;
+        }
+        transfer.bytes += bytesTransferred;
+        if (transfer.bytes >= SAMPLE_BYTES) {
+            transfer.report();
+        }
+    }
+
+    @Override
+    public synchronized void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+        Transfer transfer = mTransfers.remove(source);
+        if (transfer != null) {
+            transfer.report();
+        }
+    }
+
+    private static boolean isLoopback(Uri uri) {
+        String host = uri.getHost();
+        return "127.0.0.1".equals(host) || "localhost".equals(host);
+    }
+
+    private static final class Transfer {
+
+        long startTime = System.currentTimeMillis();
+        long bytes;
+
+        void report() {
+            long now = System.currentTimeMillis();
+            BandwidthEstimator.getInstance().onTransfer(bytes, now - startTime);
+            startTime = now;
+            bytes = 0;
+        }
+    }
+}
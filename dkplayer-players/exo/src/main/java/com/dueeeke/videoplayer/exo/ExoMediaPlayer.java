@@ -7,6 +7,7 @@ import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import com.dueeeke.videoplayer.player.AbstractPlayer;
+import com.dueeeke.videoplayer.player.BandwidthEstimator;
 import com.dueeeke.videoplayer.player.VideoViewManager;
 import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
@@ -22,6 +23,8 @@ import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.MediaSourceEventListener;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelector;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.util.Log;
 import com.google.android.exoplayer2.video.VideoListener;
 
@@ -45,6 +48,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements VideoListener, Pla
     private LoadControl mLoadControl;
     private RenderersFactory mRenderersFactory;
     private TrackSelector mTrackSelector;
+    private BandwidthMeter mBandwidthMeter;
 
     public ExoMediaPlayer(Context context) {
         mAppContext = context.getApplicationContext();
@@ -56,7 +60,8 @@ public class ExoMediaPlayer extends AbstractPlayer implements VideoListener, Pla
         mLoadControl = mLoadControl == null ? new DefaultLoadControl() : mLoadControl;
         mRenderersFactory = mRenderersFactory == null ? new DefaultRenderersFactory(mAppContext) : mRenderersFactory;
         mTrackSelector = mTrackSelector == null ? new DefaultTrackSelector() : mTrackSelector;
-        mInternalPlayer = ExoPlayerFactory.newSimpleInstance(mAppContext, mRenderersFactory, mTrackSelector, mLoadControl);
+        mBandwidthMeter = mBandwidthMeter == null ? newBandwidthMeter() : mBandwidthMeter;
+        mInternalPlayer = ExoPlayerFactory.newSimpleInstance(mAppContext, mRenderersFactory, mTrackSelector, mLoadControl, null, mBandwidthMeter);
         setOptions();
         Log.setLogLevel(VideoViewManager.getConfig().mIsEnableLog ? Log.LOG_LEVEL_ALL : Log.LOG_LEVEL_OFF);
         Log.setLogStackTraces(VideoViewManager.getConfig().mIsEnableLog);
@@ -64,6 +69,22 @@ public class ExoMediaPlayer extends AbstractPlayer implements VideoListener, Pla
         mInternalPlayer.addVideoListener(this);
     }
 
+    /**
+     * 以共享的带宽估计值作为初始码率估计，自适应流的初始清晰度由它决定
+     */
+    private BandwidthMeter newBandwidthMeter() {
+        DefaultBandwidthMeter.Builder builder = new DefaultBandwidthMeter.Builder(mAppContext);
+        long estimate = BandwidthEstimator.getInstance().getEstimate();
+        if (estimate > 0) {
+            builder.setInitialBitrateEstimate(estimate * 8);
+        }
+        return builder.build();
+    }
+
+    public void setBandwidthMeter(BandwidthMeter bandwidthMeter) {
+        mBandwidthMeter = bandwidthMeter;
+    }
+
     public void setTrackSelector(TrackSelector trackSelector) {
         mTrackSelector = trackSelector;
     }
@@ -251,8 +272,7 @@ public class ExoMediaPlayer extends AbstractPlayer implements VideoListener, Pla
 
     @Override
     public long getTcpSpeed() {
-        // no support
-        return 0;
+        return BandwidthEstimator.getInstance().getEstimate();
     }
 
     @Override
@@ -4,6 +4,8 @@ import android.content.Context;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import com.dueeeke.videoplayer.player.BandwidthEstimator;
+
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.database.ExoDatabaseProvider;
 import com.google.android.exoplayer2.ext.rtmp.RtmpDataSourceFactory;
@@ -35,11 +37,14 @@ public final class ExoMediaSourceHelper {
     private final String mUserAgent;
     private Context mAppContext;
     private HttpDataSource.Factory mHttpDataSourceFactory;
+    private boolean mIsCustomHttpDataSourceFactory;
     private Cache mCache;
+    private DataSource.Factory mCacheDataSourceFactory;
 
     private ExoMediaSourceHelper(Context context) {
         mAppContext = context.getApplicationContext();
         mUserAgent = Util.getUserAgent(mAppContext, mAppContext.getApplicationInfo().name);
+        BandwidthEstimator.getInstance().attach(mAppContext);
     }
 
     public static ExoMediaSourceHelper getInstance(Context context) {
@@ -73,7 +78,8 @@ public final class ExoMediaSourceHelper {
         }
         int contentType = inferContentType(uri);
         DataSource.Factory factory;
-        if (isCache) {
+        //本地代理地址交给进程内的缓存DataSource直接读取，省去回环socket
+        if (isCache || (mCacheDataSourceFactory != null && isProxyUri(contentUri))) {
             factory = getCacheDataSourceFactory();
         } else {
             factory = getDataSourceFactory();
@@ -94,6 +100,12 @@ public final class ExoMediaSourceHelper {
         }
     }
 
+    private boolean isProxyUri(Uri uri) {
+        //只认本进程videocache代理返回的地址，同为127.0.0.1的其他本地服务照常请求
+        return mCacheDataSourceFactory instanceof VideoCacheDataSourceFactory
+                && ((VideoCacheDataSourceFactory) mCacheDataSourceFactory).isProxyUri(uri);
+    }
+
     private int inferContentType(String fileName) {
         fileName = Util.toLowerInvariant(fileName);
         if (fileName.contains(".mpd")) {
@@ -108,6 +120,9 @@ public final class ExoMediaSourceHelper {
     }
 
     private DataSource.Factory getCacheDataSourceFactory() {
+        if (mCacheDataSourceFactory != null) {
+            return mCacheDataSourceFactory;
+        }
         if (mCache == null) {
             mCache = newCache();
         }
@@ -129,7 +144,11 @@ public final class ExoMediaSourceHelper {
      *
      * @return A new DataSource factory.
      */
-    private DataSource.Factory getDataSourceFactory() {
+    public DataSource.Factory getDataSourceFactory() {
+        if (mIsCustomHttpDataSourceFactory) {
+            //外部设置的HttpDataSource.Factory没有带宽监听，由DefaultDataSourceFactory添加
+            return new DefaultDataSourceFactory(mAppContext, new BandwidthTransferListener(), getHttpDataSourceFactory());
+        }
         return new DefaultDataSourceFactory(mAppContext, getHttpDataSourceFactory());
     }
 
@@ -142,7 +161,8 @@ public final class ExoMediaSourceHelper {
         if (mHttpDataSourceFactory == null) {
             mHttpDataSourceFactory = new DefaultHttpDataSourceFactory(
                     mUserAgent,
-                    null,
+                    //网络传输样本喂给共享的带宽估计器
+                    new BandwidthTransferListener(),
                     DefaultHttpDataSource.DEFAULT_CONNECT_TIMEOUT_MILLIS,
                     DefaultHttpDataSource.DEFAULT_READ_TIMEOUT_MILLIS,
                     //http->https重定向支持
@@ -174,7 +194,26 @@ public final class ExoMediaSourceHelper {
         }
     }
 
+    /**
+     * 设置网络请求使用的HttpDataSource.Factory，需在{@link #getDataSourceFactory()}之前调用
+     * 例如基于OkHttp的OkHttpDataSourceFactory，把与videocache共用的CachingDnsResolver设置为OkHttpClient的Dns，
+     * Exo内核和代理即可共享DNS缓存和预解析的结果
+     */
+    public void setHttpDataSourceFactory(HttpDataSource.Factory factory) {
+        this.mHttpDataSourceFactory = factory;
+        this.mIsCustomHttpDataSourceFactory = factory != null;
+    }
+
     public void setCache(Cache cache) {
         this.mCache = cache;
     }
+
+    /**
+     * 设置缓存使用的DataSource.Factory，设置后isCache为true时不再使用SimpleCache
+     * 设置为{@link VideoCacheDataSourceFactory}时，它的代理返回的地址也交给它读取，与videocache的代理、预加载共用同一份缓存：
+     * setCacheDataSourceFactory(new VideoCacheDataSourceFactory(proxy, getDataSourceFactory()))
+     */
+    public void setCacheDataSourceFactory(DataSource.Factory factory) {
+        this.mCacheDataSourceFactory = factory;
+    }
 }
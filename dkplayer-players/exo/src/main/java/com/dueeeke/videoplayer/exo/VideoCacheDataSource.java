@@ -0,0 +1,143 @@
+package com.dueeeke.videoplayer.exo;
+
+import android.net.Uri;
+
+import com.danikula.videocache.CacheReader;
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.danikula.videocache.ProxyCacheException;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.BaseDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在进程内直接通过videocache读取http数据的DataSource，不经过本地代理的回环socket
+ * 与代理、预加载共用同一份缓存和下载；非http地址以及跳转到离已缓存数据太远的位置时交给upstream读取
+ * 传入代理地址（{@link HttpProxyCacheServer#getProxyUrl(String)}的返回值）同样会直接读取缓存
+ */
+public final class VideoCacheDataSource extends BaseDataSource {
+
+    private final HttpProxyCacheServer mCacheServer;
+    private final DataSource mUpstream;
+
+    private CacheReader mReader;
+    private DataSource mCurrentDataSource;
+    private Uri mUri;
+    private long mBytesRemaining;
+    private boolean mOpened;
+
+    public VideoCacheDataSource(HttpProxyCacheServer cacheServer, DataSource upstream) {
+        //缓存读取不计入带宽估计，代理下载的速度已经通过BandwidthListener提交
+        super(false);
+        mCacheServer = cacheServer;
+        mUpstream = upstream;
+    }
+
+    @Override
+    public void addTransferListener(TransferListener transferListener) {
+        super.addTransferListener(transferListener);
+        mUpstream.addTransferListener(transferListener);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+        mUri = dataSpec.uri;
+        String scheme = mUri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            return openUpstream(dataSpec);
+        }
+        try {
+            mReader = mCacheServer.openReader(mUri.toString(), dataSpec.position);
+        } catch (ProxyCacheException e) {
+            throw new IOException("Error opening " + mUri + " through videocache", e);
+        }
+        if (mReader == null) {
+            //跳转位置离已缓存数据太远，直接从源站读取，和代理的处理方式一致
+            return openUpstream(dataSpec.withUri(Uri.parse(mCacheServer.getSourceUrl(mUri.toString()))));
+        }
+        long length = mReader.length();
+        if (dataSpec.length != C.LENGTH_UNSET) {
+            mBytesRemaining = dataSpec.length;
+        } else {
+            mBytesRemaining = length >= 0 ? length - dataSpec.position : C.LENGTH_UNSET;
+        }
+        mOpened = true;
+        transferInitializing(dataSpec);
+        transferStarted(dataSpec);
+        return mBytesRemaining;
+    }
+
+    private long openUpstream(DataSpec dataSpec) throws IOException {
+        mCurrentDataSource = mUpstream;
+        return mUpstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+        if (mCurrentDataSource != null) {
+            return mCurrentDataSource.read(buffer, offset, readLength);
+        }
+        if (readLength == 0) {
+            return 0;
+        }
+        if (mBytesRemaining == 0) {
+            return C.RESULT_END_OF_INPUT;
+        }
+        int length = mBytesRemaining == C.LENGTH_UNSET ? readLength : (int) Math.min(mBytesRemaining, readLength);
+        int read;
+        try {
+            read = mReader.read(buffer, offset, length);
+        } catch (ProxyCacheException e) {
+            throw new IOException("Error reading " + mUri + " through videocache", e);
+        }
+        if (read <= 0) {
+            if (mBytesRemaining != C.LENGTH_UNSET) {
+                throw new EOFException();
+            }
+            return C.RESULT_END_OF_INPUT;
+        }
+        if (mBytesRemaining != C.LENGTH_UNSET) {
+            mBytesRemaining -= read;
+        }
+        bytesTransferred(read);
+        return read;
+    }
+
+    @Override
+    public Uri getUri() {
+        return mCurrentDataSource != null ? mCurrentDataSource.getUri() : mUri;
+    }
+
+    @Override
+    public Map<String, List<String>> getResponseHeaders() {
+        return mCurrentDataSource != null ? mCurrentDataSource.getResponseHeaders() : Collections.<String, List<String>>emptyMap();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mUri = null;
+        if (mCurrentDataSource != null) {
+            try {
+                mCurrentDataSource.close();
+            } finally {
+                mCurrentDataSource = null;
+            }
+            return;
+        }
+        if (mReader != null) {
+            mReader.close();
+            mReader = null;
+        }
+        if (mOpened) {
+            mOpened = false;
+            transferEnded();
+        }
+    }
+}
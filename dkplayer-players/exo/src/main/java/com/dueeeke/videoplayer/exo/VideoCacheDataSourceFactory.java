@@ -0,0 +1,37 @@
+package com.dueeeke.videoplayer.exo;
+
+import android.net.Uri;
+
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.google.android.exoplayer2.upstream.DataSource;
+
+/**
+ * 创建{@link VideoCacheDataSource}，ExoPlayer直接读取videocache的缓存
+ * 需要自行依赖dkplayer-videocache
+ */
+public final class VideoCacheDataSourceFactory implements DataSource.Factory {
+
+    private final HttpProxyCacheServer mCacheServer;
+    private final DataSource.Factory mUpstreamFactory;
+
+    /**
+     * @param cacheServer     videocache代理，全局只应有一个实例
+     * @param upstreamFactory 读取非http地址以及绕过缓存时使用
+     */
+    public VideoCacheDataSourceFactory(HttpProxyCacheServer cacheServer, DataSource.Factory upstreamFactory) {
+        mCacheServer = cacheServer;
+        mUpstreamFactory = upstreamFactory;
+    }
+
+    /**
+     * 是否为该代理返回的代理地址，按代理实际监听的端口判断
+     */
+    public boolean isProxyUri(Uri uri) {
+        return mCacheServer.isProxyUrl(uri.toString());
+    }
+
+    @Override
+    public DataSource createDataSource() {
+        return new VideoCacheDataSource(mCacheServer, mUpstreamFactory.createDataSource());
+    }
+}
@@ -4,13 +4,17 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.media.AudioManager;
+import android.media.MediaDataSource;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import com.dueeeke.videoplayer.player.AbstractPlayer;
+import com.dueeeke.videoplayer.player.BandwidthEstimator;
+import com.dueeeke.videoplayer.player.MediaDataSourceProvider;
 import com.dueeeke.videoplayer.player.VideoViewManager;
 
 import java.util.Map;
@@ -26,6 +30,7 @@ public class IjkPlayer extends AbstractPlayer {
 
     public IjkPlayer(Context context) {
         mAppContext = context;
+        BandwidthEstimator.getInstance().attach(context);
     }
 
     @Override
@@ -61,7 +66,7 @@ public class IjkPlayer extends AbstractPlayer {
             if (ContentResolver.SCHEME_ANDROID_RESOURCE.equals(uri.getScheme())) {
                 RawDataSourceProvider rawDataSourceProvider = RawDataSourceProvider.create(mAppContext, uri);
                 mMediaPlayer.setDataSource(rawDataSourceProvider);
-            } else {
+            } else if (!setMediaDataSource(path)) {
                 //处理UA问题
                 if (headers != null) {
                     String userAgent = headers.get("User-Agent");
@@ -76,6 +81,22 @@ public class IjkPlayer extends AbstractPlayer {
         }
     }
 
+    /**
+     * 使用全局配置的进程内数据源，例如直接读取边下边播的缓存，不经过本地代理
+     */
+    private boolean setMediaDataSource(String path) {
+        MediaDataSourceProvider provider = VideoViewManager.getConfig().mMediaDataSourceProvider;
+        if (provider == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        MediaDataSource dataSource = provider.getMediaDataSource(path);
+        if (dataSource == null) {
+            return false;
+        }
+        mMediaPlayer.setDataSource(new MediaDataSourceAdapter(dataSource));
+        return true;
+    }
+
     @Override
     public void setDataSource(AssetFileDescriptor fd) {
         try {
@@ -204,7 +225,8 @@ public class IjkPlayer extends AbstractPlayer {
 
     @Override
     public long getTcpSpeed() {
-        return mMediaPlayer.getTcpSpeed();
+        long speed = mMediaPlayer.getTcpSpeed();
+        return speed > 0 ? speed : BandwidthEstimator.getInstance().getEstimate();
     }
 
     private IMediaPlayer.OnErrorListener onErrorListener = new IMediaPlayer.OnErrorListener() {
@@ -0,0 +1,36 @@
+package com.dueeeke.videoplayer.ijk;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+import tv.danmaku.ijk.media.player.misc.IMediaDataSource;
+
+/**
+ * 把系统的{@link MediaDataSource}转换为ijk的{@link IMediaDataSource}，同一个数据源可以同时给两个内核使用
+ */
+@TargetApi(23)
+public class MediaDataSourceAdapter implements IMediaDataSource {
+
+    private final MediaDataSource mDataSource;
+
+    public MediaDataSourceAdapter(MediaDataSource dataSource) {
+        mDataSource = dataSource;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        return mDataSource.readAt(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return mDataSource.getSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDataSource.close();
+    }
+}
@@ -7,6 +7,7 @@ import android.view.SurfaceHolder;
 
 import com.aplayer.APlayerAndroid;
 import com.dueeeke.videoplayer.player.AbstractPlayer;
+import com.dueeeke.videoplayer.player.BandwidthEstimator;
 import com.dueeeke.videoplayer.util.L;
 
 import java.util.Map;
@@ -202,6 +203,12 @@ public class ThunderMediaPlayer extends AbstractPlayer {
 
     @Override
     public long getTcpSpeed() {
-        return Long.parseLong(mAPlayer.getConfig(APlayerAndroid.CONFIGID.DOWN_SPEED));
+        long speed = 0;
+        try {
+            speed = Long.parseLong(mAPlayer.getConfig(APlayerAndroid.CONFIGID.DOWN_SPEED));
+        } catch (NumberFormatException e) {
+            //ignore
+        }
+        return speed > 0 ? speed : BandwidthEstimator.getInstance().getEstimate();
     }
 }
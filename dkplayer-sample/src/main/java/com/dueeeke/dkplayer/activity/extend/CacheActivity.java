@@ -1,15 +1,74 @@
 package com.dueeeke.dkplayer.activity.extend;
 
+import com.danikula.videocache.CacheProgressListener;
+import com.danikula.videocache.CachedRange;
 import com.danikula.videocache.HttpProxyCacheServer;
 import com.dueeeke.dkplayer.R;
 import com.dueeeke.dkplayer.activity.BaseActivity;
 import com.dueeeke.dkplayer.util.DataUtil;
 import com.dueeeke.dkplayer.util.cache.ProxyVideoCacheManager;
 import com.dueeeke.videocontroller.StandardVideoController;
+import com.dueeeke.videocontroller.component.CompleteView;
+import com.dueeeke.videocontroller.component.ErrorView;
+import com.dueeeke.videocontroller.component.GestureView;
+import com.dueeeke.videocontroller.component.PrepareView;
+import com.dueeeke.videocontroller.component.TitleView;
+import com.dueeeke.videocontroller.component.VodControlView;
 import com.dueeeke.videoplayer.player.VideoView;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class CacheActivity extends BaseActivity<VideoView> {
 
+    private HttpProxyCacheServer mCacheServer;
+    private VodControlView mVodControlView;
+    //复用数组，避免每次更新缓存区间都分配对象
+    private long[] mCachedRanges = new long[2];
+
+    //缓存区间要查询数据库和文件，在后台线程查询后再回到主线程显示
+    private final ExecutorService mRangesExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean mRangesQueryScheduled = new AtomicBoolean();
+
+    private final CacheProgressListener mCacheProgressListener = new CacheProgressListener() {
+        @Override
+        public void onCacheProgress(File cacheFile, final String url, long bytesAvailable, long totalBytes, int percentsAvailable) {
+            //上一次查询还没开始时不重复提交，查询开始后到来的进度会再查询一次
+            if (!mRangesQueryScheduled.compareAndSet(false, true)) return;
+            mRangesExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mRangesQueryScheduled.set(false);
+                    final List<CachedRange> ranges = mCacheServer.getCachedTimeRanges(url);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            showCachedRanges(ranges);
+                        }
+                    });
+                }
+            });
+        }
+    };
+
+    /**
+     * 在进度条上显示已缓存到磁盘的区间
+     */
+    private void showCachedRanges(List<CachedRange> ranges) {
+        if (isFinishing()) return;
+        if (mCachedRanges.length < ranges.size() * 2) {
+            mCachedRanges = new long[ranges.size() * 2];
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            mCachedRanges[i * 2] = ranges.get(i).start;
+            mCachedRanges[i * 2 + 1] = ranges.get(i).end;
+        }
+        mVodControlView.setCachedRanges(mCachedRanges, ranges.size());
+    }
+
     @Override
     protected int getLayoutResId() {
         return R.layout.activity_layout_common;
@@ -24,12 +83,30 @@ public class CacheActivity extends BaseActivity<VideoView> {
     protected void initView() {
         super.initView();
         mVideoView = findViewById(R.id.video_view);
-        HttpProxyCacheServer cacheServer = ProxyVideoCacheManager.getProxy(this);
+        final HttpProxyCacheServer cacheServer = ProxyVideoCacheManager.getProxy(this);
+        mCacheServer = cacheServer;
         String proxyUrl = cacheServer.getProxyUrl(DataUtil.SAMPLE_URL);
         mVideoView.setUrl(proxyUrl);
+        mVideoView.addOnStateChangeListener(new VideoView.SimpleOnStateChangeListener() {
+            @Override
+            public void onPlayStateChanged(int playState) {
+                if (playState == VideoView.STATE_PREPARED) {
+                    //告诉缓存服务器视频时长，以便按秒计算预缓存窗口
+                    cacheServer.setSourceDuration(DataUtil.SAMPLE_URL, mVideoView.getDuration());
+                }
+            }
+        });
         StandardVideoController controller = new StandardVideoController(this);
-        controller.addDefaultControlComponent(getString(R.string.str_cache), false);
+        PrepareView prepareView = new PrepareView(this);
+        prepareView.setClickStart();
+        TitleView titleView = new TitleView(this);
+        titleView.setTitle(getString(R.string.str_cache));
+        controller.addControlComponent(new CompleteView(this), new ErrorView(this), prepareView, titleView);
+        mVodControlView = new VodControlView(this);
+        controller.addControlComponent(mVodControlView);
+        controller.addControlComponent(new GestureView(this));
         mVideoView.setVideoController(controller);
+        cacheServer.registerCacheProgressListener(mCacheProgressListener, DataUtil.SAMPLE_URL);
         mVideoView.start();
 
         //删除url对应默认缓存文件
@@ -37,4 +114,11 @@ public class CacheActivity extends BaseActivity<VideoView> {
         //清除缓存文件中的所有缓存
 //        ProxyVideoCacheManager.clearAllCache(this);
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mCacheServer.unregisterCacheProgressListener(mCacheProgressListener, DataUtil.SAMPLE_URL);
+        mRangesExecutor.shutdownNow();
+    }
 }
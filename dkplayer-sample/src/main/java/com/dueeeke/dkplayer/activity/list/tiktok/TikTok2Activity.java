@@ -154,6 +154,16 @@ public class TikTok2Activity extends BaseActivity<VideoView> {
                 viewHolder.mPlayerContainer.addView(mVideoView, 0);
                 mVideoView.start();
                 mCurPos = position;
+                //下一个视频已在预加载，再往后一个只预连接，不和当前视频抢带宽
+                if (position + 2 < mVideoList.size()) {
+                    mPreloadManager.preconnect(mVideoList.get(position + 2).videoDownloadUrl);
+                }
+                //充电且连着WiFi时，在后台把后面几个视频的开头缓存下来，下次打开时也能秒开
+                List<String> upcoming = new ArrayList<>();
+                for (int i = position + 1; i < mVideoList.size() && i <= position + PreloadManager.PREFETCH_COUNT; i++) {
+                    upcoming.add(mVideoList.get(i).videoDownloadUrl);
+                }
+                mPreloadManager.schedulePrefetch(upcoming);
                 break;
             }
         }
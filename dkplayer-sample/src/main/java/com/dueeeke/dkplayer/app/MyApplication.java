@@ -1,9 +1,19 @@
 package com.dueeeke.dkplayer.app;
 
 import android.app.Application;
+import android.media.MediaDataSource;
+import android.os.Build;
 
+import androidx.annotation.RequiresApi;
+
+import com.danikula.videocache.CacheMediaDataSource;
+import com.danikula.videocache.HttpProxyCacheServer;
+import com.dueeeke.dkplayer.util.cache.ProxyVideoCacheManager;
 import com.dueeeke.videoplayer.BuildConfig;
+import com.dueeeke.videoplayer.exo.ExoMediaSourceHelper;
+import com.dueeeke.videoplayer.exo.VideoCacheDataSourceFactory;
 import com.dueeeke.videoplayer.ijk.IjkPlayerFactory;
+import com.dueeeke.videoplayer.player.MediaDataSourceProvider;
 import com.dueeeke.videoplayer.player.VideoViewConfig;
 import com.dueeeke.videoplayer.player.VideoViewManager;
 
@@ -33,8 +43,23 @@ public class MyApplication extends Application {
 //                .setAdaptCutout(false)
 //                .setPlayOnMobileNetwork(true)
 //                .setProgressManager(new ProgressManagerImpl())
+                //系统播放器和ijk在进程内直接读取边下边播的缓存，只接管代理地址
+                .setMediaDataSourceProvider(new MediaDataSourceProvider() {
+                    @RequiresApi(api = Build.VERSION_CODES.M)
+                    @Override
+                    public MediaDataSource getMediaDataSource(String path) {
+                        HttpProxyCacheServer proxy = ProxyVideoCacheManager.getProxy(MyApplication.this);
+                        return proxy.isProxyUrl(path) ? new CacheMediaDataSource(proxy, path) : null;
+                    }
+                })
                 .build());
 
+        //提前在后台启动边下边播代理，首次播放时即可使用缓存
+        HttpProxyCacheServer proxy = ProxyVideoCacheManager.getProxy(this);
+        //Exo内核直接在进程内读取代理的缓存，不经过本地回环socket，也不再单独使用SimpleCache
+        ExoMediaSourceHelper helper = ExoMediaSourceHelper.getInstance(this);
+        helper.setCacheDataSourceFactory(new VideoCacheDataSourceFactory(proxy, helper.getDataSourceFactory()));
+
 //        if (BuildConfig.DEBUG) {
 //            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder().detectAll().penaltyLog().build());
 //            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder().detectAll().penaltyLog().build());
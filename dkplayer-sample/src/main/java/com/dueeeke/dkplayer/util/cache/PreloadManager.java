@@ -3,11 +3,16 @@ package com.dueeeke.dkplayer.util.cache;
 import android.content.Context;
 
 import com.danikula.videocache.HttpProxyCacheServer;
+import com.danikula.videocache.PrefetchConstraints;
+import com.danikula.videocache.PrefetchRequest;
+import com.danikula.videocache.PrefetchScheduler;
 import com.dueeeke.videoplayer.util.L;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -41,8 +46,20 @@ public class PreloadManager {
      */
     public static final int PRELOAD_LENGTH = 512 * 1024;
 
+    /**
+     * 后台预取的视频个数和每个视频预取的时长（秒）
+     */
+    public static final int PREFETCH_COUNT = 5;
+    public static final int PREFETCH_SECONDS = 10;
+
+    /**
+     * 后台预取，只在WiFi等不计流量的网络下且充电时进行，条件不满足时自动暂停
+     */
+    private PrefetchScheduler mPrefetchScheduler;
+
     private PreloadManager(Context context) {
         mHttpProxyCacheServer = ProxyVideoCacheManager.getProxy(context);
+        mPrefetchScheduler = new PrefetchScheduler(mHttpProxyCacheServer, PrefetchConstraints.DEFAULT);
     }
 
     public static PreloadManager getInstance(Context context) {
@@ -62,6 +79,8 @@ public class PreloadManager {
      * @param rawUrl 原始视频地址
      */
     public void addPreloadTask(String rawUrl, int position) {
+        //预加载任务排队执行，先在后台解析域名，轮到它或者直接播放时不用再等待DNS
+        ProxyVideoCacheManager.getDnsResolver().prefetch(rawUrl);
         if (isPreloaded(rawUrl)) return;
         PreloadTask task = new PreloadTask();
         task.mRawUrl = rawUrl;
@@ -80,6 +99,10 @@ public class PreloadManager {
      * 判断该播放地址是否已经预加载
      */
     private boolean isPreloaded(String rawUrl) {
+        //代理服务还在后台启动时，获取缓存文件会阻塞主线程，此时视频也不会走缓存
+        if (!mHttpProxyCacheServer.isReady()) {
+            return false;
+        }
         //先判断是否有缓存文件，如果已经存在缓存文件，并且其大小大于1KB，则表示已经预加载完成了
         File cacheFile = mHttpProxyCacheServer.getCacheFile(rawUrl);
         if (cacheFile.exists()) {
@@ -152,6 +175,30 @@ public class PreloadManager {
         }
     }
 
+    /**
+     * 预连接，只提前完成DNS解析和TCP、TLS握手，不下载视频数据
+     * 比预加载的开销小得多，适合更远的位置，例如预加载N+1的同时预连接N+2
+     *
+     * @param rawUrl 原始地址
+     */
+    public void preconnect(String rawUrl) {
+        mHttpProxyCacheServer.preconnect(rawUrl);
+    }
+
+    /**
+     * 后台预取接下来可能播放的视频，替换之前的预取队列
+     * 队列会保存在缓存目录中，应用重启后继续预取
+     *
+     * @param rawUrls 原始地址，按播放的可能性从高到低排列
+     */
+    public void schedulePrefetch(List<String> rawUrls) {
+        List<PrefetchRequest> requests = new ArrayList<>();
+        for (String rawUrl : rawUrls) {
+            requests.add(PrefetchRequest.seconds(rawUrl, PREFETCH_SECONDS));
+        }
+        mPrefetchScheduler.schedule(requests);
+    }
+
     /**
      * 通过原始地址取消预加载
      *
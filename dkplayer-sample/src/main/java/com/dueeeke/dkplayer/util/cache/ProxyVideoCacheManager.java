@@ -2,8 +2,16 @@ package com.dueeeke.dkplayer.util.cache;
 
 import android.content.Context;
 
+import com.danikula.videocache.BandwidthListener;
+import com.danikula.videocache.FillWindow;
 import com.danikula.videocache.HttpProxyCacheServer;
+import com.danikula.videocache.ProxyStartupListener;
 import com.danikula.videocache.StorageUtils;
+import com.danikula.videocache.file.SegmentPolicy;
+import com.danikula.videocache.file.WindowPolicy;
+import com.danikula.videocache.transport.CachingDnsResolver;
+import com.dueeeke.videoplayer.player.BandwidthEstimator;
+import com.dueeeke.videoplayer.util.L;
 
 import java.io.File;
 
@@ -11,6 +19,11 @@ public class ProxyVideoCacheManager {
 
     private static HttpProxyCacheServer sharedProxy;
 
+    /**
+     * 代理和预加载共用的DNS缓存，使用OkHttp的内核也可以把它设置为OkHttpClient的Dns
+     */
+    private static final CachingDnsResolver sDnsResolver = new CachingDnsResolver();
+
     private ProxyVideoCacheManager() {
     }
 
@@ -18,12 +31,47 @@ public class ProxyVideoCacheManager {
         return sharedProxy == null ? (sharedProxy = newProxy(context)) : sharedProxy;
     }
 
+    public static CachingDnsResolver getDnsResolver() {
+        return sDnsResolver;
+    }
+
     private static HttpProxyCacheServer newProxy(Context context) {
+        BandwidthEstimator.getInstance().attach(context);
         return new HttpProxyCacheServer.Builder(context)
                 .maxCacheSize(512 * 1024 * 1024)       // 512MB for cache
+                //最多缓存播放位置之后60秒的数据，计费网络下最多20秒
+                .fillWindow(FillWindow.seconds(60, 20))
+                //缓存过期后在后台向服务器校验，未变化则继续使用缓存，服务器未声明有效期时默认1天
+                .cacheTtl(24 * 60 * 60 * 1000)
+                //预加载的小片段打包存放到大的分段文件中，避免产生大量小文件；片段变大或被多次播放后转为独立文件
+                .packedSegments(SegmentPolicy.DEFAULT)
+                //超大视频（如完整电影）只缓存开头、索引和播放位置附近的数据，不占满整个缓存空间
+                .windowedCache(WindowPolicy.DEFAULT)
+                //不同地址（不同CDN、转发链接）缓存的相同视频只保留一份
+                .deduplicate(true)
+                //获取代理地址时在后台提前解析源站域名
+                .dnsResolver(sDnsResolver)
                 //缓存路径，不设置默认在sd_card/Android/data/[app_package_name]/cache中
 //                .cacheDirectory()
-                .build();
+                //代理下载的速度样本喂给播放器共享的带宽估计器，各内核的getTcpSpeed和Exo的初始码率都会用到
+                .bandwidthListener(new BandwidthListener() {
+                    @Override
+                    public void onTransfer(String url, long bytes, long elapsedMillis) {
+                        BandwidthEstimator.getInstance().onTransfer(bytes, elapsedMillis);
+                    }
+                })
+                //在后台线程启动代理服务，不阻塞主线程；启动完成前getProxyUrl直接返回原始地址
+                .buildAsync(new ProxyStartupListener() {
+                    @Override
+                    public void onStarted(long startupTimeMillis) {
+                        L.d("proxy started in " + startupTimeMillis + "ms");
+                    }
+
+                    @Override
+                    public void onStartupFailed(Throwable error) {
+                        L.e("proxy startup failed: " + error);
+                    }
+                });
     }
 
 
@@ -0,0 +1,137 @@
+package com.dueeeke.videocontroller;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
+import android.util.AttributeSet;
+import android.view.View;
+import android.widget.SeekBar;
+
+/**
+ * 可以显示多段已缓存区间的SeekBar，例如边下边播代理已经缓存到磁盘的部分，拖动到这些区间可以立即播放
+ * 区间作为一层插入到进度条Drawable中，位于轨道背景之上、播放进度和滑块之下，更新区间时不会重复分配对象
+ */
+public class CachedRangesSeekBar extends SeekBar {
+
+    private final RangesDrawable mRangesDrawable = new RangesDrawable();
+    //每个区间占两个元素：起点和终点
+    private long[] mRanges = new long[8];
+    private int mRangeCount;
+    private long mRangesMax;
+
+    public CachedRangesSeekBar(Context context) {
+        this(context, null);
+    }
+
+    public CachedRangesSeekBar(Context context, AttributeSet attrs) {
+        this(context, attrs, android.R.attr.seekBarStyle);
+    }
+
+    public CachedRangesSeekBar(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        mRangesDrawable.mPaint.setColor(getResources().getColor(R.color.dkplayer_cached_range_color));
+        insertRangesLayer();
+    }
+
+    /**
+     * 把区间层插入到播放进度层之下，进度条Drawable不是带进度层的LayerDrawable时不显示区间
+     */
+    private void insertRangesLayer() {
+        if (!(getProgressDrawable() instanceof LayerDrawable)) return;
+        LayerDrawable layers = (LayerDrawable) getProgressDrawable();
+        int count = layers.getNumberOfLayers();
+        Drawable[] drawables = new Drawable[count + 1];
+        int[] ids = new int[count + 1];
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            if (layers.getId(i) == android.R.id.progress) {
+                drawables[index] = mRangesDrawable;
+                ids[index++] = View.NO_ID;
+            }
+            drawables[index] = layers.getDrawable(i);
+            ids[index++] = layers.getId(i);
+        }
+        if (index == count) return;
+        LayerDrawable wrapped = new LayerDrawable(drawables);
+        for (int i = 0; i < ids.length; i++) {
+            wrapped.setId(i, ids[i]);
+        }
+        setProgressDrawable(wrapped);
+    }
+
+    /**
+     * 设置已缓存区间
+     *
+     * @param ranges     区间数组，依次为每个区间的起点和终点，内容会被复制
+     * @param rangeCount 区间个数
+     * @param max        区间的取值上限，例如视频时长
+     */
+    public void setCachedRanges(long[] ranges, int rangeCount, long max) {
+        if (max == mRangesMax && rangeCount == mRangeCount && equalRanges(ranges, rangeCount)) {
+            return;
+        }
+        if (mRanges.length < rangeCount * 2) {
+            mRanges = new long[rangeCount * 2];
+        }
+        System.arraycopy(ranges, 0, mRanges, 0, rangeCount * 2);
+        mRangeCount = rangeCount;
+        mRangesMax = max;
+        mRangesDrawable.invalidateSelf();
+    }
+
+    public void clearCachedRanges() {
+        if (mRangeCount == 0) return;
+        mRangeCount = 0;
+        mRangesDrawable.invalidateSelf();
+    }
+
+    private boolean equalRanges(long[] ranges, int rangeCount) {
+        for (int i = 0; i < rangeCount * 2; i++) {
+            if (ranges[i] != mRanges[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 在轨道范围内绘制已缓存区间
+     */
+    private class RangesDrawable extends Drawable {
+
+        private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+        @Override
+        public void draw(Canvas canvas) {
+            if (mRangeCount == 0 || mRangesMax <= 0) return;
+            Rect bounds = getBounds();
+            for (int i = 0; i < mRangeCount; i++) {
+                long start = Math.max(0, mRanges[i * 2]);
+                long end = Math.min(mRangesMax, mRanges[i * 2 + 1]);
+                if (end <= start) continue;
+                canvas.drawRect(bounds.left + bounds.width() * ((float) start / mRangesMax), bounds.top,
+                        bounds.left + bounds.width() * ((float) end / mRangesMax), bounds.bottom, mPaint);
+            }
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mPaint.setAlpha(alpha);
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            mPaint.setColorFilter(colorFilter);
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.dueeeke.videocontroller.CachedRangesSeekBar;
 import com.dueeeke.videocontroller.R;
 import com.dueeeke.videoplayer.controller.ControlWrapper;
 import com.dueeeke.videoplayer.controller.IControlComponent;
@@ -90,6 +91,18 @@ public class VodControlView extends FrameLayout implements IControlComponent, Vi
         mIsShowBottomProgress = isShow;
     }
 
+    /**
+     * 在进度条上显示已缓存的时间区间，拖动到这些区间可以立即播放
+     *
+     * @param ranges     区间数组，依次为每个区间的起点和终点，单位毫秒
+     * @param rangeCount 区间个数
+     */
+    public void setCachedRanges(long[] ranges, int rangeCount) {
+        if (mVideoProgress instanceof CachedRangesSeekBar && mControlWrapper != null) {
+            ((CachedRangesSeekBar) mVideoProgress).setCachedRanges(ranges, rangeCount, mControlWrapper.getDuration());
+        }
+    }
+
     @Override
     public void attach(@NonNull ControlWrapper controlWrapper) {
         mControlWrapper = controlWrapper;
@@ -134,6 +147,9 @@ public class VodControlView extends FrameLayout implements IControlComponent, Vi
                 mBottomProgress.setSecondaryProgress(0);
                 mVideoProgress.setProgress(0);
                 mVideoProgress.setSecondaryProgress(0);
+                if (mVideoProgress instanceof CachedRangesSeekBar) {
+                    ((CachedRangesSeekBar) mVideoProgress).clearCachedRanges();
+                }
                 break;
             case VideoView.STATE_START_ABORT:
             case VideoView.STATE_PREPARING:
@@ -0,0 +1,51 @@
+package com.danikula.videocache;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import java.io.File;
+
+/**
+ * {@link DeviceState} provided by platform services.
+ */
+final class AndroidDeviceState implements DeviceState {
+
+    private final Context context;
+
+    AndroidDeviceState(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public boolean isUnmetered() {
+        // active network is considered metered if there is no network at all
+        return !NetworkUtils.isActiveNetworkMetered(context);
+    }
+
+    @Override
+    public boolean isCharging() {
+        // battery state is sticky broadcast, so it is read without registering receiver
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean isIdle() {
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return false;
+        }
+        boolean interactive = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH ? powerManager.isInteractive() : powerManager.isScreenOn();
+        return !interactive;
+    }
+
+    @Override
+    public long getFreeSpace(File directory) {
+        return directory.getUsableSpace();
+    }
+}
@@ -0,0 +1,25 @@
+package com.danikula.videocache;
+
+/**
+ * Listener for samples of throughput of connections to sources.
+ * <p>
+ * Sample is reported every {@link #SAMPLE_BYTES} read from source and when connection is closed. Elapsed time
+ * counts only time spent in reading the source, so pauses of download (e.g. while fill window is full) don't
+ * lower estimation. Listener is called from thread reading source, not main thread, so it must be fast.
+ */
+public interface BandwidthListener {
+
+    /**
+     * Count of bytes read from source after which sample is reported even if connection is not closed yet.
+     */
+    long SAMPLE_BYTES = 512 * 1024;
+
+    /**
+     * Called when a portion of source is downloaded.
+     *
+     * @param url           an url of source.
+     * @param bytes         count of bytes downloaded, positive.
+     * @param elapsedMillis time spent in downloading these bytes, positive.
+     */
+    void onTransfer(String url, long bytes, long elapsedMillis);
+}
@@ -4,6 +4,9 @@ import java.io.File;
 
 /**
  * Listener for cache availability.
+ * <p>
+ * Listener is called only when percents are changed, at most once per progress interval.
+ * Use {@link CacheProgressListener} to get progress in bytes.
  *
  * @author Egor Makovsky (yahor.makouski@gmail.com)
  * @author Alexey Danilov (danikula@gmail.com).
@@ -0,0 +1,74 @@
+package com.danikula.videocache;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+import static com.danikula.videocache.Preconditions.checkAllNotNull;
+
+/**
+ * {@link MediaDataSource} reading source through cache of {@link HttpProxyCacheServer} in the same process,
+ * so positional reads of demuxer become reads of cache file without loopback socket, http parsing and
+ * thread per request. Reads of data not downloaded yet wait for it, while source is downloaded in background.
+ * <p>
+ * Reader is opened on first read, so data source may be created on main thread.
+ */
+@TargetApi(23)
+public final class CacheMediaDataSource extends MediaDataSource {
+
+    private final HttpProxyCacheServer server;
+    private final String url;
+    private CacheReader reader;
+    private boolean closed;
+
+    /**
+     * Creates data source.
+     *
+     * @param server a proxy server.
+     * @param url    an url of source, or proxy url returned by {@link HttpProxyCacheServer#getProxyUrl(String)}.
+     */
+    public CacheMediaDataSource(HttpProxyCacheServer server, String url) {
+        checkAllNotNull(server, url);
+        this.server = server;
+        this.url = url;
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        try {
+            return getReader().readAt(position, buffer, offset, size);
+        } catch (ProxyCacheException e) {
+            throw new IOException("Error reading " + url + " at " + position, e);
+        }
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        try {
+            return getReader().length();
+        } catch (ProxyCacheException e) {
+            throw new IOException("Error opening " + url, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private synchronized CacheReader getReader() throws ProxyCacheException {
+        if (closed) {
+            throw new ProxyCacheException("Data source " + url + " is closed");
+        }
+        if (reader == null) {
+            // offset 0 is always read through cache
+            reader = server.openReader(url, 0);
+        }
+        return reader;
+    }
+}
@@ -0,0 +1,185 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.DiskUsage;
+import com.danikula.videocache.file.FileCache;
+import com.danikula.videocache.file.LruDiskUsage;
+import com.danikula.videocache.file.TotalCountLruDiskUsage;
+import com.danikula.videocache.file.TotalSizeLruDiskUsage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Logical part of cache with its own quota, e.g. separate namespaces for feed clips, episodes and offline downloads
+ * don't evict each other.
+ * <p>
+ * Namespace may be spread over several roots, e.g. on internal and external storage. New file is placed on root
+ * with most free space. If {@link #minFreeSpace} is set, least recently used files of namespace are deleted
+ * while volume of their root has less free space.
+ */
+public final class CacheNamespace {
+
+    /**
+     * Name of namespace configured with {@link HttpProxyCacheServer.Builder} itself.
+     */
+    public static final String DEFAULT = "default";
+
+    private static final long DEFAULT_MAX_SIZE = 512 * 1024 * 1024;
+
+    public final String name;
+    public final List<File> roots;
+    public final DiskUsage diskUsage;
+    public final long minFreeSpace;
+
+    private CacheNamespace(String name, List<File> roots, DiskUsage diskUsage, long minFreeSpace) {
+        this.name = name;
+        this.roots = Collections.unmodifiableList(new ArrayList<>(roots));
+        this.diskUsage = diskUsage;
+        this.minFreeSpace = minFreeSpace;
+        if (diskUsage instanceof LruDiskUsage) {
+            ((LruDiskUsage) diskUsage).setDirectories(this.roots, minFreeSpace);
+        }
+    }
+
+    static CacheNamespace newDefault(File root, DiskUsage diskUsage) {
+        return new CacheNamespace(DEFAULT, Collections.singletonList(root), diskUsage, 0);
+    }
+
+    /**
+     * Returns existing (completed or not) file with name on any root of namespace.
+     *
+     * @return file or {@code null} if there is no such file.
+     */
+    File findExisting(String fileName) {
+        for (File root : roots) {
+            File file = new File(root, fileName);
+            if (file.exists() || new File(root, fileName + FileCache.TEMP_POSTFIX).exists()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns file with name on root with most free space.
+     */
+    File place(String fileName) {
+        File best = roots.get(0);
+        if (roots.size() > 1) {
+            long bestSpace = usableSpace(best);
+            for (File root : roots) {
+                long space = usableSpace(root);
+                if (space > bestSpace) {
+                    best = root;
+                    bestSpace = space;
+                }
+            }
+        }
+        return new File(best, fileName);
+    }
+
+    boolean contains(File file) {
+        return roots.contains(file.getParentFile());
+    }
+
+    private long usableSpace(File root) {
+        // root may be not created yet, space of its volume is measured with the nearest existing parent
+        File existing = root;
+        while (existing != null && !existing.exists()) {
+            existing = existing.getParentFile();
+        }
+        return existing == null ? 0 : existing.getUsableSpace();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheNamespace{" +
+                "name='" + name + '\'' +
+                ", roots=" + roots +
+                ", minFreeSpace=" + minFreeSpace +
+                '}';
+    }
+
+    /**
+     * Builder for {@link CacheNamespace}.
+     */
+    public static final class Builder {
+
+        private final String name;
+        private final List<File> roots = new ArrayList<>();
+        private DiskUsage diskUsage = new TotalSizeLruDiskUsage(DEFAULT_MAX_SIZE);
+        private long minFreeSpace;
+
+        public Builder(String name) {
+            this.name = checkNotNull(name, "Name can't be null!");
+            checkArgument(!DEFAULT.equals(name), "Name '" + DEFAULT + "' is reserved for default namespace!");
+        }
+
+        /**
+         * Adds directory to place files of namespace to.
+         * <b>Note</b> directory must be used <b>only</b> for files of this namespace.
+         *
+         * @param root a cache directory, can't be null.
+         * @return a builder.
+         */
+        public Builder root(File root) {
+            roots.add(checkNotNull(root));
+            return this;
+        }
+
+        /**
+         * Sets max size of namespace in bytes. Default value is 512 Mb.
+         *
+         * @param maxSize max size in bytes.
+         * @return a builder.
+         */
+        public Builder maxCacheSize(long maxSize) {
+            this.diskUsage = new TotalSizeLruDiskUsage(maxSize);
+            return this;
+        }
+
+        /**
+         * Sets max count of files in namespace.
+         *
+         * @param count max files count.
+         * @return a builder.
+         */
+        public Builder maxCacheFilesCount(int count) {
+            this.diskUsage = new TotalCountLruDiskUsage(count);
+            return this;
+        }
+
+        /**
+         * Sets custom disk usage of namespace. Instance must not be shared with other namespaces.
+         *
+         * @param diskUsage a disk usage strategy, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder diskUsage(DiskUsage diskUsage) {
+            this.diskUsage = checkNotNull(diskUsage);
+            return this;
+        }
+
+        /**
+         * Sets free space to be kept on volumes of roots. Works only with disk usage extending {@link LruDiskUsage}.
+         *
+         * @param bytes min free space in bytes, {@code 0} to ignore free space.
+         * @return a builder.
+         */
+        public Builder minFreeSpace(long bytes) {
+            checkArgument(bytes >= 0, "Min free space can't be negative!");
+            this.minFreeSpace = bytes;
+            return this;
+        }
+
+        public CacheNamespace build() {
+            checkArgument(!roots.isEmpty(), "Namespace must have at least one root!");
+            return new CacheNamespace(name, roots, diskUsage, minFreeSpace);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.DiskUsage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+
+/**
+ * Routes urls to {@link CacheNamespace}s.
+ * <p>
+ * Namespace of url is the one bound to it explicitly (see {@link HttpProxyCacheServer#getProxyUrl(String, String)}),
+ * or the one returned by {@link NamespaceResolver}, or default one. File already cached in another namespace
+ * (e.g. bound before restart) is found and used where it is.
+ */
+final class CacheNamespaces {
+
+    private static final int MAX_BINDINGS = 4096;
+
+    private final CacheNamespace defaultNamespace;
+    private final Map<String, CacheNamespace> namespaces = new LinkedHashMap<>();
+    private final NamespaceResolver resolver;
+    private final Map<String, String> bindings = new LinkedHashMap<String, String>(16, .75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_BINDINGS;
+        }
+    };
+
+    CacheNamespaces(CacheNamespace defaultNamespace, Collection<CacheNamespace> namespaces, NamespaceResolver resolver) {
+        this.defaultNamespace = defaultNamespace;
+        this.resolver = resolver;
+        Set<File> roots = new HashSet<>();
+        for (CacheNamespace namespace : concat(defaultNamespace, namespaces)) {
+            checkArgument(!this.namespaces.containsKey(namespace.name), "Namespace " + namespace.name + " is added twice!");
+            for (File root : namespace.roots) {
+                checkArgument(roots.add(root), "Root " + root + " is shared by several namespaces!");
+            }
+            this.namespaces.put(namespace.name, namespace);
+        }
+    }
+
+    void bind(String cacheKey, String namespace) {
+        checkArgument(namespaces.containsKey(namespace), "Unknown namespace " + namespace);
+        synchronized (bindings) {
+            bindings.put(cacheKey, namespace);
+        }
+    }
+
+    File locate(String url, String cacheKey, String fileName) {
+        CacheNamespace namespace = resolve(url, cacheKey);
+        File file = namespace.findExisting(fileName);
+        if (file != null) {
+            return file;
+        }
+        for (CacheNamespace another : namespaces.values()) {
+            file = another == namespace ? null : another.findExisting(fileName);
+            if (file != null) {
+                return file;
+            }
+        }
+        return namespace.place(fileName);
+    }
+
+    CacheNamespace namespaceOf(File file) {
+        for (CacheNamespace namespace : namespaces.values()) {
+            if (namespace.contains(file)) {
+                return namespace;
+            }
+        }
+        return defaultNamespace;
+    }
+
+    CacheNamespace getDefault() {
+        return defaultNamespace;
+    }
+
+    Collection<CacheNamespace> all() {
+        return namespaces.values();
+    }
+
+    DiskUsage diskUsageOf(File file) {
+        return namespaceOf(file).diskUsage;
+    }
+
+    private CacheNamespace resolve(String url, String cacheKey) {
+        String name;
+        synchronized (bindings) {
+            name = bindings.get(cacheKey);
+        }
+        if (name == null && resolver != null) {
+            name = resolver.getNamespace(url);
+        }
+        CacheNamespace namespace = name == null ? null : namespaces.get(name);
+        if (name != null && namespace == null) {
+            Logger.warn("Unknown namespace " + name + " for " + url + ", default one is used");
+        }
+        return namespace == null ? defaultNamespace : namespace;
+    }
+
+    private static Collection<CacheNamespace> concat(CacheNamespace first, Collection<CacheNamespace> others) {
+        Collection<CacheNamespace> all = new ArrayList<>(others.size() + 1);
+        all.add(first);
+        all.addAll(others);
+        return all;
+    }
+}
@@ -0,0 +1,134 @@
+package com.danikula.videocache;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Coalesces progress of caching single url and delivers it to listeners.
+ * <p>
+ * Reader of source just stores the latest state, at most one delivery is pending at any moment.
+ * Delivery is postponed until {@link #intervalMillis} passes since previous one, except completion
+ * that is delivered as soon as possible. {@link CacheListener}s are called only when percents are changed.
+ */
+final class CacheProgress {
+
+    private final String url;
+    private final List<CacheListener> cacheListeners;
+    private final List<CacheProgressListener> progressListeners;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final long intervalMillis;
+    private final AtomicBoolean deliveryPending = new AtomicBoolean();
+    private final Runnable deliverRunnable = new DeliverRunnable();
+    private final Runnable dispatchRunnable = new DispatchRunnable();
+    private File file;
+    private long bytesAvailable;
+    private long totalBytes = -1;
+    private volatile long lastDeliveryTime;
+    // accessed by delivering executor only
+    private long lastDeliveredBytes = -1;
+    private int lastDeliveredPercents = -1;
+
+    CacheProgress(String url, List<CacheListener> cacheListeners, List<CacheProgressListener> progressListeners,
+                  Executor executor, ScheduledExecutorService scheduler, long intervalMillis) {
+        this.url = checkNotNull(url);
+        this.cacheListeners = checkNotNull(cacheListeners);
+        this.progressListeners = checkNotNull(progressListeners);
+        this.executor = checkNotNull(executor);
+        this.scheduler = checkNotNull(scheduler);
+        this.intervalMillis = intervalMillis;
+    }
+
+    static Executor mainThreadExecutor() {
+        return new MainThreadExecutor();
+    }
+
+    void update(File file, long bytesAvailable, long totalBytes) {
+        synchronized (this) {
+            this.file = file;
+            this.bytesAvailable = bytesAvailable;
+            this.totalBytes = totalBytes;
+        }
+        if (cacheListeners.isEmpty() && progressListeners.isEmpty()) {
+            return;
+        }
+        if (deliveryPending.compareAndSet(false, true)) {
+            boolean completed = totalBytes >= 0 && bytesAvailable >= totalBytes;
+            long delay = completed ? 0 : lastDeliveryTime + intervalMillis - System.currentTimeMillis();
+            try {
+                if (delay <= 0) {
+                    executor.execute(deliverRunnable);
+                } else {
+                    scheduler.schedule(dispatchRunnable, delay, TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                Logger.debug("Progress of " + url + " isn't delivered: proxy is shut down");
+            }
+        }
+    }
+
+    private void deliver() {
+        // updates made from now on schedule next delivery
+        deliveryPending.set(false);
+        lastDeliveryTime = System.currentTimeMillis();
+        File file;
+        long bytesAvailable;
+        long totalBytes;
+        synchronized (this) {
+            file = this.file;
+            bytesAvailable = this.bytesAvailable;
+            totalBytes = this.totalBytes;
+        }
+        if (file == null || bytesAvailable == lastDeliveredBytes) {
+            return;
+        }
+        lastDeliveredBytes = bytesAvailable;
+        boolean lengthKnown = totalBytes >= 0;
+        int percents = !lengthKnown ? -1 : totalBytes == 0 ? 100 : (int) (bytesAvailable * 100 / totalBytes);
+        for (CacheProgressListener progressListener : progressListeners) {
+            progressListener.onCacheProgress(file, url, bytesAvailable, lengthKnown ? totalBytes : -1, percents);
+        }
+        if (lengthKnown && percents != lastDeliveredPercents) {
+            lastDeliveredPercents = percents;
+            for (CacheListener cacheListener : cacheListeners) {
+                cacheListener.onCacheAvailable(file, url, percents);
+            }
+        }
+    }
+
+    private final class DeliverRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            deliver();
+        }
+    }
+
+    private final class DispatchRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            executor.execute(deliverRunnable);
+        }
+    }
+
+    private static final class MainThreadExecutor implements Executor {
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    }
+}
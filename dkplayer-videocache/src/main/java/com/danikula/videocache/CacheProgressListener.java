@@ -0,0 +1,24 @@
+package com.danikula.videocache;
+
+import java.io.File;
+
+/**
+ * Listener for progress of caching in bytes.
+ * <p>
+ * Progress is coalesced and rate-limited: listener gets the latest state at most once per interval
+ * (see {@link HttpProxyCacheServer.Builder#progressInterval(long)}) and is called with executor set with
+ * {@link HttpProxyCacheServer.Builder#progressExecutor(java.util.concurrent.Executor)}, main thread by default.
+ */
+public interface CacheProgressListener {
+
+    /**
+     * Called when more data of source is cached.
+     *
+     * @param cacheFile         a file data is cached to.
+     * @param url               an url of source.
+     * @param bytesAvailable    count of cached bytes.
+     * @param totalBytes        length of source, or {@code -1} if it is unknown.
+     * @param percentsAvailable percents of source cached, or {@code -1} if length of source is unknown.
+     */
+    void onCacheProgress(File cacheFile, String url, long bytesAvailable, long totalBytes, int percentsAvailable);
+}
@@ -0,0 +1,156 @@
+package com.danikula.videocache;
+
+import java.io.Closeable;
+
+/**
+ * Reader of source through cache of {@link HttpProxyCacheServer} in the same process, without loopback socket.
+ * <p>
+ * Reader shares cache and download of source with proxy clients and preloads. Data is read sequentially
+ * from offset reader is opened with ({@link #read(byte[], int, int)}) or at any position ({@link #readAt(long, byte[], int, int)}).
+ * Reading waits for data not downloaded yet, position too far from cached data is read from origin directly,
+ * the same way proxy serves seeks. Reader must be closed, otherwise download of source isn't stopped.
+ */
+public final class CacheReader implements Closeable {
+
+    private final HttpProxyCache proxyCache;
+    private final HttpProxyCacheServerClients clients;
+    private final long length;
+    private final String mime;
+    private long offset;
+    private byte[] buffer;
+    private HttpUrlSource directSource;
+    private long directOffset;
+    private boolean closed;
+
+    CacheReader(HttpProxyCacheServerClients clients, HttpProxyCache proxyCache, long offset) throws ProxyCacheException {
+        this.clients = clients;
+        this.proxyCache = proxyCache;
+        this.offset = offset;
+        this.length = proxyCache.getContentLength();
+        this.mime = proxyCache.getMime();
+    }
+
+    /**
+     * Returns total length of source.
+     *
+     * @return length in bytes, or negative value if it is unknown.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns mime type of source.
+     *
+     * @return mime or {@code null} if it is unknown.
+     */
+    public String getMime() {
+        return mime;
+    }
+
+    /**
+     * Reads next portion of source, waiting for data to be downloaded if it isn't cached yet.
+     *
+     * @param target       a buffer to read data to.
+     * @param targetOffset an offset in buffer.
+     * @param count        max count of bytes to read.
+     * @return count of read bytes, or {@code -1} if the end of source is reached.
+     * @throws ProxyCacheException if error occur while reading source or cache.
+     */
+    public synchronized int read(byte[] target, int targetOffset, int count) throws ProxyCacheException {
+        int readBytes = readAt(offset, target, targetOffset, count);
+        if (readBytes > 0) {
+            offset += readBytes;
+        }
+        return readBytes;
+    }
+
+    /**
+     * Reads data at position, waiting for data to be downloaded if it isn't cached yet.
+     *
+     * @param position     a position in source.
+     * @param target       a buffer to read data to.
+     * @param targetOffset an offset in buffer.
+     * @param count        max count of bytes to read.
+     * @return count of read bytes, or {@code -1} if position is at the end of source.
+     * @throws ProxyCacheException if error occur while reading source or cache.
+     */
+    public synchronized int readAt(long position, byte[] target, int targetOffset, int count) throws ProxyCacheException {
+        if (closed) {
+            throw new ProxyCacheException("Reader is closed");
+        }
+        if (length >= 0 && position >= length) {
+            return -1;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        if (!proxyCache.isUseCache(true, position)) {
+            return readDirect(position, target, targetOffset, count);
+        }
+        if (targetOffset == 0) {
+            return proxyCache.read(target, position, count);
+        }
+        // cache reads data to the beginning of buffer
+        byte[] buffer = getBuffer(count);
+        int readBytes = proxyCache.read(buffer, position, count);
+        if (readBytes > 0) {
+            System.arraycopy(buffer, 0, target, targetOffset, readBytes);
+        }
+        return readBytes;
+    }
+
+    private int readDirect(long position, byte[] target, int targetOffset, int count) throws ProxyCacheException {
+        if (directSource == null || directOffset != position) {
+            closeDirectSource();
+            Logger.debug("Read source from origin at " + position + ", it is too far from cached data");
+            directSource = proxyCache.newSourceNoCache();
+            directSource.open(position);
+            directOffset = position;
+        }
+        // source fills whole buffer it is passed, so buffer must have exactly requested size
+        byte[] buffer = targetOffset == 0 && target.length == count ? target : getExactBuffer(count);
+        int readBytes = directSource.read(buffer);
+        if (readBytes > 0) {
+            if (buffer != target) {
+                System.arraycopy(buffer, 0, target, targetOffset, readBytes);
+            }
+            directOffset += readBytes;
+        }
+        return readBytes;
+    }
+
+    private byte[] getBuffer(int count) {
+        if (buffer == null || buffer.length < count) {
+            buffer = new byte[count];
+        }
+        return buffer;
+    }
+
+    private byte[] getExactBuffer(int count) {
+        if (buffer == null || buffer.length != count) {
+            buffer = new byte[count];
+        }
+        return buffer;
+    }
+
+    private void closeDirectSource() {
+        if (directSource != null) {
+            try {
+                directSource.close();
+            } catch (ProxyCacheException e) {
+                Logger.warn("Error closing direct source: " + e);
+            }
+            directSource = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            closeDirectSource();
+            clients.releaseReader();
+        }
+    }
+}
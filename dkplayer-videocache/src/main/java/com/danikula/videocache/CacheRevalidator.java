@@ -0,0 +1,72 @@
+package com.danikula.videocache;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Revalidates stale fully cached files in background.
+ * <p>
+ * Cached file keeps being served while it is revalidated. File is deleted (and fetched again on next request)
+ * only if source is changed, otherwise its freshness is prolonged.
+ */
+class CacheRevalidator {
+
+    private final ExecutorService revalidationExecutor = Executors.newSingleThreadExecutor();
+    private final Set<String> urlsInProgress = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Config config;
+
+    CacheRevalidator(Config config) {
+        this.config = checkNotNull(config);
+    }
+
+    void revalidateIfStale(String url, File cacheFile) {
+        if (config.cacheTtl < 0 || !urlsInProgress.add(url)) {
+            return;
+        }
+        revalidationExecutor.submit(new RevalidateRunnable(url, cacheFile));
+    }
+
+    void shutdown() {
+        revalidationExecutor.shutdownNow();
+    }
+
+    private void revalidate(String url, File cacheFile) {
+        try {
+            SourceInfo sourceInfo = config.sourceInfoStorage.get(config.cacheKey(url));
+            boolean fresh = sourceInfo != null && sourceInfo.expires > System.currentTimeMillis();
+            if (sourceInfo == null || fresh) {
+                return;
+            }
+            boolean notModified = new HttpUrlSource(url, config).revalidate();
+            if (!notModified && config.deleteCacheFile(url, cacheFile)) {
+                Logger.info("Cache file " + cacheFile + " is deleted because source " + url + " is changed");
+            }
+        } catch (ProxyCacheException e) {
+            Logger.warn("Error revalidating " + url + ", keep using cached file");
+        } finally {
+            urlsInProgress.remove(url);
+        }
+    }
+
+    private final class RevalidateRunnable implements Runnable {
+
+        private final String url;
+        private final File cacheFile;
+
+        RevalidateRunnable(String url, File cacheFile) {
+            this.url = url;
+            this.cacheFile = cacheFile;
+        }
+
+        @Override
+        public void run() {
+            revalidate(url, cacheFile);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.danikula.videocache;
+
+import android.os.FileObserver;
+
+import java.io.File;
+
+import static com.danikula.videocache.file.FileCache.TEMP_POSTFIX;
+
+/**
+ * Watches cache file written by another process, so clients of this process are woken up as soon as data
+ * is appended or file is completed instead of polling file system.
+ */
+final class CacheWatcher extends FileObserver {
+
+    private static final int EVENTS = MODIFY | CLOSE_WRITE | MOVED_TO;
+
+    private final String tempName;
+    private final String completedName;
+    private final Runnable listener;
+
+    // constructor taking File is available since API 29 only, the one taking path is deprecated there but works
+    @SuppressWarnings("deprecation")
+    CacheWatcher(File file, Runnable listener) {
+        super(file.getParentFile().getAbsolutePath(), EVENTS);
+        String name = file.getName();
+        this.completedName = name.endsWith(TEMP_POSTFIX) ? name.substring(0, name.length() - TEMP_POSTFIX.length()) : name;
+        this.tempName = completedName + TEMP_POSTFIX;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onEvent(int event, String path) {
+        if (tempName.equals(path) || completedName.equals(path)) {
+            listener.run();
+        }
+    }
+}
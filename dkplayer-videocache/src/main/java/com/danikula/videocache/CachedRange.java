@@ -0,0 +1,29 @@
+package com.danikula.videocache;
+
+/**
+ * Continuous range of source that is cached, in bytes or in milliseconds of playback.
+ */
+public final class CachedRange {
+
+    /**
+     * Start of range, inclusive.
+     */
+    public final long start;
+    /**
+     * End of range, exclusive.
+     */
+    public final long end;
+
+    public CachedRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public String toString() {
+        return "CachedRange{" +
+                "start=" + start +
+                ", end=" + end +
+                '}';
+    }
+}
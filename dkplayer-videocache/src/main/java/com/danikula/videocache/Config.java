@@ -1,11 +1,25 @@
 package com.danikula.videocache;
 
-import com.danikula.videocache.file.DiskUsage;
+import android.content.Context;
+
+import com.danikula.videocache.file.CacheEncryption;
+import com.danikula.videocache.file.FileCache;
 import com.danikula.videocache.file.FileNameGenerator;
+import com.danikula.videocache.file.ResumableCache;
+import com.danikula.videocache.file.SegmentStore;
+import com.danikula.videocache.file.WindowPolicy;
+import com.danikula.videocache.file.WindowedCache;
 import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.key.CacheKeyGenerator;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
+import com.danikula.videocache.transport.CachingDnsResolver;
+import com.danikula.videocache.transport.Transport;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Configuration for proxy cache.
@@ -14,23 +28,149 @@ import java.io.File;
  */
 class Config {
 
+    private static final long NETWORK_CHECK_INTERVAL = 2000;
+
     public final File cacheRoot;
     public final FileNameGenerator fileNameGenerator;
-    public final DiskUsage diskUsage;
+    public final CacheKeyGenerator cacheKeyGenerator;
+    public final CacheNamespaces namespaces;
     public final SourceInfoStorage sourceInfoStorage;
     public final HeaderInjector headerInjector;
+    public final FillWindow fillWindow;
+    public final ReconnectPolicy reconnectPolicy;
+    public final SourceReconnectListener reconnectListener;
+    public final long resolvedUrlTtl;
+    public final long cacheTtl;
+    public final MirrorProvider mirrorProvider;
+    public final OriginSelector originSelector;
+    public final Executor progressExecutor;
+    public final ScheduledExecutorService progressScheduler;
+    public final long progressIntervalMillis;
+    public final ProxyMetrics metrics;
+    public final boolean metricsEndpoint;
+    public final BandwidthListener bandwidthListener;
+    public final SegmentStore segmentStore;
+    public final CacheEncryption encryption;
+    public final ContentDeduplicator deduplicator;
+    public final Transport transport;
+    public final CachingDnsResolver dnsResolver;
+    public final WindowPolicy windowPolicy;
+    public final Context context;
+    private volatile boolean metered;
+    private volatile long meteredCheckedAt;
 
-    Config(File cacheRoot, FileNameGenerator fileNameGenerator, DiskUsage diskUsage, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector) {
+    Config(File cacheRoot, FileNameGenerator fileNameGenerator, CacheKeyGenerator cacheKeyGenerator, CacheNamespaces namespaces, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector,
+           FillWindow fillWindow, ReconnectPolicy reconnectPolicy, SourceReconnectListener reconnectListener, long resolvedUrlTtl,
+           long cacheTtl, MirrorProvider mirrorProvider, OriginSelector originSelector,
+           Executor progressExecutor, ScheduledExecutorService progressScheduler, long progressIntervalMillis,
+           ProxyMetrics metrics, boolean metricsEndpoint, BandwidthListener bandwidthListener,
+           SegmentStore segmentStore, CacheEncryption encryption, ContentDeduplicator deduplicator,
+           Transport transport, CachingDnsResolver dnsResolver, WindowPolicy windowPolicy, Context context) {
         this.cacheRoot = cacheRoot;
         this.fileNameGenerator = fileNameGenerator;
-        this.diskUsage = diskUsage;
+        this.cacheKeyGenerator = cacheKeyGenerator;
+        this.namespaces = namespaces;
         this.sourceInfoStorage = sourceInfoStorage;
         this.headerInjector = headerInjector;
+        this.fillWindow = fillWindow;
+        this.reconnectPolicy = reconnectPolicy;
+        this.reconnectListener = reconnectListener;
+        this.resolvedUrlTtl = resolvedUrlTtl;
+        this.cacheTtl = cacheTtl;
+        this.mirrorProvider = mirrorProvider;
+        this.originSelector = originSelector;
+        this.progressExecutor = progressExecutor;
+        this.progressScheduler = progressScheduler;
+        this.progressIntervalMillis = progressIntervalMillis;
+        this.metrics = metrics;
+        this.metricsEndpoint = metricsEndpoint;
+        this.bandwidthListener = bandwidthListener;
+        this.segmentStore = segmentStore;
+        this.encryption = encryption;
+        this.deduplicator = deduplicator;
+        this.transport = transport;
+        this.dnsResolver = dnsResolver;
+        this.windowPolicy = windowPolicy;
+        this.context = context;
+    }
+
+    String cacheKey(String url) {
+        return cacheKeyGenerator.generate(url);
     }
 
     File generateCacheFile(String url) {
-        String name = fileNameGenerator.generate(url);
-        return new File(cacheRoot, name);
+        String cacheKey = cacheKey(url);
+        String fileName = fileNameGenerator.generate(cacheKey);
+        File shared = deduplicator == null ? null : deduplicator.resolve(fileName);
+        return shared != null ? shared : namespaces.locate(url, cacheKey, fileName);
+    }
+
+    boolean deleteCacheFile(String url, File cacheFile) {
+        if (deduplicator == null) {
+            return cacheFile.delete();
+        }
+        // file may be shared with other urls
+        return deduplicator.release(fileNameGenerator.generate(cacheKey(url)), cacheFile);
+    }
+
+    ResumableCache openCache(String url, HttpUrlSource source) throws ProxyCacheException {
+        File file = generateCacheFile(url);
+        CacheNamespace namespace = namespaces.namespaceOf(file);
+        if (isWindowed(file, source)) {
+            return new WindowedCache(file, windowPolicy);
+        }
+        // small entries are packed into segments of default namespace only
+        boolean packed = segmentStore != null && namespace == namespaces.getDefault();
+        ResumableCache cache = packed ? segmentStore.openCache(file, namespace.diskUsage) : new FileCache(file, namespace.diskUsage);
+        return encryption == null ? cache : encryption.wrap(cache, file.getName());
+    }
+
+    private boolean isWindowed(File file, HttpUrlSource source) throws ProxyCacheException {
+        if (windowPolicy == null) {
+            return false;
+        }
+        if (WindowedCache.exists(file)) {
+            return true;
+        }
+        File tempFile = new File(file.getParentFile(), file.getName() + FileCache.TEMP_POSTFIX);
+        if (file.exists() || tempFile.exists() || isPackedCompleted(file)) {
+            // entry already cached as usual keeps being cached so
+            return false;
+        }
+        // length is requested anyway to respond to client, window can be moved only if source supports ranges
+        return source.length() >= windowPolicy.minSourceLength && source.getAcceptRanges() != SourceInfo.RANGES_UNSUPPORTED;
+    }
+
+    boolean isPackedCompleted(File file) {
+        return segmentStore != null && segmentStore.isCompleted(file);
+    }
+
+    long getPackedLength(File file) {
+        return segmentStore == null ? 0 : segmentStore.getCachedLength(file);
+    }
+
+    List<String> getMirrors(String url) {
+        return mirrorProvider == null ? Collections.<String>emptyList() : mirrorProvider.getMirrors(url);
+    }
+
+    /**
+     * Returns fill window for active network. It is called on every fill decision, so network state is checked
+     * at most once per {@link #NETWORK_CHECK_INTERVAL} and window follows switching between Wi-Fi and cellular.
+     */
+    long fillWindowBytes(long bitrate) {
+        if (!fillWindow.isLimited()) {
+            return -1;
+        }
+        return fillWindow.toBytes(isActiveNetworkMetered(), bitrate);
+    }
+
+    private boolean isActiveNetworkMetered() {
+        long now = System.currentTimeMillis();
+        if (now - meteredCheckedAt >= NETWORK_CHECK_INTERVAL) {
+            metered = NetworkUtils.isActiveNetworkMetered(context);
+            meteredCheckedAt = now;
+        }
+        return metered;
     }
 
 }
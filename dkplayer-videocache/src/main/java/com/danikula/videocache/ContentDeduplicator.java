@@ -0,0 +1,401 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.CacheLocks;
+import com.danikula.videocache.file.EvictionListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Stores identical media cached under different urls once.
+ * <p>
+ * Fully cached file is identified by fingerprint: its length and MD5 of its first, middle and last chunks, so urls of
+ * different CDNs, re-uploads and shared links match even if their ETags differ. When file with known fingerprint
+ * is completed, it is deleted and its cache file name becomes alias of existing file. File keeps name of url it was
+ * cached for (owner) while owner references it, so unique content doesn't pay for deduplication, and is renamed to
+ * content name when owner releases it while aliases still reference it.
+ * <p>
+ * Shared file is single file for {@link com.danikula.videocache.file.DiskUsage}, so its size is counted once and it is
+ * touched by requests of every url referencing it. Trimming it drops all references, explicit release of url
+ * (e.g. when its source is changed) drops one reference and deletes file only when no references are left.
+ * Index is kept in memory and written to disk in background after changes, so resolving of url never waits for disk.
+ * References to evicted files are dropped at once, to files deleted otherwise or cached again with other content
+ * (detected by length of file and by fingerprint of completed file) lazily.
+ * Index is owned by single process, other processes sharing cache directory don't deduplicate files.
+ */
+final class ContentDeduplicator implements EvictionListener {
+
+    private static final int VERSION = 2;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String INDEX_FILE = "index";
+    private static final String TEMP_POSTFIX = ".tmp";
+    private static final String SHARED_PREFIX = "shared-";
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean indexWriteScheduled = new AtomicBoolean();
+    private final File indexFile;
+    private final CacheLocks.Lease lease;
+    private final Map<String, Entry> byFingerprint = new HashMap<>();
+    private final Map<File, Entry> byFile = new HashMap<>();
+    private final Map<String, Entry> byAlias = new HashMap<>();
+    private volatile boolean released;
+
+    /**
+     * Opens deduplicator with index in passed directory.
+     *
+     * @param directory a directory of index.
+     * @return deduplicator or {@code null} if index is used by another process.
+     */
+    static ContentDeduplicator open(File directory) {
+        CacheLocks.Lease lease = CacheLocks.tryAcquire(directory, false);
+        if (lease == null) {
+            Logger.warn("Deduplication index " + directory + " is used by another process, deduplication is disabled");
+            return null;
+        }
+        return new ContentDeduplicator(directory, lease);
+    }
+
+    private ContentDeduplicator(File directory, CacheLocks.Lease lease) {
+        this.indexFile = new File(directory, INDEX_FILE);
+        this.lease = lease;
+        if (!directory.exists() && !directory.mkdirs()) {
+            Logger.error("Error creating directory " + directory + " for deduplication index");
+        }
+        readIndex();
+    }
+
+    /**
+     * Returns file shared with other urls that file name of url is alias of.
+     *
+     * @param fileName a name of cache file of url.
+     * @return shared file or {@code null} if name isn't alias.
+     */
+    synchronized File resolve(String fileName) {
+        Entry entry = byAlias.get(fileName);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.file.length() != entry.length) {
+            // deleted or replaced with another file, aliases must not be served with other content
+            remove(entry);
+            scheduleIndexWrite();
+            return null;
+        }
+        return entry.file;
+    }
+
+    /**
+     * Looks for another file with the same content in background. Known file is fingerprinted again,
+     * because it may have been deleted and cached again with other content.
+     *
+     * @param file fully cached file.
+     */
+    void onCompleted(final File file) {
+        try {
+            worker.submit(new Runnable() {
+                @Override
+                public void run() {
+                    deduplicate(file);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Logger.debug("Deduplicator is shut down, " + file + " isn't deduplicated");
+        }
+    }
+
+    /**
+     * Drops references to file deleted to keep cache within its limits.
+     */
+    @Override
+    public synchronized void onEvicted(File file, long size) {
+        Entry entry = byFile.get(file);
+        if (entry != null) {
+            remove(entry);
+            scheduleIndexWrite();
+        }
+    }
+
+    /**
+     * Releases reference of url to its cache file.
+     *
+     * @param fileName a name of cache file of url.
+     * @param file     a file url is resolved to.
+     * @return {@code true} if url doesn't reference file anymore.
+     */
+    synchronized boolean release(String fileName, File file) {
+        Entry entry = byAlias.remove(fileName);
+        if (entry != null) {
+            entry.aliases.remove(fileName);
+            if (entry.aliases.isEmpty() && !entry.owned) {
+                remove(entry);
+                delete(entry.file);
+            }
+            scheduleIndexWrite();
+            return true;
+        }
+        entry = byFile.get(file);
+        if (entry == null || !entry.owned) {
+            return file.delete();
+        }
+        if (entry.aliases.isEmpty()) {
+            remove(entry);
+            scheduleIndexWrite();
+            return file.delete();
+        }
+        File shared = new File(file.getParentFile(), SHARED_PREFIX + entry.fingerprint + extension(file));
+        if (!file.renameTo(shared)) {
+            Logger.error("Error renaming " + file + " to " + shared + " to keep it for aliases");
+            return false;
+        }
+        byFile.remove(file);
+        entry.file = shared;
+        entry.owned = false;
+        byFile.put(shared, entry);
+        scheduleIndexWrite();
+        return true;
+    }
+
+    /**
+     * Stops deduplication. Pending index write is finished before index is released.
+     */
+    void shutdown() {
+        released = true;
+        try {
+            worker.submit(new Runnable() {
+                @Override
+                public void run() {
+                    lease.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        worker.shutdown();
+    }
+
+    private void deduplicate(File file) {
+        if (released || !file.isFile()) {
+            // packed into segments or deleted already
+            return;
+        }
+        String fingerprint;
+        try {
+            fingerprint = fingerprint(file);
+        } catch (IOException e) {
+            Logger.warn("Error computing fingerprint of " + file + ": " + e);
+            return;
+        }
+        synchronized (this) {
+            Entry known = byFile.get(file);
+            if (known != null && known.fingerprint.equals(fingerprint)) {
+                return;
+            }
+            if (known != null) {
+                Logger.info("Cache file " + file + " is cached again with other content, its aliases are dropped");
+                remove(known);
+            }
+            Entry existing = byFingerprint.get(fingerprint);
+            if (existing != null && existing.file.length() != existing.length) {
+                remove(existing);
+                existing = null;
+            }
+            if (existing == null) {
+                Entry entry = new Entry(fingerprint, file, file.length(), true);
+                byFingerprint.put(fingerprint, entry);
+                byFile.put(file, entry);
+            } else {
+                long length = file.length();
+                if (!file.delete()) {
+                    Logger.error("Error deleting duplicate of " + existing.file + ": " + file);
+                    return;
+                }
+                String alias = file.getName();
+                existing.aliases.add(alias);
+                byAlias.put(alias, existing);
+                Logger.info("Cache file " + file + " is replaced with identical " + existing.file + ", " + length + " bytes saved");
+            }
+            scheduleIndexWrite();
+        }
+    }
+
+    private String fingerprint(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        RandomAccessFile data = new RandomAccessFile(file, "r");
+        try {
+            long length = data.length();
+            byte[] chunk = new byte[CHUNK_SIZE];
+            long[] offsets = {0, Math.max(0, length / 2 - CHUNK_SIZE / 2), Math.max(0, length - CHUNK_SIZE)};
+            for (long offset : offsets) {
+                int count = (int) Math.min(CHUNK_SIZE, length - offset);
+                data.seek(offset);
+                data.readFully(chunk, 0, count);
+                digest.update(chunk, 0, count);
+            }
+            StringBuilder result = new StringBuilder(String.format(Locale.US, "%x-", length));
+            for (byte b : digest.digest()) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } finally {
+            data.close();
+        }
+    }
+
+    private void remove(Entry entry) {
+        byFingerprint.remove(entry.fingerprint);
+        byFile.remove(entry.file);
+        for (String alias : entry.aliases) {
+            byAlias.remove(alias);
+        }
+    }
+
+    private void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Logger.error("Error deleting shared file " + file);
+        }
+    }
+
+    private String extension(File file) {
+        String name = file.getName();
+        int dotIndex = name.lastIndexOf('.');
+        return dotIndex == -1 ? "" : name.substring(dotIndex);
+    }
+
+    private void readIndex() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(indexFile));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), new File(in.readUTF()), in.readLong(), in.readBoolean());
+                int aliases = in.readInt();
+                for (int j = 0; j < aliases; j++) {
+                    entry.aliases.add(in.readUTF());
+                }
+                if (entry.file.length() == entry.length) {
+                    byFingerprint.put(entry.fingerprint, entry);
+                    byFile.put(entry.file, entry);
+                    for (String alias : entry.aliases) {
+                        byAlias.put(alias, entry);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Logger.warn("Error reading deduplication index " + indexFile + ", files cached so far aren't shared");
+        } finally {
+            ProxyCacheUtils.close(in);
+        }
+    }
+
+    /**
+     * Writes index in background. Changes made while write is pending are written at once.
+     */
+    private void scheduleIndexWrite() {
+        if (!indexWriteScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            worker.submit(new IndexWriteRunnable());
+        } catch (RejectedExecutionException e) {
+            indexWriteScheduled.set(false);
+            Logger.warn("Deduplicator is shut down, change of index " + indexFile + " isn't written");
+        }
+    }
+
+    private void writeIndexSafely() {
+        indexWriteScheduled.set(false);
+        try {
+            byte[] index;
+            synchronized (this) {
+                index = serializeIndex();
+            }
+            writeIndex(index);
+        } catch (IOException e) {
+            Logger.error("Error writing deduplication index " + indexFile + ": " + e);
+        }
+    }
+
+    private byte[] serializeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(VERSION);
+        out.writeInt(byFingerprint.size());
+        for (Entry entry : byFingerprint.values()) {
+            out.writeUTF(entry.fingerprint);
+            out.writeUTF(entry.file.getAbsolutePath());
+            out.writeLong(entry.length);
+            out.writeBoolean(entry.owned);
+            out.writeInt(entry.aliases.size());
+            for (String alias : entry.aliases) {
+                out.writeUTF(alias);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private void writeIndex(byte[] index) throws IOException {
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + TEMP_POSTFIX);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(index);
+            out.getFD().sync();
+        } finally {
+            ProxyCacheUtils.close(out);
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Error renaming " + tempFile + " to " + indexFile);
+        }
+    }
+
+    private static final class Entry {
+
+        final String fingerprint;
+        final Set<String> aliases = new HashSet<>();
+        final long length;
+        File file;
+        boolean owned;
+
+        Entry(String fingerprint, File file, long length, boolean owned) {
+            this.fingerprint = fingerprint;
+            this.file = file;
+            this.length = length;
+            this.owned = owned;
+        }
+    }
+
+    private class IndexWriteRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            writeIndexSafely();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.danikula.videocache;
+
+import java.io.File;
+
+/**
+ * Provides current conditions of device checked by {@link PrefetchConstraints}.
+ * Default implementation asks platform services, custom one may be used to combine them with app's own conditions.
+ */
+public interface DeviceState {
+
+    boolean isUnmetered();
+
+    boolean isCharging();
+
+    /**
+     * Returns whether device isn't used now.
+     *
+     * @return {@code true} if screen is off.
+     */
+    boolean isIdle();
+
+    /**
+     * Returns free space of storage.
+     *
+     * @param directory a directory located on storage.
+     * @return free space in bytes.
+     */
+    long getFreeSpace(File directory);
+}
@@ -0,0 +1,82 @@
+package com.danikula.videocache;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+
+/**
+ * Limits how far ahead of the furthest offset read by clients the source is downloaded.
+ * <p>
+ * Window can be expressed in bytes or in seconds. Seconds are converted to bytes with bitrate of source
+ * (see {@link SourceInfo#bitrate}) or with {@link #DEFAULT_BYTES_PER_SECOND} if bitrate is unknown.
+ * Separate (usually stricter) window is used while active network is metered.
+ */
+public final class FillWindow {
+
+    /**
+     * Bitrate (2 Mbit/s) supposed for source with unknown bitrate.
+     */
+    public static final long DEFAULT_BYTES_PER_SECOND = 256 * 1024;
+
+    static final FillWindow UNLIMITED = new FillWindow(-1, -1, false);
+
+    private final long window;
+    private final long meteredWindow;
+    private final boolean inSeconds;
+
+    private FillWindow(long window, long meteredWindow, boolean inSeconds) {
+        this.window = window;
+        this.meteredWindow = meteredWindow;
+        this.inSeconds = inSeconds;
+    }
+
+    /**
+     * Creates window measured in bytes.
+     *
+     * @param bytes        max bytes to be downloaded ahead of the furthest read offset.
+     * @param meteredBytes max bytes to be downloaded ahead while active network is metered.
+     * @return a fill window.
+     */
+    public static FillWindow bytes(long bytes, long meteredBytes) {
+        checkArgument(bytes > 0 && meteredBytes > 0, "Window must be positive!");
+        return new FillWindow(bytes, meteredBytes, false);
+    }
+
+    /**
+     * Creates window measured in seconds of playback.
+     *
+     * @param seconds        max seconds to be downloaded ahead of the furthest read offset.
+     * @param meteredSeconds max seconds to be downloaded ahead while active network is metered.
+     * @return a fill window.
+     */
+    public static FillWindow seconds(int seconds, int meteredSeconds) {
+        checkArgument(seconds > 0 && meteredSeconds > 0, "Window must be positive!");
+        return new FillWindow(seconds, meteredSeconds, true);
+    }
+
+    /**
+     * Returns window in bytes or negative value if window is unlimited.
+     *
+     * @param metered {@code true} if active network is metered.
+     * @param bitrate bitrate of source in bytes per second, or non positive value if it is unknown.
+     * @return window in bytes.
+     */
+    long toBytes(boolean metered, long bitrate) {
+        long value = metered ? meteredWindow : window;
+        if (value <= 0 || !inSeconds) {
+            return value;
+        }
+        return value * (bitrate > 0 ? bitrate : DEFAULT_BYTES_PER_SECOND);
+    }
+
+    boolean isLimited() {
+        return window > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "FillWindow{" +
+                "window=" + window +
+                ", meteredWindow=" + meteredWindow +
+                ", inSeconds=" + inSeconds +
+                '}';
+    }
+}
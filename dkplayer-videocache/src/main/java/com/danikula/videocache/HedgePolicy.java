@@ -0,0 +1,55 @@
+package com.danikula.videocache;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+
+/**
+ * Declares when request to the next mirror is issued while the first one is still waiting for response.
+ * <p>
+ * Delay is a {@link #percentile} of recent first byte latencies of origin, bounded by {@link #minDelayMillis}
+ * and {@link #maxDelayMillis}. {@link #maxDelayMillis} is used until enough latencies are measured.
+ * Request that responds first wins, another one is cancelled.
+ */
+public final class HedgePolicy {
+
+    /**
+     * Hedge after 95th percentile of first byte latency, but not earlier than 300 ms and not later than 2 s.
+     */
+    public static final HedgePolicy DEFAULT = new HedgePolicy(0.95f, 300, 2000);
+
+    /**
+     * Never hedge, mirrors are used only if the best origin fails.
+     */
+    public static final HedgePolicy NONE = new HedgePolicy(1, 0, 0);
+
+    public final float percentile;
+    public final long minDelayMillis;
+    public final long maxDelayMillis;
+
+    /**
+     * Creates new hedge policy.
+     *
+     * @param percentile     percentile of first byte latency to wait for, in range (0, 1].
+     * @param minDelayMillis min delay before hedged request.
+     * @param maxDelayMillis max delay before hedged request, {@code 0} to disable hedging.
+     */
+    public HedgePolicy(float percentile, long minDelayMillis, long maxDelayMillis) {
+        checkArgument(percentile > 0 && percentile <= 1, "Percentile must be in range (0, 1]!");
+        checkArgument(minDelayMillis >= 0 && maxDelayMillis >= minDelayMillis, "Invalid delay range!");
+        this.percentile = percentile;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    boolean isEnabled() {
+        return maxDelayMillis > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "HedgePolicy{" +
+                "percentile=" + percentile +
+                ", minDelayMillis=" + minDelayMillis +
+                ", maxDelayMillis=" + maxDelayMillis +
+                '}';
+    }
+}
@@ -2,9 +2,11 @@ package com.danikula.videocache;
 
 import android.text.TextUtils;
 
-import com.danikula.videocache.file.FileCache;
+import com.danikula.videocache.file.ResumableCache;
+import com.danikula.videocache.file.WindowedCache;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
@@ -22,44 +24,209 @@ class HttpProxyCache extends ProxyCache {
     private static final float NO_CACHE_BARRIER = .2f;
 
     private final HttpUrlSource source;
-    private final FileCache cache;
-    private CacheListener listener;
+    private final ResumableCache cache;
+    private final WindowedCache window;
+    private final Object windowLock = new Object();
+    private CacheProgress progress;
+    private SourceReconnectListener reconnectListener;
+    private volatile int cacheGeneration;
+    private ProxyMetrics metrics = ProxyMetrics.DISABLED;
+    private CacheWatcher cacheWatcher;
+    private volatile Config fillWindowConfig;
+    private volatile long bitrate;
 
-    public HttpProxyCache(HttpUrlSource source, FileCache cache) {
+    public HttpProxyCache(HttpUrlSource source, ResumableCache cache) {
         super(source, cache);
         this.cache = cache;
+        this.window = cache instanceof WindowedCache ? (WindowedCache) cache : null;
         this.source = source;
+        this.bitrate = source.getBitrate();
+        this.source.setIfRange(cache.getEtag(), cache.getLastModified());
     }
 
-    public void registerCacheListener(CacheListener cacheListener) {
-        this.listener = cacheListener;
+    public void setCacheProgress(CacheProgress progress) {
+        this.progress = progress;
+    }
+
+    public void registerReconnectListener(SourceReconnectListener reconnectListener) {
+        this.reconnectListener = reconnectListener;
+    }
+
+    public void setMetrics(ProxyMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setSourceBitrate(long bitrate) {
+        this.bitrate = bitrate;
+        source.setBitrate(bitrate);
+    }
+
+    /**
+     * Limits reading of source with fill window of config. Window is evaluated on every fill decision,
+     * so it follows changes of active network during playback.
+     *
+     * @param config a config providing fill window.
+     */
+    public void setFillWindow(Config config) {
+        this.fillWindowConfig = config;
+    }
+
+    @Override
+    protected long getFillWindow() {
+        Config config = fillWindowConfig;
+        long fillWindow = config == null ? super.getFillWindow() : config.fillWindowBytes(bitrate);
+        return window == null ? fillWindow : window.limitFillWindow(fillWindow);
+    }
+
+    /**
+     * Returns fully cached file.
+     *
+     * @return cache file or {@code null} if cache isn't completed yet.
+     */
+    public File getCompletedFile() {
+        return window == null && cache.isCompleted() ? cache.getFile() : null;
     }
 
     public void processRequest(GetRequest request, Socket socket) throws IOException, ProxyCacheException {
+        long requestTime = System.currentTimeMillis();
         OutputStream out = new BufferedOutputStream(socket.getOutputStream());
         String responseHeaders = newResponseHeaders(request);
         out.write(responseHeaders.getBytes("UTF-8"));
 
         long offset = request.rangeOffset;
-        if (isUseCache(request)) {
-            responseWithCache(out, offset);
-        } else {
-            responseWithoutCache(out, offset);
+        try {
+            if (isUseCache(request.partial, request.rangeOffset)) {
+                responseWithCache(out, offset, requestTime);
+            } else {
+                metrics.onCacheMiss();
+                responseWithoutCache(out, offset, requestTime);
+            }
+        } finally {
+            metrics.onSessionFinished(System.currentTimeMillis() - requestTime);
         }
     }
 
-    private boolean isUseCache(GetRequest request) throws ProxyCacheException {
+    /**
+     * Checks whether data from offset should be read through cache.
+     *
+     * @param partial {@code true} if request is partial (it has range).
+     * @param offset  an offset data is requested from.
+     * @return {@code false} if offset is too far from cached data, so it should be read from source directly.
+     * @throws ProxyCacheException if error occur while reading source info.
+     */
+    public boolean isUseCache(boolean partial, long offset) throws ProxyCacheException {
+        if (window != null) {
+            // window is moved to offset instead
+            return true;
+        }
         long sourceLength = source.length();
         boolean sourceLengthKnown = sourceLength > 0;
         long cacheAvailable = cache.available();
+        // origin can't serve data from offset, so request has to wait for cache anyway
+        boolean rangesUnsupported = source.getAcceptRanges() == SourceInfo.RANGES_UNSUPPORTED;
         // do not use cache for partial requests which too far from available cache. It seems user seek video.
-        return !sourceLengthKnown || !request.partial || request.rangeOffset <= cacheAvailable + sourceLength * NO_CACHE_BARRIER;
+        return !sourceLengthKnown || rangesUnsupported || !partial || offset <= cacheAvailable + sourceLength * NO_CACHE_BARRIER;
+    }
+
+    /**
+     * Reads data at offset. Windowed cache serves data cached apart from window at once, waits for data just ahead
+     * of window and moves window to any other offset (or fetches chunk of beginning or index of source).
+     */
+    @Override
+    public int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        WindowedCache window = this.window;
+        if (window == null) {
+            return super.read(buffer, offset, length);
+        }
+        if (offset >= source.length()) {
+            return -1;
+        }
+        long available = window.available();
+        if (window.isCached(offset)) {
+            // data of window is read as usual, so source is read ahead of client
+            return offset < available ? super.read(buffer, offset, length) : window.read(buffer, offset, length);
+        }
+        if (isReachedByWindow(window, offset)) {
+            return super.read(buffer, offset, length);
+        }
+        if (window.isPinned(offset)) {
+            fetchChunk(window, offset);
+            return window.read(buffer, offset, length);
+        }
+        moveWindow(window, offset);
+        return super.read(buffer, offset, length);
+    }
+
+    private boolean isReachedByWindow(WindowedCache window, long offset) {
+        long available = window.available();
+        return offset >= available && offset < window.chunkStart(available) + 2L * window.chunkLength(window.chunkStart(available));
+    }
+
+    private void moveWindow(WindowedCache window, long offset) throws ProxyCacheException {
+        synchronized (windowLock) {
+            if (window.isCached(offset) || isReachedByWindow(window, offset)) {
+                // moved by another client
+                return;
+            }
+            Logger.debug("Move window of " + source.getUrl() + " from " + window.available() + " to " + offset);
+            try {
+                stopSourceReading(offset);
+                window.moveTo(offset);
+            } finally {
+                resumeSourceReading();
+            }
+        }
+    }
+
+    private void fetchChunk(WindowedCache window, long offset) throws ProxyCacheException {
+        long start = window.chunkStart(offset);
+        byte[] chunk = new byte[window.chunkLength(start)];
+        HttpUrlSource chunkSource = newSourceNoCache();
+        chunkSource.setIfRange(cache.getEtag(), cache.getLastModified());
+        try {
+            chunkSource.open(start);
+            if (start > 0 && !chunkSource.isPartialResponse()) {
+                throw new ProxyCacheException("Source " + source.getUrl() + " is changed or doesn't support ranges");
+            }
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int filled = 0;
+            int readBytes;
+            while (filled < chunk.length && (readBytes = chunkSource.read(buffer)) != -1) {
+                int count = Math.min(readBytes, chunk.length - filled);
+                System.arraycopy(buffer, 0, chunk, filled, count);
+                filled += count;
+            }
+            if (filled < chunk.length) {
+                throw new ProxyCacheException("Source " + source.getUrl() + " ended at " + (start + filled) + " while reading chunk");
+            }
+        } finally {
+            chunkSource.close();
+        }
+        Logger.debug("Chunk of " + source.getUrl() + " at " + start + " is fetched apart from window");
+        window.putChunk(start, chunk);
+    }
+
+    public long getContentLength() throws ProxyCacheException {
+        return cache.isCompleted() ? cache.available() : source.length();
+    }
+
+    /**
+     * Returns new source reading data without cache, e.g. when client seeks too far from cached data.
+     *
+     * @return source to be opened and closed by caller.
+     */
+    public HttpUrlSource newSourceNoCache() {
+        return new HttpUrlSource(this.source);
+    }
+
+    public String getMime() throws ProxyCacheException {
+        return source.getMime();
     }
 
     private String newResponseHeaders(GetRequest request) throws IOException, ProxyCacheException {
-        String mime = source.getMime();
+        String mime = getMime();
         boolean mimeKnown = !TextUtils.isEmpty(mime);
-        long length = cache.isCompleted() ? cache.available() : source.length();
+        long length = getContentLength();
         boolean lengthKnown = length >= 0;
         long contentLength = request.partial ? length - request.rangeOffset : length;
         boolean addRange = lengthKnown && request.partial;
@@ -73,29 +240,61 @@ class HttpProxyCache extends ProxyCache {
                 .toString();
     }
 
-    private void responseWithCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
+    private void responseWithCache(OutputStream out, long offset, long requestTime) throws ProxyCacheException, IOException {
+        long cachedBytes = Math.max(0, cache.available() - offset);
+        recordCacheUsage(cachedBytes);
         byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        int generation = cacheGeneration;
+        long servedBytes = 0;
         int readBytes;
-        while ((readBytes = read(buffer, offset, buffer.length)) != -1) {
-            out.write(buffer, 0, readBytes);
-            offset += readBytes;
+        try {
+            while ((readBytes = read(buffer, offset, buffer.length)) != -1) {
+                if (generation != cacheGeneration) {
+                    throw new ProxyCacheException("Source " + source.getUrl() + " is changed, cached data sent to client is discarded");
+                }
+                out.write(buffer, 0, readBytes);
+                if (servedBytes == 0) {
+                    metrics.onPlayerFirstByte(System.currentTimeMillis() - requestTime);
+                }
+                offset += readBytes;
+                servedBytes += readBytes;
+            }
+            out.flush();
+        } finally {
+            long fromCache = Math.min(servedBytes, cachedBytes);
+            metrics.onBytesServed(fromCache, servedBytes - fromCache);
         }
-        out.flush();
     }
 
-    private void responseWithoutCache(OutputStream out, long offset) throws ProxyCacheException, IOException {
-        HttpUrlSource newSourceNoCache = new HttpUrlSource(this.source);
+    private void recordCacheUsage(long cachedBytes) {
+        if (cache.isCompleted()) {
+            metrics.onCacheHit();
+        } else if (cachedBytes > 0) {
+            metrics.onCachePartialHit();
+        } else {
+            metrics.onCacheMiss();
+        }
+    }
+
+    private void responseWithoutCache(OutputStream out, long offset, long requestTime) throws ProxyCacheException, IOException {
+        HttpUrlSource newSourceNoCache = newSourceNoCache();
+        long servedBytes = 0;
         try {
             newSourceNoCache.open((int) offset);
             byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
             int readBytes;
             while ((readBytes = newSourceNoCache.read(buffer)) != -1) {
                 out.write(buffer, 0, readBytes);
+                if (servedBytes == 0) {
+                    metrics.onPlayerFirstByte(System.currentTimeMillis() - requestTime);
+                }
                 offset += readBytes;
+                servedBytes += readBytes;
             }
             out.flush();
         } finally {
             newSourceNoCache.close();
+            metrics.onBytesServed(0, servedBytes);
         }
     }
 
@@ -104,9 +303,95 @@ class HttpProxyCache extends ProxyCache {
     }
 
     @Override
-    protected void onCachePercentsAvailableChanged(int percents) {
-        if (listener != null) {
-            listener.onCacheAvailable(cache.file, source.getUrl(), percents);
+    protected long onSourceOpened(long offset) throws ProxyCacheException {
+        long sourceLength = source.length();
+        if (offset > 0 && !source.isPartialResponse() && isSameSourceSent(sourceLength)) {
+            // origin ignores Range (e.g. another edge answers reconnect), data before offset is already cached
+            Logger.warn("Source " + source.getUrl() + " responds with full content, skip " + offset + " cached bytes");
+            source.skip(offset);
+        } else if (offset > 0 && !isSameSourceResumed(sourceLength)) {
+            Logger.warn("Source " + source.getUrl() + " is changed, discard " + offset + " cached bytes");
+            cacheGeneration++;
+            cache.discard();
+            if (source.isPartialResponse()) {
+                source.close();
+                source.open(0);
+            }
+            offset = 0;
+        }
+        cache.setValidator(source.getEtag(), source.getLastModified(), source.length());
+        source.setIfRange(source.getEtag(), source.getLastModified());
+        return offset;
+    }
+
+    private boolean isSameSourceSent(long sourceLength) {
+        // full content is the same only if it matches all validators of cached data
+        String etag = cache.getEtag();
+        String lastModified = cache.getLastModified();
+        return cache.getSourceLength() > 0 && cache.getSourceLength() == sourceLength
+                && (etag == null || etag.equals(source.getEtag()))
+                && (lastModified == null || lastModified.equals(source.getLastModified()));
+    }
+
+    private boolean isSameSourceResumed(long sourceLength) {
+        // If-Range is answered with full content if source is changed
+        long cachedSourceLength = cache.getSourceLength();
+        return source.isPartialResponse() && (cachedSourceLength < 0 || cachedSourceLength == sourceLength);
+    }
+
+    @Override
+    protected synchronized boolean canWriteCache() throws ProxyCacheException {
+        if (cache.acquireWriteLock()) {
+            stopWatchingCache();
+            return true;
+        }
+        if (cacheWatcher == null) {
+            Logger.info("Cache " + cache.getFile() + " is written by another process, wait for its data");
+            cacheWatcher = new CacheWatcher(cache.getFile(), new Runnable() {
+                @Override
+                public void run() {
+                    onCacheChanged(sourceLengthSafely());
+                }
+            });
+            cacheWatcher.startWatching();
+        }
+        return false;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        stopWatchingCache();
+    }
+
+    private synchronized void stopWatchingCache() {
+        if (cacheWatcher != null) {
+            cacheWatcher.stopWatching();
+            cacheWatcher = null;
+        }
+    }
+
+    private long sourceLengthSafely() {
+        try {
+            return source.length();
+        } catch (ProxyCacheException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    protected void onCacheAvailable(long cacheAvailable, long sourceLength) {
+        CacheProgress progress = this.progress;
+        if (progress != null) {
+            progress.update(cache.getFile(), cacheAvailable, sourceLength);
+        }
+    }
+
+    @Override
+    protected void onSourceReconnected(int attempts, long recoveryTimeMillis) {
+        super.onSourceReconnected(attempts, recoveryTimeMillis);
+        if (reconnectListener != null) {
+            reconnectListener.onSourceReconnected(source.getUrl(), attempts, recoveryTimeMillis);
         }
     }
 }
@@ -3,30 +3,51 @@ package com.danikula.videocache;
 import android.content.Context;
 import android.net.Uri;
 
+import com.danikula.videocache.file.CacheEncryption;
 import com.danikula.videocache.file.DiskUsage;
+import com.danikula.videocache.file.EvictionListener;
+import com.danikula.videocache.file.FileCache;
 import com.danikula.videocache.file.FileNameGenerator;
+import com.danikula.videocache.file.LruDiskUsage;
 import com.danikula.videocache.file.Md5FileNameGenerator;
+import com.danikula.videocache.file.SegmentPolicy;
+import com.danikula.videocache.file.SegmentStore;
 import com.danikula.videocache.file.TotalCountLruDiskUsage;
 import com.danikula.videocache.file.TotalSizeLruDiskUsage;
+import com.danikula.videocache.file.WindowPolicy;
+import com.danikula.videocache.file.WindowedCache;
 import com.danikula.videocache.headers.EmptyHeadersInjector;
 import com.danikula.videocache.headers.HeaderInjector;
+import com.danikula.videocache.key.CacheKeyGenerator;
+import com.danikula.videocache.key.IdentityCacheKeyGenerator;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
+import com.danikula.videocache.transport.CachingDnsResolver;
+import com.danikula.videocache.transport.Transport;
+import com.danikula.videocache.transport.UrlConnectionTransport;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.danikula.videocache.Preconditions.checkAllNotNull;
+import static com.danikula.videocache.Preconditions.checkArgument;
 import static com.danikula.videocache.Preconditions.checkNotNull;
 
 /**
@@ -51,22 +72,71 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
 public class HttpProxyCacheServer {
 
     private static final String PROXY_HOST = "127.0.0.1";
+    private static final String METRICS_PATH = "metrics";
 
     private final Object clientsLock = new Object();
     private final ExecutorService socketProcessor = Executors.newFixedThreadPool(8);
     private final Map<String, HttpProxyCacheServerClients> clientsMap = new ConcurrentHashMap<>();
-    private final ServerSocket serverSocket;
-    private final int port;
-    private final Thread waitConnectionThread;
-    private final Config config;
+    private final Object startLock = new Object();
+    private final CountDownLatch readySignal = new CountDownLatch(1);
+    private final AtomicLong startupBypasses = new AtomicLong();
+    // listeners registered before server is started, guarded by clientsLock
+    private final List<PendingListener> pendingListeners = new ArrayList<>();
+    // written before readySignal is released, read after it
+    private ServerSocket serverSocket;
+    private int port;
+    private Thread waitConnectionThread;
+    private Config config;
+    private CacheRevalidator cacheRevalidator;
+    private Preconnector preconnector;
+    private volatile boolean ready;
+    private volatile boolean shutdown;
+    private volatile Throwable startupError;
 
     public HttpProxyCacheServer(Context context) {
         this(new Builder(context).buildConfig());
     }
 
     private HttpProxyCacheServer(Config config) {
+        long startTime = System.currentTimeMillis();
+        start(config);
+        onStarted(System.currentTimeMillis() - startTime);
+    }
+
+    private HttpProxyCacheServer(final Builder builder, final ProxyStartupListener startupListener) {
+        final long startTime = System.currentTimeMillis();
+        Thread startThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long configStartTime = System.currentTimeMillis();
+                    Config config = builder.buildConfig();
+                    Logger.debug("Proxy config is built in " + (System.currentTimeMillis() - configStartTime) + " ms");
+                    start(config);
+                } catch (RuntimeException e) {
+                    startupError = e;
+                    readySignal.countDown();
+                    Logger.error("Error starting proxy server asynchronously");
+                    if (startupListener != null) {
+                        startupListener.onStartupFailed(e);
+                    }
+                    return;
+                }
+                long startupTime = System.currentTimeMillis() - startTime;
+                onStarted(startupTime);
+                if (startupListener != null) {
+                    startupListener.onStarted(startupTime);
+                }
+            }
+        }, "ProxyCacheServerStartup");
+        startThread.start();
+    }
+
+    private void start(Config config) {
         this.config = checkNotNull(config);
         try {
+            this.cacheRevalidator = new CacheRevalidator(config);
+            this.preconnector = new Preconnector(config);
             InetAddress inetAddress = InetAddress.getByName(PROXY_HOST);
             this.serverSocket = new ServerSocket(0, 8, inetAddress);
             this.port = serverSocket.getLocalPort();
@@ -77,15 +147,76 @@ public class HttpProxyCacheServer {
             startSignal.await(); // freeze thread, wait for server starts
         } catch (IOException | InterruptedException e) {
             socketProcessor.shutdown();
+            releaseResources();
             throw new IllegalStateException("Error starting local proxy server", e);
+        } catch (RuntimeException e) {
+            socketProcessor.shutdown();
+            releaseResources();
+            throw e;
+        }
+    }
+
+    private void onStarted(long startupTimeMillis) {
+        Logger.info("Proxy server is started in " + startupTimeMillis + " ms on port " + port);
+        boolean shutdownRequested;
+        synchronized (startLock) {
+            ready = true;
+            shutdownRequested = shutdown;
+        }
+        readySignal.countDown();
+        registerPendingListeners();
+        if (shutdownRequested) {
+            doShutdown();
+        }
+    }
+
+    private void registerPendingListeners() {
+        synchronized (clientsLock) {
+            for (PendingListener pending : pendingListeners) {
+                if (pending.cacheListener != null) {
+                    registerCacheListener(pending.cacheListener, pending.url);
+                } else {
+                    registerCacheProgressListener(pending.progressListener, pending.url);
+                }
+            }
+            pendingListeners.clear();
         }
     }
 
+    /**
+     * Returns whether server is started and serves requests.
+     * Server built with {@link Builder#buildAsync(ProxyStartupListener)} isn't ready until it is started in background.
+     *
+     * @return {@code true} if server is ready.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    Config awaitConfig() {
+        boolean interrupted = false;
+        while (readySignal.getCount() > 0) {
+            try {
+                readySignal.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (startupError != null) {
+            throw new IllegalStateException("Proxy server isn't started", startupError);
+        }
+        return config;
+    }
+
     /**
      * Returns url that wrap original url and should be used for client (MediaPlayer, ExoPlayer, etc).
      * <p>
      * If file for this url is fully cached (it means method {@link #isCached(String)} returns {@code true})
-     * then file:// uri to cached file will be returned.
+     * then file:// uri to cached file will be returned. Stale cached file is revalidated in background
+     * (see {@link Builder#cacheTtl(long)}), meanwhile it keeps being returned.
      * <p>
      * Calling this method has same effect as calling {@link #getProxyUrl(String, boolean)} with 2nd parameter set to {@code true}.
      *
@@ -102,22 +233,73 @@ public class HttpProxyCacheServer {
      * If parameter {@code allowCachedFileUri} is {@code true} and file for this url is fully cached
      * (it means method {@link #isCached(String)} returns {@code true}) then file:// uri to cached file will be returned.
      *
+     * <p>
+     * If server is still being started in background (see {@link Builder#buildAsync(ProxyStartupListener)}),
+     * original url is returned immediately, so it is played without caching. Such urls are counted
+     * in {@link MetricsSnapshot#startupBypasses}, check {@link #isReady()} to find out whether url is proxied.
+     *
      * @param url                a url to file that should be cached.
      * @param allowCachedFileUri {@code true} if allow to return file:// uri if url is fully cached
      * @return a wrapped by proxy url if file is not fully cached or url pointed to cache file otherwise (if {@code allowCachedFileUri} is {@code true}).
      */
     public String getProxyUrl(String url, boolean allowCachedFileUri) {
-        if (allowCachedFileUri && getCacheFile(url).exists()) {
-            File cacheFile = getCacheFile(url);
+        if (!ready) {
+            // don't block caller (usually main thread) while server is started in background
+            long bypasses = startupBypasses.incrementAndGet();
+            Logger.info("Proxy server isn't ready yet, " + url + " is played without cache (" + bypasses + " urls so far)");
+            return url;
+        }
+        File cacheFile = allowCachedFileUri ? getCacheFile(url) : null;
+        if (cacheFile != null && cacheFile.exists()) {
             touchFileSafely(cacheFile);
-            return Uri.fromFile(cacheFile).toString();
+            cacheRevalidator.revalidateIfStale(url, cacheFile);
+            if (config.encryption == null) {
+                config.metrics.onCacheHit();
+                return Uri.fromFile(cacheFile).toString();
+            }
+            // encrypted file can be read only through proxy
+        }
+        if (config.dnsResolver != null) {
+            config.dnsResolver.prefetch(url);
         }
         return appendToProxyUrl(url);
     }
 
+    /**
+     * Returns proxy url as {@link #getProxyUrl(String)} does, caching url in passed namespace.
+     * <p>
+     * Binding of url to namespace overrides {@link NamespaceResolver} and is kept in memory for recently used urls.
+     * File already cached in another namespace is used where it is. If server isn't started yet, original url is
+     * returned and namespace isn't bound.
+     * </p>
+     *
+     * @param url       a url to file that should be cached.
+     * @param namespace a name of namespace added with {@link Builder#addNamespace(CacheNamespace)}
+     *                  or {@link CacheNamespace#DEFAULT}.
+     * @return a wrapped by proxy url if file is not fully cached or url pointed to cache file otherwise.
+     */
+    public String getProxyUrl(String url, String namespace) {
+        checkAllNotNull(url, namespace);
+        if (ready) {
+            config.namespaces.bind(config.cacheKey(url), namespace);
+        }
+        return getProxyUrl(url, true);
+    }
+
+    /**
+     * Registers listener for caching of url. Listener registered before server is started is attached once it is started,
+     * meanwhile url is played without cache.
+     *
+     * @param cacheListener a listener to be notified.
+     * @param url           an url of source to listen for.
+     */
     public void registerCacheListener(CacheListener cacheListener, String url) {
         checkAllNotNull(cacheListener, url);
         synchronized (clientsLock) {
+            if (!ready) {
+                pendingListeners.add(new PendingListener(url, cacheListener, null));
+                return;
+            }
             try {
                 getClients(url).registerCacheListener(cacheListener);
             } catch (ProxyCacheException e) {
@@ -129,6 +311,10 @@ public class HttpProxyCacheServer {
     public void unregisterCacheListener(CacheListener cacheListener, String url) {
         checkAllNotNull(cacheListener, url);
         synchronized (clientsLock) {
+            if (!ready) {
+                pendingListeners.remove(new PendingListener(url, cacheListener, null));
+                return;
+            }
             try {
                 getClients(url).unregisterCacheListener(cacheListener);
             } catch (ProxyCacheException e) {
@@ -137,36 +323,287 @@ public class HttpProxyCacheServer {
         }
     }
 
+    /**
+     * Registers listener for progress of caching in bytes.
+     * Like {@link #registerCacheListener(CacheListener, String)} it is attached once server is started.
+     *
+     * @param progressListener a listener to be notified.
+     * @param url              an url of source to listen for.
+     */
+    public void registerCacheProgressListener(CacheProgressListener progressListener, String url) {
+        checkAllNotNull(progressListener, url);
+        synchronized (clientsLock) {
+            if (!ready) {
+                pendingListeners.add(new PendingListener(url, null, progressListener));
+                return;
+            }
+            try {
+                getClients(url).registerProgressListener(progressListener);
+            } catch (ProxyCacheException e) {
+                Logger.warn("Error registering cache progress listener");
+            }
+        }
+    }
+
+    public void unregisterCacheProgressListener(CacheProgressListener progressListener, String url) {
+        checkAllNotNull(progressListener, url);
+        synchronized (clientsLock) {
+            if (!ready) {
+                pendingListeners.remove(new PendingListener(url, null, progressListener));
+                return;
+            }
+            try {
+                getClients(url).unregisterProgressListener(progressListener);
+            } catch (ProxyCacheException e) {
+                Logger.warn("Error unregistering cache progress listener");
+            }
+        }
+    }
+
     public void unregisterCacheListener(CacheListener cacheListener) {
         checkNotNull(cacheListener);
         synchronized (clientsLock) {
+            Iterator<PendingListener> pending = pendingListeners.iterator();
+            while (pending.hasNext()) {
+                if (pending.next().cacheListener == cacheListener) {
+                    pending.remove();
+                }
+            }
             for (HttpProxyCacheServerClients clients : clientsMap.values()) {
                 clients.unregisterCacheListener(cacheListener);
             }
         }
     }
 
+    /**
+     * Opens reader of source through cache in this process, so player reads data without loopback socket.
+     * Reader shares cache and download with proxy clients and preloads of the same url.
+     * <p>
+     * Method may block while server is started or source info is fetched, so it must not be called from main thread.
+     * </p>
+     *
+     * @param url    an url of source, or proxy url returned by {@link #getProxyUrl(String)}.
+     * @param offset an offset to read source from.
+     * @return reader to be closed after use, or {@code null} if offset is too far from cached data
+     * (e.g. user seeks video), so source should be read from origin directly.
+     * @throws ProxyCacheException if error occur while opening source or cache.
+     */
+    public CacheReader openReader(String url, long offset) throws ProxyCacheException {
+        checkNotNull(url, "Url can't be null!");
+        String sourceUrl = getSourceUrl(url);
+        return getClients(sourceUrl).openReader(sourceUrl, offset);
+    }
+
+    /**
+     * Returns original url of proxy url returned by {@link #getProxyUrl(String)}.
+     *
+     * @param url a proxy url or any other url.
+     * @return original url if passed url is proxy url of this server, passed url otherwise.
+     */
+    public String getSourceUrl(String url) {
+        return isProxyUrl(url) ? ProxyCacheUtils.decode(url.substring(getProxyUrlPrefix().length())) : url;
+    }
+
+    /**
+     * Checks whether url is proxy url returned by {@link #getProxyUrl(String)} of this server.
+     * Urls of other servers listening on loopback interface (e.g. another proxy instance) don't match.
+     *
+     * @param url an url to check.
+     * @return {@code true} if url points to this server.
+     */
+    public boolean isProxyUrl(String url) {
+        return ready && url.startsWith(getProxyUrlPrefix());
+    }
+
+    private String getProxyUrlPrefix() {
+        return String.format(Locale.US, "http://%s:%d/", PROXY_HOST, port);
+    }
+
+    /**
+     * Warms up connection to origin of url in background without downloading data: host is resolved, connection
+     * is established (with TLS handshake) and parked by {@link Builder#transport(Transport) transport} for a short time,
+     * so next request of url reuses it.
+     * <p>
+     * It is much cheaper than preloading and doesn't compete with current video for bandwidth, e.g. pager may
+     * preconnect item N+2 while preloading data only for item N+1. Nothing is done if url is fully cached or
+     * server isn't started yet.
+     * </p>
+     *
+     * @param url an url of source to be requested soon.
+     */
+    public void preconnect(String url) {
+        checkNotNull(url, "Url can't be null!");
+        if (ready) {
+            preconnector.preconnect(url);
+        }
+    }
+
     /**
      * Checks is cache contains fully cached file for particular url.
      *
      * @param url an url cache file will be checked for.
-     * @return {@code true} if cache contains fully cached file for passed in parameters url.
+     * @return {@code true} if cache contains fully cached file for passed in parameters url,
+     * {@code false} if server isn't started yet.
      */
     public boolean isCached(String url) {
         checkNotNull(url, "Url can't be null!");
-        return getCacheFile(url).exists();
+        if (!ready) {
+            return false;
+        }
+        File cacheFile = getCacheFile(url);
+        return cacheFile.exists() || config.isPackedCompleted(cacheFile);
+    }
+
+    /**
+     * Returns current values of proxy metrics.
+     *
+     * @return snapshot of metrics, or {@code null} if metrics are disabled (see {@link Builder#metrics(boolean, boolean)})
+     * or server isn't started yet.
+     */
+    public MetricsSnapshot getMetrics() {
+        if (!ready) {
+            return null;
+        }
+        return config.metrics.isEnabled() ? config.metrics.snapshot(getClientsCount(), startupBypasses.get()) : null;
+    }
+
+    /**
+     * Returns url of loopback endpoint serving metrics as plain text.
+     *
+     * @return url of metrics, or {@code null} if endpoint is disabled (see {@link Builder#metrics(boolean, boolean)})
+     * or server isn't started yet.
+     */
+    public String getMetricsUrl() {
+        if (!ready) {
+            return null;
+        }
+        return config.metricsEndpoint ? String.format(Locale.US, "http://%s:%d/%s", PROXY_HOST, port, METRICS_PATH) : null;
+    }
+
+    /**
+     * Returns ranges of source that are cached on disk, so seeking into them doesn't wait for network.
+     *
+     * @param url an url of source.
+     * @return cached ranges in bytes, empty list if nothing is cached or server isn't started yet.
+     */
+    public List<CachedRange> getCachedRanges(String url) {
+        checkNotNull(url, "Url can't be null!");
+        if (!ready) {
+            return Collections.emptyList();
+        }
+        File cacheFile = getCacheFile(url);
+        if (WindowedCache.exists(cacheFile)) {
+            return WindowedCache.getCachedRanges(cacheFile);
+        }
+        // cache file is filled sequentially, so there is single range at most
+        long cached = cacheFile.exists() ? cacheFile.length() : getTempCacheFile(url).length();
+        if (cached == 0) {
+            cached = config.getPackedLength(cacheFile);
+        }
+        if (config.encryption != null) {
+            cached = config.encryption.getDataLength(cached);
+        }
+        return cached > 0 ? Collections.singletonList(new CachedRange(0, cached)) : Collections.<CachedRange>emptyList();
+    }
+
+    /**
+     * Returns ranges of playback time that are cached on disk.
+     * <p>
+     * Bytes are mapped to time with average bitrate of source (see {@link #setSourceDuration(String, long)}),
+     * so ranges are exact for constant bitrate media and approximate otherwise.
+     * </p>
+     *
+     * @param url an url of source.
+     * @return cached ranges in milliseconds, empty list if nothing is cached, bitrate of source is unknown
+     * or server isn't started yet.
+     */
+    public List<CachedRange> getCachedTimeRanges(String url) {
+        checkNotNull(url, "Url can't be null!");
+        if (!ready) {
+            return Collections.emptyList();
+        }
+        SourceInfo sourceInfo = config.sourceInfoStorage.get(config.cacheKey(url));
+        if (sourceInfo == null || sourceInfo.bitrate <= 0) {
+            return Collections.emptyList();
+        }
+        List<CachedRange> byteRanges = getCachedRanges(url);
+        List<CachedRange> timeRanges = new ArrayList<>(byteRanges.size());
+        for (CachedRange range : byteRanges) {
+            timeRanges.add(new CachedRange(range.start * 1000 / sourceInfo.bitrate, range.end * 1000 / sourceInfo.bitrate));
+        }
+        return timeRanges;
+    }
+
+    /**
+     * Provides duration of source so its average bitrate can be used to measure {@link FillWindow} in seconds.
+     * Should be called when player knows duration of media, e.g. after it is prepared.
+     * Nothing is done if server isn't started yet, because url is played without cache meanwhile.
+     *
+     * @param url            an url of source.
+     * @param durationMillis duration of media in milliseconds.
+     */
+    public void setSourceDuration(String url, long durationMillis) {
+        checkNotNull(url, "Url can't be null!");
+        if (durationMillis <= 0 || !ready) {
+            return;
+        }
+        String cacheKey = config.cacheKey(url);
+        SourceInfo sourceInfo = config.sourceInfoStorage.get(cacheKey);
+        if (sourceInfo == null || sourceInfo.length <= 0) {
+            Logger.debug("Can't calculate bitrate for " + url + ": length is unknown");
+            return;
+        }
+        long bitrate = sourceInfo.length * 1000 / durationMillis;
+        config.sourceInfoStorage.put(cacheKey, sourceInfo.withBitrate(bitrate));
+        synchronized (clientsLock) {
+            HttpProxyCacheServerClients clients = clientsMap.get(cacheKey);
+            if (clients != null) {
+                clients.setSourceBitrate(bitrate);
+            }
+        }
     }
 
     public void shutdown() {
+        synchronized (startLock) {
+            shutdown = true;
+            if (!ready) {
+                Logger.info("Proxy server is still starting, it will be shut down once started");
+                return;
+            }
+        }
+        doShutdown();
+    }
+
+    private void doShutdown() {
         Logger.info("Shutdown proxy server");
 
         shutdownClients();
+        releaseResources();
+    }
 
+    // server may be started partially, e.g. its socket isn't opened
+    private void releaseResources() {
+        if (cacheRevalidator != null) {
+            cacheRevalidator.shutdown();
+        }
+        if (preconnector != null) {
+            preconnector.shutdown();
+        }
+        config.originSelector.shutdown();
+        config.progressScheduler.shutdownNow();
         config.sourceInfoStorage.release();
+        if (config.segmentStore != null) {
+            config.segmentStore.release();
+        }
+        if (config.deduplicator != null) {
+            config.deduplicator.shutdown();
+        }
 
-        waitConnectionThread.interrupt();
+        if (waitConnectionThread != null) {
+            waitConnectionThread.interrupt();
+        }
         try {
-            if (!serverSocket.isClosed()) {
+            if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
         } catch (IOException e) {
@@ -175,28 +612,51 @@ public class HttpProxyCacheServer {
     }
 
     private String appendToProxyUrl(String url) {
-        return String.format(Locale.US, "http://%s:%d/%s", PROXY_HOST, port, ProxyCacheUtils.encode(url));
+        return getProxyUrlPrefix() + ProxyCacheUtils.encode(url);
     }
 
+    /**
+     * Returns file url is cached to.
+     * <p>
+     * Method blocks until server built with {@link Builder#buildAsync(ProxyStartupListener)} is started,
+     * so main thread should check {@link #isReady()} first.
+     * </p>
+     *
+     * @param url an url of source.
+     * @return cache file, it may not exist.
+     */
     public File getCacheFile(String url) {
-        File cacheDir = config.cacheRoot;
-        String fileName = config.fileNameGenerator.generate(url);
-        return new File(cacheDir, fileName);
+        Config config = awaitConfig();
+        return config.generateCacheFile(url);
     }
 
+    /**
+     * Returns file url is cached to while it is downloaded.
+     * Like {@link #getCacheFile(String)} it blocks until server is started.
+     *
+     * @param url an url of source.
+     * @return temporary cache file, it may not exist.
+     */
     public File getTempCacheFile(String url) {
-        File cacheDir = config.cacheRoot;
-        String fileName = config.fileNameGenerator.generate(url) + ".download";
-        return new File(cacheDir, fileName);
+        Config config = awaitConfig();
+        File cacheFile = config.generateCacheFile(url);
+        return new File(cacheFile.getParentFile(), cacheFile.getName() + FileCache.TEMP_POSTFIX);
     }
 
+    /**
+     * Returns cache directory of default namespace.
+     * Like {@link #getCacheFile(String)} it blocks until server is started.
+     *
+     * @return cache directory.
+     */
     public File getCacheRoot() {
+        Config config = awaitConfig();
         return config.cacheRoot;
     }
 
     private void touchFileSafely(File cacheFile) {
         try {
-            config.diskUsage.touch(cacheFile);
+            config.namespaces.diskUsageOf(cacheFile).touch(cacheFile);
         } catch (IOException e) {
             Logger.error("Error touching file " + cacheFile);
         }
@@ -227,9 +687,13 @@ public class HttpProxyCacheServer {
         try {
             GetRequest request = GetRequest.read(socket.getInputStream());
             Logger.debug("Request to cache proxy:" + request);
+            if (config.metricsEndpoint && METRICS_PATH.equals(request.uri)) {
+                responseWithMetrics(socket);
+                return;
+            }
             String url = ProxyCacheUtils.decode(request.uri);
             HttpProxyCacheServerClients clients = getClients(url);
-            clients.processRequest(request, socket);
+            clients.processRequest(url, request, socket);
         } catch (SocketException e) {
             // There is no way to determine that client closed connection http://stackoverflow.com/a/10241044/999458
             // So just to prevent log flooding don't log stacktrace
@@ -242,12 +706,27 @@ public class HttpProxyCacheServer {
         }
     }
 
+    private void responseWithMetrics(Socket socket) throws IOException {
+        byte[] body = config.metrics.snapshot(getClientsCount(), startupBypasses.get()).toText().getBytes("UTF-8");
+        OutputStream out = socket.getOutputStream();
+        String headers = "HTTP/1.1 200 OK\n" +
+                "Content-Type: text/plain; charset=utf-8\n" +
+                "Content-Length: " + body.length + "\n" +
+                "\n";
+        out.write(headers.getBytes("UTF-8"));
+        out.write(body);
+        out.flush();
+    }
+
     private HttpProxyCacheServerClients getClients(String url) throws ProxyCacheException {
+        Config config = awaitConfig();
         synchronized (clientsLock) {
-            HttpProxyCacheServerClients clients = clientsMap.get(url);
+            // urls with the same cache key share single download
+            String cacheKey = config.cacheKey(url);
+            HttpProxyCacheServerClients clients = clientsMap.get(cacheKey);
             if (clients == null) {
                 clients = new HttpProxyCacheServerClients(url, config);
-                clientsMap.put(url, clients);
+                clientsMap.put(cacheKey, clients);
             }
             return clients;
         }
@@ -336,25 +815,95 @@ public class HttpProxyCacheServer {
         }
     }
 
+    /**
+     * {@link CacheListener} or {@link CacheProgressListener} waiting for server to be started.
+     */
+    private static final class PendingListener {
+
+        private final String url;
+        private final CacheListener cacheListener;
+        private final CacheProgressListener progressListener;
+
+        PendingListener(String url, CacheListener cacheListener, CacheProgressListener progressListener) {
+            this.url = url;
+            this.cacheListener = cacheListener;
+            this.progressListener = progressListener;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            PendingListener that = (PendingListener) o;
+            return url.equals(that.url) && cacheListener == that.cacheListener && progressListener == that.progressListener;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = url.hashCode();
+            result = 31 * result + System.identityHashCode(cacheListener);
+            result = 31 * result + System.identityHashCode(progressListener);
+            return result;
+        }
+    }
+
     /**
      * Builder for {@link HttpProxyCacheServer}.
      */
     public static final class Builder {
 
         private static final long DEFAULT_MAX_SIZE = 512 * 1024 * 1024;
+        private static final long DEFAULT_PROGRESS_INTERVAL = 250;
+        private static final String SEGMENTS_DIRECTORY = "segments";
+        private static final String DEDUPLICATION_DIRECTORY = "dedup";
 
         private File cacheRoot;
         private FileNameGenerator fileNameGenerator;
+        private CacheKeyGenerator cacheKeyGenerator;
         private DiskUsage diskUsage;
         private SourceInfoStorage sourceInfoStorage;
         private HeaderInjector headerInjector;
+        private FillWindow fillWindow;
+        private ReconnectPolicy reconnectPolicy;
+        private SourceReconnectListener reconnectListener;
+        private long resolvedUrlTtl;
+        private long cacheTtl;
+        private MirrorProvider mirrorProvider;
+        private HedgePolicy hedgePolicy;
+        private Executor progressExecutor;
+        private long progressIntervalMillis;
+        private boolean metricsEnabled;
+        private boolean metricsEndpoint;
+        private BandwidthListener bandwidthListener;
+        private SegmentPolicy segmentPolicy;
+        private CacheEncryption encryption;
+        private boolean deduplicate;
+        private Transport transport;
+        private CachingDnsResolver dnsResolver;
+        private WindowPolicy windowPolicy;
+        private final List<CacheNamespace> namespaces = new ArrayList<>();
+        private NamespaceResolver namespaceResolver;
+        private final Context context;
 
         public Builder(Context context) {
-            this.sourceInfoStorage = SourceInfoStorageFactory.newSourceInfoStorage(context);
-            this.cacheRoot = StorageUtils.getIndividualCacheDirectory(context);
+            // storage and cache directory touch disk, so they are resolved lazily, when config is built
+            this.context = context.getApplicationContext();
             this.diskUsage = new TotalSizeLruDiskUsage(DEFAULT_MAX_SIZE);
             this.fileNameGenerator = new Md5FileNameGenerator();
+            this.cacheKeyGenerator = new IdentityCacheKeyGenerator();
             this.headerInjector = new EmptyHeadersInjector();
+            this.fillWindow = FillWindow.UNLIMITED;
+            this.reconnectPolicy = ReconnectPolicy.DEFAULT;
+            this.resolvedUrlTtl = HttpUrlSource.DEFAULT_RESOLVED_URL_TTL;
+            this.cacheTtl = -1;
+            this.hedgePolicy = HedgePolicy.DEFAULT;
+            this.progressExecutor = CacheProgress.mainThreadExecutor();
+            this.progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL;
+            this.transport = new UrlConnectionTransport();
         }
 
         /**
@@ -374,6 +923,17 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Overrides storage of source info, e.g. to keep it in memory in tests.
+         *
+         * @param sourceInfoStorage a storage of source info.
+         * @return a builder.
+         */
+        Builder sourceInfoStorage(SourceInfoStorage sourceInfoStorage) {
+            this.sourceInfoStorage = checkNotNull(sourceInfoStorage);
+            return this;
+        }
+
         /**
          * Overrides default cache file name generator {@link Md5FileNameGenerator} .
          *
@@ -385,6 +945,22 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Overrides default cache key generator {@link IdentityCacheKeyGenerator}.
+         * <p>
+         * Urls with the same key share cached file, source's info and download, e.g. use
+         * {@link com.danikula.videocache.key.NormalizingCacheKeyGenerator} to ignore rotating auth tokens of signed urls.
+         * Requests to origin are always made with original url.
+         * </p>
+         *
+         * @param cacheKeyGenerator a new cache key generator.
+         * @return a builder.
+         */
+        public Builder cacheKeyGenerator(CacheKeyGenerator cacheKeyGenerator) {
+            this.cacheKeyGenerator = checkNotNull(cacheKeyGenerator);
+            return this;
+        }
+
         /**
          * Sets max cache size in bytes.
          * <p>
@@ -425,6 +1001,30 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Adds namespace with its own roots and quota. Url is cached in namespace chosen by
+         * {@link #namespaceResolver(NamespaceResolver)} or passed to {@link HttpProxyCacheServer#getProxyUrl(String, String)},
+         * other urls are cached in default namespace configured with this builder.
+         *
+         * @param namespace a namespace, its name and roots must be unique.
+         * @return a builder.
+         */
+        public Builder addNamespace(CacheNamespace namespace) {
+            namespaces.add(checkNotNull(namespace));
+            return this;
+        }
+
+        /**
+         * Sets rule choosing namespace for url.
+         *
+         * @param namespaceResolver a resolver, {@code null} to use default namespace for urls not bound explicitly.
+         * @return a builder.
+         */
+        public Builder namespaceResolver(NamespaceResolver namespaceResolver) {
+            this.namespaceResolver = namespaceResolver;
+            return this;
+        }
+
         /**
          * Add headers along the request to the server
          *
@@ -436,6 +1036,267 @@ public class HttpProxyCacheServer {
             return this;
         }
 
+        /**
+         * Limits how far ahead of playback position source is downloaded.
+         * <p>
+         * By default source is downloaded till the end while any client is connected.
+         * With window set reading of source is suspended when window is filled and resumed as player consumes data.
+         * </p>
+         *
+         * @param fillWindow a fill window, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder fillWindow(FillWindow fillWindow) {
+            this.fillWindow = checkNotNull(fillWindow);
+            return this;
+        }
+
+        /**
+         * Sets policy of detecting stalled connections and reconnecting to source in the middle of stream.
+         * <p>
+         * Default policy is {@link ReconnectPolicy#DEFAULT}, use {@link ReconnectPolicy#NONE} to fail request on first error.
+         * </p>
+         *
+         * @param reconnectPolicy a reconnect policy, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder reconnectPolicy(ReconnectPolicy reconnectPolicy) {
+            this.reconnectPolicy = checkNotNull(reconnectPolicy);
+            return this;
+        }
+
+        /**
+         * Sets listener to be notified when connection to source is restored.
+         *
+         * @param reconnectListener a listener to report reconnects count and recovery time to.
+         * @return a builder.
+         */
+        public Builder sourceReconnectListener(SourceReconnectListener reconnectListener) {
+            this.reconnectListener = reconnectListener;
+            return this;
+        }
+
+        /**
+         * Sets how long final location of redirected source is remembered.
+         * <p>
+         * Later requests go straight to remembered location and follow redirects again only if it fails.
+         * Shorter {@code max-age} of redirect response takes precedence. Default value is 30 minutes, {@code 0} disables caching.
+         * </p>
+         *
+         * @param ttlMillis time to live of resolved location in milliseconds.
+         * @return a builder.
+         */
+        public Builder resolvedUrlTtl(long ttlMillis) {
+            checkArgument(ttlMillis >= 0, "Ttl can't be negative!");
+            this.resolvedUrlTtl = ttlMillis;
+            return this;
+        }
+
+        /**
+         * Enables revalidation of fully cached files.
+         * <p>
+         * Cached file is considered stale after {@code max-age} or {@code Expires} sent by server passes,
+         * or after given ttl if server sends nothing. Stale file is revalidated in background with
+         * {@code If-None-Match}/{@code If-Modified-Since} request and is deleted only if source is changed.
+         * By default cached files are never revalidated.
+         * </p>
+         *
+         * @param ttlMillis freshness time of cached file in milliseconds used if server doesn't declare it.
+         * @return a builder.
+         */
+        public Builder cacheTtl(long ttlMillis) {
+            checkArgument(ttlMillis >= 0, "Ttl can't be negative!");
+            this.cacheTtl = ttlMillis;
+            return this;
+        }
+
+        /**
+         * Sets provider of mirrors, so source can be fetched from any of equivalent origins.
+         * <p>
+         * The best origin is chosen by measured first byte latency and throughput of its host. If it doesn't respond
+         * in time (see {@link #hedgePolicy(HedgePolicy)}) request to the next one is issued and the slower one is cancelled.
+         * Failed origin is replaced with the next one. By default only original url is used.
+         * </p>
+         *
+         * @param mirrorProvider a provider of mirrors.
+         * @return a builder.
+         */
+        public Builder mirrorProvider(MirrorProvider mirrorProvider) {
+            this.mirrorProvider = mirrorProvider;
+            return this;
+        }
+
+        /**
+         * Sets when hedged request to the next mirror is issued. Default policy is {@link HedgePolicy#DEFAULT}.
+         *
+         * @param hedgePolicy a hedge policy, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder hedgePolicy(HedgePolicy hedgePolicy) {
+            this.hedgePolicy = checkNotNull(hedgePolicy);
+            return this;
+        }
+
+        /**
+         * Sets executor {@link CacheListener}s and {@link CacheProgressListener}s are called with.
+         * By default listeners are called on main thread.
+         *
+         * @param executor an executor to deliver progress of caching with, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder progressExecutor(Executor executor) {
+            this.progressExecutor = checkNotNull(executor);
+            return this;
+        }
+
+        /**
+         * Sets min interval between progress notifications for the same url.
+         * Progress is coalesced, so listeners always get the latest state. Default value is 250 ms.
+         *
+         * @param intervalMillis min interval between notifications in milliseconds.
+         * @return a builder.
+         */
+        public Builder progressInterval(long intervalMillis) {
+            checkArgument(intervalMillis >= 0, "Interval can't be negative!");
+            this.progressIntervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * Enables collecting of proxy metrics: cache hits, bytes served from cache and origin, latencies and evictions.
+         * <p>
+         * Metrics are read with {@link HttpProxyCacheServer#getMetrics()}. If endpoint is enabled they are also served as
+         * plain text at {@code http://127.0.0.1:<port>/metrics} (see {@link HttpProxyCacheServer#getMetricsUrl()}).
+         * Metrics are disabled by default and cost nothing in this case.
+         * </p>
+         *
+         * @param enabled  {@code true} to collect metrics.
+         * @param endpoint {@code true} to serve metrics with loopback http endpoint.
+         * @return a builder.
+         */
+        public Builder metrics(boolean enabled, boolean endpoint) {
+            this.metricsEnabled = enabled;
+            this.metricsEndpoint = enabled && endpoint;
+            return this;
+        }
+
+        /**
+         * Sets listener to be fed with throughput samples of downloads from sources.
+         * <p>
+         * Samples can be used to estimate network bandwidth shared with player, e.g. to report download
+         * speed or to choose initial quality of next video.
+         * </p>
+         *
+         * @param bandwidthListener a listener to report samples to, {@code null} to disable sampling.
+         * @return a builder.
+         */
+        public Builder bandwidthListener(BandwidthListener bandwidthListener) {
+            this.bandwidthListener = bandwidthListener;
+            return this;
+        }
+
+        /**
+         * Enables packing of small caches into shared segment files instead of creating file for every url.
+         * <p>
+         * Useful if lots of short beginnings of videos are preloaded: cache directory stays small and disk isn't busy
+         * with creating, syncing and deleting of files. Cache that grows large or is requested often is moved to
+         * standalone file as usual. Segments are stored in {@code segments} subdirectory of cache directory and are
+         * limited by {@link SegmentPolicy#maxSize} in addition to limit of standalone files.
+         * Packing is disabled by default.
+         * </p>
+         *
+         * @param segmentPolicy a policy of packing, e.g. {@link SegmentPolicy#DEFAULT}, {@code null} to disable packing.
+         * @return a builder.
+         */
+        public Builder packedSegments(SegmentPolicy segmentPolicy) {
+            this.segmentPolicy = segmentPolicy;
+            return this;
+        }
+
+        /**
+         * Enables encryption of cached data at rest, so cached media is unreadable outside the app.
+         * <p>
+         * Data is encrypted with AES in counter mode with key per cache entry, so any offset is decrypted independently
+         * and seeking is as fast as without encryption. Fully cached files are served through proxy too,
+         * never as file:// uri. Encryption can't be enabled for already existing cache: clear it or use another directory.
+         * </p>
+         *
+         * @param encryption an encryption, {@code null} to store data as is.
+         * @return a builder.
+         */
+        public Builder encryption(CacheEncryption encryption) {
+            this.encryption = encryption;
+            return this;
+        }
+
+        /**
+         * Enables storing of identical media cached under different urls (CDNs, re-uploads, shared links) once.
+         * <p>
+         * Fully cached file is compared with other ones by its length and hash of its first, middle and last chunks,
+         * duplicate is deleted and its url is served from existing file. Shared file is counted once by
+         * {@link DiskUsage} and deleted only when no url references it. Media is still downloaded once per url.
+         * Deduplication is ignored if {@link #encryption(CacheEncryption)} is enabled, because every entry is
+         * encrypted with its own key.
+         * </p>
+         *
+         * @param deduplicate {@code true} to share identical files between urls.
+         * @return a builder.
+         */
+        public Builder deduplicate(boolean deduplicate) {
+            this.deduplicate = deduplicate;
+            return this;
+        }
+
+        /**
+         * Sets http client used to request sources. Default transport is {@link UrlConnectionTransport}.
+         * <p>
+         * Adapter for client shared with the rest of app (e.g. OkHttp or Cronet) lets proxy reuse its connections,
+         * HTTP/2 multiplexing and QUIC, so preloading of several videos from the same CDN doesn't cost a handshake
+         * for every video. Redirects, mirrors, hedging and revalidation are still handled by proxy.
+         * </p>
+         *
+         * @param transport a transport, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder transport(Transport transport) {
+            this.transport = checkNotNull(transport);
+            return this;
+        }
+
+        /**
+         * Sets resolver to resolve hosts of sources in advance: host is resolved in background as soon as
+         * {@link HttpProxyCacheServer#getProxyUrl(String)} is called, e.g. while upcoming item of feed is preloaded.
+         * <p>
+         * {@link UrlConnectionTransport} resolves hosts with platform resolver, which cache is warmed up this way.
+         * Pass the same resolver to transport adapter and players to share resolved addresses with them.
+         * </p>
+         *
+         * @param dnsResolver a resolver, {@code null} to resolve hosts only when sources are requested.
+         * @return a builder.
+         */
+        public Builder dnsResolver(CachingDnsResolver dnsResolver) {
+            this.dnsResolver = dnsResolver;
+            return this;
+        }
+
+        /**
+         * Enables windowed cache for very large sources (e.g. full-length movies), so they don't take whole quota.
+         * <p>
+         * Source not shorter than {@link WindowPolicy#minSourceLength} is cached in chunks: only its beginning, index
+         * and window around playback position are kept, already watched chunks are evicted, so disk use of entry
+         * is bounded. Seeking within window is served from disk, seeking out of it moves window. Such entries are never
+         * fully cached and are limited by {@link WindowPolicy#maxEntries} apart from limits of other files.
+         * Windowed cache isn't supported with {@link #encryption(CacheEncryption)}. It is disabled by default.
+         * </p>
+         *
+         * @param windowPolicy a policy of window, e.g. {@link WindowPolicy#DEFAULT}, {@code null} to cache sources entirely.
+         * @return a builder.
+         */
+        public Builder windowedCache(WindowPolicy windowPolicy) {
+            this.windowPolicy = windowPolicy;
+            return this;
+        }
+
         /**
          * Builds new instance of {@link HttpProxyCacheServer}.
          *
@@ -446,9 +1307,82 @@ public class HttpProxyCacheServer {
             return new HttpProxyCacheServer(config);
         }
 
+        /**
+         * Builds new instance of {@link HttpProxyCacheServer} and starts it in background.
+         * <p>
+         * Method returns immediately, so it is safe to call it from main thread. Until server is started
+         * {@link HttpProxyCacheServer#getProxyUrl(String)} returns original url and other methods wait for startup.
+         * </p>
+         *
+         * @param startupListener a listener to be notified about startup result and its latency, may be {@code null}.
+         * @return proxy cache. Only single instance should be used across whole app.
+         */
+        public HttpProxyCacheServer buildAsync(ProxyStartupListener startupListener) {
+            return new HttpProxyCacheServer(this, startupListener);
+        }
+
         private Config buildConfig() {
-            return new Config(cacheRoot, fileNameGenerator, diskUsage, sourceInfoStorage, headerInjector);
+            if (sourceInfoStorage == null) {
+                sourceInfoStorage = SourceInfoStorageFactory.newSourceInfoStorage(context);
+            }
+            if (cacheRoot == null) {
+                cacheRoot = StorageUtils.getIndividualCacheDirectory(context);
+            }
+            CacheNamespaces cacheNamespaces = new CacheNamespaces(CacheNamespace.newDefault(cacheRoot, diskUsage), namespaces, namespaceResolver);
+            ProxyMetrics metrics = metricsEnabled ? new ProxyMetrics(true) : ProxyMetrics.DISABLED;
+            SegmentStore segmentStore = openSegmentStore(metrics);
+            ContentDeduplicator deduplicator = null;
+            if (deduplicate && encryption == null) {
+                deduplicator = ContentDeduplicator.open(new File(cacheRoot, DEDUPLICATION_DIRECTORY));
+            } else if (deduplicate) {
+                Logger.warn("Deduplication isn't supported for encrypted cache, it is disabled");
+            }
+            EvictionListener evictionListener = newEvictionListener(metrics, deduplicator);
+            for (CacheNamespace namespace : cacheNamespaces.all()) {
+                if (evictionListener != null && namespace.diskUsage instanceof LruDiskUsage) {
+                    ((LruDiskUsage) namespace.diskUsage).setEvictionListener(evictionListener);
+                }
+            }
+            if (windowPolicy != null && encryption != null) {
+                Logger.warn("Windowed cache isn't supported for encrypted cache, it is disabled");
+                windowPolicy = null;
+            }
+            return new Config(cacheRoot, fileNameGenerator, cacheKeyGenerator, cacheNamespaces, sourceInfoStorage, headerInjector, fillWindow, reconnectPolicy, reconnectListener, resolvedUrlTtl, cacheTtl,
+                    mirrorProvider, new OriginSelector(hedgePolicy), progressExecutor, Executors.newSingleThreadScheduledExecutor(),
+                    progressIntervalMillis, metrics, metricsEndpoint, bandwidthListener, segmentStore, encryption, deduplicator,
+                    transport, dnsResolver, windowPolicy, context);
+        }
+
+        private EvictionListener newEvictionListener(final ProxyMetrics metrics, final ContentDeduplicator deduplicator) {
+            if (deduplicator == null) {
+                return metrics.isEnabled() ? metrics : null;
+            }
+            // evicted file may be shared by several urls, its references are dropped along with it
+            return new EvictionListener() {
+                @Override
+                public void onEvicted(File file, long size) {
+                    metrics.onEvicted(file, size);
+                    deduplicator.onEvicted(file, size);
+                }
+            };
+        }
+
+        private SegmentStore openSegmentStore(ProxyMetrics metrics) {
+            if (segmentPolicy == null) {
+                return null;
+            }
+            try {
+                SegmentStore segmentStore = SegmentStore.open(new File(cacheRoot, SEGMENTS_DIRECTORY), segmentPolicy);
+                if (metrics.isEnabled()) {
+                    segmentStore.setEvictionListener(metrics);
+                }
+                return segmentStore;
+            } catch (IOException e) {
+                // every url is cached into its own file as usual
+                Logger.error("Error opening segment store, packing is disabled: " + e);
+                return null;
+            }
         }
 
     }
-}
+}
\ No newline at end of file
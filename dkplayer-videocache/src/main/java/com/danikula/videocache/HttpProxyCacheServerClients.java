@@ -1,10 +1,6 @@
 package com.danikula.videocache;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.os.Message;
-
-import com.danikula.videocache.file.FileCache;
+import com.danikula.videocache.file.ResumableCache;
 
 import java.io.File;
 import java.io.IOException;
@@ -24,19 +20,31 @@ final class HttpProxyCacheServerClients {
 
     private final AtomicInteger clientsCount = new AtomicInteger(0);
     private final String url;
+    private volatile String sourceUrl;
     private volatile HttpProxyCache proxyCache;
     private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
-    private final CacheListener uiCacheListener;
+    private final List<CacheProgressListener> progressListeners = new CopyOnWriteArrayList<>();
+    private final CacheProgress cacheProgress;
     private final Config config;
 
     public HttpProxyCacheServerClients(String url, Config config) {
         this.url = checkNotNull(url);
+        this.sourceUrl = url;
         this.config = checkNotNull(config);
-        this.uiCacheListener = new UiListenerHandler(url, listeners);
+        this.cacheProgress = new CacheProgress(url, listeners, progressListeners, config.progressExecutor,
+                config.progressScheduler, config.progressIntervalMillis);
     }
 
-    public void processRequest(GetRequest request, Socket socket) throws ProxyCacheException, IOException {
-        startProcessRequest();
+    /**
+     * Processes request of client.
+     *
+     * @param url     an url requested by client, it may differ from urls of other clients sharing the same cache key
+     *                (e.g. signed url with fresh token), so source opened for this request uses it.
+     * @param request a request of client.
+     * @param socket  a socket of client.
+     */
+    public void processRequest(String url, GetRequest request, Socket socket) throws ProxyCacheException, IOException {
+        startProcessRequest(url);
         try {
             clientsCount.incrementAndGet();
             proxyCache.processRequest(request, socket);
@@ -45,13 +53,48 @@ final class HttpProxyCacheServerClients {
         }
     }
 
-    private synchronized void startProcessRequest() throws ProxyCacheException {
+    /**
+     * Opens reader of source in this process, it is counted as one more client.
+     *
+     * @param url    an url requested by reader, see {@link #processRequest(String, GetRequest, Socket)}.
+     * @param offset an offset to read source from.
+     * @return reader or {@code null} if offset is too far from cached data, so source should be read directly.
+     * @throws ProxyCacheException if error occur while opening source or cache.
+     */
+    public CacheReader openReader(String url, long offset) throws ProxyCacheException {
+        startProcessRequest(url);
+        clientsCount.incrementAndGet();
+        try {
+            HttpProxyCache proxyCache = this.proxyCache;
+            if (!proxyCache.isUseCache(offset > 0, offset)) {
+                finishProcessRequest();
+                return null;
+            }
+            return new CacheReader(this, proxyCache, offset);
+        } catch (ProxyCacheException e) {
+            finishProcessRequest();
+            throw e;
+        }
+    }
+
+    void releaseReader() {
+        finishProcessRequest();
+    }
+
+    private synchronized void startProcessRequest(String url) throws ProxyCacheException {
+        // source already opened keeps its url, the latest one is used when source is opened again
+        sourceUrl = checkNotNull(url);
         proxyCache = proxyCache == null ? newHttpProxyCache() : proxyCache;
     }
 
     private synchronized void finishProcessRequest() {
-        if (clientsCount.decrementAndGet() <= 0) {
+        // reader may be closed after clients are shut down
+        if (clientsCount.decrementAndGet() <= 0 && proxyCache != null) {
             proxyCache.shutdown();
+            File completedFile = config.deduplicator == null ? null : proxyCache.getCompletedFile();
+            if (completedFile != null) {
+                config.deduplicator.onCompleted(completedFile);
+            }
             proxyCache = null;
         }
     }
@@ -64,10 +107,25 @@ final class HttpProxyCacheServerClients {
         listeners.remove(cacheListener);
     }
 
+    public void registerProgressListener(CacheProgressListener progressListener) {
+        progressListeners.add(progressListener);
+    }
+
+    public void unregisterProgressListener(CacheProgressListener progressListener) {
+        progressListeners.remove(progressListener);
+    }
+
+    public synchronized void setSourceBitrate(long bitrate) {
+        if (proxyCache != null) {
+            proxyCache.setSourceBitrate(bitrate);
+        }
+    }
+
     public void shutdown() {
         listeners.clear();
+        progressListeners.clear();
         if (proxyCache != null) {
-            proxyCache.registerCacheListener(null);
+            proxyCache.setCacheProgress(null);
             proxyCache.shutdown();
             proxyCache = null;
         }
@@ -79,37 +137,16 @@ final class HttpProxyCacheServerClients {
     }
 
     private HttpProxyCache newHttpProxyCache() throws ProxyCacheException {
-        HttpUrlSource source = new HttpUrlSource(url, config.sourceInfoStorage, config.headerInjector);
-        FileCache cache = new FileCache(config.generateCacheFile(url), config.diskUsage);
+        // source requests original url of the latest request, while cache file is named after url's cache key
+        String sourceUrl = this.sourceUrl;
+        HttpUrlSource source = new HttpUrlSource(sourceUrl, config);
+        ResumableCache cache = config.openCache(sourceUrl, source);
         HttpProxyCache httpProxyCache = new HttpProxyCache(source, cache);
-        httpProxyCache.registerCacheListener(uiCacheListener);
+        httpProxyCache.setFillWindow(config);
+        httpProxyCache.setReconnectPolicy(config.reconnectPolicy);
+        httpProxyCache.registerReconnectListener(config.reconnectListener);
+        httpProxyCache.setCacheProgress(cacheProgress);
+        httpProxyCache.setMetrics(config.metrics);
         return httpProxyCache;
     }
-
-    private static final class UiListenerHandler extends Handler implements CacheListener {
-
-        private final String url;
-        private final List<CacheListener> listeners;
-
-        public UiListenerHandler(String url, List<CacheListener> listeners) {
-            super(Looper.getMainLooper());
-            this.url = url;
-            this.listeners = listeners;
-        }
-
-        @Override
-        public void onCacheAvailable(File file, String url, int percentsAvailable) {
-            Message message = obtainMessage();
-            message.arg1 = percentsAvailable;
-            message.obj = file;
-            sendMessage(message);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            for (CacheListener cacheListener : listeners) {
-                cacheListener.onCacheAvailable((File) msg.obj, url, msg.arg1);
-            }
-        }
-    }
 }
@@ -6,19 +6,34 @@ import com.danikula.videocache.headers.EmptyHeadersInjector;
 import com.danikula.videocache.headers.HeaderInjector;
 import com.danikula.videocache.sourcestorage.SourceInfoStorage;
 import com.danikula.videocache.sourcestorage.SourceInfoStorageFactory;
+import com.danikula.videocache.transport.Transport;
+import com.danikula.videocache.transport.TransportCall;
+import com.danikula.videocache.transport.TransportRequest;
+import com.danikula.videocache.transport.TransportResponse;
+import com.danikula.videocache.transport.UrlConnectionTransport;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.danikula.videocache.Preconditions.checkNotNull;
 import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
 import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
 import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_PARTIAL;
 import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
@@ -31,11 +46,33 @@ import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
 public class HttpUrlSource implements Source {
 
     private static final int MAX_REDIRECTS = 5;
+    private static final int REVALIDATION_TIMEOUT = 10000;
+    private static final int PRECONNECT_TIMEOUT = 10000;
+    static final long DEFAULT_RESOLVED_URL_TTL = 30 * 60 * 1000;
+
+    private final String cacheKey;
     private final SourceInfoStorage sourceInfoStorage;
     private final HeaderInjector headerInjector;
+    private final ReconnectPolicy reconnectPolicy;
+    private final long resolvedUrlTtl;
+    private final long cacheTtl;
+    private final List<String> mirrors;
+    private final OriginSelector originSelector;
+    private final ProxyMetrics metrics;
+    private final BandwidthListener bandwidthListener;
+    private final Transport transport;
     private SourceInfo sourceInfo;
-    private HttpURLConnection connection;
+    private TransportResponse response;
     private InputStream inputStream;
+    private long throughputCheckStart;
+    private long throughputCheckBytes;
+    private volatile String ifRange;
+    private volatile boolean partialResponse;
+    private String origin;
+    private long openedAt;
+    private long bytesRead;
+    private long sampleBytes;
+    private long sampleNanos;
 
     public HttpUrlSource(String url) {
         this(url, SourceInfoStorageFactory.newEmptySourceInfoStorage());
@@ -46,17 +83,56 @@ public class HttpUrlSource implements Source {
     }
 
     public HttpUrlSource(String url, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector) {
+        this(url, sourceInfoStorage, headerInjector, ReconnectPolicy.NONE);
+    }
+
+    public HttpUrlSource(String url, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector, ReconnectPolicy reconnectPolicy) {
+        this(url, sourceInfoStorage, headerInjector, reconnectPolicy, new UrlConnectionTransport());
+    }
+
+    public HttpUrlSource(String url, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector, ReconnectPolicy reconnectPolicy,
+                         Transport transport) {
+        this(url, url, sourceInfoStorage, headerInjector, reconnectPolicy, DEFAULT_RESOLVED_URL_TTL, -1,
+                Collections.<String>emptyList(), null, ProxyMetrics.DISABLED, null, transport);
+    }
+
+    HttpUrlSource(String url, Config config) {
+        this(url, config.cacheKey(url), config.sourceInfoStorage, config.headerInjector, config.reconnectPolicy, config.resolvedUrlTtl, config.cacheTtl,
+                config.getMirrors(url), config.originSelector, config.metrics, config.bandwidthListener, config.transport);
+    }
+
+    HttpUrlSource(String url, String cacheKey, SourceInfoStorage sourceInfoStorage, HeaderInjector headerInjector,
+                  ReconnectPolicy reconnectPolicy, long resolvedUrlTtl, long cacheTtl, List<String> mirrors, OriginSelector originSelector,
+                  ProxyMetrics metrics, BandwidthListener bandwidthListener, Transport transport) {
+        this.cacheKey = checkNotNull(cacheKey);
         this.sourceInfoStorage = checkNotNull(sourceInfoStorage);
         this.headerInjector = checkNotNull(headerInjector);
-        SourceInfo sourceInfo = sourceInfoStorage.get(url);
-        this.sourceInfo = sourceInfo != null ? sourceInfo :
+        this.reconnectPolicy = checkNotNull(reconnectPolicy);
+        this.resolvedUrlTtl = resolvedUrlTtl;
+        this.cacheTtl = cacheTtl;
+        this.mirrors = checkNotNull(mirrors);
+        this.originSelector = originSelector;
+        this.metrics = checkNotNull(metrics);
+        this.bandwidthListener = bandwidthListener;
+        this.transport = checkNotNull(transport);
+        SourceInfo sourceInfo = sourceInfoStorage.get(cacheKey);
+        this.sourceInfo = sourceInfo != null ? sourceInfo.withUrl(url) :
                 new SourceInfo(url, Integer.MIN_VALUE, ProxyCacheUtils.getSupposablyMime(url));
     }
 
     public HttpUrlSource(HttpUrlSource source) {
+        this.cacheKey = source.cacheKey;
         this.sourceInfo = source.sourceInfo;
         this.sourceInfoStorage = source.sourceInfoStorage;
         this.headerInjector = source.headerInjector;
+        this.reconnectPolicy = source.reconnectPolicy;
+        this.resolvedUrlTtl = source.resolvedUrlTtl;
+        this.cacheTtl = source.cacheTtl;
+        this.mirrors = source.mirrors;
+        this.originSelector = source.originSelector;
+        this.metrics = source.metrics;
+        this.bandwidthListener = source.bandwidthListener;
+        this.transport = source.transport;
     }
 
     @Override
@@ -70,54 +146,123 @@ public class HttpUrlSource implements Source {
     @Override
     public void open(long offset) throws ProxyCacheException {
         try {
-            connection = openConnection(offset, -1);
-            String mime = connection.getContentType();
-            inputStream = new BufferedInputStream(connection.getInputStream(), DEFAULT_BUFFER_SIZE);
-            long length = readSourceAvailableBytes(connection, offset, connection.getResponseCode());
-            this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime);
-            this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
+            OriginConnection originConnection = openOriginConnection(offset, reconnectPolicy.stallTimeoutMillis, false);
+            response = originConnection.response;
+            origin = originConnection.request.origin;
+            openedAt = System.currentTimeMillis();
+            bytesRead = 0;
+            sampleBytes = 0;
+            sampleNanos = 0;
+            partialResponse = response.getCode() == HTTP_PARTIAL;
+            throughputCheckStart = 0;
+            String mime = response.getHeader("Content-Type");
+            inputStream = new BufferedInputStream(response.getBody(), DEFAULT_BUFFER_SIZE);
+            long length = readSourceAvailableBytes(response, offset, response.getCode());
+            updateSourceInfo(response, offset, length, mime);
         } catch (IOException e) {
             throw new ProxyCacheException("Error opening connection for " + sourceInfo.url + " with offset " + offset, e);
         }
     }
 
-    private long readSourceAvailableBytes(HttpURLConnection connection, long offset, int responseCode) throws IOException {
-        long contentLength = getContentLength(connection);
+    private long readSourceAvailableBytes(TransportResponse response, long offset, int responseCode) {
+        long contentLength = getContentLength(response);
         return responseCode == HTTP_OK ? contentLength
                 : responseCode == HTTP_PARTIAL ? contentLength + offset : sourceInfo.length;
     }
 
-    private long getContentLength(HttpURLConnection connection) {
-        String contentLengthValue = connection.getHeaderField("Content-Length");
+    private void updateSourceInfo(TransportResponse response, long offset, long length, String mime) {
+        int acceptRanges = readAcceptRanges(response, offset);
+        String etag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+        this.sourceInfo = sourceInfo.withContent(length, mime, acceptRanges, etag, lastModified, readExpires(response));
+        this.sourceInfoStorage.put(cacheKey, sourceInfo);
+    }
+
+    private long readExpires(TransportResponse response) {
+        long now = System.currentTimeMillis();
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl != null && (cacheControl.contains("no-cache") || cacheControl.contains("no-store"))) {
+            return now;
+        }
+        long maxAge = ProxyCacheUtils.parseMaxAge(cacheControl);
+        if (maxAge >= 0) {
+            return now + maxAge * 1000;
+        }
+        long expires = ProxyCacheUtils.parseHttpDate(response.getHeader("Expires"));
+        if (expires > 0) {
+            return expires;
+        }
+        return cacheTtl >= 0 ? now + cacheTtl : 0;
+    }
+
+    private int readAcceptRanges(TransportResponse response, long offset) {
+        if (offset > 0) {
+            return response.getCode() == HTTP_PARTIAL ? SourceInfo.RANGES_SUPPORTED : SourceInfo.RANGES_UNSUPPORTED;
+        }
+        String acceptRanges = response.getHeader("Accept-Ranges");
+        if ("bytes".equalsIgnoreCase(acceptRanges)) {
+            return SourceInfo.RANGES_SUPPORTED;
+        }
+        return "none".equalsIgnoreCase(acceptRanges) ? SourceInfo.RANGES_UNSUPPORTED : sourceInfo.acceptRanges;
+    }
+
+    private long getContentLength(TransportResponse response) {
+        String contentLengthValue = response.getHeader("Content-Length");
         return contentLengthValue == null ? -1 : Long.parseLong(contentLengthValue);
     }
 
     @Override
     public void close() throws ProxyCacheException {
-        if (connection != null) {
-            try {
-                connection.disconnect();
-            } catch (NullPointerException | IllegalArgumentException e) {
-                String message = "Wait... but why? WTF!? " +
-                        "Really shouldn't happen any more after fixing https://github.com/danikula/AndroidVideoCache/issues/43. " +
-                        "If you read it on your device log, please, notify me danikula@gmail.com or create issue here " +
-                        "https://github.com/danikula/AndroidVideoCache/issues.";
-                throw new RuntimeException(message, e);
-            } catch (ArrayIndexOutOfBoundsException e) {
-                Logger.error("Error closing connection correctly. Should happen only on Android L. " +
-                        "If anybody know how to fix it, please visit https://github.com/danikula/AndroidVideoCache/issues/88. " +
-                        "Until good solution is not know, just ignore this issue.");
-            }
+        if (originSelector != null && origin != null) {
+            originSelector.onTransfer(origin, bytesRead, System.currentTimeMillis() - openedAt);
+            origin = null;
+        }
+        metrics.onBytesDownloaded(bytesRead);
+        bytesRead = 0;
+        reportBandwidthSample();
+        if (response != null) {
+            response.close();
         }
     }
 
     @Override
     public int read(byte[] buffer) throws ProxyCacheException {
+        return read(buffer, buffer.length);
+    }
+
+    /**
+     * Skips data of opened response, e.g. beginning of full content sent by origin that ignores {@code Range}.
+     *
+     * @param count count of bytes to skip.
+     * @throws ProxyCacheException if response ends before skipped data or error occur while reading it.
+     */
+    public void skip(long count) throws ProxyCacheException {
+        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+        long skipped = 0;
+        while (skipped < count) {
+            int readBytes = read(buffer, (int) Math.min(buffer.length, count - skipped));
+            if (readBytes == -1) {
+                throw new ProxyCacheException("Response of " + sourceInfo.url + " ends at " + skipped + " while skipping " + count + " bytes");
+            }
+            skipped += readBytes;
+        }
+    }
+
+    private int read(byte[] buffer, int length) throws ProxyCacheException {
         if (inputStream == null) {
             throw new ProxyCacheException("Error reading data from " + sourceInfo.url + ": connection is absent!");
         }
         try {
-            return inputStream.read(buffer, 0, buffer.length);
+            long start = bandwidthListener != null ? System.nanoTime() : 0;
+            int readBytes = inputStream.read(buffer, 0, length);
+            bytesRead += Math.max(readBytes, 0);
+            if (bandwidthListener != null) {
+                onBandwidthSampled(readBytes, System.nanoTime() - start);
+            }
+            checkThroughput(readBytes);
+            return readBytes;
+        } catch (SocketTimeoutException e) {
+            throw new ProxyCacheException("Source " + sourceInfo.url + " is stalled: no data during " + reconnectPolicy.stallTimeoutMillis + " ms", e);
         } catch (InterruptedIOException e) {
             throw new InterruptedProxyCacheException("Reading source " + sourceInfo.url + " is interrupted", e);
         } catch (IOException e) {
@@ -125,63 +270,320 @@ public class HttpUrlSource implements Source {
         }
     }
 
+    private void onBandwidthSampled(int readBytes, long elapsedNanos) {
+        sampleNanos += elapsedNanos;
+        sampleBytes += Math.max(readBytes, 0);
+        if (sampleBytes >= BandwidthListener.SAMPLE_BYTES) {
+            reportBandwidthSample();
+        }
+    }
+
+    private void reportBandwidthSample() {
+        long elapsedMillis = sampleNanos / 1000000;
+        if (bandwidthListener != null && sampleBytes > 0 && elapsedMillis > 0) {
+            bandwidthListener.onTransfer(sourceInfo.url, sampleBytes, elapsedMillis);
+        }
+        sampleBytes = 0;
+        sampleNanos = 0;
+    }
+
+    private void checkThroughput(int readBytes) throws ProxyCacheException {
+        if (!reconnectPolicy.isStallDetectionEnabled() || reconnectPolicy.minBytesPerSecond <= 0 || readBytes < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (throughputCheckStart == 0) {
+            throughputCheckStart = now;
+            throughputCheckBytes = 0;
+        }
+        throughputCheckBytes += readBytes;
+        long elapsed = now - throughputCheckStart;
+        if (elapsed >= reconnectPolicy.stallTimeoutMillis) {
+            long bytesPerSecond = throughputCheckBytes * 1000 / elapsed;
+            if (bytesPerSecond < reconnectPolicy.minBytesPerSecond) {
+                throw new ProxyCacheException("Source " + sourceInfo.url + " is stalled: throughput is " + bytesPerSecond + " bytes/s");
+            }
+            throughputCheckStart = now;
+            throughputCheckBytes = 0;
+        }
+    }
+
     private void fetchContentInfo() throws ProxyCacheException {
         Logger.debug("Read content info from " + sourceInfo.url);
-        HttpURLConnection urlConnection = null;
+        TransportResponse response = null;
         InputStream inputStream = null;
         try {
-            urlConnection = openConnection(0, 10000);
-            long length = getContentLength(urlConnection);
-            String mime = urlConnection.getContentType();
-            inputStream = urlConnection.getInputStream();
-            this.sourceInfo = new SourceInfo(sourceInfo.url, length, mime);
-            this.sourceInfoStorage.put(sourceInfo.url, sourceInfo);
+            response = openResponse(0, 10000, false);
+            long length = getContentLength(response);
+            String mime = response.getHeader("Content-Type");
+            inputStream = response.getBody();
+            updateSourceInfo(response, 0, length, mime);
             Logger.debug("Source info fetched: " + sourceInfo);
         } catch (IOException e) {
             Logger.error("Error fetching info from " + sourceInfo.url);
         } finally {
             ProxyCacheUtils.close(inputStream);
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            if (response != null) {
+                response.close();
             }
         }
     }
 
-    private HttpURLConnection openConnection(long offset, int timeout) throws IOException, ProxyCacheException {
-        HttpURLConnection connection;
+    private TransportResponse openResponse(long offset, int timeout, boolean conditional) throws IOException, ProxyCacheException {
+        return openOriginConnection(offset, timeout, conditional).response;
+    }
+
+    private OriginConnection openOriginConnection(long offset, int timeout, boolean conditional) throws IOException, ProxyCacheException {
+        String url = sourceInfo.url;
+        List<String> origins = originSelector == null || mirrors.isEmpty() ?
+                Collections.singletonList(url) : originSelector.order(url, mirrors);
+        OriginConnection originConnection = origins.size() == 1 ?
+                openOrigin(new OriginRequest(origins.get(0), offset, timeout, conditional)) :
+                openHedged(origins, offset, timeout, conditional);
+        if (originConnection.request.origin.equals(url) && originConnection.resolvedUntil >= 0) {
+            rememberResolvedUrl(originConnection.resolvedUrl, originConnection.resolvedUntil);
+        }
+        return originConnection;
+    }
+
+    private OriginConnection openHedged(List<String> origins, long offset, int timeout, boolean conditional) throws IOException, ProxyCacheException {
+        CompletionService<OriginConnection> completion = new ExecutorCompletionService<>(originSelector.getExecutor());
+        List<OriginRequest> requests = new ArrayList<>();
+        boolean hedged = !originSelector.getHedgePolicy().isEnabled();
+        int pending = 0;
+        Throwable error = null;
+        try {
+            do {
+                if (pending == 0) {
+                    submitRequest(completion, requests, origins.get(requests.size()), offset, timeout, conditional);
+                    pending++;
+                }
+                Future<OriginConnection> completed;
+                if (!hedged && requests.size() < origins.size()) {
+                    OriginRequest awaited = requests.get(requests.size() - 1);
+                    long hedgeDelay = originSelector.hedgeDelay(awaited.origin);
+                    completed = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                    if (completed == null) {
+                        Logger.debug("No response from " + awaited.origin + " during " + hedgeDelay + " ms, hedge request");
+                        submitRequest(completion, requests, origins.get(requests.size()), offset, timeout, conditional);
+                        pending++;
+                        hedged = true;
+                        continue;
+                    }
+                } else {
+                    completed = completion.take();
+                }
+                pending--;
+                try {
+                    OriginConnection winner = completed.get();
+                    cancelRequests(requests, winner.request);
+                    return winner;
+                } catch (ExecutionException e) {
+                    // wait for hedged request or fail over to the next origin
+                    error = e.getCause();
+                }
+            } while (pending > 0 || requests.size() < origins.size());
+        } catch (InterruptedException e) {
+            cancelRequests(requests, null);
+            throw new InterruptedProxyCacheException("Opening connection to " + sourceInfo.url + " is interrupted", e);
+        }
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof ProxyCacheException) {
+            throw (ProxyCacheException) error;
+        }
+        throw new ProxyCacheException("Error opening connection to " + sourceInfo.url, error);
+    }
+
+    private void submitRequest(CompletionService<OriginConnection> completion, List<OriginRequest> requests, String origin,
+                               long offset, int timeout, boolean conditional) {
+        OriginRequest request = new OriginRequest(origin, offset, timeout, conditional);
+        requests.add(request);
+        completion.submit(request);
+    }
+
+    private void cancelRequests(List<OriginRequest> requests, OriginRequest winner) {
+        for (OriginRequest request : requests) {
+            if (request != winner) {
+                request.cancel();
+            }
+        }
+    }
+
+    private OriginConnection openOrigin(OriginRequest request) throws IOException, ProxyCacheException {
+        long start = System.currentTimeMillis();
+        try {
+            OriginConnection originConnection = connectOrigin(request);
+            metrics.onOriginFirstByte(System.currentTimeMillis() - start);
+            if (originSelector != null) {
+                originSelector.onFirstByte(request.origin, System.currentTimeMillis() - start);
+            }
+            return originConnection;
+        } catch (IOException | ProxyCacheException e) {
+            if (originSelector != null && request.isCancelled()) {
+                // lost the race: latency is unknown, but surely not less than time spent
+                originSelector.onFirstByte(request.origin, System.currentTimeMillis() - start);
+            } else if (originSelector != null) {
+                originSelector.onFailure(request.origin);
+            }
+            throw e;
+        }
+    }
+
+    private OriginConnection connectOrigin(OriginRequest request) throws IOException, ProxyCacheException {
+        SourceInfo sourceInfo = this.sourceInfo;
+        boolean primary = request.origin.equals(sourceInfo.url);
+        if (primary && sourceInfo.isResolvedUrlValid()) {
+            TransportResponse response = openResolvedConnection(request, sourceInfo.resolvedUrl);
+            if (response != null) {
+                return new OriginConnection(request, response, null, -1);
+            }
+        }
+        return resolveConnection(request, primary && sourceInfo.resolvedUrl != null);
+    }
+
+    private TransportResponse openResolvedConnection(OriginRequest request, String url) throws IOException {
+        TransportResponse response = null;
+        try {
+            response = request.connect(url);
+            int code = response.getCode();
+            if (code == HTTP_OK || code == HTTP_PARTIAL || code == HTTP_NOT_MODIFIED) {
+                return response;
+            }
+            Logger.debug("Resolved url " + url + " responds with " + code + ", resolve " + request.origin + " again");
+        } catch (IOException e) {
+            if (request.isCancelled()) {
+                throw e;
+            }
+            Logger.debug("Error opening resolved url " + url + ", resolve " + request.origin + " again");
+        }
+        if (response != null) {
+            response.close();
+        }
+        return null;
+    }
+
+    private OriginConnection resolveConnection(OriginRequest request, boolean forgetResolvedUrl) throws IOException, ProxyCacheException {
+        TransportResponse response;
         boolean redirected;
         int redirectCount = 0;
-        String url = this.sourceInfo.url;
+        long resolvedUrlTtl = this.resolvedUrlTtl;
+        String url = request.origin;
+        long start = System.currentTimeMillis();
         do {
-            Logger.debug("Open connection " + (offset > 0 ? " with offset " + offset : "") + " to " + url);
-            connection = (HttpURLConnection) new URL(url).openConnection();
-            injectCustomHeaders(connection, url);
-            if (offset > 0) {
-                connection.setRequestProperty("Range", "bytes=" + offset + "-");
-            }
-            if (timeout > 0) {
-                connection.setConnectTimeout(timeout);
-                connection.setReadTimeout(timeout);
-            }
-            int code = connection.getResponseCode();
+            response = request.connect(url);
+            int code = response.getCode();
             redirected = code == HTTP_MOVED_PERM || code == HTTP_MOVED_TEMP || code == HTTP_SEE_OTHER;
             if (redirected) {
-                url = connection.getHeaderField("Location");
+                url = response.getHeader("Location");
                 redirectCount++;
-                connection.disconnect();
+                long maxAge = ProxyCacheUtils.parseMaxAge(response.getHeader("Cache-Control"));
+                resolvedUrlTtl = maxAge >= 0 ? Math.min(resolvedUrlTtl, maxAge * 1000) : resolvedUrlTtl;
+                response.close();
             }
             if (redirectCount > MAX_REDIRECTS) {
                 throw new ProxyCacheException("Too many redirects: " + redirectCount);
             }
         } while (redirected);
-        return connection;
+        if (redirectCount > 0) {
+            metrics.onOriginRedirected(System.currentTimeMillis() - start);
+        }
+        if (redirectCount > 0 && resolvedUrlTtl > 0) {
+            return new OriginConnection(request, response, url, System.currentTimeMillis() + resolvedUrlTtl);
+        }
+        return new OriginConnection(request, response, null, forgetResolvedUrl ? 0 : -1);
     }
 
-    private void injectCustomHeaders(HttpURLConnection connection, String url) {
-        Map<String, String> extraHeaders = headerInjector.addHeaders(url);
-        for (Map.Entry<String, String> header : extraHeaders.entrySet()) {
-            connection.setRequestProperty(header.getKey(), header.getValue());
+    private TransportRequest newRequest(String url, long offset, int timeout, boolean conditional) {
+        Logger.debug("Open connection " + (offset > 0 ? " with offset " + offset : "") + " to " + url);
+        Map<String, String> headers = new LinkedHashMap<>(headerInjector.addHeaders(url));
+        if (offset > 0) {
+            headers.put("Range", "bytes=" + offset + "-");
+            String ifRange = this.ifRange;
+            if (ifRange != null) {
+                headers.put("If-Range", ifRange);
+            }
+        }
+        if (conditional) {
+            injectConditionalHeaders(headers);
         }
+        return new TransportRequest(url, headers, timeout, metrics.isEnabled() ? metrics : null);
+    }
+
+    private void injectConditionalHeaders(Map<String, String> headers) {
+        if (sourceInfo.etag != null) {
+            headers.put("If-None-Match", sourceInfo.etag);
+        }
+        if (sourceInfo.lastModified != null) {
+            headers.put("If-Modified-Since", sourceInfo.lastModified);
+        }
+    }
+
+    private void rememberResolvedUrl(String resolvedUrl, long resolvedUntil) {
+        this.sourceInfo = sourceInfo.withResolvedUrl(resolvedUrl, resolvedUntil);
+        this.sourceInfoStorage.put(cacheKey, sourceInfo);
+    }
+
+    /**
+     * Checks with conditional request whether source is changed since its info was stored last time.
+     * Freshness of source is prolonged if it is not changed.
+     *
+     * @return {@code true} if source is not changed.
+     * @throws ProxyCacheException if error occur while requesting source.
+     */
+    public synchronized boolean revalidate() throws ProxyCacheException {
+        Logger.debug("Revalidate " + sourceInfo.url);
+        SourceInfo cachedSourceInfo = sourceInfo;
+        TransportResponse response = null;
+        try {
+            response = openResponse(0, REVALIDATION_TIMEOUT, true);
+            int code = response.getCode();
+            if (code == HTTP_NOT_MODIFIED) {
+                this.sourceInfo = sourceInfo.withExpires(readExpires(response));
+                this.sourceInfoStorage.put(cacheKey, sourceInfo);
+                return true;
+            }
+            if (code != HTTP_OK) {
+                throw new ProxyCacheException("Error revalidating " + sourceInfo.url + ": response code is " + code);
+            }
+            updateSourceInfo(response, 0, getContentLength(response), response.getHeader("Content-Type"));
+            return isSameContent(cachedSourceInfo, sourceInfo);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error revalidating " + sourceInfo.url, e);
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Connects to the best origin of source in advance without requesting data, so next {@link #open(long)}
+     * reuses connection instead of resolving host and handshaking. Remembered redirect is followed in advance too.
+     *
+     * @throws ProxyCacheException if connection can't be established.
+     */
+    public void preconnect() throws ProxyCacheException {
+        SourceInfo sourceInfo = this.sourceInfo;
+        List<String> origins = originSelector == null || mirrors.isEmpty() ?
+                Collections.singletonList(sourceInfo.url) : originSelector.order(sourceInfo.url, mirrors);
+        String origin = origins.get(0);
+        String url = origin.equals(sourceInfo.url) && sourceInfo.isResolvedUrlValid() ? sourceInfo.resolvedUrl : origin;
+        Logger.debug("Preconnect to " + url);
+        try {
+            transport.preconnect(new TransportRequest(url, headerInjector.addHeaders(url), PRECONNECT_TIMEOUT,
+                    metrics.isEnabled() ? metrics : null));
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error preconnecting to " + url, e);
+        }
+    }
+
+    private boolean isSameContent(SourceInfo cached, SourceInfo actual) {
+        // server may ignore conditional headers, so compare validators manually
+        boolean etagChanged = cached.etag != null && !cached.etag.equals(actual.etag);
+        boolean lastModifiedChanged = cached.lastModified != null && !cached.lastModified.equals(actual.lastModified);
+        return cached.length == actual.length && !etagChanged && !lastModifiedChanged;
     }
 
     public synchronized String getMime() throws ProxyCacheException {
@@ -191,10 +593,142 @@ public class HttpUrlSource implements Source {
         return sourceInfo.mime;
     }
 
+    public synchronized long getBitrate() {
+        return sourceInfo.bitrate;
+    }
+
+    /**
+     * Sets average bitrate of source and stores it along with the rest of source's info.
+     *
+     * @param bitrate bitrate in bytes per second.
+     */
+    public synchronized void setBitrate(long bitrate) {
+        this.sourceInfo = sourceInfo.withBitrate(bitrate);
+        this.sourceInfoStorage.put(cacheKey, sourceInfo);
+    }
+
+    /**
+     * Returns whether origin honours {@code Range} header.
+     *
+     * @return one of {@link SourceInfo#RANGES_UNKNOWN}, {@link SourceInfo#RANGES_UNSUPPORTED}, {@link SourceInfo#RANGES_SUPPORTED}.
+     */
+    public synchronized int getAcceptRanges() {
+        return sourceInfo.acceptRanges;
+    }
+
+    /**
+     * Sets validator of data already cached, so range requests are served partially only if source is not changed.
+     *
+     * @param etag         ETag of cached data, may be {@code null}.
+     * @param lastModified Last-Modified date of cached data, may be {@code null}.
+     */
+    public void setIfRange(String etag, String lastModified) {
+        boolean strongEtag = etag != null && !etag.startsWith("W/");
+        this.ifRange = strongEtag ? etag : lastModified;
+    }
+
+    /**
+     * Returns whether source opened last time responds with part of content (206 Partial Content).
+     *
+     * @return {@code true} if response is partial.
+     */
+    public boolean isPartialResponse() {
+        return partialResponse;
+    }
+
+    public synchronized String getEtag() {
+        return sourceInfo.etag;
+    }
+
+    public synchronized String getLastModified() {
+        return sourceInfo.lastModified;
+    }
+
     public String getUrl() {
         return sourceInfo.url;
     }
 
+    /**
+     * Request to one of origins, it can be cancelled from another thread if other origin responds faster.
+     */
+    private final class OriginRequest implements Callable<OriginConnection> {
+
+        private final String origin;
+        private final long offset;
+        private final int timeout;
+        private final boolean conditional;
+        private volatile TransportCall call;
+        private volatile boolean cancelled;
+        private OriginConnection connection;
+
+        OriginRequest(String origin, long offset, int timeout, boolean conditional) {
+            this.origin = origin;
+            this.offset = offset;
+            this.timeout = timeout;
+            this.conditional = conditional;
+        }
+
+        @Override
+        public OriginConnection call() throws IOException, ProxyCacheException {
+            OriginConnection connection = openOrigin(this);
+            synchronized (this) {
+                if (!cancelled) {
+                    this.connection = connection;
+                    return connection;
+                }
+            }
+            // lost the race after response is received, nobody takes it from future
+            connection.response.close();
+            throw new InterruptedIOException("Request to " + origin + " is cancelled");
+        }
+
+        TransportResponse connect(String url) throws IOException {
+            TransportCall call = transport.newCall(newRequest(url, offset, timeout, conditional));
+            this.call = call;
+            if (cancelled) {
+                call.cancel();
+                throw new InterruptedIOException("Request to " + origin + " is cancelled");
+            }
+            return call.execute();
+        }
+
+        void cancel() {
+            OriginConnection connection;
+            synchronized (this) {
+                cancelled = true;
+                connection = this.connection;
+                this.connection = null;
+            }
+            TransportCall call = this.call;
+            if (call != null) {
+                call.cancel();
+            }
+            if (connection != null) {
+                // response of loser is completed in its future, but never taken
+                connection.response.close();
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static final class OriginConnection {
+
+        private final OriginRequest request;
+        private final TransportResponse response;
+        private final String resolvedUrl;
+        private final long resolvedUntil;
+
+        OriginConnection(OriginRequest request, TransportResponse response, String resolvedUrl, long resolvedUntil) {
+            this.request = request;
+            this.response = response;
+            this.resolvedUrl = resolvedUrl;
+            this.resolvedUntil = resolvedUntil;
+        }
+    }
+
     @Override
     public String toString() {
         return "HttpUrlSource{sourceInfo='" + sourceInfo + "}";
@@ -0,0 +1,185 @@
+package com.danikula.videocache;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Point-in-time copy of proxy metrics, see {@link HttpProxyCacheServer#getMetrics()}.
+ * <p>
+ * Request is a cache hit if source is fully cached, partial hit if some of requested data is cached
+ * and miss otherwise. Bytes served from cache are the ones that were cached before request came,
+ * the rest of served bytes are waited for from origin. All durations are in milliseconds.
+ */
+public final class MetricsSnapshot {
+
+    public final long uptimeMillis;
+    public final long cacheHits;
+    public final long cachePartialHits;
+    public final long cacheMisses;
+    /**
+     * Requests for proxy url answered with original url because server wasn't started yet, so they bypass cache.
+     */
+    public final long startupBypasses;
+    public final long bytesServedFromCache;
+    public final long bytesServedFromOrigin;
+    /**
+     * Bytes received from origins, including prefetched but not yet played ones.
+     */
+    public final long bytesDownloaded;
+    public final int activeSessions;
+    public final long evictions;
+    public final long bytesEvicted;
+    /**
+     * Time from request of player till first byte of response is sent to it.
+     */
+    public final Histogram playerTtfb;
+    /**
+     * Time from opening connection to origin till response headers are received.
+     */
+    public final Histogram originTtfb;
+    /**
+     * Time of establishing connection to origin. TLS handshake of https isn't measured apart, it is included.
+     */
+    public final Histogram originConnect;
+    /**
+     * Time spent following redirects of origin.
+     */
+    public final Histogram originRedirect;
+    /**
+     * Duration of requests of player.
+     */
+    public final Histogram sessionDuration;
+
+    MetricsSnapshot(long uptimeMillis, long cacheHits, long cachePartialHits, long cacheMisses, long startupBypasses, long bytesServedFromCache,
+                    long bytesServedFromOrigin, long bytesDownloaded, int activeSessions, long evictions, long bytesEvicted,
+                    Histogram playerTtfb, Histogram originTtfb, Histogram originConnect, Histogram originRedirect, Histogram sessionDuration) {
+        this.uptimeMillis = uptimeMillis;
+        this.cacheHits = cacheHits;
+        this.cachePartialHits = cachePartialHits;
+        this.cacheMisses = cacheMisses;
+        this.startupBypasses = startupBypasses;
+        this.bytesServedFromCache = bytesServedFromCache;
+        this.bytesServedFromOrigin = bytesServedFromOrigin;
+        this.bytesDownloaded = bytesDownloaded;
+        this.activeSessions = activeSessions;
+        this.evictions = evictions;
+        this.bytesEvicted = bytesEvicted;
+        this.playerTtfb = playerTtfb;
+        this.originTtfb = originTtfb;
+        this.originConnect = originConnect;
+        this.originRedirect = originRedirect;
+        this.sessionDuration = sessionDuration;
+    }
+
+    /**
+     * Returns share of requests served at least partially from cache.
+     *
+     * @return hit ratio in range [0, 1], or {@code 0} if there were no requests.
+     */
+    public float getHitRatio() {
+        long requests = cacheHits + cachePartialHits + cacheMisses;
+        return requests == 0 ? 0 : (float) (cacheHits + cachePartialHits) / requests;
+    }
+
+    /**
+     * Formats metrics as plain text, one {@code name value} pair per line.
+     *
+     * @return text representation of metrics.
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder()
+                .append("uptime_millis ").append(uptimeMillis).append('\n')
+                .append("cache_hits ").append(cacheHits).append('\n')
+                .append("cache_partial_hits ").append(cachePartialHits).append('\n')
+                .append("cache_misses ").append(cacheMisses).append('\n')
+                .append("startup_bypasses ").append(startupBypasses).append('\n')
+                .append("cache_hit_ratio ").append(String.format(Locale.US, "%.3f", getHitRatio())).append('\n')
+                .append("bytes_served_from_cache ").append(bytesServedFromCache).append('\n')
+                .append("bytes_served_from_origin ").append(bytesServedFromOrigin).append('\n')
+                .append("bytes_downloaded ").append(bytesDownloaded).append('\n')
+                .append("active_sessions ").append(activeSessions).append('\n')
+                .append("evictions ").append(evictions).append('\n')
+                .append("bytes_evicted ").append(bytesEvicted).append('\n');
+        playerTtfb.appendTo(text, "player_ttfb_millis");
+        originTtfb.appendTo(text, "origin_ttfb_millis");
+        originConnect.appendTo(text, "origin_connect_millis");
+        originRedirect.appendTo(text, "origin_redirect_millis");
+        sessionDuration.appendTo(text, "session_duration_millis");
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" + toText().replace('\n', ',') + '}';
+    }
+
+    /**
+     * Distribution of durations over fixed buckets.
+     */
+    public static final class Histogram {
+
+        /**
+         * Inclusive upper bounds of buckets in milliseconds, the last bucket has no upper bound.
+         */
+        static final long[] BUCKET_BOUNDS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+
+        Histogram(long[] counts, long sum) {
+            this.counts = counts;
+            this.sum = sum;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+        }
+
+        public long[] getBucketBounds() {
+            return Arrays.copyOf(BUCKET_BOUNDS, BUCKET_BOUNDS.length);
+        }
+
+        /**
+         * Returns count of values in every bucket, last element is count of values above the last bound.
+         *
+         * @return counts of values.
+         */
+        public long[] getBucketCounts() {
+            return Arrays.copyOf(counts, counts.length);
+        }
+
+        /**
+         * Returns upper bound of bucket the given percentile falls into.
+         *
+         * @param percentile a percentile in range (0, 1].
+         * @return estimated value, {@link Long#MAX_VALUE} if it is above the last bound, or {@code -1} if histogram is empty.
+         */
+        public long getPercentile(float percentile) {
+            if (count == 0) {
+                return -1;
+            }
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[i] : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void appendTo(StringBuilder text, String name) {
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String bound = i < BUCKET_BOUNDS.length ? String.valueOf(BUCKET_BOUNDS[i]) : "+Inf";
+                text.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+            }
+            text.append(name).append("_count ").append(count).append('\n')
+                    .append(name).append("_sum ").append(sum).append('\n');
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.danikula.videocache;
+
+import java.util.List;
+
+/**
+ * Provides equivalent copies of source hosted by other origins (e.g. mirror CDNs).
+ * <p>
+ * Mirrors must serve identical content with the same validators ({@code ETag}, {@code Last-Modified}),
+ * otherwise partially cached data is considered changed and fetched again.
+ */
+public interface MirrorProvider {
+
+    /**
+     * Returns mirrors of source.
+     *
+     * @param url an original url of source.
+     * @return urls of the same content at other origins, empty list if there are no mirrors. {@code null} is not acceptable!
+     */
+    List<String> getMirrors(String url);
+
+}
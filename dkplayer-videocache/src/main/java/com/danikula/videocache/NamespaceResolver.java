@@ -0,0 +1,18 @@
+package com.danikula.videocache;
+
+/**
+ * Chooses {@link CacheNamespace} url is cached in.
+ * <p>
+ * Note that method is called often (e.g. for every {@link HttpProxyCacheServer#getProxyUrl(String)}), so it must be fast.
+ */
+public interface NamespaceResolver {
+
+    /**
+     * Returns name of namespace for url.
+     *
+     * @param url an url of source.
+     * @return name of namespace registered with {@link HttpProxyCacheServer.Builder#addNamespace(CacheNamespace)},
+     * or {@code null} to cache url in default namespace.
+     */
+    String getNamespace(String url);
+}
@@ -0,0 +1,32 @@
+package com.danikula.videocache;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+
+/**
+ * Provides info about device's network.
+ */
+final class NetworkUtils {
+
+    private NetworkUtils() {
+    }
+
+    /**
+     * Checks whether active network is metered (i.e. user may be charged for traffic).
+     *
+     * @param context Application context
+     * @return {@code true} if active network is metered or its state can't be determined.
+     */
+    static boolean isActiveNetworkMetered(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return true;
+        }
+        try {
+            return connectivityManager.isActiveNetworkMetered();
+        } catch (SecurityException e) {
+            Logger.warn("Can't check network state without ACCESS_NETWORK_STATE permission");
+            return true;
+        }
+    }
+}
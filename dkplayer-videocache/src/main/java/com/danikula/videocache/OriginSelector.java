@@ -0,0 +1,139 @@
+package com.danikula.videocache;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Keeps first byte latency and throughput of origins and orders mirrors of source from the best to the worst one.
+ * <p>
+ * Origin's score is estimated time of receiving first {@link #SCORE_TRANSFER_SIZE} bytes, it is calculated with
+ * exponentially weighted moving averages of latency and throughput measured for origin's host.
+ */
+class OriginSelector {
+
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final int MAX_LATENCY_SAMPLES = 32;
+    private static final int MIN_LATENCY_SAMPLES = 5;
+    private static final long UNKNOWN_LATENCY_MILLIS = 500;
+    private static final long FAILURE_PENALTY_MILLIS = 5000;
+    private static final long SCORE_TRANSFER_SIZE = 1024 * 1024;
+
+    private final Map<String, HostStats> stats = new HashMap<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HedgePolicy hedgePolicy;
+
+    OriginSelector(HedgePolicy hedgePolicy) {
+        this.hedgePolicy = checkNotNull(hedgePolicy);
+    }
+
+    HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Returns origins of source ordered by score, original url goes first among origins with equal score.
+     */
+    synchronized List<String> order(String url, List<String> mirrors) {
+        List<String> origins = new ArrayList<>(mirrors.size() + 1);
+        origins.add(url);
+        origins.addAll(mirrors);
+        final Map<String, Double> scores = new HashMap<>();
+        for (String origin : origins) {
+            scores.put(origin, score(origin));
+        }
+        Collections.sort(origins, new Comparator<String>() {
+            @Override
+            public int compare(String left, String right) {
+                return Double.compare(scores.get(left), scores.get(right));
+            }
+        });
+        return origins;
+    }
+
+    synchronized long hedgeDelay(String origin) {
+        HostStats hostStats = stats.get(hostOf(origin));
+        if (hostStats == null || hostStats.latencyCount < MIN_LATENCY_SAMPLES) {
+            return hedgePolicy.maxDelayMillis;
+        }
+        int count = Math.min(hostStats.latencyCount, MAX_LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(hostStats.latencies, count);
+        Arrays.sort(sorted);
+        long delay = sorted[(int) Math.ceil(hedgePolicy.percentile * count) - 1];
+        return Math.max(hedgePolicy.minDelayMillis, Math.min(delay, hedgePolicy.maxDelayMillis));
+    }
+
+    synchronized void onFirstByte(String origin, long latencyMillis) {
+        HostStats hostStats = getStats(origin);
+        hostStats.latencyEwma = ewma(hostStats.latencyEwma, latencyMillis);
+        hostStats.latencies[hostStats.latencyCount % MAX_LATENCY_SAMPLES] = latencyMillis;
+        hostStats.latencyCount++;
+    }
+
+    synchronized void onFailure(String origin) {
+        HostStats hostStats = getStats(origin);
+        hostStats.latencyEwma = ewma(hostStats.latencyEwma, FAILURE_PENALTY_MILLIS);
+    }
+
+    synchronized void onTransfer(String origin, long bytes, long elapsedMillis) {
+        if (bytes <= 0 || elapsedMillis <= 0) {
+            return;
+        }
+        HostStats hostStats = getStats(origin);
+        hostStats.bytesPerSecondEwma = ewma(hostStats.bytesPerSecondEwma, bytes * 1000d / elapsedMillis);
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private double score(String origin) {
+        HostStats hostStats = stats.get(hostOf(origin));
+        double latency = hostStats == null || hostStats.latencyEwma < 0 ? UNKNOWN_LATENCY_MILLIS : hostStats.latencyEwma;
+        double transfer = hostStats == null || hostStats.bytesPerSecondEwma <= 0 ? 0 : SCORE_TRANSFER_SIZE * 1000d / hostStats.bytesPerSecondEwma;
+        return latency + transfer;
+    }
+
+    private HostStats getStats(String origin) {
+        String host = hostOf(origin);
+        HostStats hostStats = stats.get(host);
+        if (hostStats == null) {
+            hostStats = new HostStats();
+            stats.put(host, hostStats);
+        }
+        return hostStats;
+    }
+
+    private double ewma(double average, double sample) {
+        return average < 0 ? sample : average + EWMA_WEIGHT * (sample - average);
+    }
+
+    private String hostOf(String origin) {
+        try {
+            return new URL(origin).getHost();
+        } catch (MalformedURLException e) {
+            return origin;
+        }
+    }
+
+    private static final class HostStats {
+        final long[] latencies = new long[MAX_LATENCY_SAMPLES];
+        int latencyCount;
+        double latencyEwma = -1;
+        double bytesPerSecondEwma = -1;
+    }
+}
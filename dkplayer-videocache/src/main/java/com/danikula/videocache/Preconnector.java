@@ -0,0 +1,79 @@
+package com.danikula.videocache;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Warms up connections to origins of upcoming sources in background.
+ * <p>
+ * Connection is parked by transport, so host that is preconnected recently isn't preconnected again.
+ */
+class Preconnector {
+
+    private static final long PRECONNECT_INTERVAL = 10 * 1000;
+
+    private final ExecutorService preconnectExecutor = Executors.newFixedThreadPool(2);
+    private final Map<String, Long> preconnectedHosts = new ConcurrentHashMap<>();
+    private final Config config;
+
+    Preconnector(Config config) {
+        this.config = checkNotNull(config);
+    }
+
+    void preconnect(String url) {
+        String host = Uri.parse(url).getHost();
+        if (host == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long preconnectedAt = preconnectedHosts.get(host);
+        if (preconnectedAt != null && now - preconnectedAt < PRECONNECT_INTERVAL) {
+            return;
+        }
+        preconnectedHosts.put(host, now);
+        preconnectExecutor.submit(new PreconnectRunnable(url, host));
+    }
+
+    void shutdown() {
+        preconnectExecutor.shutdownNow();
+    }
+
+    private void doPreconnect(String url, String host) {
+        File cacheFile = config.generateCacheFile(url);
+        if (cacheFile.exists() || config.isPackedCompleted(cacheFile)) {
+            // fully cached source doesn't need connection
+            preconnectedHosts.remove(host);
+            return;
+        }
+        try {
+            new HttpUrlSource(url, config).preconnect();
+        } catch (ProxyCacheException e) {
+            // next request connects as usual
+            preconnectedHosts.remove(host);
+            Logger.warn("Error preconnecting to " + url + ": " + e);
+        }
+    }
+
+    private final class PreconnectRunnable implements Runnable {
+
+        private final String url;
+        private final String host;
+
+        PreconnectRunnable(String url, String host) {
+            this.url = url;
+            this.host = host;
+        }
+
+        @Override
+        public void run() {
+            doPreconnect(url, host);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.danikula.videocache;
+
+import java.io.File;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+
+/**
+ * Declares device conditions {@link PrefetchScheduler} downloads sources under.
+ * Prefetching is paused as soon as any required condition stops holding and resumed when all of them hold again.
+ */
+public final class PrefetchConstraints {
+
+    /**
+     * Prefetch over unmetered network while device is charging and at least 512 Mb of storage is free.
+     */
+    public static final PrefetchConstraints DEFAULT = new PrefetchConstraints(true, true, false, 512 * 1024 * 1024);
+
+    /**
+     * Prefetch over unmetered network while at least 512 Mb of storage is free.
+     */
+    public static final PrefetchConstraints UNMETERED = new PrefetchConstraints(true, false, false, 512 * 1024 * 1024);
+
+    public final boolean requireUnmetered;
+    public final boolean requireCharging;
+    public final boolean requireIdle;
+    public final long minFreeBytes;
+
+    /**
+     * Creates new constraints.
+     *
+     * @param requireUnmetered {@code true} to prefetch only while active network is unmetered.
+     * @param requireCharging  {@code true} to prefetch only while device is plugged in.
+     * @param requireIdle      {@code true} to prefetch only while device isn't used (screen is off).
+     * @param minFreeBytes     min free space of storage cache is located on.
+     */
+    public PrefetchConstraints(boolean requireUnmetered, boolean requireCharging, boolean requireIdle, long minFreeBytes) {
+        checkArgument(minFreeBytes >= 0, "Free space can't be negative!");
+        this.requireUnmetered = requireUnmetered;
+        this.requireCharging = requireCharging;
+        this.requireIdle = requireIdle;
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    boolean isSatisfied(DeviceState deviceState, File cacheRoot) {
+        return (!requireUnmetered || deviceState.isUnmetered())
+                && (!requireCharging || deviceState.isCharging())
+                && (!requireIdle || deviceState.isIdle())
+                && deviceState.getFreeSpace(cacheRoot) >= minFreeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchConstraints{" +
+                "requireUnmetered=" + requireUnmetered +
+                ", requireCharging=" + requireCharging +
+                ", requireIdle=" + requireIdle +
+                ", minFreeBytes=" + minFreeBytes +
+                '}';
+    }
+}
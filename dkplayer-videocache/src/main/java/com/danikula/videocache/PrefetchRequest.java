@@ -0,0 +1,60 @@
+package com.danikula.videocache;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * Request to cache beginning of source in background, see {@link PrefetchScheduler}.
+ * <p>
+ * Budget can be expressed in bytes or in seconds of playback. Seconds are converted to bytes with bitrate of source
+ * or with {@link FillWindow#DEFAULT_BYTES_PER_SECOND} if bitrate is unknown.
+ */
+public final class PrefetchRequest {
+
+    public final String url;
+    final long budget;
+    final boolean inSeconds;
+
+    PrefetchRequest(String url, long budget, boolean inSeconds) {
+        this.url = checkNotNull(url);
+        this.budget = budget;
+        this.inSeconds = inSeconds;
+    }
+
+    /**
+     * Creates request to cache first bytes of source.
+     *
+     * @param url   an url of source.
+     * @param bytes count of bytes to be cached.
+     * @return a request.
+     */
+    public static PrefetchRequest bytes(String url, long bytes) {
+        checkArgument(bytes > 0, "Budget must be positive!");
+        return new PrefetchRequest(url, bytes, false);
+    }
+
+    /**
+     * Creates request to cache first seconds of playback of source.
+     *
+     * @param url     an url of source.
+     * @param seconds seconds of playback to be cached.
+     * @return a request.
+     */
+    public static PrefetchRequest seconds(String url, int seconds) {
+        checkArgument(seconds > 0, "Budget must be positive!");
+        return new PrefetchRequest(url, seconds, true);
+    }
+
+    long toBytes(long bitrate) {
+        return inSeconds ? budget * (bitrate > 0 ? bitrate : FillWindow.DEFAULT_BYTES_PER_SECOND) : budget;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchRequest{" +
+                "url='" + url + '\'' +
+                ", budget=" + budget +
+                ", inSeconds=" + inSeconds +
+                '}';
+    }
+}
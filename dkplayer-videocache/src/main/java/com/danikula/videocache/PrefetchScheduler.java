@@ -0,0 +1,372 @@
+package com.danikula.videocache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.danikula.videocache.Preconditions.checkAllNotNull;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+import static com.danikula.videocache.ProxyCacheUtils.DEFAULT_BUFFER_SIZE;
+
+/**
+ * Caches beginnings of sources user is likely to play next in background, only while device conditions
+ * declared by {@link PrefetchConstraints} hold (e.g. unmetered network and charging).
+ * <p>
+ * Requests are executed one by one in order of their rank. Sources are read through {@link CacheReader}, i.e. with
+ * the same cache and download path as playback, so source requested by player while it is prefetched
+ * shares its download. Queue is stored in cache directory by worker thread, changes made in a row are written
+ * at once, and is restored when scheduler is created after process death. Prefetching is resumed from cached data
+ * when conditions hold again. Failed request is retried a few times with growing delay before it is dropped.
+ * </p>
+ * Conditions are checked periodically; call {@link #onConditionsChanged()} to check them at once, e.g. from
+ * broadcast receiver or job of app.
+ */
+public class PrefetchScheduler {
+
+    private static final String QUEUE_DIRECTORY = "prefetch";
+    private static final String QUEUE_FILE = "queue";
+    private static final String TEMP_POSTFIX = ".tmp";
+    private static final int VERSION = 1;
+    private static final long CHECK_INTERVAL = 60 * 1000;
+    private static final long CHECK_INTERVAL_WHILE_READING = 5 * 1000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY = 10 * 1000;
+
+    private final HttpProxyCacheServer proxy;
+    private final PrefetchConstraints constraints;
+    private final DeviceState deviceState;
+    private final List<PrefetchRequest> queue = new ArrayList<>();
+    private final Map<String, Integer> failures = new HashMap<>();
+    private final Map<String, Long> retryTimes = new HashMap<>();
+    private File queueFile;
+    private boolean scheduled;
+    private boolean dirty;
+    private boolean conditionsChanged;
+    private volatile boolean shutdown;
+
+    /**
+     * Creates scheduler checking conditions with platform services. Single instance should be used for proxy.
+     *
+     * @param proxy       a proxy to cache sources with.
+     * @param constraints conditions to prefetch under.
+     */
+    public PrefetchScheduler(HttpProxyCacheServer proxy, PrefetchConstraints constraints) {
+        this(proxy, constraints, null);
+    }
+
+    /**
+     * Creates scheduler checking conditions with custom provider, e.g. to simulate conditions.
+     *
+     * @param proxy       a proxy to cache sources with.
+     * @param constraints conditions to prefetch under.
+     * @param deviceState a provider of device conditions, {@code null} to use platform services.
+     */
+    public PrefetchScheduler(HttpProxyCacheServer proxy, PrefetchConstraints constraints, DeviceState deviceState) {
+        checkAllNotNull(proxy, constraints);
+        this.proxy = proxy;
+        this.constraints = constraints;
+        this.deviceState = deviceState;
+        new Thread(new WorkerRunnable(), "PrefetchScheduler").start();
+    }
+
+    /**
+     * Replaces queue of prefetching with new ranked list of sources, e.g. upcoming items of feed.
+     * Prefetching of source absent in new list is stopped, its already cached data is kept.
+     *
+     * @param requests requests ordered from the most likely to be played.
+     */
+    public void schedule(List<PrefetchRequest> requests) {
+        checkNotNull(requests);
+        synchronized (queue) {
+            queue.clear();
+            queue.addAll(requests);
+            scheduled = true;
+            // queue is stored by worker, so caller (usually main thread) doesn't wait for disk
+            dirty = true;
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Removes all requests from queue.
+     */
+    public void clear() {
+        schedule(new ArrayList<PrefetchRequest>());
+    }
+
+    /**
+     * Makes scheduler check device conditions at once instead of waiting for periodic check.
+     */
+    public void onConditionsChanged() {
+        synchronized (queue) {
+            conditionsChanged = true;
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Stops prefetching, queue is kept to be restored by next scheduler.
+     */
+    public void shutdown() {
+        synchronized (queue) {
+            // worker isn't interrupted: interrupting source read in the middle leaves cache locked by its reader
+            shutdown = true;
+            queue.notifyAll();
+        }
+    }
+
+    private void work() throws InterruptedException {
+        Config config = proxy.awaitConfig();
+        DeviceState deviceState = this.deviceState != null ? this.deviceState : new AndroidDeviceState(config.context);
+        restore(new File(new File(config.cacheRoot, QUEUE_DIRECTORY), QUEUE_FILE));
+        while (!shutdown) {
+            persistIfDirty();
+            PrefetchRequest request = awaitRequest();
+            if (request == null) {
+                continue;
+            }
+            long retryDelay = getRetryDelay(request);
+            if (retryDelay > 0) {
+                awaitConditions(retryDelay);
+                continue;
+            }
+            if (!constraints.isSatisfied(deviceState, config.cacheRoot)) {
+                awaitConditions(CHECK_INTERVAL);
+                continue;
+            }
+            if (prefetch(config, deviceState, request)) {
+                complete(request);
+            }
+        }
+        // queue changed since last write is kept for next scheduler
+        persistIfDirty();
+    }
+
+    /**
+     * Waits for request to be prefetched.
+     *
+     * @return first request of queue, or {@code null} if scheduler is shut down or changed queue should be stored.
+     */
+    private PrefetchRequest awaitRequest() throws InterruptedException {
+        synchronized (queue) {
+            while (queue.isEmpty() && !shutdown && !dirty) {
+                queue.wait();
+            }
+            return shutdown || dirty ? null : queue.get(0);
+        }
+    }
+
+    private void awaitConditions(long timeout) throws InterruptedException {
+        synchronized (queue) {
+            if (!conditionsChanged && !shutdown && !dirty) {
+                queue.wait(timeout);
+            }
+            conditionsChanged = false;
+        }
+    }
+
+    /**
+     * Caches beginning of source within its budget.
+     *
+     * @return {@code true} if request is done and should be removed from queue,
+     * {@code false} if it is interrupted and should be continued later.
+     */
+    private boolean prefetch(Config config, DeviceState deviceState, PrefetchRequest request) {
+        String url = request.url;
+        SourceInfo sourceInfo = config.sourceInfoStorage.get(config.cacheKey(url));
+        long budget = request.toBytes(sourceInfo == null ? -1 : sourceInfo.bitrate);
+        long offset = getCachedPrefix(url);
+        if (proxy.isCached(url) || offset >= budget) {
+            return true;
+        }
+        Logger.debug("Prefetch " + url + " from " + offset + " up to " + budget + " bytes");
+        CacheReader reader = null;
+        try {
+            reader = proxy.openReader(url, offset);
+            if (reader == null) {
+                return true;
+            }
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            long checkedAt = System.currentTimeMillis();
+            while (offset < budget) {
+                int readBytes = reader.read(buffer, 0, (int) Math.min(buffer.length, budget - offset));
+                if (readBytes == -1) {
+                    break;
+                }
+                offset += readBytes;
+                if (shutdown) {
+                    Logger.debug("Prefetching of " + url + " is stopped at " + offset);
+                    return false;
+                }
+                long now = System.currentTimeMillis();
+                if (now - checkedAt >= CHECK_INTERVAL_WHILE_READING) {
+                    checkedAt = now;
+                    persistIfDirty();
+                    if (!isQueued(request) || !constraints.isSatisfied(deviceState, config.cacheRoot)) {
+                        Logger.debug("Prefetching of " + url + " is paused at " + offset);
+                        return !isQueued(request);
+                    }
+                }
+            }
+            Logger.info("Source " + url + " is prefetched up to " + offset + " bytes");
+            return true;
+        } catch (ProxyCacheException e) {
+            Logger.warn("Error prefetching " + url + ": " + e);
+            return onFailure(url);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    private long getCachedPrefix(String url) {
+        List<CachedRange> ranges = proxy.getCachedRanges(url);
+        return ranges.isEmpty() || ranges.get(0).start > 0 ? 0 : ranges.get(0).end;
+    }
+
+    private boolean onFailure(String url) {
+        synchronized (queue) {
+            Integer attempts = failures.get(url);
+            attempts = attempts == null ? 1 : attempts + 1;
+            failures.put(url, attempts);
+            if (attempts >= MAX_ATTEMPTS) {
+                return true;
+            }
+            // delay is doubled with every attempt, so failing origin isn't requested in a loop
+            retryTimes.put(url, System.currentTimeMillis() + (RETRY_DELAY << (attempts - 1)));
+            return false;
+        }
+    }
+
+    private long getRetryDelay(PrefetchRequest request) {
+        synchronized (queue) {
+            Long retryTime = retryTimes.get(request.url);
+            return retryTime == null ? 0 : retryTime - System.currentTimeMillis();
+        }
+    }
+
+    private boolean isQueued(PrefetchRequest request) {
+        synchronized (queue) {
+            return queue.contains(request);
+        }
+    }
+
+    private void complete(PrefetchRequest request) {
+        synchronized (queue) {
+            failures.remove(request.url);
+            retryTimes.remove(request.url);
+            if (queue.remove(request)) {
+                dirty = true;
+            }
+        }
+    }
+
+    private void restore(File queueFile) {
+        List<PrefetchRequest> restored = read(queueFile);
+        synchronized (queue) {
+            this.queueFile = queueFile;
+            if (scheduled) {
+                // queue scheduled before scheduler is started overrides stored one
+                dirty = true;
+                return;
+            }
+            queue.addAll(restored);
+            if (!restored.isEmpty()) {
+                Logger.info("Restored " + restored.size() + " prefetch requests");
+            }
+        }
+    }
+
+    private List<PrefetchRequest> read(File file) {
+        List<PrefetchRequest> requests = new ArrayList<>();
+        if (!file.exists()) {
+            return requests;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != VERSION) {
+                return requests;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                requests.add(new PrefetchRequest(in.readUTF(), in.readLong(), in.readBoolean()));
+            }
+        } catch (IOException e) {
+            Logger.warn("Error reading prefetch queue " + file + ": " + e);
+        } finally {
+            ProxyCacheUtils.close(in);
+        }
+        return requests;
+    }
+
+    /**
+     * Stores queue if it is changed since last write. Called by worker thread only, so writes are never reordered.
+     */
+    private void persistIfDirty() {
+        File queueFile;
+        List<PrefetchRequest> requests;
+        synchronized (queue) {
+            if (!dirty || this.queueFile == null) {
+                // queue is stored once scheduler is started
+                return;
+            }
+            dirty = false;
+            queueFile = this.queueFile;
+            requests = new ArrayList<>(queue);
+        }
+        try {
+            write(queueFile, requests);
+        } catch (IOException e) {
+            Logger.error("Error storing prefetch queue " + queueFile + ": " + e);
+        }
+    }
+
+    private void write(File file, List<PrefetchRequest> requests) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Error creating directory " + directory);
+        }
+        File tempFile = new File(directory, file.getName() + TEMP_POSTFIX);
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        DataOutputStream out = new DataOutputStream(fileOut);
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(requests.size());
+            for (PrefetchRequest request : requests) {
+                out.writeUTF(request.url);
+                out.writeLong(request.budget);
+                out.writeBoolean(request.inSeconds);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            ProxyCacheUtils.close(out);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Error renaming " + tempFile + " to " + file);
+        }
+    }
+
+    private final class WorkerRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                work();
+            } catch (InterruptedException e) {
+                Logger.debug("Prefetch scheduler is interrupted");
+            } catch (IllegalStateException e) {
+                Logger.error("Prefetch scheduler isn't started: " + e);
+            }
+        }
+    }
+}
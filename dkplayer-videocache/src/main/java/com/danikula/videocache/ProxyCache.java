@@ -16,6 +16,7 @@ import static com.danikula.videocache.Preconditions.checkNotNull;
 class ProxyCache {
 
     private static final int MAX_READ_SOURCE_ATTEMPTS = 1;
+    private static final long STOP_SOURCE_READING_TIMEOUT = 5000;
 
     private final Source source;
     private final Cache cache;
@@ -24,7 +25,11 @@ class ProxyCache {
     private final AtomicInteger readSourceErrorsCount;
     private volatile Thread sourceReaderThread;
     private volatile boolean stopped;
-    private volatile int percentsAvailable = -1;
+    private volatile boolean completionNotified;
+    private boolean readingSuspended;
+    private volatile long fillWindow = -1;
+    private volatile long furthestReadOffset;
+    private ReconnectPolicy reconnectPolicy = ReconnectPolicy.NONE;
 
     public ProxyCache(Source source, Cache cache) {
         this.source = checkNotNull(source);
@@ -32,22 +37,71 @@ class ProxyCache {
         this.readSourceErrorsCount = new AtomicInteger();
     }
 
+    /**
+     * Limits count of bytes to be fetched from source ahead of the furthest offset read by clients.
+     * Reading of source is suspended when window is filled and resumed when clients consume half of it.
+     *
+     * @param fillWindow window in bytes, non positive value means source is read till the end.
+     */
+    public void setFillWindow(long fillWindow) {
+        this.fillWindow = fillWindow;
+    }
+
+    /**
+     * Returns fill window for the current decision whether to keep reading source.
+     * Called on every portion of data appended to cache, so it must be cheap.
+     *
+     * @return window in bytes, non positive value means source is read till the end.
+     */
+    protected long getFillWindow() {
+        return fillWindow;
+    }
+
+    /**
+     * Sets policy used to reopen source when reading is failed in the middle of stream.
+     * Clients keep waiting for data while source is reconnected.
+     *
+     * @param reconnectPolicy a reconnect policy.
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = checkNotNull(reconnectPolicy);
+    }
+
     public int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
         ProxyCacheUtils.assertBuffer(buffer, offset, length);
 
+        advanceReadOffset(offset + length);
         while (!cache.isCompleted() && cache.available() < (offset + length) && !stopped) {
             readSourceAsync();
             waitForSourceData();
             checkReadSourceErrorsCount();
         }
         int read = cache.read(buffer, offset, length);
-        if (cache.isCompleted() && percentsAvailable != 100) {
-            percentsAvailable = 100;
-            onCachePercentsAvailableChanged(100);
+        if (cache.isCompleted() && !completionNotified) {
+            notifyCacheCompleted();
         }
+        resumeReadSourceIfNeeded();
         return read;
     }
 
+    private void advanceReadOffset(long offset) {
+        if (offset > furthestReadOffset) {
+            furthestReadOffset = offset;
+        }
+    }
+
+    private void resumeReadSourceIfNeeded() throws ProxyCacheException {
+        long window = getFillWindow();
+        if (window > 0 && !stopped && !cache.isCompleted() && cache.available() - furthestReadOffset < window / 2) {
+            readSourceAsync();
+        }
+    }
+
+    private boolean isFillWindowFilled(long offset) {
+        long window = getFillWindow();
+        return window > 0 && offset - furthestReadOffset >= window;
+    }
+
     private void checkReadSourceErrorsCount() throws ProxyCacheException {
         int errorsCount = readSourceErrorsCount.get();
         if (errorsCount >= MAX_READ_SOURCE_ATTEMPTS) {
@@ -71,9 +125,49 @@ class ProxyCache {
         }
     }
 
+    /**
+     * Stops reading source, so cache can be moved to another position (e.g. when client seeks out of cached window).
+     * Reading isn't restarted until {@link #resumeSourceReading()} is called, so cache must be moved in between;
+     * then it is started again from {@link Cache#available()} by the next read. Reader is waited for without holding
+     * lock of this object, so other clients aren't blocked meanwhile. Reader that isn't stopped in time is still
+     * tracked, so another reader of the same source isn't started until it exits.
+     *
+     * @param readOffset an offset clients read from now, fill window is measured from it.
+     * @throws ProxyCacheException if source reader isn't stopped in time.
+     */
+    protected final void stopSourceReading(long readOffset) throws ProxyCacheException {
+        Thread reader;
+        synchronized (this) {
+            readingSuspended = true;
+            reader = sourceReaderThread;
+        }
+        if (reader != null && reader.isAlive()) {
+            // reader checks interruption before appending every portion of data
+            reader.interrupt();
+            try {
+                reader.join(STOP_SOURCE_READING_TIMEOUT);
+            } catch (InterruptedException e) {
+                throw new InterruptedProxyCacheException("Stopping reading of " + source + " is interrupted", e);
+            }
+            if (reader.isAlive()) {
+                throw new ProxyCacheException("Reading of " + source + " isn't stopped in " + STOP_SOURCE_READING_TIMEOUT + " ms");
+            }
+        }
+        // interruption of reader isn't an error of source
+        readSourceErrorsCount.set(0);
+        furthestReadOffset = readOffset;
+    }
+
+    /**
+     * Allows reading of source stopped by {@link #stopSourceReading(long)} to be started again.
+     */
+    protected final synchronized void resumeSourceReading() {
+        readingSuspended = false;
+    }
+
     private synchronized void readSourceAsync() throws ProxyCacheException {
         boolean readingInProgress = sourceReaderThread != null && sourceReaderThread.getState() != Thread.State.TERMINATED;
-        if (!stopped && !cache.isCompleted() && !readingInProgress) {
+        if (!stopped && !readingSuspended && !cache.isCompleted() && !readingInProgress && canWriteCache()) {
             sourceReaderThread = new Thread(new SourceReaderRunnable(), "Source reader for " + source);
             sourceReaderThread.start();
         }
@@ -97,30 +191,54 @@ class ProxyCache {
         }
     }
 
+    /**
+     * Called on every portion of data appended to cache, so it must be cheap.
+     *
+     * @param cacheAvailable count of bytes available in cache.
+     * @param sourceLength   length of source, or negative value if it is unknown.
+     */
     protected void onCacheAvailable(long cacheAvailable, long sourceLength) {
-        boolean zeroLengthSource = sourceLength == 0;
-        int percents = zeroLengthSource ? 100 : (int) ((float) cacheAvailable / sourceLength * 100);
-        boolean percentsChanged = percents != percentsAvailable;
-        boolean sourceLengthKnown = sourceLength >= 0;
-        if (sourceLengthKnown && percentsChanged) {
-            onCachePercentsAvailableChanged(percents);
+    }
+
+    /**
+     * Called before source is read to fill cache. Cache shared with another process is filled by that process,
+     * then clients just wait for data it appends.
+     *
+     * @return {@code true} if source can be read to append data to cache.
+     * @throws ProxyCacheException if error occur while checking cache.
+     */
+    protected boolean canWriteCache() throws ProxyCacheException {
+        return true;
+    }
+
+    /**
+     * Wakes up clients waiting for data appended to cache by another process.
+     *
+     * @param sourceLength length of source, or negative value if it is unknown.
+     */
+    protected final void onCacheChanged(long sourceLength) {
+        try {
+            notifyNewCacheDataAvailable(cache.available(), sourceLength);
+        } catch (ProxyCacheException e) {
+            onError(e);
         }
-        percentsAvailable = percents;
     }
 
-    protected void onCachePercentsAvailableChanged(int percentsAvailable) {
+    private void notifyCacheCompleted() throws ProxyCacheException {
+        completionNotified = true;
+        long length = cache.available();
+        onCacheAvailable(length, length);
     }
 
     private void readSource() {
         long sourceAvailable = -1;
         long offset = 0;
         try {
-            offset = cache.available();
-            source.open(offset);
+            offset = openSource(cache.available());
             sourceAvailable = source.length();
             byte[] buffer = new byte[ProxyCacheUtils.DEFAULT_BUFFER_SIZE];
             int readBytes;
-            while ((readBytes = source.read(buffer)) != -1) {
+            while ((readBytes = readSourceData(buffer, offset)) != -1) {
                 synchronized (stopLock) {
                     if (isStopped()) {
                         return;
@@ -129,9 +247,14 @@ class ProxyCache {
                 }
                 offset += readBytes;
                 notifyNewCacheDataAvailable(offset, sourceAvailable);
+                if (offset != sourceAvailable && isFillWindowFilled(offset)) {
+                    Logger.debug("Fill window is filled at " + offset + ", suspend reading " + source);
+                    return;
+                }
             }
             tryComplete();
-            onSourceRead();
+            // guaranteed notify listeners after source read and cache completed
+            notifyCacheCompleted();
         } catch (Throwable e) {
             readSourceErrorsCount.incrementAndGet();
             onError(e);
@@ -141,10 +264,60 @@ class ProxyCache {
         }
     }
 
-    private void onSourceRead() {
-        // guaranteed notify listeners after source read and cache completed
-        percentsAvailable = 100;
-        onCachePercentsAvailableChanged(percentsAvailable);
+    private int readSourceData(byte[] buffer, long offset) throws ProxyCacheException {
+        int attempt = 0;
+        long failureTime = 0;
+        while (true) {
+            try {
+                if (attempt > 0 && openSource(offset) != offset) {
+                    throw new ProxyCacheException("Source " + source + " is changed while reconnecting");
+                }
+                int readBytes = source.read(buffer);
+                if (attempt > 0) {
+                    onSourceReconnected(attempt, System.currentTimeMillis() - failureTime);
+                }
+                return readBytes;
+            } catch (InterruptedProxyCacheException e) {
+                throw e;
+            } catch (ProxyCacheException e) {
+                if (isStopped() || attempt >= reconnectPolicy.maxAttempts) {
+                    throw e;
+                }
+                attempt++;
+                failureTime = failureTime == 0 ? System.currentTimeMillis() : failureTime;
+                Logger.warn("Error reading " + source + " at " + offset + ", reconnect (attempt " + attempt + ")");
+                closeSource();
+                waitBeforeReconnect(reconnectPolicy.backoffMillis(attempt));
+            }
+        }
+    }
+
+    private long openSource(long offset) throws ProxyCacheException {
+        source.open(offset);
+        return onSourceOpened(offset);
+    }
+
+    /**
+     * Called when source is opened for appending data to cache.
+     *
+     * @param offset offset source is opened with.
+     * @return offset data read from source should be appended at, cache must be reset if it differs from {@code offset}.
+     * @throws ProxyCacheException if error occur while checking source.
+     */
+    protected long onSourceOpened(long offset) throws ProxyCacheException {
+        return offset;
+    }
+
+    private void waitBeforeReconnect(long delay) throws InterruptedProxyCacheException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            throw new InterruptedProxyCacheException("Reconnecting " + source + " is interrupted", e);
+        }
+    }
+
+    protected void onSourceReconnected(int attempts, long recoveryTimeMillis) {
+        Logger.info("Source " + source + " is reconnected after " + attempts + " attempts in " + recoveryTimeMillis + " ms");
     }
 
     private void tryComplete() throws ProxyCacheException {
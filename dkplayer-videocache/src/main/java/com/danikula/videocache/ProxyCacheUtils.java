@@ -10,7 +10,11 @@ import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import static com.danikula.videocache.Preconditions.checkArgument;
 import static com.danikula.videocache.Preconditions.checkNotNull;
@@ -63,6 +67,48 @@ public class ProxyCacheUtils {
         }
     }
 
+    /**
+     * Parses {@code max-age} directive of {@code Cache-Control} header.
+     *
+     * @param cacheControl a value of {@code Cache-Control} header, may be {@code null}.
+     * @return max age in seconds or {@code -1} if directive is absent.
+     */
+    static long parseMaxAge(String cacheControl) {
+        if (TextUtils.isEmpty(cacheControl)) {
+            return -1;
+        }
+        for (String directive : cacheControl.split(",")) {
+            String trimmed = directive.trim().toLowerCase(Locale.US);
+            if (trimmed.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(trimmed.substring("max-age=".length()).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses date of http header, e.g. {@code Expires}, in RFC 1123 format.
+     *
+     * @param date a value of header, may be {@code null}.
+     * @return date in milliseconds or {@code 0} if value is absent or malformed.
+     */
+    static long parseHttpDate(String date) {
+        if (TextUtils.isEmpty(date)) {
+            return 0;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(date).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
     static void close(Closeable closeable) {
         if (closeable != null) {
             try {
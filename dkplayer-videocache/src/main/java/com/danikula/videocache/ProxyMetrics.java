@@ -0,0 +1,151 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.EvictionListener;
+import com.danikula.videocache.transport.TransportListener;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects counters and latency histograms of proxy.
+ * <p>
+ * Counters are lock-free, every record method of disabled instance ({@link #DISABLED}) returns at once,
+ * so metrics cost nothing unless they are enabled with {@link HttpProxyCacheServer.Builder#metrics(boolean, boolean)}.
+ */
+final class ProxyMetrics implements EvictionListener, TransportListener {
+
+    static final ProxyMetrics DISABLED = new ProxyMetrics(false);
+
+    private final boolean enabled;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cachePartialHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong bytesServedFromCache = new AtomicLong();
+    private final AtomicLong bytesServedFromOrigin = new AtomicLong();
+    private final AtomicLong bytesDownloaded = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesEvicted = new AtomicLong();
+    private final Histogram playerTtfb = new Histogram();
+    private final Histogram originTtfb = new Histogram();
+    private final Histogram originConnect = new Histogram();
+    private final Histogram originRedirect = new Histogram();
+    private final Histogram sessionDuration = new Histogram();
+
+    ProxyMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void onCacheHit() {
+        if (enabled) {
+            cacheHits.incrementAndGet();
+        }
+    }
+
+    void onCachePartialHit() {
+        if (enabled) {
+            cachePartialHits.incrementAndGet();
+        }
+    }
+
+    void onCacheMiss() {
+        if (enabled) {
+            cacheMisses.incrementAndGet();
+        }
+    }
+
+    void onBytesServed(long fromCache, long fromOrigin) {
+        if (enabled) {
+            bytesServedFromCache.addAndGet(fromCache);
+            bytesServedFromOrigin.addAndGet(fromOrigin);
+        }
+    }
+
+    void onBytesDownloaded(long bytes) {
+        if (enabled && bytes > 0) {
+            bytesDownloaded.addAndGet(bytes);
+        }
+    }
+
+    void onPlayerFirstByte(long millis) {
+        if (enabled) {
+            playerTtfb.record(millis);
+        }
+    }
+
+    void onOriginFirstByte(long millis) {
+        if (enabled) {
+            originTtfb.record(millis);
+        }
+    }
+
+    void onOriginConnected(long millis) {
+        if (enabled) {
+            originConnect.record(millis);
+        }
+    }
+
+    void onOriginRedirected(long millis) {
+        if (enabled) {
+            originRedirect.record(millis);
+        }
+    }
+
+    void onSessionFinished(long millis) {
+        if (enabled) {
+            sessionDuration.record(millis);
+        }
+    }
+
+    @Override
+    public void onConnected(String url, long connectMillis) {
+        onOriginConnected(connectMillis);
+    }
+
+    @Override
+    public void onEvicted(File file, long size) {
+        if (enabled) {
+            evictions.incrementAndGet();
+            bytesEvicted.addAndGet(size);
+        }
+    }
+
+    MetricsSnapshot snapshot(int activeSessions, long startupBypasses) {
+        return new MetricsSnapshot(System.currentTimeMillis() - startTime, cacheHits.get(), cachePartialHits.get(), cacheMisses.get(),
+                startupBypasses, bytesServedFromCache.get(), bytesServedFromOrigin.get(), bytesDownloaded.get(), activeSessions,
+                evictions.get(), bytesEvicted.get(), playerTtfb.snapshot(), originTtfb.snapshot(), originConnect.snapshot(),
+                originRedirect.snapshot(), sessionDuration.snapshot());
+    }
+
+    /**
+     * Histogram of durations with fixed exponential buckets.
+     */
+    private static final class Histogram {
+
+        private final AtomicLongArray counts = new AtomicLongArray(MetricsSnapshot.Histogram.BUCKET_BOUNDS.length + 1);
+        private final AtomicLong sum = new AtomicLong();
+
+        void record(long millis) {
+            long[] bounds = MetricsSnapshot.Histogram.BUCKET_BOUNDS;
+            int bucket = 0;
+            while (bucket < bounds.length && millis > bounds[bucket]) {
+                bucket++;
+            }
+            counts.incrementAndGet(bucket);
+            sum.addAndGet(millis);
+        }
+
+        MetricsSnapshot.Histogram snapshot() {
+            long[] values = new long[counts.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = counts.get(i);
+            }
+            return new MetricsSnapshot.Histogram(values, sum.get());
+        }
+    }
+}
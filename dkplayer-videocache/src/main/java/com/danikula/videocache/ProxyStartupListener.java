@@ -0,0 +1,24 @@
+package com.danikula.videocache;
+
+/**
+ * Listener for result of starting {@link HttpProxyCacheServer} in background.
+ * <p>
+ * Note that listener is called from startup thread, not main thread.
+ */
+public interface ProxyStartupListener {
+
+    /**
+     * Called when server is ready to serve requests.
+     *
+     * @param startupTimeMillis time passed from {@link HttpProxyCacheServer.Builder#buildAsync(ProxyStartupListener)} call.
+     */
+    void onStarted(long startupTimeMillis);
+
+    /**
+     * Called when server can't be started. {@link HttpProxyCacheServer#getProxyUrl(String)} keeps returning
+     * original urls, other methods of server throw {@link IllegalStateException}.
+     *
+     * @param error an error occurred while starting.
+     */
+    void onStartupFailed(Throwable error);
+}
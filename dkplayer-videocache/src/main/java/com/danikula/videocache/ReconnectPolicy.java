@@ -0,0 +1,73 @@
+package com.danikula.videocache;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+
+/**
+ * Declares how stalled or broken connection to source is detected and restored.
+ * <p>
+ * Connection is considered stalled if no data is received during {@link #stallTimeoutMillis} or average
+ * throughput measured over the same period drops below {@link #minBytesPerSecond}. Stalled or broken connection
+ * is reopened from the current offset up to {@link #maxAttempts} times with exponential backoff.
+ */
+public final class ReconnectPolicy {
+
+    /**
+     * Up to 3 reconnects with backoff from 500 ms to 4 s, connection is stalled if it gives less than 4 Kb/s during 10 s.
+     */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(3, 500, 4000, 4 * 1024, 10000);
+
+    /**
+     * Never reconnect, stall detection is disabled.
+     */
+    public static final ReconnectPolicy NONE = new ReconnectPolicy(0, 0, 0, 0, 0);
+
+    public final int maxAttempts;
+    public final long initialBackoffMillis;
+    public final long maxBackoffMillis;
+    public final long minBytesPerSecond;
+    public final int stallTimeoutMillis;
+
+    /**
+     * Creates new reconnect policy.
+     *
+     * @param maxAttempts          max count of sequential reconnects, {@code 0} to disable reconnecting.
+     * @param initialBackoffMillis delay before first reconnect, doubled for every next attempt.
+     * @param maxBackoffMillis     max delay before reconnect.
+     * @param minBytesPerSecond    min acceptable throughput, {@code 0} to disable throughput check.
+     * @param stallTimeoutMillis   period throughput is measured over and read timeout of connection, {@code 0} to disable stall detection.
+     */
+    public ReconnectPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis, long minBytesPerSecond, int stallTimeoutMillis) {
+        checkArgument(maxAttempts >= 0, "Max attempts can't be negative!");
+        checkArgument(initialBackoffMillis >= 0 && maxBackoffMillis >= initialBackoffMillis, "Invalid backoff range!");
+        checkArgument(minBytesPerSecond >= 0, "Min throughput can't be negative!");
+        checkArgument(stallTimeoutMillis >= 0, "Stall timeout can't be negative!");
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.minBytesPerSecond = minBytesPerSecond;
+        this.stallTimeoutMillis = stallTimeoutMillis;
+    }
+
+    long backoffMillis(int attempt) {
+        long backoff = initialBackoffMillis;
+        for (int i = 1; i < attempt && backoff < maxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, maxBackoffMillis);
+    }
+
+    boolean isStallDetectionEnabled() {
+        return stallTimeoutMillis > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialBackoffMillis=" + initialBackoffMillis +
+                ", maxBackoffMillis=" + maxBackoffMillis +
+                ", minBytesPerSecond=" + minBytesPerSecond +
+                ", stallTimeoutMillis=" + stallTimeoutMillis +
+                '}';
+    }
+}
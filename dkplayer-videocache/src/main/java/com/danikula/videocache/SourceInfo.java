@@ -7,14 +7,86 @@ package com.danikula.videocache;
  */
 public class SourceInfo {
 
+    public static final int RANGES_UNKNOWN = -1;
+    public static final int RANGES_UNSUPPORTED = 0;
+    public static final int RANGES_SUPPORTED = 1;
+
     public final String url;
     public final long length;
     public final String mime;
+    /**
+     * Average bitrate of source in bytes per second, or non positive value if it is unknown.
+     */
+    public final long bitrate;
+    /**
+     * Final location of source after following all redirects, or {@code null} if it is not resolved yet.
+     */
+    public final String resolvedUrl;
+    /**
+     * Time in millis since epoch {@link #resolvedUrl} can be used until.
+     */
+    public final long resolvedUntil;
+    /**
+     * Whether origin honours {@code Range} header, one of {@link #RANGES_UNKNOWN}, {@link #RANGES_UNSUPPORTED}, {@link #RANGES_SUPPORTED}.
+     */
+    public final int acceptRanges;
+    public final String etag;
+    public final String lastModified;
+    /**
+     * Time in millis since epoch cached data of source is fresh until, or {@code 0} if it is unknown.
+     */
+    public final long expires;
 
     public SourceInfo(String url, long length, String mime) {
+        this(url, length, mime, -1);
+    }
+
+    public SourceInfo(String url, long length, String mime, long bitrate) {
+        this(url, length, mime, bitrate, null, 0, RANGES_UNKNOWN, null, null, 0);
+    }
+
+    public SourceInfo(String url, long length, String mime, long bitrate, String resolvedUrl, long resolvedUntil,
+                      int acceptRanges, String etag, String lastModified, long expires) {
         this.url = url;
         this.length = length;
         this.mime = mime;
+        this.bitrate = bitrate;
+        this.resolvedUrl = resolvedUrl;
+        this.resolvedUntil = resolvedUntil;
+        this.acceptRanges = acceptRanges;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.expires = expires;
+    }
+
+    SourceInfo withBitrate(long bitrate) {
+        return new SourceInfo(url, length, mime, bitrate, resolvedUrl, resolvedUntil, acceptRanges, etag, lastModified, expires);
+    }
+
+    SourceInfo withResolvedUrl(String resolvedUrl, long resolvedUntil) {
+        return new SourceInfo(url, length, mime, bitrate, resolvedUrl, resolvedUntil, acceptRanges, etag, lastModified, expires);
+    }
+
+    SourceInfo withExpires(long expires) {
+        return new SourceInfo(url, length, mime, bitrate, resolvedUrl, resolvedUntil, acceptRanges, etag, lastModified, expires);
+    }
+
+    SourceInfo withUrl(String url) {
+        if (url.equals(this.url)) {
+            return this;
+        }
+        // location resolved for another url (e.g. with another auth token) isn't reusable
+        return new SourceInfo(url, length, mime, bitrate, null, 0, acceptRanges, etag, lastModified, expires);
+    }
+
+    SourceInfo withContent(long length, String mime, int acceptRanges, String etag, String lastModified, long expires) {
+        // bitrate is known only for source with the same length
+        long bitrate = length == this.length ? this.bitrate : -1;
+        return new SourceInfo(url, length, mime, bitrate, resolvedUrl, resolvedUntil, acceptRanges, etag, lastModified, expires);
+    }
+
+    boolean isResolvedUrlValid() {
+        return resolvedUrl != null && System.currentTimeMillis() < resolvedUntil;
     }
 
     @Override
@@ -23,6 +95,13 @@ public class SourceInfo {
                 "url='" + url + '\'' +
                 ", length=" + length +
                 ", mime='" + mime + '\'' +
+                ", bitrate=" + bitrate +
+                ", resolvedUrl='" + resolvedUrl + '\'' +
+                ", resolvedUntil=" + resolvedUntil +
+                ", acceptRanges=" + acceptRanges +
+                ", etag='" + etag + '\'' +
+                ", lastModified='" + lastModified + '\'' +
+                ", expires=" + expires +
                 '}';
     }
 }
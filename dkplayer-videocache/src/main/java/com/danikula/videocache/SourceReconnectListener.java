@@ -0,0 +1,18 @@
+package com.danikula.videocache;
+
+/**
+ * Listener for connection to source restored after stall or error.
+ * <p>
+ * Note that listener is called from thread reading source, not main thread.
+ */
+public interface SourceReconnectListener {
+
+    /**
+     * Called when reading of source is continued after connection was reopened.
+     *
+     * @param url                an url of source.
+     * @param attempts           count of reconnects made to restore reading.
+     * @param recoveryTimeMillis time passed from failure to first byte received after reconnect.
+     */
+    void onSourceReconnected(String url, int attempts, long recoveryTimeMillis);
+}
@@ -0,0 +1,74 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.ProxyCacheException;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encryption of cached data at rest with AES in counter mode.
+ * <p>
+ * Every cache entry is encrypted with its own key derived from master key and name of entry (HMAC-SHA256).
+ * Counter mode turns AES into stream cipher where keystream block for any offset is computed independently,
+ * so reading from any offset costs the same as reading from the beginning. Encrypted data is prefixed with
+ * random nonce generated for every download of entry (see {@link #getDataLength(long)}), so entry re-downloaded
+ * after its source had been changed is never encrypted with the same keystream as the previous version.
+ * <p>
+ * Encrypted files are unreadable outside the app, so proxy never returns file:// uri for them.
+ * Master key should be kept in Android Keystore or be derived from secret held there.
+ */
+public final class CacheEncryption {
+
+    private static final String KEY_DERIVATION = "HmacSHA256";
+    private static final int ENTRY_KEY_LENGTH = 16;
+
+    private final byte[] masterKey;
+
+    /**
+     * Creates encryption.
+     *
+     * @param masterKey secret key of at least 16 bytes, it must be the same for all app launches.
+     */
+    public CacheEncryption(byte[] masterKey) {
+        if (masterKey == null || masterKey.length < ENTRY_KEY_LENGTH) {
+            throw new IllegalArgumentException("Master key must have at least " + ENTRY_KEY_LENGTH + " bytes!");
+        }
+        this.masterKey = masterKey.clone();
+    }
+
+    /**
+     * Wraps cache, so data is encrypted before it is written to cache and decrypted after it is read.
+     *
+     * @param cache     a cache to wrap.
+     * @param entryName a name of entry, usually name of cache file.
+     * @return encrypted cache.
+     * @throws ProxyCacheException if AES is not supported by device.
+     */
+    public ResumableCache wrap(ResumableCache cache, String entryName) throws ProxyCacheException {
+        return new EncryptedCache(cache, deriveKey(entryName));
+    }
+
+    /**
+     * Returns length of cached data stored in encrypted cache file of given length.
+     *
+     * @param storedLength length of cache file.
+     * @return length of data, it is shorter than file by length of nonce.
+     */
+    public long getDataLength(long storedLength) {
+        return Math.max(0, storedLength - EncryptedCache.NONCE_LENGTH);
+    }
+
+    private SecretKeySpec deriveKey(String entryName) throws ProxyCacheException {
+        try {
+            Mac mac = Mac.getInstance(KEY_DERIVATION);
+            mac.init(new SecretKeySpec(masterKey, KEY_DERIVATION));
+            byte[] digest = mac.doFinal(entryName.getBytes("UTF-8"));
+            return new SecretKeySpec(digest, 0, ENTRY_KEY_LENGTH, "AES");
+        } catch (GeneralSecurityException | UnsupportedEncodingException e) {
+            throw new ProxyCacheException("Error deriving key for " + entryName, e);
+        }
+    }
+}
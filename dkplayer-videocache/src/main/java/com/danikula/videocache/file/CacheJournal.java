@@ -0,0 +1,108 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Logger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Journal of not completed cache file.
+ * <p>
+ * Stores count of bytes that are surely written to disk (committed length) and validator of source
+ * these bytes belong to. Journal is written to temp file and renamed, so it is replaced atomically
+ * and never contains torn data.
+ */
+final class CacheJournal {
+
+    static final String JOURNAL_POSTFIX = ".journal";
+    private static final String TEMP_POSTFIX = ".tmp";
+    private static final int VERSION = 1;
+
+    private final File file;
+    long committedLength;
+    long sourceLength = -1;
+    String etag;
+    String lastModified;
+
+    private CacheJournal(File file) {
+        this.file = file;
+    }
+
+    static CacheJournal of(File dataFile) {
+        return new CacheJournal(new File(dataFile.getParentFile(), dataFile.getName() + JOURNAL_POSTFIX));
+    }
+
+    static boolean isJournal(File file) {
+        String name = file.getName();
+        return name.endsWith(JOURNAL_POSTFIX) || name.endsWith(JOURNAL_POSTFIX + TEMP_POSTFIX);
+    }
+
+    /**
+     * Reads journal from disk.
+     *
+     * @return {@code true} if journal exists and is read successfully.
+     */
+    boolean read() {
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != VERSION) {
+                return false;
+            }
+            committedLength = in.readLong();
+            sourceLength = in.readLong();
+            etag = readNullableString(in);
+            lastModified = readNullableString(in);
+            return true;
+        } catch (IOException e) {
+            Logger.warn("Error reading journal " + file);
+            return false;
+        } finally {
+            Files.close(in);
+        }
+    }
+
+    void write() throws IOException {
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        DataOutputStream out = new DataOutputStream(fileOut);
+        try {
+            out.writeInt(VERSION);
+            out.writeLong(committedLength);
+            out.writeLong(sourceLength);
+            writeNullableString(out, etag);
+            writeNullableString(out, lastModified);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            Files.close(out);
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Error renaming " + tempFile + " to " + file);
+        }
+    }
+
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            Logger.warn("Error deleting journal " + file);
+        }
+    }
+
+    private String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Locks of cache entries shared by several processes using the same cache directory.
+ * <p>
+ * Entry is locked exclusively by its single writer and shared by readers of completed file, so entries in use
+ * aren't trimmed by another process. Every directory has single lock file, each entry locks one byte at position
+ * derived from its path. Lock file is opened once per process, because closing any descriptor of file releases
+ * all locks process holds on it.
+ * <p>
+ * Locks are advisory and non blocking: {@code null} lease means entry is in use by another process
+ * or by another cache of this process.
+ */
+public final class CacheLocks {
+
+    private static final String LOCK_FILE = ".locks";
+
+    private static final Map<File, FileChannel> channels = new HashMap<>();
+    private static final Map<File, Lease> leases = new HashMap<>();
+
+    private CacheLocks() {
+    }
+
+    /**
+     * Tries to lock entry of file.
+     *
+     * @param file   completed or temp file of entry, or any other file to be used by single process at once.
+     * @param shared {@code true} for read lock that may be held by several readers.
+     * @return lease to be released when entry isn't used anymore, or {@code null} if entry is locked by someone else.
+     */
+    public static synchronized Lease tryAcquire(File file, boolean shared) {
+        File entry = entryOf(file);
+        Lease lease = leases.get(entry);
+        if (lease != null) {
+            if (!shared || !lease.shared) {
+                return null;
+            }
+            lease.holders++;
+            return lease;
+        }
+        FileLock lock;
+        try {
+            lock = tryLock(entry, shared);
+            if (lock == null) {
+                return null;
+            }
+        } catch (IOException e) {
+            // locking isn't supported by file system, entry is used as if cache were used by single process
+            Logger.warn("Error locking " + entry + ": " + e);
+            lock = null;
+        }
+        lease = new Lease(entry, lock, shared);
+        leases.put(entry, lease);
+        return lease;
+    }
+
+    /**
+     * Checks whether entry of file is used by some cache of this or another process.
+     *
+     * @param file completed or temp file of entry.
+     * @return {@code true} if file must not be deleted.
+     */
+    public static synchronized boolean isBusy(File file) {
+        File entry = entryOf(file);
+        if (leases.containsKey(entry)) {
+            return true;
+        }
+        try {
+            FileLock lock = tryLock(entry, false);
+            if (lock == null) {
+                return true;
+            }
+            release(lock);
+        } catch (IOException e) {
+            Logger.warn("Error checking lock of " + entry + ": " + e);
+        }
+        return false;
+    }
+
+    static boolean isLockFile(File file) {
+        return LOCK_FILE.equals(file.getName());
+    }
+
+    private static FileLock tryLock(File entry, boolean shared) throws IOException {
+        try {
+            return channelOf(entry.getParentFile()).tryLock(positionOf(entry), 1, shared);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static FileChannel channelOf(File directory) throws IOException {
+        FileChannel channel = channels.get(directory);
+        if (channel == null) {
+            Files.makeDir(directory);
+            channel = new RandomAccessFile(new File(directory, LOCK_FILE), "rw").getChannel();
+            channels.put(directory, channel);
+        }
+        return channel;
+    }
+
+    private static long positionOf(File entry) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(entry.getName().getBytes("UTF-8"));
+            long position = 0;
+            for (int i = 0; i < 8; i++) {
+                position = (position << 8) | (digest[i] & 0xff);
+            }
+            // the last byte of range is reserved, so position + 1 never overflows
+            return (position & Long.MAX_VALUE) % (Long.MAX_VALUE - 1);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static File entryOf(File file) {
+        String name = file.getName();
+        if (name.endsWith(FileCache.TEMP_POSTFIX)) {
+            name = name.substring(0, name.length() - FileCache.TEMP_POSTFIX.length());
+        }
+        return new File(file.getAbsoluteFile().getParentFile(), name);
+    }
+
+    private static void release(FileLock lock) {
+        try {
+            lock.release();
+        } catch (IOException e) {
+            Logger.warn("Error releasing lock " + lock + ": " + e);
+        }
+    }
+
+    /**
+     * Lock of entry held by this process.
+     */
+    public static final class Lease {
+
+        private final File entry;
+        private final FileLock lock;
+        private final boolean shared;
+        private int holders = 1;
+
+        private Lease(File entry, FileLock lock, boolean shared) {
+            this.entry = entry;
+            this.lock = lock;
+            this.shared = shared;
+        }
+
+        /**
+         * Releases lease. Entry is unlocked when all holders of shared lease release it.
+         */
+        public void release() {
+            synchronized (CacheLocks.class) {
+                if (holders == 0 || --holders > 0) {
+                    return;
+                }
+                leases.remove(entry);
+                if (lock != null) {
+                    CacheLocks.release(lock);
+                }
+            }
+        }
+    }
+}
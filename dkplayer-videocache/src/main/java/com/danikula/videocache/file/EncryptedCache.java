@@ -0,0 +1,221 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.ProxyCacheException;
+
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * {@link ResumableCache} that encrypts data of another cache with AES in counter mode (see {@link CacheEncryption}).
+ * <p>
+ * Wrapped cache starts with random nonce written along with the first appended data, counter block is nonce followed
+ * by index of AES block. Nonce is generated again whenever wrapped cache is empty (new download, discarded or
+ * truncated data), so data of different downloads of the same entry is never encrypted with the same keystream.
+ * <p>
+ * Sequential reads and appends continue keystream of previous call; cipher is repositioned (counter block is computed
+ * from offset) only when offset jumps, e.g. after seek or when several clients read the same cache.
+ */
+final class EncryptedCache implements ResumableCache {
+
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+    private static final int BLOCK_SIZE = 16;
+    static final int NONCE_LENGTH = 8;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ResumableCache cache;
+    private final SecretKeySpec key;
+    private final Cipher encryptor;
+    private final Cipher decryptor;
+    private final byte[] counter = new byte[BLOCK_SIZE];
+    private final byte[] skipBuffer = new byte[BLOCK_SIZE];
+    private long encryptPosition = -1;
+    private long decryptPosition = -1;
+    private byte[] encrypted = new byte[0];
+    private byte[] nonce;
+
+    EncryptedCache(ResumableCache cache, SecretKeySpec key) throws ProxyCacheException {
+        this.cache = cache;
+        this.key = key;
+        try {
+            this.encryptor = Cipher.getInstance(TRANSFORMATION);
+            this.decryptor = Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new ProxyCacheException("Cipher " + TRANSFORMATION + " isn't supported", e);
+        }
+    }
+
+    @Override
+    public long available() throws ProxyCacheException {
+        return Math.max(0, cache.available() - NONCE_LENGTH);
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        int read = cache.read(buffer, offset + NONCE_LENGTH, length);
+        if (read <= 0) {
+            return read;
+        }
+        try {
+            readNonce();
+            if (decryptPosition != offset) {
+                decryptPosition = -1;
+                seek(decryptor, Cipher.DECRYPT_MODE, offset);
+            }
+            decryptor.update(buffer, 0, read, buffer, 0);
+            decryptPosition = offset + read;
+        } catch (GeneralSecurityException e) {
+            decryptPosition = -1;
+            throw new ProxyCacheException("Error decrypting " + read + " bytes with offset " + offset + " of " + cache.getFile(), e);
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized void append(byte[] data, int length) throws ProxyCacheException {
+        long stored = cache.available();
+        // nonce is written in the same piece as data, so cache never contains nonce without data
+        int header = stored < NONCE_LENGTH ? newNonce(stored) : 0;
+        long offset = stored + header - NONCE_LENGTH;
+        if (encrypted.length < header + length) {
+            encrypted = new byte[header + length];
+        }
+        readNonce();
+        System.arraycopy(nonce, 0, encrypted, 0, header);
+        try {
+            if (encryptPosition != offset) {
+                encryptPosition = -1;
+                seek(encryptor, Cipher.ENCRYPT_MODE, offset);
+            }
+            encryptor.update(data, 0, length, encrypted, header);
+        } catch (GeneralSecurityException e) {
+            encryptPosition = -1;
+            throw new ProxyCacheException("Error encrypting " + length + " bytes of " + cache.getFile(), e);
+        }
+        // keystream is advanced already, so reposition cipher next time if data isn't appended
+        encryptPosition = -1;
+        cache.append(encrypted, header + length);
+        encryptPosition = offset + length;
+    }
+
+    @Override
+    public void close() throws ProxyCacheException {
+        cache.close();
+    }
+
+    @Override
+    public void complete() throws ProxyCacheException {
+        cache.complete();
+    }
+
+    @Override
+    public boolean isCompleted() {
+        return cache.isCompleted();
+    }
+
+    @Override
+    public String getEtag() {
+        return cache.getEtag();
+    }
+
+    @Override
+    public String getLastModified() {
+        return cache.getLastModified();
+    }
+
+    @Override
+    public long getSourceLength() {
+        return cache.getSourceLength();
+    }
+
+    @Override
+    public void setValidator(String etag, String lastModified, long sourceLength) throws ProxyCacheException {
+        cache.setValidator(etag, lastModified, sourceLength);
+    }
+
+    @Override
+    public boolean acquireWriteLock() throws ProxyCacheException {
+        return cache.acquireWriteLock();
+    }
+
+    @Override
+    public synchronized void discard() throws ProxyCacheException {
+        resetNonce();
+        cache.discard();
+    }
+
+    @Override
+    public File getFile() {
+        return cache.getFile();
+    }
+
+    /**
+     * Generates nonce for new download.
+     *
+     * @param stored count of bytes in wrapped cache, non zero value means nonce was torn and cache is emptied.
+     * @return length of nonce to be written before data.
+     */
+    private int newNonce(long stored) throws ProxyCacheException {
+        if (stored > 0) {
+            Logger.warn("Nonce of " + cache.getFile() + " is torn, encrypted cache is reset");
+            String etag = cache.getEtag();
+            String lastModified = cache.getLastModified();
+            long sourceLength = cache.getSourceLength();
+            cache.discard();
+            cache.setValidator(etag, lastModified, sourceLength);
+        }
+        resetNonce();
+        nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return NONCE_LENGTH;
+    }
+
+    private void resetNonce() {
+        nonce = null;
+        encryptPosition = -1;
+        decryptPosition = -1;
+    }
+
+    /**
+     * Reads nonce written by this or another cache of the same entry. Must be called only if cache has data.
+     */
+    private void readNonce() throws ProxyCacheException {
+        if (nonce != null) {
+            return;
+        }
+        byte[] header = new byte[NONCE_LENGTH];
+        int offset = 0;
+        while (offset < NONCE_LENGTH) {
+            byte[] buffer = new byte[NONCE_LENGTH - offset];
+            int read = cache.read(buffer, offset, buffer.length);
+            if (read <= 0) {
+                throw new ProxyCacheException("Error reading nonce of " + cache.getFile());
+            }
+            System.arraycopy(buffer, 0, header, offset, read);
+            offset += read;
+        }
+        nonce = header;
+    }
+
+    /**
+     * Positions cipher at offset: counter block is nonce followed by index of AES block containing offset,
+     * keystream bytes before offset within this block are skipped.
+     */
+    private void seek(Cipher cipher, int mode, long offset) throws GeneralSecurityException {
+        long block = offset / BLOCK_SIZE;
+        System.arraycopy(nonce, 0, counter, 0, NONCE_LENGTH);
+        for (int i = 0; i < BLOCK_SIZE - NONCE_LENGTH; i++) {
+            counter[BLOCK_SIZE - 1 - i] = (byte) (block >>> (8 * i));
+        }
+        cipher.init(mode, key, new IvParameterSpec(counter));
+        int skip = (int) (offset % BLOCK_SIZE);
+        if (skip > 0) {
+            cipher.update(skipBuffer, 0, skip, skipBuffer, 0);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.danikula.videocache.file;
+
+import java.io.File;
+
+/**
+ * Listener for files deleted by {@link LruDiskUsage} to keep cache within its limits.
+ */
+public interface EvictionListener {
+
+    /**
+     * Called from trimming thread after file is deleted.
+     *
+     * @param file a deleted file.
+     * @param size size of deleted file in bytes.
+     */
+    void onEvicted(File file, long size);
+}
@@ -1,6 +1,7 @@
 package com.danikula.videocache.file;
 
 import com.danikula.videocache.Cache;
+import com.danikula.videocache.Logger;
 import com.danikula.videocache.ProxyCacheException;
 
 import java.io.File;
@@ -9,16 +10,26 @@ import java.io.RandomAccessFile;
 
 /**
  * {@link Cache} that uses file for storing data.
+ * <p>
+ * Not completed cache is accompanied by {@link CacheJournal} with committed length and validator of source.
+ * Bytes beyond committed length (e.g. written just before crash) are discarded when cache is opened again.
+ * <p>
+ * Not completed file is written by single writer holding exclusive lock of entry (see {@link CacheLocks}),
+ * cache of another process opened for the same file only reads it and takes over writing once writer releases it.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
-public class FileCache implements Cache {
+public class FileCache implements ResumableCache {
 
-    private static final String TEMP_POSTFIX = ".download";
+    public static final String TEMP_POSTFIX = ".download";
+    private static final long COMMIT_INTERVAL = 1024 * 1024;
 
     private final DiskUsage diskUsage;
     public File file;
     private RandomAccessFile dataFile;
+    private CacheJournal journal;
+    private CacheLocks.Lease lease;
+    private boolean writer;
 
     public FileCache(File file) throws ProxyCacheException {
         this(file, new UnlimitedDiskUsage());
@@ -34,16 +45,56 @@ public class FileCache implements Cache {
             Files.makeDir(directory);
             boolean completed = file.exists();
             this.file = completed ? file : new File(file.getParentFile(), file.getName() + TEMP_POSTFIX);
-            this.dataFile = new RandomAccessFile(this.file, completed ? "r" : "rw");
+            this.lease = CacheLocks.tryAcquire(file, completed);
+            this.writer = !completed && lease != null;
+            if (completed || writer) {
+                this.dataFile = new RandomAccessFile(this.file, completed ? "r" : "rw");
+            } else {
+                openShared();
+            }
+            if (writer) {
+                openJournal();
+            }
         } catch (IOException e) {
             throw new ProxyCacheException("Error using file " + file + " as disc cache", e);
         }
     }
 
+    private void openShared() throws IOException {
+        // another process writes file: nothing is truncated, data is read as it is written
+        journal = CacheJournal.of(file);
+        journal.read();
+        File completedFile = getCompletedFile();
+        if (!file.exists() && completedFile.exists()) {
+            file = completedFile;
+        }
+        dataFile = new RandomAccessFile(file, isCompleted() ? "r" : "rw");
+    }
+
+    private void openJournal() throws IOException {
+        journal = CacheJournal.of(file);
+        boolean journalRead = journal.read();
+        long length = dataFile.length();
+        long committedLength = journalRead ? Math.min(journal.committedLength, length) : 0;
+        if (committedLength < length) {
+            Logger.warn("Discard " + (length - committedLength) + " not committed bytes of " + file);
+            dataFile.setLength(committedLength);
+        }
+        if (!journalRead) {
+            journal.sourceLength = -1;
+            journal.etag = null;
+            journal.lastModified = null;
+        }
+        journal.committedLength = committedLength;
+    }
+
     @Override
     public synchronized long available() throws ProxyCacheException {
         try {
-            return (int) dataFile.length();
+            if (!writer && !isCompleted()) {
+                refreshShared();
+            }
+            return dataFile.length();
         } catch (IOException e) {
             throw new ProxyCacheException("Error reading length of file " + file, e);
         }
@@ -66,8 +117,12 @@ public class FileCache implements Cache {
             if (isCompleted()) {
                 throw new ProxyCacheException("Error append cache: cache file " + file + " is completed!");
             }
+            checkWriter();
             dataFile.seek(available());
             dataFile.write(data, 0, length);
+            if (dataFile.length() - journal.committedLength >= COMMIT_INTERVAL) {
+                commit();
+            }
         } catch (IOException e) {
             String format = "Error writing %d bytes to %s from buffer with size %d";
             throw new ProxyCacheException(String.format(format, length, dataFile, data.length), e);
@@ -77,6 +132,21 @@ public class FileCache implements Cache {
     @Override
     public synchronized void close() throws ProxyCacheException {
         try {
+            closeData();
+        } finally {
+            if (lease != null) {
+                lease.release();
+                lease = null;
+            }
+            writer = false;
+        }
+    }
+
+    private void closeData() throws ProxyCacheException {
+        try {
+            if (writer && !isCompleted()) {
+                commit();
+            }
             dataFile.close();
             diskUsage.touch(file);
         } catch (IOException e) {
@@ -84,20 +154,80 @@ public class FileCache implements Cache {
         }
     }
 
+    /**
+     * Tries to become the only writer of not completed file. Cache of another process may be writing it.
+     *
+     * @return {@code true} if data can be appended by this cache.
+     * @throws ProxyCacheException if error occur while reopening file for writing.
+     */
+    @Override
+    public synchronized boolean acquireWriteLock() throws ProxyCacheException {
+        if (writer || isCompleted()) {
+            return writer;
+        }
+        try {
+            refreshShared();
+            if (isCompleted()) {
+                return false;
+            }
+            lease = CacheLocks.tryAcquire(file, false);
+            if (lease == null) {
+                return false;
+            }
+            writer = true;
+            dataFile.close();
+            dataFile = new RandomAccessFile(file, "rw");
+            openJournal();
+            Logger.info("Writing of " + file + " is taken over from another process");
+            return true;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error opening " + file + " for writing", e);
+        }
+    }
+
+    private void refreshShared() throws IOException {
+        File completedFile = getCompletedFile();
+        if (completedFile.exists()) {
+            // completed by another process, descriptor of renamed file is still valid, but reopen it to be safe
+            dataFile.close();
+            file = completedFile;
+            dataFile = new RandomAccessFile(file, "r");
+            if (lease == null) {
+                lease = CacheLocks.tryAcquire(file, true);
+            }
+        }
+    }
+
+    private File getCompletedFile() {
+        String name = file.getName();
+        return isTempFile(file) ? new File(file.getParentFile(), name.substring(0, name.length() - TEMP_POSTFIX.length())) : file;
+    }
+
+    private void checkWriter() throws ProxyCacheException {
+        if (!writer && !acquireWriteLock()) {
+            throw new ProxyCacheException("Cache file " + file + " is being written by another process");
+        }
+    }
+
     @Override
     public synchronized void complete() throws ProxyCacheException {
         if (isCompleted()) {
             return;
         }
 
-        close();
-        String fileName = file.getName().substring(0, file.getName().length() - TEMP_POSTFIX.length());
-        File completedFile = new File(file.getParentFile(), fileName);
+        checkWriter();
+        closeData();
+        journal.delete();
+        File completedFile = getCompletedFile();
         boolean renamed = file.renameTo(completedFile);
         if (!renamed) {
             throw new ProxyCacheException("Error renaming file " + file + " to " + completedFile + " for completion!");
         }
         file = completedFile;
+        // completed file is shared by readers
+        lease.release();
+        lease = CacheLocks.tryAcquire(file, true);
+        writer = false;
         try {
             dataFile = new RandomAccessFile(file, "r");
             diskUsage.touch(file);
@@ -111,12 +241,68 @@ public class FileCache implements Cache {
         return !isTempFile(file);
     }
 
+    @Override
+    public synchronized String getEtag() {
+        return journal == null ? null : journal.etag;
+    }
+
+    @Override
+    public synchronized String getLastModified() {
+        return journal == null ? null : journal.lastModified;
+    }
+
+    @Override
+    public synchronized long getSourceLength() {
+        return journal == null ? -1 : journal.sourceLength;
+    }
+
+    @Override
+    public synchronized void setValidator(String etag, String lastModified, long sourceLength) throws ProxyCacheException {
+        if (isCompleted()) {
+            return;
+        }
+        checkWriter();
+        journal.etag = etag;
+        journal.lastModified = lastModified;
+        journal.sourceLength = sourceLength;
+        commit();
+    }
+
+    @Override
+    public synchronized void discard() throws ProxyCacheException {
+        if (isCompleted()) {
+            throw new ProxyCacheException("Error discarding cache: cache file " + file + " is completed!");
+        }
+        checkWriter();
+        try {
+            dataFile.setLength(0);
+            journal.committedLength = 0;
+            journal.sourceLength = -1;
+            journal.etag = null;
+            journal.lastModified = null;
+            journal.write();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error discarding file " + file, e);
+        }
+    }
+
+    private void commit() throws ProxyCacheException {
+        try {
+            dataFile.getFD().sync();
+            journal.committedLength = dataFile.length();
+            journal.write();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error committing journal of " + file, e);
+        }
+    }
+
     /**
      * Returns file to be used fo caching. It may as original file passed in constructor as some temp file for not completed cache.
      *
      * @return file for caching.
      */
-    public File getFile() {
+    @Override
+    public synchronized File getFile() {
         return file;
     }
 
@@ -2,10 +2,11 @@ package com.danikula.videocache.file;
 
 import com.danikula.videocache.Logger;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -36,12 +37,44 @@ class Files {
         List<File> result = new LinkedList<>();
         File[] files = directory.listFiles();
         if (files != null) {
-            result = Arrays.asList(files);
+            result = new ArrayList<>(files.length);
+            addCacheFiles(files, result);
             Collections.sort(result, new LastModifiedComparator());
         }
         return result;
     }
 
+    static List<File> getLruListFiles(List<File> directories) {
+        List<File> result = new ArrayList<>();
+        for (File directory : directories) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                addCacheFiles(files, result);
+            }
+        }
+        Collections.sort(result, new LastModifiedComparator());
+        return result;
+    }
+
+    private static void addCacheFiles(File[] files, List<File> result) {
+        for (File file : files) {
+            // directories (e.g. segments of SegmentStore) are managed separately
+            if (file.isFile() && !CacheJournal.isJournal(file) && !CacheLocks.isLockFile(file)) {
+                result.add(file);
+            }
+        }
+    }
+
+    static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Logger.error("Error closing resource");
+            }
+        }
+    }
+
     static void setLastModifiedNow(File file) throws IOException {
         if (file.exists()) {
             long now = System.currentTimeMillis();
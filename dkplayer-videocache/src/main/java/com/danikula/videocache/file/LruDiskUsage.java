@@ -17,6 +17,34 @@ import java.util.concurrent.Executors;
 public abstract class LruDiskUsage implements DiskUsage {
 
     private final ExecutorService workerThread = Executors.newSingleThreadExecutor();
+    private volatile EvictionListener evictionListener;
+    private volatile List<File> directories;
+    private volatile long minFreeSpace;
+
+    /**
+     * Sets listener to be notified about files deleted to keep cache within its limits.
+     *
+     * @param evictionListener a listener, may be {@code null}.
+     */
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Makes files in all passed directories trimmed together, as single cache. By default only directory of touched
+     * file is trimmed.
+     * <p>
+     * If {@code minFreeSpace} is positive, least recently used files are also deleted while volume they are stored on
+     * has less free space.
+     * </p>
+     *
+     * @param directories  directories of cache.
+     * @param minFreeSpace free space in bytes to be kept on volumes of directories, {@code 0} to ignore free space.
+     */
+    public void setDirectories(List<File> directories, long minFreeSpace) {
+        this.directories = directories;
+        this.minFreeSpace = minFreeSpace;
+    }
 
     @Override
     public void touch(File file) throws IOException {
@@ -25,8 +53,12 @@ public abstract class LruDiskUsage implements DiskUsage {
 
     private void touchInBackground(File file) throws IOException {
         Files.setLastModifiedNow(file);
-        List<File> files = Files.getLruListFiles(file.getParentFile());
+        List<File> directories = this.directories;
+        List<File> files = directories == null ? Files.getLruListFiles(file.getParentFile()) : Files.getLruListFiles(directories);
         trim(files);
+        if (minFreeSpace > 0) {
+            trimLowVolumes(files, file);
+        }
     }
 
     protected abstract boolean accept(File file, long totalSize, int totalCount);
@@ -38,18 +70,45 @@ public abstract class LruDiskUsage implements DiskUsage {
             boolean accepted = accept(file, totalSize, totalCount);
             if (!accepted) {
                 long fileSize = file.length();
-                boolean deleted = file.delete();
-                if (deleted) {
+                if (delete(file, fileSize, "it exceeds cache limit")) {
                     totalCount--;
                     totalSize -= fileSize;
-                    Logger.info("Cache file " + file + " is deleted because it exceeds cache limit");
-                } else {
-                    Logger.error("Error deleting file " + file + " for trimming cache");
                 }
             }
         }
     }
 
+    private void trimLowVolumes(List<File> files, File touchedFile) {
+        for (File file : files) {
+            if (file.equals(touchedFile) || !file.exists()) {
+                continue;
+            }
+            if (file.getParentFile().getUsableSpace() < minFreeSpace) {
+                delete(file, file.length(), "volume is low on free space");
+            }
+        }
+    }
+
+    private boolean delete(File file, long fileSize, String reason) {
+        if (CacheLocks.isBusy(file)) {
+            // file is being written or read by this or another process sharing cache directory
+            Logger.debug("Cache file " + file + " is in use, it isn't deleted although " + reason);
+            return false;
+        }
+        boolean deleted = file.delete();
+        if (deleted) {
+            CacheJournal.of(file).delete();
+            Logger.info("Cache file " + file + " is deleted because " + reason);
+            EvictionListener evictionListener = this.evictionListener;
+            if (evictionListener != null) {
+                evictionListener.onEvicted(file, fileSize);
+            }
+        } else {
+            Logger.error("Error deleting file " + file + " for trimming cache");
+        }
+        return deleted;
+    }
+
     private long countTotalSize(List<File> files) {
         long totalSize = 0;
         for (File file : files) {
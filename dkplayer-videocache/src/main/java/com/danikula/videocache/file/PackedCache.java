@@ -0,0 +1,309 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.ProxyCacheException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link ResumableCache} that keeps data in {@link SegmentStore} while entry is small and moves it to standalone
+ * {@link FileCache} once entry is large or requested often enough.
+ * <p>
+ * Appended data is collected in memory buffer and written to segment in large pieces, so data of entries downloaded
+ * concurrently isn't interleaved in tiny extents. Buffered data is visible for reading immediately.
+ */
+final class PackedCache implements ResumableCache {
+
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    private static final long COMMIT_INTERVAL = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final SegmentStore store;
+    private final SegmentStore.Record record;
+    private final File file;
+    private final DiskUsage diskUsage;
+    private byte[] writeBuffer;
+    private int buffered;
+    private long uncommitted;
+    private FileCache promoted;
+    private boolean promotionRequested;
+    private int discards;
+    private boolean closed;
+
+    PackedCache(SegmentStore store, SegmentStore.Record record, File file, DiskUsage diskUsage) {
+        this.store = store;
+        this.record = record;
+        this.file = file;
+        this.diskUsage = diskUsage;
+    }
+
+    @Override
+    public synchronized long available() throws ProxyCacheException {
+        return promoted != null ? promoted.available() : store.length(record) + buffered;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        if (promoted != null) {
+            return promoted.read(buffer, offset, length);
+        }
+        long stored = store.length(record);
+        if (offset >= stored) {
+            long shift = offset - stored;
+            if (shift >= buffered) {
+                return -1;
+            }
+            int count = (int) Math.min(length, buffered - shift);
+            System.arraycopy(writeBuffer, (int) shift, buffer, 0, count);
+            return count;
+        }
+        try {
+            return store.read(record, buffer, offset, length);
+        } catch (IOException e) {
+            String format = "Error reading %d bytes with offset %d of %s from segments";
+            throw new ProxyCacheException(String.format(format, length, offset, file), e);
+        }
+    }
+
+    @Override
+    public synchronized void append(byte[] data, int length) throws ProxyCacheException {
+        if (promoted != null) {
+            promoted.append(data, length);
+            return;
+        }
+        if (isCompleted()) {
+            throw new ProxyCacheException("Error append cache: cache " + file + " is completed!");
+        }
+        if (writeBuffer == null) {
+            writeBuffer = new byte[WRITE_BUFFER_SIZE];
+        }
+        int offset = 0;
+        while (offset < length) {
+            int count = Math.min(length - offset, writeBuffer.length - buffered);
+            System.arraycopy(data, offset, writeBuffer, buffered, count);
+            buffered += count;
+            offset += count;
+            if (buffered == writeBuffer.length) {
+                flush();
+            }
+        }
+        if (uncommitted >= COMMIT_INTERVAL) {
+            commit();
+        }
+        if (available() >= store.policy.promoteBytes) {
+            requestPromotion();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws ProxyCacheException {
+        if (promoted != null) {
+            promoted.close();
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            commit();
+        } finally {
+            closed = true;
+            writeBuffer = null;
+            store.close(record);
+        }
+    }
+
+    @Override
+    public synchronized void complete() throws ProxyCacheException {
+        if (promoted != null) {
+            promoted.complete();
+            return;
+        }
+        if (isCompleted()) {
+            return;
+        }
+        flush();
+        record.completed = true;
+        commit();
+    }
+
+    @Override
+    public synchronized boolean isCompleted() {
+        return promoted != null ? promoted.isCompleted() : record.completed;
+    }
+
+    @Override
+    public synchronized String getEtag() {
+        return promoted != null ? promoted.getEtag() : record.etag;
+    }
+
+    @Override
+    public synchronized String getLastModified() {
+        return promoted != null ? promoted.getLastModified() : record.lastModified;
+    }
+
+    @Override
+    public synchronized long getSourceLength() {
+        return promoted != null ? promoted.getSourceLength() : record.sourceLength;
+    }
+
+    @Override
+    public synchronized void setValidator(String etag, String lastModified, long sourceLength) throws ProxyCacheException {
+        if (promoted != null) {
+            promoted.setValidator(etag, lastModified, sourceLength);
+            return;
+        }
+        if (isCompleted()) {
+            return;
+        }
+        record.etag = etag;
+        record.lastModified = lastModified;
+        record.sourceLength = sourceLength;
+        commit();
+    }
+
+    @Override
+    public synchronized boolean acquireWriteLock() throws ProxyCacheException {
+        // segment store is used by single process
+        return promoted != null ? promoted.acquireWriteLock() : !isCompleted();
+    }
+
+    @Override
+    public synchronized void discard() throws ProxyCacheException {
+        if (promoted != null) {
+            promoted.discard();
+            return;
+        }
+        if (isCompleted()) {
+            throw new ProxyCacheException("Error discarding cache: cache " + file + " is completed!");
+        }
+        buffered = 0;
+        discards++;
+        store.truncate(record);
+        record.etag = null;
+        record.lastModified = null;
+        record.sourceLength = -1;
+        commit();
+    }
+
+    @Override
+    public synchronized File getFile() {
+        return promoted != null ? promoted.getFile() : file;
+    }
+
+    /**
+     * Requests moving of data to standalone file, it is done on background thread of store.
+     */
+    synchronized void requestPromotion() {
+        if (promoted == null && !closed && !promotionRequested) {
+            promotionRequested = store.schedulePromotion(this);
+        }
+    }
+
+    /**
+     * Moves data to standalone file. Bulk of data is copied without holding the cache, so it keeps being read
+     * and appended meanwhile, only data appended during copying is moved holding it. Cache keeps working with
+     * the same data if moving fails or cache is changed meanwhile. Entry opened by other caches isn't moved until
+     * they are closed, they keep reading its segments.
+     */
+    void promote() {
+        FileCache fileCache = null;
+        int generation;
+        try {
+            synchronized (this) {
+                if (promoted != null || closed) {
+                    return;
+                }
+                if (!store.canPromote(record)) {
+                    Logger.debug("Cache " + file + " isn't promoted: entry is opened by another cache");
+                    return;
+                }
+                flush();
+                fileCache = new FileCache(file, diskUsage);
+                if (!fileCache.acquireWriteLock()) {
+                    // standalone file is cached by another process, keep its data
+                    Logger.warn("Cache " + file + " isn't promoted: standalone file is in use");
+                    fileCache.close();
+                    return;
+                }
+                generation = discards;
+            }
+            long copied = copy(fileCache, 0);
+            synchronized (this) {
+                if (closed || discards != generation || !store.canPromote(record)) {
+                    Logger.debug("Cache " + file + " isn't promoted: it is changed while data is moved");
+                    deleteQuietly(fileCache);
+                    return;
+                }
+                flush();
+                copy(fileCache, copied);
+                fileCache.setValidator(record.etag, record.lastModified, record.sourceLength);
+                if (record.completed) {
+                    fileCache.complete();
+                }
+                store.remove(record);
+                promoted = fileCache;
+                writeBuffer = null;
+            }
+            Logger.info("Cache " + file + " is promoted from segments to standalone file");
+        } catch (ProxyCacheException | IOException e) {
+            Logger.error("Error promoting cache " + file + " to standalone file: " + e);
+            deleteQuietly(fileCache);
+        } finally {
+            synchronized (this) {
+                // failed promotion is requested again by the next append
+                promotionRequested = false;
+            }
+        }
+    }
+
+    private long copy(FileCache fileCache, long offset) throws ProxyCacheException, IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int readBytes;
+        while ((readBytes = store.read(record, buffer, offset, buffer.length)) != -1) {
+            fileCache.append(buffer, readBytes);
+            offset += readBytes;
+        }
+        return offset;
+    }
+
+    private void deleteQuietly(FileCache fileCache) {
+        if (fileCache == null) {
+            return;
+        }
+        try {
+            fileCache.close();
+        } catch (ProxyCacheException e) {
+            // file is deleted anyway
+        }
+        File partialFile = fileCache.getFile();
+        CacheJournal.of(partialFile).delete();
+        if (partialFile.exists() && !partialFile.delete()) {
+            Logger.error("Error deleting partially promoted cache " + partialFile);
+        }
+    }
+
+    private void flush() throws ProxyCacheException {
+        if (buffered == 0) {
+            return;
+        }
+        try {
+            store.append(record, writeBuffer, buffered);
+            uncommitted += buffered;
+            buffered = 0;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error writing " + buffered + " bytes of " + file + " to segments", e);
+        }
+    }
+
+    private void commit() throws ProxyCacheException {
+        try {
+            store.commit(record);
+            uncommitted = 0;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error committing " + file + " to segments", e);
+        }
+    }
+}
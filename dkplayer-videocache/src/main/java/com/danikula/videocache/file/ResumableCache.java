@@ -0,0 +1,66 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Cache;
+import com.danikula.videocache.ProxyCacheException;
+
+import java.io.File;
+
+/**
+ * {@link Cache} of http source that remembers validator of source, so not completed cache can be resumed later.
+ */
+public interface ResumableCache extends Cache {
+
+    /**
+     * Returns validator (ETag) of source data in cache belongs to.
+     *
+     * @return ETag or {@code null} if it is unknown.
+     */
+    String getEtag();
+
+    /**
+     * Returns validator (Last-Modified) of source data in cache belongs to.
+     *
+     * @return Last-Modified date or {@code null} if it is unknown.
+     */
+    String getLastModified();
+
+    /**
+     * Returns total length of source data in cache belongs to.
+     *
+     * @return length or negative value if it is unknown.
+     */
+    long getSourceLength();
+
+    /**
+     * Stores validator of source cached data belongs to. Should be called before appending data of newly opened source.
+     *
+     * @param etag         ETag of source, may be {@code null}.
+     * @param lastModified Last-Modified date of source, may be {@code null}.
+     * @param sourceLength total length of source or negative value if it is unknown.
+     * @throws ProxyCacheException if error occur while storing validator.
+     */
+    void setValidator(String etag, String lastModified, long sourceLength) throws ProxyCacheException;
+
+    /**
+     * Tries to become the only writer of not completed cache. Cache directory may be shared with another process,
+     * then cache only reads data written by that process until writer releases it.
+     *
+     * @return {@code true} if data can be appended by this cache.
+     * @throws ProxyCacheException if error occur while opening cache for writing.
+     */
+    boolean acquireWriteLock() throws ProxyCacheException;
+
+    /**
+     * Drops all not completed cached data, e.g. because source has been changed.
+     *
+     * @throws ProxyCacheException if error occur while dropping data.
+     */
+    void discard() throws ProxyCacheException;
+
+    /**
+     * Returns file cache is stored in or would be stored in if it were standalone file.
+     *
+     * @return file for caching.
+     */
+    File getFile();
+}
@@ -0,0 +1,56 @@
+package com.danikula.videocache.file;
+
+/**
+ * Declares how {@link SegmentStore} packs small caches into segment files.
+ */
+public final class SegmentPolicy {
+
+    /**
+     * Up to 128 Mb in 16 Mb segments, entries larger than 2 Mb or requested 3 times are moved to standalone files,
+     * segment is compacted when less than half of it is used.
+     */
+    public static final SegmentPolicy DEFAULT = new SegmentPolicy(128 * 1024 * 1024, 16 * 1024 * 1024, 2 * 1024 * 1024, 3, .5f);
+
+    public final long maxSize;
+    public final long segmentSize;
+    public final long promoteBytes;
+    public final int promoteHits;
+    public final float compactionThreshold;
+
+    /**
+     * Creates new policy.
+     *
+     * @param maxSize             max total size of data kept in segments, least recently used entries are evicted beyond it.
+     * @param segmentSize         size of segment file after which new segment is started.
+     * @param promoteBytes        size of entry after which it is moved to standalone file.
+     * @param promoteHits         count of times completed entry is requested after which it is moved to standalone file.
+     * @param compactionThreshold share of live data in segment below which live data is moved out and segment is deleted.
+     */
+    public SegmentPolicy(long maxSize, long segmentSize, long promoteBytes, int promoteHits, float compactionThreshold) {
+        if (maxSize <= 0 || segmentSize <= 0 || promoteBytes <= 0) {
+            throw new IllegalArgumentException("Sizes must be positive numbers!");
+        }
+        if (promoteHits <= 0) {
+            throw new IllegalArgumentException("Promote hits must be positive number!");
+        }
+        if (compactionThreshold < 0 || compactionThreshold >= 1) {
+            throw new IllegalArgumentException("Compaction threshold must be in [0, 1)!");
+        }
+        this.maxSize = maxSize;
+        this.segmentSize = segmentSize;
+        this.promoteBytes = promoteBytes;
+        this.promoteHits = promoteHits;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentPolicy{" +
+                "maxSize=" + maxSize +
+                ", segmentSize=" + segmentSize +
+                ", promoteBytes=" + promoteBytes +
+                ", promoteHits=" + promoteHits +
+                ", compactionThreshold=" + compactionThreshold +
+                '}';
+    }
+}
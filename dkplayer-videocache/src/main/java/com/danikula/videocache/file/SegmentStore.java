@@ -0,0 +1,879 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.ProxyCacheException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Storage that packs many small caches into few large append-only segment files.
+ * <p>
+ * Caching every url into its own file is expensive for lots of small entries (e.g. preloaded beginnings of videos):
+ * listing of cache directory for LRU trimming gets slow, creating, syncing and deleting of files dominates disk work.
+ * Store appends data of such entries to shared segment files and keeps extents of every entry in memory.
+ * Changes of entries are written to append-only index log, every log entry is protected with checksum, so torn tail
+ * written just before crash is discarded on next start. Log is rewritten as compact snapshot when it grows too much.
+ * <p>
+ * Entry that grows beyond {@link SegmentPolicy#promoteBytes} or is requested {@link SegmentPolicy#promoteHits} times is
+ * promoted to standalone {@link FileCache} in background. Store is trimmed to {@link SegmentPolicy#maxSize} by evicting
+ * least recently used entries, space of evicted entries is reclaimed in background by moving live data out of sparse
+ * segments.
+ */
+public final class SegmentStore {
+
+    private static final String INDEX_FILE = "index";
+    private static final String TEMP_POSTFIX = ".tmp";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final int INDEX_VERSION = 1;
+    private static final int MAX_ENTRY_SIZE = 1024 * 1024;
+    private static final int MIN_ENTRIES_TO_REWRITE = 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    final SegmentPolicy policy;
+    private final File directory;
+    private final Map<String, Record> records = new LinkedHashMap<>(16, .75f, true);
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    private final Set<Segment> dirtySegments = new HashSet<>();
+    private final ExecutorService compactionThread = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final Object commitLock = new Object();
+    private volatile EvictionListener evictionListener;
+    private FileOutputStream indexOut;
+    private CacheLocks.Lease lease;
+    private Segment active;
+    private int nextSegmentId;
+    private long totalBytes;
+    private int logEntries;
+    private boolean released;
+
+    private SegmentStore(File directory, SegmentPolicy policy) {
+        if (directory == null || policy == null) {
+            throw new NullPointerException();
+        }
+        this.directory = directory;
+        this.policy = policy;
+    }
+
+    /**
+     * Opens store in directory, restoring entries written before.
+     *
+     * @param directory a directory for segments and index, shouldn't be used for anything else.
+     * @param policy    a policy of packing.
+     * @return opened store.
+     * @throws IOException if store can't be opened.
+     */
+    public static SegmentStore open(File directory, SegmentPolicy policy) throws IOException {
+        CacheLocks.Lease lease = CacheLocks.tryAcquire(directory, false);
+        if (lease == null) {
+            throw new IOException("Segment store " + directory + " is used by another process");
+        }
+        SegmentStore store = new SegmentStore(directory, policy);
+        try {
+            store.load();
+        } catch (IOException e) {
+            lease.release();
+            throw e;
+        }
+        store.lease = lease;
+        return store;
+    }
+
+    /**
+     * Sets listener to be notified about entries evicted to keep store within its limits.
+     *
+     * @param evictionListener a listener, may be {@code null}.
+     */
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    /**
+     * Opens cache for file. Existing standalone file (completed or not) is always used as is,
+     * otherwise data is cached in segments until entry is promoted to standalone file.
+     *
+     * @param file      a file cache would be stored in if it were standalone.
+     * @param diskUsage disk usage for standalone file.
+     * @return cache for file.
+     * @throws ProxyCacheException if cache can't be opened.
+     */
+    public ResumableCache openCache(File file, DiskUsage diskUsage) throws ProxyCacheException {
+        File tempFile = new File(file.getParentFile(), file.getName() + FileCache.TEMP_POSTFIX);
+        Record record;
+        synchronized (this) {
+            record = records.get(file.getName());
+            if (file.exists() || tempFile.exists()) {
+                if (record != null && record.openCount == 0) {
+                    // promotion was interrupted after standalone file had been written
+                    removeSafely(record);
+                }
+                return new FileCache(file, diskUsage);
+            }
+            if (released) {
+                throw new ProxyCacheException("Segment store in " + directory + " is released");
+            }
+            if (record == null) {
+                record = new Record(file.getName());
+                records.put(record.key, record);
+            }
+            record.openCount++;
+            record.hits++;
+        }
+        PackedCache cache = new PackedCache(this, record, file, diskUsage);
+        if (record.completed && record.hits >= policy.promoteHits) {
+            cache.requestPromotion();
+        }
+        return cache;
+    }
+
+    /**
+     * Checks whether store contains completed entry for file.
+     *
+     * @param file a file cache would be stored in if it were standalone.
+     * @return {@code true} if entry is completed.
+     */
+    public synchronized boolean isCompleted(File file) {
+        Record record = records.get(file.getName());
+        return record != null && record.completed;
+    }
+
+    /**
+     * Returns count of bytes cached in store for file.
+     *
+     * @param file a file cache would be stored in if it were standalone.
+     * @return cached bytes, {@code 0} if there is no entry.
+     */
+    public synchronized long getCachedLength(File file) {
+        Record record = records.get(file.getName());
+        return record == null ? 0 : record.length;
+    }
+
+    /**
+     * Flushes pending changes and closes all files. Store can't be used after it is released.
+     */
+    public void release() {
+        compactionThread.shutdownNow();
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+            try {
+                syncSegments();
+                syncIndex();
+            } catch (IOException e) {
+                Logger.error("Error syncing segment store " + directory);
+            }
+            for (Segment segment : segments.values()) {
+                Files.close(segment.data);
+            }
+            Files.close(indexOut);
+            lease.release();
+        }
+    }
+
+    synchronized long length(Record record) {
+        return record.length;
+    }
+
+    synchronized int read(Record record, byte[] buffer, long offset, int length) throws IOException {
+        long position = 0;
+        for (Extent extent : record.extents) {
+            if (offset < position + extent.length) {
+                long shift = offset - position;
+                int count = (int) Math.min(length, extent.length - shift);
+                RandomAccessFile data = segments.get(extent.segmentId).data;
+                data.seek(extent.offset + shift);
+                data.readFully(buffer, 0, count);
+                return count;
+            }
+            position += extent.length;
+        }
+        return -1;
+    }
+
+    synchronized void append(Record record, byte[] data, int length) throws IOException {
+        checkNotReleased();
+        addExtent(record.extents, write(data, length));
+        record.length += length;
+        totalBytes += length;
+    }
+
+    synchronized void truncate(Record record) {
+        releaseExtents(record);
+        record.extents.clear();
+        record.length = 0;
+    }
+
+    /**
+     * Makes data and state of entry durable: segments are synced before index entry referencing them is written.
+     * Files are synced without holding the store, so other entries are read and appended meanwhile; commits are
+     * serialized, so segments taken by one commit are synced before the next one writes its entry.
+     */
+    void commit(Record record) throws IOException {
+        synchronized (commitLock) {
+            List<Segment> dirty;
+            byte[] entry;
+            synchronized (this) {
+                checkNotReleased();
+                if (record.removed) {
+                    return;
+                }
+                dirty = new ArrayList<>(dirtySegments);
+                dirtySegments.clear();
+                entry = putEntry(record);
+            }
+            for (Segment segment : dirty) {
+                sync(segment);
+            }
+            FileOutputStream index;
+            synchronized (this) {
+                checkNotReleased();
+                if (record.removed) {
+                    // entry would be resurrected by put written after its removal
+                    return;
+                }
+                writeEntry(entry);
+                record.persisted = true;
+                index = indexOut;
+            }
+            sync(index);
+        }
+    }
+
+    private void sync(Segment segment) throws IOException {
+        try {
+            segment.data.getFD().sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (released || segments.get(segment.id) != segment) {
+                    // segment is deleted meanwhile, none of its data is referenced any more
+                    return;
+                }
+                dirtySegments.add(segment);
+            }
+            throw e;
+        }
+    }
+
+    private void sync(FileOutputStream index) throws IOException {
+        try {
+            index.getFD().sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (released || indexOut != index) {
+                    // index is rewritten meanwhile, new one is synced with every entry
+                    return;
+                }
+            }
+            throw e;
+        }
+    }
+
+    synchronized void close(Record record) {
+        record.openCount--;
+        record.accessTime = System.currentTimeMillis();
+        if (record.openCount == 0 && (record.promoted || record.length == 0 && !record.completed)) {
+            removeSafely(record);
+        }
+        trim();
+    }
+
+    /**
+     * Checks whether entry can be moved to standalone file: it must be opened by the single cache only,
+     * otherwise other caches keep reading and appending segments the moved data doesn't follow.
+     */
+    synchronized boolean canPromote(Record record) {
+        return record.openCount == 1 && !record.promoted && !record.removed;
+    }
+
+    /**
+     * Runs promotion of cache on background thread of store, so thread opening or appending cache isn't blocked
+     * by copying its data.
+     *
+     * @return {@code false} if store is released and promotion isn't scheduled.
+     */
+    synchronized boolean schedulePromotion(final PackedCache cache) {
+        if (released) {
+            return false;
+        }
+        compactionThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                cache.promote();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Removes entry moved to standalone file. If entry was opened again while data was moved,
+     * its extents are released when the last cache reading them is closed.
+     */
+    synchronized void remove(Record record) {
+        record.openCount--;
+        record.promoted = true;
+        if (record.openCount == 0) {
+            removeSafely(record);
+        }
+    }
+
+    private void load() throws IOException {
+        Files.makeDir(directory);
+        File indexFile = new File(directory, INDEX_FILE);
+        long validLength = readIndex(indexFile);
+        boolean consistent = openSegments();
+        if (validLength < 0 || !consistent) {
+            rewriteIndex();
+        } else {
+            RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+            try {
+                if (index.length() > validLength) {
+                    Logger.warn("Discard " + (index.length() - validLength) + " torn bytes of index " + indexFile);
+                    index.setLength(validLength);
+                }
+            } finally {
+                Files.close(index);
+            }
+            indexOut = new FileOutputStream(indexFile, true);
+        }
+        Logger.info("Segment store " + directory + " is opened: " + records.size() + " entries, " + totalBytes + " bytes");
+        scheduleCompaction();
+    }
+
+    /**
+     * Replays index log.
+     *
+     * @return length of valid part of log or negative value if log is absent or unsupported.
+     */
+    private long readIndex(File indexFile) {
+        if (!indexFile.exists()) {
+            return -1;
+        }
+        long validLength = -1;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_VERSION) {
+                Logger.warn("Unsupported version of index " + indexFile + ", segment store is reset");
+                return -1;
+            }
+            validLength = 4;
+            while (true) {
+                int size = in.readInt();
+                if (size <= 0 || size > MAX_ENTRY_SIZE) {
+                    break;
+                }
+                byte[] entry = new byte[size];
+                in.readFully(entry);
+                if (in.readLong() != checksum(entry)) {
+                    break;
+                }
+                applyEntry(entry);
+                logEntries++;
+                validLength += 4 + size + 8;
+            }
+        } catch (EOFException e) {
+            // torn tail, valid part is already applied
+        } catch (IOException e) {
+            Logger.warn("Error reading index " + indexFile);
+        } finally {
+            Files.close(in);
+        }
+        return validLength;
+    }
+
+    private void applyEntry(byte[] entry) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+        byte op = in.readByte();
+        String key = in.readUTF();
+        if (op == OP_REMOVE) {
+            records.remove(key);
+            return;
+        }
+        Record record = new Record(key);
+        record.sourceLength = in.readLong();
+        record.etag = readNullableString(in);
+        record.lastModified = readNullableString(in);
+        record.completed = in.readBoolean();
+        record.accessTime = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Extent extent = new Extent(in.readInt(), in.readLong(), in.readLong());
+            record.extents.add(extent);
+            record.length += extent.length;
+            // never reuse id of segment referenced by log, even if segment is lost
+            nextSegmentId = Math.max(nextSegmentId, extent.segmentId + 1);
+        }
+        record.persisted = true;
+        records.remove(key);
+        records.put(key, record);
+    }
+
+    /**
+     * Opens segments referenced by entries, drops entries with lost data and deletes unreferenced segments.
+     *
+     * @return {@code false} if some entries are dropped, so index has to be rewritten.
+     */
+    private boolean openSegments() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                int id = parseSegmentId(file);
+                if (id >= 0) {
+                    Segment segment = new Segment(id, file, new RandomAccessFile(file, "r"));
+                    segment.length = file.length();
+                    segments.put(id, segment);
+                    nextSegmentId = Math.max(nextSegmentId, id + 1);
+                }
+            }
+        }
+        boolean consistent = true;
+        List<Record> all = new ArrayList<>(records.values());
+        for (Record record : all) {
+            if (isLost(record)) {
+                Logger.warn("Data of cache " + record.key + " is lost, entry is dropped");
+                records.remove(record.key);
+                consistent = false;
+                continue;
+            }
+            for (Extent extent : record.extents) {
+                segments.get(extent.segmentId).liveBytes += extent.length;
+            }
+            totalBytes += record.length;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            deleteIfUnused(segment);
+        }
+        return consistent;
+    }
+
+    private boolean isLost(Record record) {
+        for (Extent extent : record.extents) {
+            Segment segment = segments.get(extent.segmentId);
+            if (segment == null || extent.offset + extent.length > segment.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int parseSegmentId(File file) {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void rewriteIndex() throws IOException {
+        syncSegments();
+        File indexFile = new File(directory, INDEX_FILE);
+        File tempFile = new File(directory, INDEX_FILE + TEMP_POSTFIX);
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            OutputStream out = new BufferedOutputStream(fileOut);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(INDEX_VERSION);
+            for (Record record : records.values()) {
+                out.write(frame(putEntry(record)));
+                record.persisted = true;
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            Files.close(fileOut);
+        }
+        Files.close(indexOut);
+        if (!tempFile.renameTo(indexFile)) {
+            throw new IOException("Error renaming " + tempFile + " to " + indexFile);
+        }
+        indexOut = new FileOutputStream(indexFile, true);
+        logEntries = records.size();
+    }
+
+    private void writeEntry(byte[] entry) throws IOException {
+        indexOut.write(frame(entry));
+        logEntries++;
+    }
+
+    private byte[] frame(byte[] entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.length + 12);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(entry.length);
+        out.write(entry);
+        out.writeLong(checksum(entry));
+        return bytes.toByteArray();
+    }
+
+    private byte[] putEntry(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_PUT);
+        out.writeUTF(record.key);
+        out.writeLong(record.sourceLength);
+        writeNullableString(out, record.etag);
+        writeNullableString(out, record.lastModified);
+        out.writeBoolean(record.completed);
+        out.writeLong(record.accessTime);
+        out.writeInt(record.extents.size());
+        for (Extent extent : record.extents) {
+            out.writeInt(extent.segmentId);
+            out.writeLong(extent.offset);
+            out.writeLong(extent.length);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] removeEntry(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_REMOVE);
+        out.writeUTF(record.key);
+        return bytes.toByteArray();
+    }
+
+    private long checksum(byte[] entry) {
+        CRC32 crc = new CRC32();
+        crc.update(entry, 0, entry.length);
+        return crc.getValue();
+    }
+
+    private Extent write(byte[] data, int length) throws IOException {
+        Segment segment = activeSegment();
+        long offset = segment.length;
+        segment.data.seek(offset);
+        segment.data.write(data, 0, length);
+        segment.length += length;
+        segment.liveBytes += length;
+        dirtySegments.add(segment);
+        return new Extent(segment.id, offset, length);
+    }
+
+    private Segment activeSegment() throws IOException {
+        if (active == null || active.length >= policy.segmentSize) {
+            Segment previous = active;
+            int id = nextSegmentId++;
+            File file = new File(directory, SEGMENT_PREFIX + id);
+            active = new Segment(id, file, new RandomAccessFile(file, "rw"));
+            active.data.setLength(0);
+            segments.put(id, active);
+            if (previous != null) {
+                deleteIfUnused(previous);
+            }
+        }
+        return active;
+    }
+
+    private void addExtent(List<Extent> extents, Extent extent) {
+        Extent last = extents.isEmpty() ? null : extents.get(extents.size() - 1);
+        if (last != null && last.segmentId == extent.segmentId && last.offset + last.length == extent.offset) {
+            last.length += extent.length;
+        } else {
+            extents.add(extent);
+        }
+    }
+
+    private void releaseExtents(Record record) {
+        totalBytes -= record.length;
+        for (Extent extent : record.extents) {
+            Segment segment = segments.get(extent.segmentId);
+            segment.liveBytes -= extent.length;
+            deleteIfUnused(segment);
+        }
+    }
+
+    private void deleteIfUnused(Segment segment) {
+        if (segment == active || segment.liveBytes > 0) {
+            return;
+        }
+        Files.close(segment.data);
+        segments.remove(segment.id);
+        dirtySegments.remove(segment);
+        if (!segment.file.delete()) {
+            Logger.error("Error deleting segment " + segment.file);
+        }
+    }
+
+    private void removeSafely(Record record) {
+        if (records.get(record.key) == record) {
+            records.remove(record.key);
+        }
+        if (record.removed) {
+            return;
+        }
+        record.removed = true;
+        releaseExtents(record);
+        try {
+            if (record.persisted && !released) {
+                // not synced: if it is lost, entry is dropped on start anyway because its segments are deleted
+                writeEntry(removeEntry(record));
+            }
+        } catch (IOException e) {
+            Logger.error("Error removing entry " + record.key + " from index");
+        }
+        scheduleCompaction();
+    }
+
+    private void trim() {
+        if (totalBytes <= policy.maxSize) {
+            return;
+        }
+        long excess = totalBytes - policy.maxSize;
+        List<Record> victims = new ArrayList<>();
+        for (Record record : records.values()) {
+            if (excess <= 0) {
+                break;
+            }
+            if (record.openCount == 0) {
+                victims.add(record);
+                excess -= record.length;
+            }
+        }
+        EvictionListener evictionListener = this.evictionListener;
+        for (Record victim : victims) {
+            long size = victim.length;
+            removeSafely(victim);
+            Logger.info("Cache " + victim.key + " is evicted from segments because it exceeds cache limit");
+            if (evictionListener != null) {
+                evictionListener.onEvicted(new File(directory.getParentFile(), victim.key), size);
+            }
+        }
+    }
+
+    private void syncSegments() throws IOException {
+        for (Segment segment : dirtySegments) {
+            segment.data.getFD().sync();
+        }
+        dirtySegments.clear();
+    }
+
+    private void syncIndex() throws IOException {
+        if (indexOut != null) {
+            indexOut.getFD().sync();
+        }
+    }
+
+    private void checkNotReleased() throws IOException {
+        if (released) {
+            throw new IOException("Segment store in " + directory + " is released");
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (!released && compactionScheduled.compareAndSet(false, true)) {
+            compactionThread.submit(new CompactionRunnable());
+        }
+    }
+
+    private void compact() {
+        try {
+            Segment victim;
+            while ((victim = nextCompactionVictim()) != null) {
+                relocate(victim);
+            }
+            synchronized (this) {
+                if (!released && logEntries > MIN_ENTRIES_TO_REWRITE && logEntries > records.size() * 2) {
+                    rewriteIndex();
+                }
+            }
+        } catch (IOException e) {
+            Logger.error("Error compacting segment store " + directory);
+        }
+    }
+
+    private synchronized Segment nextCompactionVictim() {
+        if (released) {
+            return null;
+        }
+        Set<Integer> pinned = new HashSet<>();
+        for (Record record : records.values()) {
+            if (record.openCount > 0) {
+                for (Extent extent : record.extents) {
+                    pinned.add(extent.segmentId);
+                }
+            }
+        }
+        for (Segment segment : segments.values()) {
+            boolean sparse = segment.liveBytes < segment.length * policy.compactionThreshold;
+            if (segment != active && sparse && !pinned.contains(segment.id)) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves live data out of segment and deletes it. Every entry is moved holding the lock,
+     * so clients reading other entries aren't blocked for the whole segment.
+     */
+    private void relocate(Segment victim) throws IOException {
+        List<Record> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Record record : records.values()) {
+                for (Extent extent : record.extents) {
+                    if (extent.segmentId == victim.id) {
+                        candidates.add(record);
+                        break;
+                    }
+                }
+            }
+        }
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        List<Record> moved = new ArrayList<>();
+        for (Record record : candidates) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                if (!record.removed && record.openCount == 0) {
+                    moveExtents(record, victim, buffer);
+                    moved.add(record);
+                }
+            }
+        }
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            // old data is deleted only after entries pointing to new location are durable
+            syncSegments();
+            for (Record record : moved) {
+                if (!record.removed) {
+                    writeEntry(putEntry(record));
+                }
+            }
+            syncIndex();
+            if (victim.liveBytes > 0) {
+                // some entries were opened meanwhile, segment is compacted again when they are closed
+                return;
+            }
+            deleteIfUnused(victim);
+            Logger.debug("Segment " + victim.file + " is compacted, " + moved.size() + " entries are moved");
+        }
+    }
+
+    private void moveExtents(Record record, Segment victim, byte[] buffer) throws IOException {
+        List<Extent> relocated = new ArrayList<>(record.extents.size());
+        for (Extent extent : record.extents) {
+            if (extent.segmentId != victim.id) {
+                addExtent(relocated, extent);
+                continue;
+            }
+            long position = extent.offset;
+            long remaining = extent.length;
+            while (remaining > 0) {
+                int count = (int) Math.min(remaining, buffer.length);
+                victim.data.seek(position);
+                victim.data.readFully(buffer, 0, count);
+                addExtent(relocated, write(buffer, count));
+                position += count;
+                remaining -= count;
+            }
+            victim.liveBytes -= extent.length;
+        }
+        record.extents.clear();
+        record.extents.addAll(relocated);
+    }
+
+    private String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Entry of store. Extents and length are guarded by store, validator is written only by the single cache
+     * owning entry, so it is read without lock.
+     */
+    static final class Record {
+
+        final String key;
+        final List<Extent> extents = new ArrayList<>();
+        long length;
+        volatile long sourceLength = -1;
+        volatile String etag;
+        volatile String lastModified;
+        volatile boolean completed;
+        long accessTime;
+        int hits;
+        int openCount;
+        boolean promoted;
+        boolean persisted;
+        boolean removed;
+
+        Record(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Extent {
+
+        final int segmentId;
+        final long offset;
+        long length;
+
+        Extent(int segmentId, long offset, long length) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+
+        final int id;
+        final File file;
+        final RandomAccessFile data;
+        long length;
+        long liveBytes;
+
+        Segment(int id, File file, RandomAccessFile data) {
+            this.id = id;
+            this.file = file;
+            this.data = data;
+        }
+    }
+
+    private class CompactionRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            compactionScheduled.set(false);
+            compact();
+        }
+    }
+}
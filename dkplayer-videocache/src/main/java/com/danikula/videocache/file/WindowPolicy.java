@@ -0,0 +1,69 @@
+package com.danikula.videocache.file;
+
+/**
+ * Declares how {@link WindowedCache} keeps data of very large sources (e.g. full-length movies).
+ */
+public final class WindowPolicy {
+
+    /**
+     * Sources from 512 Mb are cached in 2 Mb chunks: first 4 Mb, index (up to 16 Mb) and window of 32 Mb behind
+     * and 64 Mb ahead of playback position, at most 3 such entries are kept.
+     */
+    public static final WindowPolicy DEFAULT = new WindowPolicy(512L * 1024 * 1024, 2 * 1024 * 1024, 4 * 1024 * 1024,
+            16 * 1024 * 1024, 32 * 1024 * 1024, 64 * 1024 * 1024, 3);
+
+    public final long minSourceLength;
+    public final int chunkSize;
+    public final long headBytes;
+    public final long indexBytes;
+    public final long behindBytes;
+    public final long aheadBytes;
+    public final int maxEntries;
+
+    /**
+     * Creates new policy.
+     *
+     * @param minSourceLength length of source from which it is cached with window, smaller sources are cached entirely.
+     * @param chunkSize       size of chunk, data is stored and evicted by chunks.
+     * @param headBytes       size of beginning of source that is never evicted.
+     * @param indexBytes      max size of index (e.g. mp4 {@code moov} box or tail of other containers) that is never evicted.
+     * @param behindBytes     size of already played data kept behind playback position.
+     * @param aheadBytes      size of data downloaded and kept ahead of playback position.
+     * @param maxEntries      max count of windowed entries, least recently used ones are deleted beyond it.
+     */
+    public WindowPolicy(long minSourceLength, int chunkSize, long headBytes, long indexBytes, long behindBytes,
+                        long aheadBytes, int maxEntries) {
+        if (minSourceLength <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("Min source length and chunk size must be positive numbers!");
+        }
+        if (headBytes < 0 || indexBytes < 0 || behindBytes < 0) {
+            throw new IllegalArgumentException("Sizes can't be negative!");
+        }
+        if (aheadBytes < chunkSize) {
+            throw new IllegalArgumentException("Window ahead must be at least one chunk!");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max count of entries must be positive number!");
+        }
+        this.minSourceLength = minSourceLength;
+        this.chunkSize = chunkSize;
+        this.headBytes = headBytes;
+        this.indexBytes = indexBytes;
+        this.behindBytes = behindBytes;
+        this.aheadBytes = aheadBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public String toString() {
+        return "WindowPolicy{" +
+                "minSourceLength=" + minSourceLength +
+                ", chunkSize=" + chunkSize +
+                ", headBytes=" + headBytes +
+                ", indexBytes=" + indexBytes +
+                ", behindBytes=" + behindBytes +
+                ", aheadBytes=" + aheadBytes +
+                ", maxEntries=" + maxEntries +
+                '}';
+    }
+}
@@ -0,0 +1,658 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.CachedRange;
+import com.danikula.videocache.Logger;
+import com.danikula.videocache.ProxyCacheException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * {@link ResumableCache} of very large source that keeps only part of it on disk, see {@link WindowPolicy}.
+ * <p>
+ * Data is stored in chunk files named after their offset in directory of entry. Source is appended from current
+ * position of window ({@link #available()}), window is moved with {@link #moveTo(long)} when client seeks out of
+ * cached data. Chunks behind and ahead of playback position beyond window are evicted, except of beginning of source
+ * and its index: mp4 {@code moov} box found by top-level boxes of cached beginning, or tail of source otherwise.
+ * <p>
+ * Cache is {@link #isCompleted() completed} when window reaches the end of source, data before window may be evicted
+ * though, so entry is never served as standalone file. Chunk is written to temp file and renamed once it is full,
+ * not full chunk is discarded when cache is opened again. Entry is written by single cache, it isn't shared with
+ * another process.
+ */
+public final class WindowedCache implements ResumableCache {
+
+    static final String DIRECTORY_POSTFIX = ".window";
+    private static final String JOURNAL_NAME = "window";
+    private static final String TEMP_POSTFIX = ".tmp";
+    private static final int BOX_HEADER_SIZE = 8;
+
+    private final WindowPolicy policy;
+    private final File directory;
+    private final CacheJournal journal;
+    private final TreeSet<Long> chunks = new TreeSet<>();
+    private CacheLocks.Lease lease;
+    private long end;
+    private RandomAccessFile writing;
+    private long writingStart = -1;
+    private RandomAccessFile reading;
+    private long readingStart = -1;
+    private long playhead;
+    private long evictedAt = -1;
+    private long indexStart = -1;
+    private long indexEnd = -1;
+    private boolean indexLocated;
+
+    public WindowedCache(File file, WindowPolicy policy) throws ProxyCacheException {
+        this.policy = policy;
+        this.directory = directoryOf(file);
+        this.lease = CacheLocks.tryAcquire(file, false);
+        if (lease == null) {
+            throw new ProxyCacheException("Windowed cache " + directory + " is used by another cache");
+        }
+        try {
+            Files.makeDir(directory);
+            this.journal = CacheJournal.of(new File(directory, JOURNAL_NAME));
+            load(journal.read());
+        } catch (IOException e) {
+            lease.release();
+            throw new ProxyCacheException("Error using directory " + directory + " as windowed cache", e);
+        }
+        trimEntries(directory.getParentFile(), directory, policy.maxEntries);
+    }
+
+    /**
+     * Checks whether entry is cached with window.
+     *
+     * @param file a file of entry, as if it were standalone.
+     * @return {@code true} if windowed cache of entry exists.
+     */
+    public static boolean exists(File file) {
+        return directoryOf(file).isDirectory();
+    }
+
+    /**
+     * Returns ranges of source cached by windowed cache of entry.
+     *
+     * @param file a file of entry, as if it were standalone.
+     * @return cached ranges in bytes, empty list if entry isn't cached with window.
+     */
+    public static List<CachedRange> getCachedRanges(File file) {
+        File[] files = directoryOf(file).listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<long[]> chunks = new ArrayList<>();
+        for (File chunk : files) {
+            long start = parseChunkStart(chunk);
+            if (start >= 0) {
+                chunks.add(new long[]{start, start + chunk.length()});
+            }
+        }
+        Collections.sort(chunks, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+            }
+        });
+        List<CachedRange> ranges = new ArrayList<>();
+        long rangeStart = -1;
+        long rangeEnd = -1;
+        for (long[] chunk : chunks) {
+            if (chunk[0] != rangeEnd) {
+                if (rangeEnd > rangeStart) {
+                    ranges.add(new CachedRange(rangeStart, rangeEnd));
+                }
+                rangeStart = chunk[0];
+            }
+            rangeEnd = chunk[1];
+        }
+        if (rangeEnd > rangeStart) {
+            ranges.add(new CachedRange(rangeStart, rangeEnd));
+        }
+        return ranges;
+    }
+
+    private void load(boolean journalRead) throws IOException {
+        if (!journalRead) {
+            journal.sourceLength = -1;
+            journal.etag = null;
+            journal.lastModified = null;
+        }
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            long start = parseChunkStart(file);
+            if (start >= 0 && journalRead && file.length() == chunkLength(start)) {
+                chunks.add(start);
+            } else if (start >= 0 || file.getName().endsWith(TEMP_POSTFIX)) {
+                // not full chunk or chunk of unknown source
+                deleteFile(file);
+            }
+        }
+        while (chunks.contains(end)) {
+            end += chunkLength(end);
+        }
+        if (!chunks.isEmpty()) {
+            Logger.info("Windowed cache " + directory + " is opened with " + chunks.size() + " chunks");
+        }
+    }
+
+    @Override
+    public synchronized long available() {
+        return end;
+    }
+
+    @Override
+    public synchronized int read(byte[] buffer, long offset, int length) throws ProxyCacheException {
+        long sourceLength = journal.sourceLength;
+        if (sourceLength >= 0 && offset >= sourceLength) {
+            return -1;
+        }
+        long start = chunkStart(offset);
+        try {
+            RandomAccessFile data;
+            int count;
+            if (writing != null && start == writingStart && offset < end) {
+                data = writing;
+                count = (int) Math.min(length, end - offset);
+            } else if (chunks.contains(start)) {
+                data = openForReading(start);
+                count = (int) Math.min(length, start + chunkLength(start) - offset);
+            } else {
+                throw new ProxyCacheException("Data of " + directory + " at " + offset + " isn't cached");
+            }
+            data.seek(offset - start);
+            int readBytes = data.read(buffer, 0, count);
+            if (!isPinned(start)) {
+                movePlayhead(offset);
+            }
+            return readBytes;
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error reading " + length + " bytes at " + offset + " from " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void append(byte[] data, int length) throws ProxyCacheException {
+        if (isCompleted()) {
+            throw new ProxyCacheException("Error append cache: window of " + directory + " reached the end of source!");
+        }
+        try {
+            int written = 0;
+            while (written < length) {
+                if (writing == null) {
+                    writingStart = end;
+                    writing = new RandomAccessFile(tempChunkFile(writingStart), "rw");
+                    writing.setLength(0);
+                }
+                long chunkEnd = writingStart + chunkLength(writingStart);
+                int count = (int) Math.min(length - written, chunkEnd - end);
+                writing.seek(end - writingStart);
+                writing.write(data, written, count);
+                end += count;
+                written += count;
+                if (end == chunkEnd) {
+                    finishChunk();
+                }
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error writing " + length + " bytes at " + end + " to " + directory, e);
+        }
+    }
+
+    private void finishChunk() throws IOException {
+        long start = writingStart;
+        writing.getFD().sync();
+        closeWriting();
+        File tempFile = tempChunkFile(start);
+        if (!tempFile.renameTo(chunkFile(start))) {
+            throw new IOException("Error renaming " + tempFile + " to " + chunkFile(start));
+        }
+        chunks.add(start);
+        evict();
+    }
+
+    /**
+     * Stores chunk read from source apart from window, e.g. requested part of index.
+     *
+     * @param start  a start of chunk.
+     * @param data   whole data of chunk.
+     * @throws ProxyCacheException if error occur while writing chunk.
+     */
+    public synchronized void putChunk(long start, byte[] data) throws ProxyCacheException {
+        if (chunks.contains(start) || start == writingStart) {
+            return;
+        }
+        if (start != chunkStart(start) || data.length != chunkLength(start)) {
+            throw new ProxyCacheException("Invalid chunk of " + directory + " at " + start + " with length " + data.length);
+        }
+        File tempFile = tempChunkFile(start);
+        RandomAccessFile chunk = null;
+        try {
+            chunk = new RandomAccessFile(tempFile, "rw");
+            chunk.setLength(0);
+            chunk.write(data);
+            chunk.getFD().sync();
+            chunk.close();
+            chunk = null;
+            if (!tempFile.renameTo(chunkFile(start))) {
+                throw new IOException("Error renaming " + tempFile + " to " + chunkFile(start));
+            }
+            chunks.add(start);
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error writing chunk at " + start + " to " + directory, e);
+        } finally {
+            Files.close(chunk);
+        }
+    }
+
+    /**
+     * Moves window, so source is appended from new position. Not full chunk of previous position is dropped.
+     *
+     * @param offset new position, it is rounded down to start of chunk.
+     * @throws ProxyCacheException if error occur while dropping chunk.
+     */
+    public synchronized void moveTo(long offset) throws ProxyCacheException {
+        long start = chunkStart(offset);
+        if (start == end) {
+            return;
+        }
+        dropWriting();
+        end = start;
+        while (chunks.contains(end)) {
+            end += chunkLength(end);
+        }
+        playhead = offset;
+        evict();
+    }
+
+    @Override
+    public synchronized void close() throws ProxyCacheException {
+        try {
+            closeWriting();
+            closeReading();
+            if (!directory.setLastModified(System.currentTimeMillis())) {
+                Logger.warn("Last modified date is not set for " + directory);
+            }
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error closing windowed cache " + directory, e);
+        } finally {
+            if (lease != null) {
+                lease.release();
+                lease = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void complete() throws ProxyCacheException {
+        if (!isCompleted()) {
+            throw new ProxyCacheException("Window of " + directory + " isn't at the end of source, it can't be completed");
+        }
+    }
+
+    /**
+     * Returns whether source is appended up to its end. Data before window may be evicted though.
+     *
+     * @return {@code true} if nothing is to be appended to cache.
+     */
+    @Override
+    public synchronized boolean isCompleted() {
+        return journal.sourceLength > 0 && end >= journal.sourceLength;
+    }
+
+    /**
+     * Checks whether data at offset can be read without waiting for source.
+     *
+     * @param offset an offset in source.
+     * @return {@code true} if data is cached.
+     */
+    public synchronized boolean isCached(long offset) {
+        return chunks.contains(chunkStart(offset)) || (writing != null && offset >= writingStart && offset < end);
+    }
+
+    /**
+     * Checks whether data at offset belongs to beginning or index of source, that are cached apart from window
+     * and are never evicted.
+     *
+     * @param offset an offset in source.
+     * @return {@code true} if data is pinned.
+     */
+    public synchronized boolean isPinned(long offset) {
+        long start = chunkStart(offset);
+        if (start < policy.headBytes) {
+            return true;
+        }
+        locateIndex();
+        return indexEnd > start && indexStart < start + chunkLength(start);
+    }
+
+    public long chunkStart(long offset) {
+        return offset - offset % policy.chunkSize;
+    }
+
+    public synchronized int chunkLength(long start) {
+        long sourceLength = journal.sourceLength;
+        return (int) (sourceLength > 0 ? Math.min(policy.chunkSize, sourceLength - start) : policy.chunkSize);
+    }
+
+    /**
+     * Limits fill window of source by window ahead of playback position.
+     *
+     * @param fillWindow a fill window in bytes, non positive value means source is read till the end.
+     * @return fill window to be used for this cache.
+     */
+    public long limitFillWindow(long fillWindow) {
+        return fillWindow > 0 ? Math.min(fillWindow, policy.aheadBytes) : policy.aheadBytes;
+    }
+
+    private void movePlayhead(long offset) {
+        playhead = offset;
+        long chunk = chunkStart(offset);
+        if (chunk != evictedAt) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        evictedAt = chunkStart(playhead);
+        long keepFrom = playhead - policy.behindBytes;
+        long keepTo = playhead + policy.aheadBytes;
+        Iterator<Long> iterator = chunks.iterator();
+        while (iterator.hasNext()) {
+            long start = iterator.next();
+            boolean inWindow = start + chunkLength(start) > keepFrom && start < keepTo;
+            if (inWindow || isPinned(start)) {
+                continue;
+            }
+            if (start == readingStart) {
+                closeReadingQuietly();
+            }
+            iterator.remove();
+            deleteFile(chunkFile(start));
+        }
+    }
+
+    /**
+     * Finds index of source to keep it along with beginning of source: top-level box {@code moov} of mp4 file
+     * if boxes preceding it are cached, data following not cached {@code mdat} box, or tail of source.
+     */
+    private void locateIndex() {
+        long sourceLength = journal.sourceLength;
+        if (indexLocated || sourceLength <= 0) {
+            return;
+        }
+        // most containers (and mp4 files not optimized for streaming) keep index at the end
+        indexStart = Math.max(0, sourceLength - policy.indexBytes);
+        indexEnd = sourceLength;
+        if (!chunks.contains(0L)) {
+            // beginning isn't cached yet, tail is kept until it is
+            return;
+        }
+        indexLocated = true;
+        byte[] header = new byte[BOX_HEADER_SIZE];
+        long position = 0;
+        while (position + BOX_HEADER_SIZE <= sourceLength) {
+            if (!readCached(position, header)) {
+                // boxes after mdat, where mp4 files not optimized for streaming keep moov
+                setIndex(position, sourceLength);
+                return;
+            }
+            long size = readUnsignedInt(header, 0);
+            String type = readType(header);
+            if (position == 0 && !"ftyp".equals(type)) {
+                // not mp4 file
+                return;
+            }
+            if (size == 1) {
+                byte[] largeSize = new byte[BOX_HEADER_SIZE];
+                if (!readCached(position + BOX_HEADER_SIZE, largeSize)) {
+                    return;
+                }
+                size = (readUnsignedInt(largeSize, 0) << 32) | readUnsignedInt(largeSize, 4);
+            } else if (size == 0) {
+                size = sourceLength - position;
+            }
+            if (size < BOX_HEADER_SIZE) {
+                Logger.warn("Invalid box " + type + " at " + position + " of " + directory);
+                return;
+            }
+            if ("moov".equals(type)) {
+                setIndex(position, position + size);
+                return;
+            }
+            position += size;
+        }
+    }
+
+    private void setIndex(long start, long end) {
+        indexStart = start;
+        indexEnd = Math.min(end, start + policy.indexBytes);
+        Logger.debug("Index of " + directory + " is located at [" + indexStart + ", " + indexEnd + ")");
+    }
+
+    private boolean readCached(long position, byte[] target) {
+        int filled = 0;
+        while (filled < target.length) {
+            long offset = position + filled;
+            long start = chunkStart(offset);
+            if (!chunks.contains(start)) {
+                return false;
+            }
+            try {
+                RandomAccessFile data = openForReading(start);
+                data.seek(offset - start);
+                int readBytes = data.read(target, filled, (int) Math.min(target.length - filled, start + chunkLength(start) - offset));
+                if (readBytes <= 0) {
+                    return false;
+                }
+                filled += readBytes;
+            } catch (IOException e) {
+                Logger.warn("Error reading " + directory + " at " + offset + ": " + e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readType(byte[] header) {
+        char[] type = new char[4];
+        for (int i = 0; i < type.length; i++) {
+            type[i] = (char) (header[4 + i] & 0xff);
+        }
+        return new String(type);
+    }
+
+    private long readUnsignedInt(byte[] data, int offset) {
+        return ((data[offset] & 0xffL) << 24) | ((data[offset + 1] & 0xffL) << 16) | ((data[offset + 2] & 0xffL) << 8) | (data[offset + 3] & 0xffL);
+    }
+
+    private RandomAccessFile openForReading(long start) throws IOException {
+        if (reading == null || readingStart != start) {
+            closeReading();
+            reading = new RandomAccessFile(chunkFile(start), "r");
+            readingStart = start;
+        }
+        return reading;
+    }
+
+    @Override
+    public synchronized String getEtag() {
+        return journal.etag;
+    }
+
+    @Override
+    public synchronized String getLastModified() {
+        return journal.lastModified;
+    }
+
+    @Override
+    public synchronized long getSourceLength() {
+        return journal.sourceLength;
+    }
+
+    @Override
+    public synchronized void setValidator(String etag, String lastModified, long sourceLength) throws ProxyCacheException {
+        if (sourceLength != journal.sourceLength) {
+            indexLocated = false;
+        }
+        journal.etag = etag;
+        journal.lastModified = lastModified;
+        journal.sourceLength = sourceLength;
+        writeJournal();
+    }
+
+    @Override
+    public synchronized boolean acquireWriteLock() {
+        return lease != null;
+    }
+
+    @Override
+    public synchronized void discard() throws ProxyCacheException {
+        dropWriting();
+        closeReadingQuietly();
+        for (long start : chunks) {
+            deleteFile(chunkFile(start));
+        }
+        chunks.clear();
+        end = 0;
+        playhead = 0;
+        indexLocated = false;
+        journal.sourceLength = -1;
+        journal.etag = null;
+        journal.lastModified = null;
+        writeJournal();
+    }
+
+    /**
+     * Returns directory of entry.
+     *
+     * @return directory chunks are stored in.
+     */
+    @Override
+    public File getFile() {
+        return directory;
+    }
+
+    private void writeJournal() throws ProxyCacheException {
+        try {
+            journal.write();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error writing journal of " + directory, e);
+        }
+    }
+
+    private void dropWriting() throws ProxyCacheException {
+        if (writing == null) {
+            return;
+        }
+        try {
+            closeWriting();
+        } catch (IOException e) {
+            throw new ProxyCacheException("Error closing chunk of " + directory, e);
+        }
+        deleteFile(tempChunkFile(writingStart));
+        writingStart = -1;
+    }
+
+    private void closeWriting() throws IOException {
+        if (writing != null) {
+            writing.close();
+            writing = null;
+        }
+    }
+
+    private void closeReading() throws IOException {
+        if (reading != null) {
+            reading.close();
+            reading = null;
+            readingStart = -1;
+        }
+    }
+
+    private void closeReadingQuietly() {
+        Files.close(reading);
+        reading = null;
+        readingStart = -1;
+    }
+
+    private File chunkFile(long start) {
+        return new File(directory, String.valueOf(start));
+    }
+
+    private File tempChunkFile(long start) {
+        return new File(directory, start + TEMP_POSTFIX);
+    }
+
+    private static File directoryOf(File file) {
+        return new File(file.getParentFile(), file.getName() + DIRECTORY_POSTFIX);
+    }
+
+    private static long parseChunkStart(File file) {
+        String name = file.getName();
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return -1;
+            }
+        }
+        return name.isEmpty() ? -1 : Long.parseLong(name);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Logger.warn("Error deleting " + file);
+        }
+    }
+
+    /**
+     * Deletes least recently used windowed entries beyond limit, entries in use are kept.
+     */
+    private static void trimEntries(File cacheDirectory, File current, int maxEntries) {
+        File[] files = cacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<>();
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().endsWith(DIRECTORY_POSTFIX) && !file.equals(current)) {
+                entries.add(file);
+            }
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                // the most recently used first
+                return lhs.lastModified() > rhs.lastModified() ? -1 : (lhs.lastModified() == rhs.lastModified() ? 0 : 1);
+            }
+        });
+        for (File entry : entries.subList(Math.min(entries.size(), maxEntries - 1), entries.size())) {
+            String name = entry.getName();
+            File entryFile = new File(cacheDirectory, name.substring(0, name.length() - DIRECTORY_POSTFIX.length()));
+            if (CacheLocks.isBusy(entryFile)) {
+                continue;
+            }
+            File[] chunks = entry.listFiles();
+            for (File chunk : chunks == null ? new File[0] : chunks) {
+                deleteFile(chunk);
+            }
+            deleteFile(entry);
+            Logger.info("Windowed cache " + entry + " is deleted because count of windowed entries exceeds " + maxEntries);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WindowedCache{" +
+                "directory=" + directory +
+                ", end=" + end +
+                ", chunks=" + chunks.size() +
+                '}';
+    }
+}
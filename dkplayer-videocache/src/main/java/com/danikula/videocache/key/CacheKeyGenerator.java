@@ -0,0 +1,19 @@
+package com.danikula.videocache.key;
+
+/**
+ * Derives key of cache entry from url of source.
+ * <p>
+ * Urls with the same key share cached file, stored source's info and in-flight download,
+ * while requests to origin are still made with original url.
+ */
+public interface CacheKeyGenerator {
+
+    /**
+     * Generates cache key for url.
+     *
+     * @param url an url of source.
+     * @return a cache key, {@code null} is not acceptable!
+     */
+    String generate(String url);
+
+}
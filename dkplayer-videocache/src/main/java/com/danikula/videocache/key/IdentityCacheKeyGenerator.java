@@ -0,0 +1,13 @@
+package com.danikula.videocache.key;
+
+/**
+ * {@link CacheKeyGenerator} that uses url as is, so every distinct url is cached separately.
+ */
+public class IdentityCacheKeyGenerator implements CacheKeyGenerator {
+
+    @Override
+    public String generate(String url) {
+        return url;
+    }
+
+}
@@ -0,0 +1,210 @@
+package com.danikula.videocache.key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.danikula.videocache.Preconditions.checkAllNotNull;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link CacheKeyGenerator} that collapses urls differing only by volatile parts, e.g. signed CDN urls with rotating tokens.
+ * <p>
+ * Key is built from url by following steps:
+ * <ul>
+ * <li>scheme and host are lower-cased, fragment is dropped;</li>
+ * <li>host is replaced with canonical one if it is alias of mirror (see {@link Builder#hostAlias(String, String)});</li>
+ * <li>query parameters are filtered with {@link Rule} of host (see {@link Builder#domainRule(String, Rule)}),
+ * or default rule if there is no rule for host.</li>
+ * </ul>
+ * Typical usage:
+ * <pre><code>
+ * CacheKeyGenerator keyGenerator = new NormalizingCacheKeyGenerator.Builder()
+ *      .defaultRule(Rule.remove("token", "expires", "utm_source"))
+ *      .domainRule("video.example.com", Rule.keep("id", "quality"))
+ *      .hostAlias("cdn2.example.com", "cdn1.example.com")
+ *      .build();
+ * </code></pre>
+ */
+public class NormalizingCacheKeyGenerator implements CacheKeyGenerator {
+
+    private final Rule defaultRule;
+    private final Map<String, Rule> domainRules;
+    private final Map<String, String> hostAliases;
+
+    private NormalizingCacheKeyGenerator(Builder builder) {
+        this.defaultRule = builder.defaultRule;
+        this.domainRules = new HashMap<>(builder.domainRules);
+        this.hostAliases = new HashMap<>(builder.hostAliases);
+    }
+
+    @Override
+    public String generate(String url) {
+        checkNotNull(url);
+        int fragmentIndex = url.indexOf('#');
+        String withoutFragment = fragmentIndex == -1 ? url : url.substring(0, fragmentIndex);
+        int queryIndex = withoutFragment.indexOf('?');
+        String base = queryIndex == -1 ? withoutFragment : withoutFragment.substring(0, queryIndex);
+        String query = queryIndex == -1 ? "" : withoutFragment.substring(queryIndex + 1);
+
+        int schemeEnd = base.indexOf("://");
+        if (schemeEnd == -1) {
+            return url; // not absolute url, nothing to normalize
+        }
+        int authorityStart = schemeEnd + 3;
+        int pathStart = base.indexOf('/', authorityStart);
+        String scheme = base.substring(0, schemeEnd).toLowerCase(Locale.US);
+        String authority = pathStart == -1 ? base.substring(authorityStart) : base.substring(authorityStart, pathStart);
+        String path = pathStart == -1 ? "" : base.substring(pathStart);
+
+        int userInfoEnd = authority.lastIndexOf('@');
+        String userInfo = userInfoEnd == -1 ? "" : authority.substring(0, userInfoEnd + 1);
+        String hostAndPort = authority.substring(userInfoEnd + 1);
+        int portIndex = hostAndPort.lastIndexOf(':');
+        boolean hasPort = portIndex != -1 && hostAndPort.indexOf(']', portIndex) == -1;
+        String host = (hasPort ? hostAndPort.substring(0, portIndex) : hostAndPort).toLowerCase(Locale.US);
+        String port = hasPort ? hostAndPort.substring(portIndex) : "";
+
+        String canonicalHost = hostAliases.containsKey(host) ? hostAliases.get(host) : host;
+        String filteredQuery = findRule(canonicalHost).apply(query);
+        return scheme + "://" + userInfo + canonicalHost + port + path + (filteredQuery.isEmpty() ? "" : "?" + filteredQuery);
+    }
+
+    private Rule findRule(String host) {
+        // the most specific domain wins: "a.b.com" is checked before "b.com"
+        String domain = host;
+        while (true) {
+            Rule rule = domainRules.get(domain);
+            if (rule != null) {
+                return rule;
+            }
+            int dotIndex = domain.indexOf('.');
+            if (dotIndex == -1) {
+                return defaultRule;
+            }
+            domain = domain.substring(dotIndex + 1);
+        }
+    }
+
+    /**
+     * Declares which query parameters of url are significant for cache key.
+     */
+    public static final class Rule {
+
+        /**
+         * Keeps all query parameters.
+         */
+        public static final Rule KEEP_ALL = new Rule(Collections.<String>emptySet(), false);
+
+        /**
+         * Drops all query parameters.
+         */
+        public static final Rule REMOVE_ALL = new Rule(Collections.<String>emptySet(), true);
+
+        private final Set<String> names;
+        private final boolean whitelist;
+
+        private Rule(Set<String> names, boolean whitelist) {
+            this.names = names;
+            this.whitelist = whitelist;
+        }
+
+        /**
+         * Creates rule that drops listed query parameters and keeps the rest.
+         *
+         * @param names names of volatile parameters, e.g. auth tokens, timestamps, tracking parameters.
+         * @return a rule.
+         */
+        public static Rule remove(String... names) {
+            checkAllNotNull((Object[]) names);
+            return new Rule(new HashSet<>(Arrays.asList(names)), false);
+        }
+
+        /**
+         * Creates rule that keeps only listed query parameters.
+         *
+         * @param names names of parameters identifying content.
+         * @return a rule.
+         */
+        public static Rule keep(String... names) {
+            checkAllNotNull((Object[]) names);
+            return new Rule(new HashSet<>(Arrays.asList(names)), true);
+        }
+
+        String apply(String query) {
+            if (query.isEmpty() || (!whitelist && names.isEmpty())) {
+                return query;
+            }
+            List<String> kept = new ArrayList<>();
+            for (String parameter : query.split("&")) {
+                int equalsIndex = parameter.indexOf('=');
+                String name = equalsIndex == -1 ? parameter : parameter.substring(0, equalsIndex);
+                if (!parameter.isEmpty() && names.contains(name) == whitelist) {
+                    kept.add(parameter);
+                }
+            }
+            StringBuilder result = new StringBuilder();
+            for (String parameter : kept) {
+                result.append(result.length() == 0 ? "" : "&").append(parameter);
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Builder for {@link NormalizingCacheKeyGenerator}.
+     */
+    public static final class Builder {
+
+        private final Map<String, Rule> domainRules = new HashMap<>();
+        private final Map<String, String> hostAliases = new HashMap<>();
+        private Rule defaultRule = Rule.KEEP_ALL;
+
+        /**
+         * Sets rule for hosts without own rule. By default all query parameters are kept.
+         *
+         * @param rule a rule, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder defaultRule(Rule rule) {
+            this.defaultRule = checkNotNull(rule);
+            return this;
+        }
+
+        /**
+         * Sets rule for domain and all its subdomains. Rule of the most specific domain is used.
+         *
+         * @param domain a domain, e.g. {@code example.com}.
+         * @param rule   a rule, can't be {@code null}.
+         * @return a builder.
+         */
+        public Builder domainRule(String domain, Rule rule) {
+            checkAllNotNull(domain, rule);
+            domainRules.put(domain.toLowerCase(Locale.US), rule);
+            return this;
+        }
+
+        /**
+         * Declares host as mirror of another one, so the same content from both hosts is cached once.
+         *
+         * @param host          a host of mirror, e.g. {@code cdn2.example.com}.
+         * @param canonicalHost a host used in cache key instead, e.g. {@code cdn1.example.com}.
+         * @return a builder.
+         */
+        public Builder hostAlias(String host, String canonicalHost) {
+            checkAllNotNull(host, canonicalHost);
+            hostAliases.put(host.toLowerCase(Locale.US), canonicalHost.toLowerCase(Locale.US));
+            return this;
+        }
+
+        public NormalizingCacheKeyGenerator build() {
+            return new NormalizingCacheKeyGenerator(this);
+        }
+    }
+}
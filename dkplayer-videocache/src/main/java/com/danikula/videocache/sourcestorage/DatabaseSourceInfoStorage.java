@@ -5,35 +5,96 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.LruCache;
 
+import com.danikula.videocache.Logger;
 import com.danikula.videocache.SourceInfo;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import static com.danikula.videocache.Preconditions.checkAllNotNull;
 import static com.danikula.videocache.Preconditions.checkNotNull;
 
 /**
  * Database based {@link SourceInfoStorage}.
+ * <p>
+ * Recently used infos are kept in memory, so repeated lookups don't touch database.
+ * Writes are applied to memory immediately and flushed to database in background by batches, one transaction per batch.
  *
  * @author Alexey Danilov (danikula@gmail.com).
  */
 class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoStorage {
 
+    private static final int DATABASE_VERSION = 5;
+    private static final int MEMORY_CACHE_SIZE = 256;
+    private static final long FLUSH_DELAY_MILLIS = 500;
+    private static final long FLUSH_RETRY_DELAY_MILLIS = 2000;
     private static final String TABLE = "SourceInfo";
     private static final String COLUMN_ID = "_id";
     private static final String COLUMN_URL = "url";
     private static final String COLUMN_LENGTH = "length";
     private static final String COLUMN_MIME = "mime";
-    private static final String[] ALL_COLUMNS = new String[]{COLUMN_ID, COLUMN_URL, COLUMN_LENGTH, COLUMN_MIME};
+    private static final String COLUMN_BITRATE = "bitrate";
+    private static final String COLUMN_RESOLVED_URL = "resolvedUrl";
+    private static final String COLUMN_RESOLVED_UNTIL = "resolvedUntil";
+    private static final String COLUMN_ACCEPT_RANGES = "acceptRanges";
+    private static final String COLUMN_ETAG = "etag";
+    private static final String COLUMN_LAST_MODIFIED = "lastModified";
+    private static final String COLUMN_EXPIRES = "expires";
+    private static final String[] ALL_COLUMNS = new String[]{COLUMN_ID, COLUMN_URL, COLUMN_LENGTH, COLUMN_MIME, COLUMN_BITRATE,
+            COLUMN_RESOLVED_URL, COLUMN_RESOLVED_UNTIL, COLUMN_ACCEPT_RANGES, COLUMN_ETAG, COLUMN_LAST_MODIFIED, COLUMN_EXPIRES};
     private static final String CREATE_SQL =
             "CREATE TABLE " + TABLE + " (" +
                     COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL," +
                     COLUMN_URL + " TEXT NOT NULL," +
                     COLUMN_MIME + " TEXT," +
-                    COLUMN_LENGTH + " INTEGER" +
+                    COLUMN_LENGTH + " INTEGER," +
+                    COLUMN_BITRATE + " INTEGER DEFAULT -1," +
+                    COLUMN_RESOLVED_URL + " TEXT," +
+                    COLUMN_RESOLVED_UNTIL + " INTEGER DEFAULT 0," +
+                    COLUMN_ACCEPT_RANGES + " INTEGER DEFAULT -1," +
+                    COLUMN_ETAG + " TEXT," +
+                    COLUMN_LAST_MODIFIED + " TEXT," +
+                    COLUMN_EXPIRES + " INTEGER DEFAULT 0" +
                     ");";
+    private static final String[] MIGRATION_TO_2_SQL = new String[]{
+            addColumnSql(COLUMN_BITRATE, "INTEGER DEFAULT -1")
+    };
+    private static final String[] MIGRATION_TO_3_SQL = new String[]{
+            addColumnSql(COLUMN_RESOLVED_URL, "TEXT"),
+            addColumnSql(COLUMN_RESOLVED_UNTIL, "INTEGER DEFAULT 0"),
+            addColumnSql(COLUMN_ACCEPT_RANGES, "INTEGER DEFAULT -1"),
+            addColumnSql(COLUMN_ETAG, "TEXT"),
+            addColumnSql(COLUMN_LAST_MODIFIED, "TEXT")
+    };
+    private static final String CREATE_URL_INDEX_SQL =
+            "CREATE UNIQUE INDEX IF NOT EXISTS " + TABLE + "_" + COLUMN_URL + " ON " + TABLE + " (" + COLUMN_URL + ");";
+    private static final String[] MIGRATION_TO_4_SQL = new String[]{
+            addColumnSql(COLUMN_EXPIRES, "INTEGER DEFAULT 0")
+    };
+    private static final String[] MIGRATION_TO_5_SQL = new String[]{
+            // older versions could store duplicates, keep the latest row for every url
+            "DELETE FROM " + TABLE + " WHERE " + COLUMN_ID + " NOT IN (SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE + " GROUP BY " + COLUMN_URL + ");",
+            CREATE_URL_INDEX_SQL
+    };
+
+    private final LruCache<String, SourceInfo> memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+    private final Map<String, SourceInfo> pendingWrites = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService writeExecutor = Executors.newSingleThreadScheduledExecutor();
+    // guarded by pendingWrites: batch being written stays visible to readers until it is committed
+    private Map<String, SourceInfo> flushingWrites = Collections.emptyMap();
+    private long writesCount;
+    private boolean flushScheduled;
+    private boolean released;
 
     DatabaseSourceInfoStorage(Context context) {
-        super(context, "AndroidVideoCache.db", null, 1);
+        super(context, "AndroidVideoCache.db", null, DATABASE_VERSION);
         checkNotNull(context);
     }
 
@@ -41,16 +102,72 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
     public void onCreate(SQLiteDatabase db) {
         checkNotNull(db);
         db.execSQL(CREATE_SQL);
+        db.execSQL(CREATE_URL_INDEX_SQL);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        throw new IllegalStateException("Should not be called. There is no any migration");
+        if (oldVersion < 2) {
+            execAll(db, MIGRATION_TO_2_SQL);
+        }
+        if (oldVersion < 3) {
+            execAll(db, MIGRATION_TO_3_SQL);
+        }
+        if (oldVersion < 4) {
+            execAll(db, MIGRATION_TO_4_SQL);
+        }
+        if (oldVersion < 5) {
+            execAll(db, MIGRATION_TO_5_SQL);
+        }
+    }
+
+    private static String addColumnSql(String column, String definition) {
+        return "ALTER TABLE " + TABLE + " ADD COLUMN " + column + " " + definition + ";";
+    }
+
+    private void execAll(SQLiteDatabase db, String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
     }
 
     @Override
     public SourceInfo get(String url) {
         checkNotNull(url);
+        SourceInfo sourceInfo = memoryCache.get(url);
+        if (sourceInfo != null) {
+            return sourceInfo;
+        }
+        long writesBeforeQuery;
+        synchronized (pendingWrites) {
+            sourceInfo = getUnflushed(url);
+            if (sourceInfo != null) {
+                memoryCache.put(url, sourceInfo);
+                return sourceInfo;
+            }
+            writesBeforeQuery = writesCount;
+        }
+        sourceInfo = query(url);
+        synchronized (pendingWrites) {
+            if (writesCount != writesBeforeQuery) {
+                // info put while database was queried is newer than the read one, it must not be overwritten in memory
+                SourceInfo written = memoryCache.get(url);
+                written = written != null ? written : getUnflushed(url);
+                return written != null ? written : sourceInfo;
+            }
+            if (sourceInfo != null) {
+                memoryCache.put(url, sourceInfo);
+            }
+        }
+        return sourceInfo;
+    }
+
+    private SourceInfo getUnflushed(String url) {
+        SourceInfo sourceInfo = pendingWrites.get(url);
+        return sourceInfo != null ? sourceInfo : flushingWrites.get(url);
+    }
+
+    private SourceInfo query(String url) {
         Cursor cursor = null;
         try {
             cursor = getReadableDatabase().query(TABLE, ALL_COLUMNS, COLUMN_URL + "=?", new String[]{url}, null, null, null);
@@ -65,34 +182,127 @@ class DatabaseSourceInfoStorage extends SQLiteOpenHelper implements SourceInfoSt
     @Override
     public void put(String url, SourceInfo sourceInfo) {
         checkAllNotNull(url, sourceInfo);
-        SourceInfo sourceInfoFromDb = get(url);
-        boolean exist = sourceInfoFromDb != null;
-        ContentValues contentValues = convert(sourceInfo);
-        if (exist) {
-            getWritableDatabase().update(TABLE, contentValues, COLUMN_URL + "=?", new String[]{url});
-        } else {
-            getWritableDatabase().insert(TABLE, null, contentValues);
+        synchronized (pendingWrites) {
+            if (released) {
+                // background writers (e.g. source readers) may outlive proxy, their late writes are dropped
+                Logger.debug("Source info storage is released, drop info for " + url);
+                return;
+            }
+            writesCount++;
+            memoryCache.put(url, sourceInfo);
+            pendingWrites.put(url, sourceInfo);
+            scheduleFlush(FLUSH_DELAY_MILLIS);
+        }
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writeExecutor.schedule(new FlushRunnable(), delayMillis, TimeUnit.MILLISECONDS);
         }
     }
 
     @Override
     public void release() {
+        synchronized (pendingWrites) {
+            released = true;
+        }
+        writeExecutor.shutdown();
+        flush();
+        memoryCache.evictAll();
         close();
     }
 
+    private void flush() {
+        // final flush of release() may run along with the scheduled one
+        synchronized (flushLock) {
+            Map<String, SourceInfo> batch;
+            synchronized (pendingWrites) {
+                batch = new LinkedHashMap<>(pendingWrites);
+                pendingWrites.clear();
+                flushScheduled = false;
+                flushingWrites = batch;
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                write(batch);
+                synchronized (pendingWrites) {
+                    flushingWrites = Collections.emptyMap();
+                }
+            } catch (RuntimeException e) {
+                Logger.error("Error writing " + batch.size() + " source infos to database: " + e);
+                requeue(batch);
+            }
+        }
+    }
+
+    private void write(Map<String, SourceInfo> batch) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, SourceInfo> entry : batch.entrySet()) {
+                db.insertWithOnConflict(TABLE, null, convert(entry.getKey(), entry.getValue()), SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void requeue(Map<String, SourceInfo> batch) {
+        synchronized (pendingWrites) {
+            flushingWrites = Collections.emptyMap();
+            if (released) {
+                Logger.error("Source infos are lost on release: " + batch.keySet());
+                return;
+            }
+            for (Map.Entry<String, SourceInfo> entry : batch.entrySet()) {
+                // info put after batch was taken is newer
+                if (!pendingWrites.containsKey(entry.getKey())) {
+                    pendingWrites.put(entry.getKey(), entry.getValue());
+                }
+            }
+            scheduleFlush(FLUSH_RETRY_DELAY_MILLIS);
+        }
+    }
+
     private SourceInfo convert(Cursor cursor) {
         return new SourceInfo(
                 cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URL)),
                 cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_LENGTH)),
-                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MIME))
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MIME)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_BITRATE)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_RESOLVED_URL)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_RESOLVED_UNTIL)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ACCEPT_RANGES)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_ETAG)),
+                cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LAST_MODIFIED)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_EXPIRES))
         );
     }
 
-    private ContentValues convert(SourceInfo sourceInfo) {
+    private ContentValues convert(String url, SourceInfo sourceInfo) {
         ContentValues values = new ContentValues();
-        values.put(COLUMN_URL, sourceInfo.url);
+        values.put(COLUMN_URL, url);
         values.put(COLUMN_LENGTH, sourceInfo.length);
         values.put(COLUMN_MIME, sourceInfo.mime);
+        values.put(COLUMN_BITRATE, sourceInfo.bitrate);
+        values.put(COLUMN_RESOLVED_URL, sourceInfo.resolvedUrl);
+        values.put(COLUMN_RESOLVED_UNTIL, sourceInfo.resolvedUntil);
+        values.put(COLUMN_ACCEPT_RANGES, sourceInfo.acceptRanges);
+        values.put(COLUMN_ETAG, sourceInfo.etag);
+        values.put(COLUMN_LAST_MODIFIED, sourceInfo.lastModified);
+        values.put(COLUMN_EXPIRES, sourceInfo.expires);
         return values;
     }
+
+    private final class FlushRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            flush();
+        }
+    }
 }
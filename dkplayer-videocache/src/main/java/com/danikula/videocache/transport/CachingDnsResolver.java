@@ -0,0 +1,340 @@
+package com.danikula.videocache.transport;
+
+import com.danikula.videocache.Logger;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static com.danikula.videocache.Preconditions.checkArgument;
+import static com.danikula.videocache.Preconditions.checkNotNull;
+
+/**
+ * {@link DnsResolver} that caches resolved addresses and resolves hosts of upcoming urls in advance.
+ * <p>
+ * Only positive answers are cached, during ttl, but not longer: platform doesn't expose ttl of records, so ttl is
+ * configured explicitly. Concurrent lookups of the same host share single request to upstream resolver.
+ * Prefetching also warms up cache of platform resolver, which is shared with players reading sources directly.
+ * </p>
+ * <p>
+ * If host has both IPv4 and IPv6 addresses, prefetch races connections to them (IPv6 gets head start of
+ * {@link #CONNECTION_ATTEMPT_DELAY} ms as recommended by RFC 8305) and addresses of the winning family
+ * are returned first, interleaved with the other family. Until race is done addresses are returned in upstream order.
+ * </p>
+ * Single instance should be shared by proxy ({@link com.danikula.videocache.HttpProxyCacheServer.Builder#dnsResolver(CachingDnsResolver)}),
+ * transport adapters and players.
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+    public static final long DEFAULT_TTL = 60 * 1000;
+    static final long CONNECTION_ATTEMPT_DELAY = 250;
+    private static final int RACE_TIMEOUT = 3000;
+
+    private final DnsResolver upstream;
+    private final long ttlMillis;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Entry> cache = new HashMap<>();
+    private final Map<String, FutureTask<Entry>> pending = new HashMap<>();
+
+    public CachingDnsResolver() {
+        this(DnsResolver.SYSTEM, DEFAULT_TTL);
+    }
+
+    /**
+     * Creates new resolver.
+     *
+     * @param upstream  a resolver to resolve not cached hosts with.
+     * @param ttlMillis how long resolved addresses are used, in milliseconds.
+     */
+    public CachingDnsResolver(DnsResolver upstream, long ttlMillis) {
+        checkArgument(ttlMillis >= 0, "Ttl can't be negative!");
+        this.upstream = checkNotNull(upstream);
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String host) throws UnknownHostException {
+        return resolve(host).ordered();
+    }
+
+    /**
+     * Resolves host of url in background, so following lookup is answered from cache.
+     *
+     * @param url an url or a host name.
+     */
+    public void prefetch(String url) {
+        final String host = getHost(url);
+        final int port = getPort(url);
+        if (host == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = cache.get(host);
+            if (entry != null && entry.isFresh() && entry.raced) {
+                return;
+            }
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Entry entry = resolve(host);
+                    if (!entry.raced) {
+                        race(host, port, entry);
+                    }
+                } catch (UnknownHostException e) {
+                    Logger.debug("Error prefetching " + host + ": " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drops all cached addresses, e.g. when network is changed.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    private Entry resolve(final String host) throws UnknownHostException {
+        FutureTask<Entry> task;
+        boolean lookup = false;
+        synchronized (this) {
+            Entry entry = cache.get(host);
+            if (entry != null && entry.isFresh()) {
+                return entry;
+            }
+            task = pending.get(host);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<Entry>() {
+                    @Override
+                    public Entry call() throws UnknownHostException {
+                        return lookupUpstream(host);
+                    }
+                });
+                pending.put(host, task);
+                lookup = true;
+            }
+        }
+        if (lookup) {
+            task.run();
+        }
+        return await(host, task);
+    }
+
+    private Entry lookupUpstream(String host) throws UnknownHostException {
+        try {
+            List<InetAddress> addresses = upstream.lookup(host);
+            if (addresses.isEmpty()) {
+                throw new UnknownHostException("No addresses for " + host);
+            }
+            synchronized (this) {
+                Entry previous = cache.get(host);
+                Entry entry = new Entry(addresses, System.currentTimeMillis() + ttlMillis);
+                if (previous != null && previous.raced) {
+                    entry.setPreferIpv6(previous.preferIpv6);
+                }
+                cache.put(host, entry);
+                return entry;
+            }
+        } finally {
+            synchronized (this) {
+                pending.remove(host);
+            }
+        }
+    }
+
+    private Entry await(String host, FutureTask<Entry> task) throws UnknownHostException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw newUnknownHostException("Resolving " + host + " is interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                throw (UnknownHostException) e.getCause();
+            }
+            throw newUnknownHostException("Error resolving " + host, e.getCause());
+        }
+    }
+
+    private UnknownHostException newUnknownHostException(String message, Throwable cause) {
+        UnknownHostException exception = new UnknownHostException(message);
+        exception.initCause(cause);
+        return exception;
+    }
+
+    private void race(String host, int port, Entry entry) {
+        InetAddress ipv6 = first(entry.addresses, Inet6Address.class);
+        InetAddress ipv4 = first(entry.addresses, Inet4Address.class);
+        if (ipv6 == null || ipv4 == null || port < 0) {
+            return;
+        }
+        CompletionService<InetAddress> completion = new ExecutorCompletionService<>(executor);
+        List<Future<InetAddress>> attempts = new ArrayList<>();
+        attempts.add(completion.submit(new ConnectAttempt(ipv6, port)));
+        InetAddress winner = null;
+        try {
+            Future<InetAddress> completed = completion.poll(CONNECTION_ATTEMPT_DELAY, TimeUnit.MILLISECONDS);
+            winner = completed == null ? null : getQuietly(completed);
+            if (winner == null) {
+                attempts.add(completion.submit(new ConnectAttempt(ipv4, port)));
+                int remaining = completed == null ? 2 : 1;
+                long deadline = System.currentTimeMillis() + RACE_TIMEOUT;
+                while (winner == null && remaining > 0) {
+                    completed = completion.poll(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                    if (completed == null) {
+                        break;
+                    }
+                    remaining--;
+                    winner = getQuietly(completed);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<InetAddress> attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+        if (winner != null) {
+            boolean preferIpv6 = winner instanceof Inet6Address;
+            Logger.debug("IPv" + (preferIpv6 ? 6 : 4) + " wins connection race to " + host);
+            synchronized (this) {
+                entry.setPreferIpv6(preferIpv6);
+            }
+        }
+    }
+
+    private InetAddress getQuietly(Future<InetAddress> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private InetAddress first(List<InetAddress> addresses, Class<? extends InetAddress> family) {
+        for (InetAddress address : addresses) {
+            if (family.isInstance(address)) {
+                return address;
+            }
+        }
+        return null;
+    }
+
+    private String getHost(String url) {
+        if (!url.contains("://")) {
+            return url;
+        }
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private int getPort(String url) {
+        if (!url.contains("://")) {
+            return -1;
+        }
+        try {
+            URL parsed = new URL(url);
+            return parsed.getPort() > 0 ? parsed.getPort() : parsed.getDefaultPort();
+        } catch (MalformedURLException e) {
+            return -1;
+        }
+    }
+
+    private static final class ConnectAttempt implements Callable<InetAddress> {
+
+        private final InetAddress address;
+        private final int port;
+
+        ConnectAttempt(InetAddress address, int port) {
+            this.address = address;
+            this.port = port;
+        }
+
+        @Override
+        public InetAddress call() throws IOException {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(address, port), RACE_TIMEOUT);
+                return address;
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    private final class Entry {
+
+        private final List<InetAddress> addresses;
+        private final long expiresAt;
+        private List<InetAddress> ordered;
+        private boolean raced;
+        private boolean preferIpv6;
+
+        Entry(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+            this.expiresAt = expiresAt;
+            this.ordered = this.addresses;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt;
+        }
+
+        void setPreferIpv6(boolean preferIpv6) {
+            this.raced = true;
+            this.preferIpv6 = preferIpv6;
+            this.ordered = interleave(preferIpv6);
+        }
+
+        List<InetAddress> ordered() {
+            synchronized (CachingDnsResolver.this) {
+                return ordered;
+            }
+        }
+
+        private List<InetAddress> interleave(boolean preferIpv6) {
+            List<InetAddress> preferred = new ArrayList<>();
+            List<InetAddress> other = new ArrayList<>();
+            for (InetAddress address : addresses) {
+                boolean ipv6 = address instanceof Inet6Address;
+                (ipv6 == preferIpv6 ? preferred : other).add(address);
+            }
+            List<InetAddress> result = new ArrayList<>(addresses.size());
+            for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+                if (i < preferred.size()) {
+                    result.add(preferred.get(i));
+                }
+                if (i < other.size()) {
+                    result.add(other.get(i));
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+}
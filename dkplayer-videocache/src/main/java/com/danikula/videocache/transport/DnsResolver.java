@@ -0,0 +1,31 @@
+package com.danikula.videocache.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolver of host names. It is used by transports that allow to override resolving of hosts, see {@link CachingDnsResolver}.
+ */
+public interface DnsResolver {
+
+    /**
+     * Resolver of platform.
+     */
+    DnsResolver SYSTEM = new DnsResolver() {
+        @Override
+        public List<InetAddress> lookup(String host) throws UnknownHostException {
+            return Arrays.asList(InetAddress.getAllByName(host));
+        }
+    };
+
+    /**
+     * Resolves host name.
+     *
+     * @param host a host name.
+     * @return addresses of host in order they should be tried to connect, never empty.
+     * @throws UnknownHostException if host can't be resolved.
+     */
+    List<InetAddress> lookup(String host) throws UnknownHostException;
+}
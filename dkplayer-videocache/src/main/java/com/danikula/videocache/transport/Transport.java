@@ -0,0 +1,32 @@
+package com.danikula.videocache.transport;
+
+import java.io.IOException;
+
+/**
+ * Http client used by proxy to request sources.
+ * <p>
+ * Default transport is {@link UrlConnectionTransport}. App can supply adapter for another client, e.g. OkHttp or Cronet,
+ * to share connections with the rest of app and to use HTTP/2 or QUIC, so requests to the same host are multiplexed
+ * over single connection instead of handshaking for every request. Transport is used from many threads concurrently.
+ */
+public interface Transport {
+
+    /**
+     * Prepares request to be executed. Request is not sent until {@link TransportCall#execute()} is called.
+     *
+     * @param request a request to be sent.
+     * @return a call to execute request with, never {@code null}.
+     * @throws IOException if request can't be prepared, e.g. url is malformed.
+     */
+    TransportCall newCall(TransportRequest request) throws IOException;
+
+    /**
+     * Establishes connection to host of request (resolving host, TCP and TLS handshakes) without downloading data
+     * and leaves it idle in pool of transport, so next call to the same host reuses it. Method blocks until
+     * connection is ready. Transport that can't keep connections may do nothing.
+     *
+     * @param request a request to host to connect to.
+     * @throws IOException if connection can't be established.
+     */
+    void preconnect(TransportRequest request) throws IOException;
+}
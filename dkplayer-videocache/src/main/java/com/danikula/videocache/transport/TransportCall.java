@@ -0,0 +1,29 @@
+package com.danikula.videocache.transport;
+
+import java.io.IOException;
+
+/**
+ * Single request prepared by {@link Transport}. Call can be executed only once.
+ */
+public interface TransportCall {
+
+    /**
+     * Sends request and waits for response headers.
+     * <p>
+     * Redirects may be followed by transport itself, otherwise response with redirect code is returned and
+     * {@code Location} header is followed by proxy.
+     * </p>
+     *
+     * @return a response, caller must close it.
+     * @throws java.io.InterruptedIOException if call is cancelled.
+     * @throws java.net.SocketTimeoutException if there is no response during {@link TransportRequest#timeoutMillis}.
+     * @throws IOException if request fails.
+     */
+    TransportResponse execute() throws IOException;
+
+    /**
+     * Cancels call, it can be called from any thread at any time. Blocked {@link #execute()} and reading of
+     * response body throw {@link java.io.InterruptedIOException} or another {@link IOException}.
+     */
+    void cancel();
+}
@@ -0,0 +1,16 @@
+package com.danikula.videocache.transport;
+
+/**
+ * Listener for timings of single request, called by {@link Transport} from thread executing the call.
+ */
+public interface TransportListener {
+
+    /**
+     * Called when connection for request is established. TLS handshake isn't measured apart: platform's connection
+     * doesn't expose it, so it is folded into connection time.
+     *
+     * @param url           an url of request.
+     * @param connectMillis time spent in resolving host, connecting and TLS handshake, {@code 0} if connection is reused.
+     */
+    void onConnected(String url, long connectMillis);
+}
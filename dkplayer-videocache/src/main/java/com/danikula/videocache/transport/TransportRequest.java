@@ -0,0 +1,40 @@
+package com.danikula.videocache.transport;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GET request to be sent by {@link Transport}.
+ */
+public final class TransportRequest {
+
+    public final String url;
+    public final Map<String, String> headers;
+    public final int timeoutMillis;
+    public final TransportListener listener;
+
+    /**
+     * Creates new request.
+     *
+     * @param url           an url to request.
+     * @param headers       headers of request.
+     * @param timeoutMillis timeout of connecting and of waiting for data, {@code 0} for default timeout of transport.
+     * @param listener      a listener for timings of request, may be {@code null}.
+     */
+    public TransportRequest(String url, Map<String, String> headers, int timeoutMillis, TransportListener listener) {
+        this.url = url;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.timeoutMillis = timeoutMillis;
+        this.listener = listener;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportRequest{" +
+                "url='" + url + '\'' +
+                ", headers=" + headers +
+                ", timeoutMillis=" + timeoutMillis +
+                '}';
+    }
+}
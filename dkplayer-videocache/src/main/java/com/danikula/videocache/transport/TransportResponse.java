@@ -0,0 +1,36 @@
+package com.danikula.videocache.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response of {@link TransportCall}. It must be closed to release connection, even if body is not read.
+ */
+public interface TransportResponse extends Closeable {
+
+    int getCode();
+
+    /**
+     * Returns value of response header.
+     *
+     * @param name a header name, case insensitive.
+     * @return header value or {@code null} if header is absent.
+     */
+    String getHeader(String name);
+
+    /**
+     * Returns stream of response body.
+     * <p>
+     * Reading throws {@link java.net.SocketTimeoutException} if no data is received during
+     * {@link TransportRequest#timeoutMillis}.
+     * </p>
+     *
+     * @return body of response.
+     * @throws IOException if body can't be read.
+     */
+    InputStream getBody() throws IOException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,160 @@
+package com.danikula.videocache.transport;
+
+import com.danikula.videocache.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * {@link Transport} based on {@link HttpURLConnection}. Connections are kept alive and shared by pool of platform.
+ */
+public class UrlConnectionTransport implements Transport {
+
+    private static final int DRAIN_BUFFER_SIZE = 8 * 1024;
+
+    @Override
+    public TransportCall newCall(TransportRequest request) throws IOException {
+        return new UrlConnectionCall(request, openConnection(request));
+    }
+
+    @Override
+    public void preconnect(TransportRequest request) throws IOException {
+        HttpURLConnection connection = openConnection(request);
+        // the smallest request every server handles well: platform may not reuse connection after HEAD
+        connection.setRequestProperty("Range", "bytes=0-0");
+        long start = System.currentTimeMillis();
+        TransportListener listener = request.listener;
+        connection.connect();
+        if (listener != null) {
+            listener.onConnected(request.url, System.currentTimeMillis() - start);
+        }
+        int code = connection.getResponseCode();
+        InputStream body = code < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream();
+        if (body != null && drain(body)) {
+            // closing stream of consumed response (unlike disconnecting) returns connection to pool
+            body.close();
+        } else {
+            // range is ignored and whole source is sent, connection can't be reused without downloading it
+            disconnect(connection);
+        }
+    }
+
+    private boolean drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+        long drained = 0;
+        int readBytes;
+        while ((readBytes = body.read(buffer)) != -1) {
+            drained += readBytes;
+            if (drained > DRAIN_BUFFER_SIZE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private HttpURLConnection openConnection(TransportRequest request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.url).openConnection();
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (request.timeoutMillis > 0) {
+            connection.setConnectTimeout(request.timeoutMillis);
+            connection.setReadTimeout(request.timeoutMillis);
+        }
+        return connection;
+    }
+
+    private static final class UrlConnectionCall implements TransportCall {
+
+        private final TransportRequest request;
+        private final HttpURLConnection connection;
+        private volatile boolean cancelled;
+
+        UrlConnectionCall(TransportRequest request, HttpURLConnection connection) {
+            this.request = request;
+            this.connection = connection;
+        }
+
+        @Override
+        public TransportResponse execute() throws IOException {
+            if (cancelled) {
+                throw new InterruptedIOException("Request to " + request.url + " is cancelled");
+            }
+            long start = System.currentTimeMillis();
+            TransportListener listener = request.listener;
+            try {
+                if (listener != null) {
+                    // connect explicitly to measure connection (and TLS handshake) apart from waiting for response
+                    connection.connect();
+                    listener.onConnected(request.url, System.currentTimeMillis() - start);
+                }
+                int code = connection.getResponseCode();
+                return new UrlConnectionResponse(connection, code);
+            } catch (IOException e) {
+                if (cancelled) {
+                    InterruptedIOException interrupted = new InterruptedIOException("Request to " + request.url + " is cancelled");
+                    interrupted.initCause(e);
+                    throw interrupted;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            disconnect(connection);
+        }
+    }
+
+    private static final class UrlConnectionResponse implements TransportResponse {
+
+        private final HttpURLConnection connection;
+        private final int code;
+
+        UrlConnectionResponse(HttpURLConnection connection, int code) {
+            this.connection = connection;
+            this.code = code;
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return connection.getInputStream();
+        }
+
+        @Override
+        public void close() {
+            disconnect(connection);
+        }
+    }
+
+    private static void disconnect(HttpURLConnection connection) {
+        try {
+            connection.disconnect();
+        } catch (NullPointerException | IllegalArgumentException e) {
+            String message = "Wait... but why? WTF!? " +
+                    "Really shouldn't happen any more after fixing https://github.com/danikula/AndroidVideoCache/issues/43. " +
+                    "If you read it on your device log, please, notify me danikula@gmail.com or create issue here " +
+                    "https://github.com/danikula/AndroidVideoCache/issues.";
+            throw new RuntimeException(message, e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            Logger.error("Error closing connection correctly. Should happen only on Android L. " +
+                    "If anybody know how to fix it, please visit https://github.com/danikula/AndroidVideoCache/issues/88. " +
+                    "Until good solution is not know, just ignore this issue.");
+        }
+    }
+}
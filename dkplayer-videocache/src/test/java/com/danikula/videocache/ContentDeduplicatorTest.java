@@ -0,0 +1,94 @@
+package com.danikula.videocache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentDeduplicatorTest {
+
+    private static final int LENGTH = 256 * 1024;
+    private static final long TIMEOUT = 5000;
+
+    private File directory;
+    private ContentDeduplicator deduplicator;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = TestFiles.newTempDirectory("deduplicator");
+        deduplicator = ContentDeduplicator.open(new File(directory, "deduplication"));
+    }
+
+    @After
+    public void tearDown() {
+        deduplicator.shutdown();
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void testAliasIsDroppedWhenFileIsCachedAgainWithOtherContent() throws Exception {
+        File owner = new File(directory, "owner.mp4");
+        File duplicate = new File(directory, "duplicate.mp4");
+        cacheDuplicates(owner, duplicate);
+        assertEquals(owner, deduplicator.resolve(duplicate.getName()));
+
+        // owner is deleted outside of proxy and cached again from changed source of the same length
+        assertTrue(owner.delete());
+        write(owner, 2);
+        deduplicator.onCompleted(owner);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (deduplicator.resolve(duplicate.getName()) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(deduplicator.resolve(duplicate.getName()));
+    }
+
+    @Test
+    public void testAliasIsDroppedWhenFileIsEvicted() throws Exception {
+        File owner = new File(directory, "owner.mp4");
+        File duplicate = new File(directory, "duplicate.mp4");
+        cacheDuplicates(owner, duplicate);
+
+        assertTrue(owner.delete());
+        deduplicator.onEvicted(owner, LENGTH);
+        // evicted file is cached again under the same name before alias is resolved
+        write(owner, 1);
+
+        assertNull(deduplicator.resolve(duplicate.getName()));
+    }
+
+    private void cacheDuplicates(File owner, File duplicate) throws Exception {
+        write(owner, 1);
+        deduplicator.onCompleted(owner);
+        write(duplicate, 1);
+        deduplicator.onCompleted(duplicate);
+        // files are deduplicated one by one in background
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (duplicate.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(duplicate.exists());
+    }
+
+    private void write(File file, int seed) throws IOException {
+        byte[] data = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            data[i] = (byte) (i * seed);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.transport.Transport;
+import com.danikula.videocache.transport.TransportCall;
+import com.danikula.videocache.transport.TransportRequest;
+import com.danikula.videocache.transport.TransportResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+/**
+ * {@link Transport} serving the same content for any url, it can ignore ranges, delay and break responses.
+ */
+class FakeTransport implements Transport {
+
+    static final String ETAG = "\"content\"";
+
+    private final byte[] data;
+    private final Map<String, Long> delays = new HashMap<>();
+    private final List<TransportRequest> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger responses = new AtomicInteger();
+    private final AtomicInteger openResponses = new AtomicInteger();
+    private volatile boolean ignoreRanges;
+    private volatile boolean ignoreCancel;
+    private volatile int breakFirstResponseAt = -1;
+
+    FakeTransport(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * Makes origin answer requests with {@code Range} with full content.
+     */
+    void ignoreRanges() {
+        this.ignoreRanges = true;
+    }
+
+    /**
+     * Makes calls answer even if they are cancelled while waiting for response, as if response is already received.
+     */
+    void ignoreCancel() {
+        this.ignoreCancel = true;
+    }
+
+    /**
+     * Makes body of the first response fail after passed count of bytes.
+     */
+    void breakFirstResponseAt(int offset) {
+        this.breakFirstResponseAt = offset;
+    }
+
+    /**
+     * Delays response headers of url.
+     */
+    synchronized void delay(String url, long delayMillis) {
+        delays.put(url, delayMillis);
+    }
+
+    List<TransportRequest> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns count of executed responses.
+     */
+    int getResponses() {
+        return responses.get();
+    }
+
+    /**
+     * Returns count of responses that are executed but not closed yet.
+     */
+    int getOpenResponses() {
+        return openResponses.get();
+    }
+
+    @Override
+    public TransportCall newCall(TransportRequest request) {
+        return new FakeCall(request);
+    }
+
+    @Override
+    public void preconnect(TransportRequest request) {
+    }
+
+    private synchronized long getDelay(String url) {
+        Long delay = delays.get(url);
+        return delay == null ? 0 : delay;
+    }
+
+    private final class FakeCall implements TransportCall {
+
+        private final TransportRequest request;
+        private volatile boolean cancelled;
+
+        FakeCall(TransportRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public TransportResponse execute() throws IOException {
+            requests.add(request);
+            long delay = getDelay(request.url);
+            long deadline = System.currentTimeMillis() + delay;
+            while (!isCancelled() && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Request to " + request.url + " is interrupted");
+                }
+            }
+            if (isCancelled()) {
+                throw new InterruptedIOException("Request to " + request.url + " is cancelled");
+            }
+            String range = request.headers.get("Range");
+            int offset = range == null || ignoreRanges ? 0 : Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            int end = data.length;
+            if (breakFirstResponseAt >= 0 && requests.size() == 1) {
+                end = breakFirstResponseAt;
+            }
+            openResponses.incrementAndGet();
+            responses.incrementAndGet();
+            return new FakeResponse(offset > 0 ? HTTP_PARTIAL : HTTP_OK, offset, end);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private boolean isCancelled() {
+            return cancelled && !ignoreCancel;
+        }
+    }
+
+    private final class FakeResponse implements TransportResponse {
+
+        private final int code;
+        private final int offset;
+        private final int end;
+        private boolean closed;
+
+        FakeResponse(int code, int offset, int end) {
+            this.code = code;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        @Override
+        public int getCode() {
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                return String.valueOf(data.length - offset);
+            }
+            if ("ETag".equalsIgnoreCase(name)) {
+                return ETAG;
+            }
+            if ("Accept-Ranges".equalsIgnoreCase(name)) {
+                return ignoreRanges ? null : "bytes";
+            }
+            return null;
+        }
+
+        @Override
+        public InputStream getBody() {
+            final InputStream body = new ByteArrayInputStream(data, offset, end - offset);
+            final boolean broken = end < data.length;
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    byte[] buffer = new byte[1];
+                    return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] buffer, int off, int len) throws IOException {
+                    int readBytes = body.read(buffer, off, len);
+                    if (readBytes == -1 && broken) {
+                        throw new IOException("Connection is reset");
+                    }
+                    return readBytes;
+                }
+            };
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                openResponses.decrementAndGet();
+            }
+        }
+    }
+}
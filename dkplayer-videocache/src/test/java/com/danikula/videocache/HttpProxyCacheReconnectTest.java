@@ -0,0 +1,86 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.file.FileCache;
+import com.danikula.videocache.headers.EmptyHeadersInjector;
+import com.danikula.videocache.transport.TransportRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HttpProxyCacheReconnectTest {
+
+    private static final String URL = "http://example.com/video.mp4";
+    private static final int DATA_LENGTH = 100 * 1024;
+    private static final int BROKEN_AT = 40 * 1024;
+
+    private byte[] data;
+    private File directory;
+    private FakeTransport transport;
+    private HttpProxyCache proxyCache;
+
+    @Before
+    public void setUp() throws IOException {
+        data = new byte[DATA_LENGTH];
+        new Random(42).nextBytes(data);
+        directory = TestFiles.newTempDirectory("reconnect");
+        transport = new FakeTransport(data);
+    }
+
+    @After
+    public void tearDown() {
+        if (proxyCache != null) {
+            proxyCache.shutdown();
+        }
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void testReconnectWithPartialResponse() throws Exception {
+        transport.breakFirstResponseAt(BROKEN_AT);
+
+        assertArrayEquals(data, readAll());
+        assertEquals("bytes=" + BROKEN_AT + "-", getReconnectRange());
+    }
+
+    @Test
+    public void testReconnectWithFullResponseSkipsCachedData() throws Exception {
+        transport.breakFirstResponseAt(BROKEN_AT);
+        transport.ignoreRanges();
+
+        assertArrayEquals(data, readAll());
+        assertEquals("bytes=" + BROKEN_AT + "-", getReconnectRange());
+        assertEquals(2, transport.getRequests().size());
+    }
+
+    private byte[] readAll() throws ProxyCacheException, IOException {
+        MemorySourceInfoStorage storage = new MemorySourceInfoStorage();
+        // stored info lets source be created without platform's mime types
+        storage.put(URL, new SourceInfo(URL, Integer.MIN_VALUE, "video/mp4"));
+        ReconnectPolicy reconnectPolicy = new ReconnectPolicy(2, 10, 10, 0, 0);
+        HttpUrlSource source = new HttpUrlSource(URL, storage, new EmptyHeadersInjector(), reconnectPolicy, transport);
+        proxyCache = new HttpProxyCache(source, new FileCache(new File(directory, "video.mp4")));
+        proxyCache.setReconnectPolicy(reconnectPolicy);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int readBytes;
+        while ((readBytes = proxyCache.read(buffer, out.size(), buffer.length)) != -1) {
+            out.write(buffer, 0, readBytes);
+        }
+        return out.toByteArray();
+    }
+
+    private String getReconnectRange() {
+        List<TransportRequest> requests = transport.getRequests();
+        return requests.get(requests.size() - 1).headers.get("Range");
+    }
+}
@@ -0,0 +1,119 @@
+package com.danikula.videocache;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import com.danikula.videocache.key.CacheKeyGenerator;
+import com.danikula.videocache.transport.TransportRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HttpProxyCacheServerClientsTest {
+
+    private static final String CACHE_KEY = "http://example.com/video.mp4";
+    private static final String EXPIRED_URL = CACHE_KEY + "?token=1";
+    private static final String FRESH_URL = CACHE_KEY + "?token=2";
+    private static final int DATA_LENGTH = 100 * 1024;
+    private static final int BROKEN_AT = 40 * 1024;
+
+    private byte[] data;
+    private File cacheDirectory;
+    private FakeTransport transport;
+    private HttpProxyCacheServer proxy;
+
+    @Before
+    public void setUp() throws IOException {
+        data = new byte[DATA_LENGTH];
+        new Random(42).nextBytes(data);
+        cacheDirectory = TestFiles.newTempDirectory("clients");
+        transport = new FakeTransport(data);
+        MemorySourceInfoStorage storage = new MemorySourceInfoStorage();
+        // stored info lets source be created without platform's mime types
+        storage.put(CACHE_KEY, new SourceInfo(EXPIRED_URL, Integer.MIN_VALUE, "video/mp4"));
+        proxy = new HttpProxyCacheServer.Builder(new CacheDirContext(cacheDirectory))
+                .cacheDirectory(cacheDirectory)
+                .cacheKeyGenerator(new CacheKeyGenerator() {
+                    @Override
+                    public String generate(String url) {
+                        return url.substring(0, url.indexOf('?'));
+                    }
+                })
+                .sourceInfoStorage(storage)
+                .reconnectPolicy(ReconnectPolicy.NONE)
+                .transport(transport)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        proxy.shutdown();
+        TestFiles.deleteRecursively(cacheDirectory);
+    }
+
+    @Test
+    public void testSourceIsReopenedWithUrlOfLatestRequest() throws Exception {
+        transport.breakFirstResponseAt(BROKEN_AT);
+        CacheReader expiredReader = proxy.openReader(EXPIRED_URL, 0);
+        try {
+            readAll(expiredReader);
+        } catch (ProxyCacheException e) {
+            // source is broken, e.g. token is expired meanwhile
+        } finally {
+            expiredReader.close();
+        }
+        int expiredRequests = transport.getRequests().size();
+
+        CacheReader freshReader = proxy.openReader(FRESH_URL, 0);
+        try {
+            assertArrayEquals(data, readAll(freshReader));
+        } finally {
+            freshReader.close();
+        }
+
+        List<TransportRequest> requests = transport.getRequests();
+        for (TransportRequest request : requests.subList(expiredRequests, requests.size())) {
+            assertEquals(FRESH_URL, request.url);
+        }
+    }
+
+    private byte[] readAll(CacheReader reader) throws ProxyCacheException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int readBytes;
+        while ((readBytes = reader.read(buffer, 0, buffer.length)) != -1) {
+            out.write(buffer, 0, readBytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class CacheDirContext extends ContextWrapper {
+
+        private final File cacheDirectory;
+
+        CacheDirContext(File cacheDirectory) {
+            super(null);
+            this.cacheDirectory = cacheDirectory;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getCacheDir() {
+            return cacheDirectory;
+        }
+    }
+}
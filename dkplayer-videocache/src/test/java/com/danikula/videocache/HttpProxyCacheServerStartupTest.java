@@ -0,0 +1,128 @@
+package com.danikula.videocache;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpProxyCacheServerStartupTest {
+
+    private static final String URL = "http://example.com/video.mp4";
+    private static final long SLOW_STORAGE_MILLIS = 500;
+
+    private File cacheDirectory;
+    private SlowStorageContext context;
+    private HttpProxyCacheServer proxy;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = TestFiles.newTempDirectory("startup");
+        context = new SlowStorageContext(cacheDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        if (proxy != null) {
+            proxy.shutdown();
+        }
+        context.storageReady.countDown();
+        TestFiles.deleteRecursively(cacheDirectory);
+    }
+
+    @Test
+    public void testAsyncStartDoesNotWaitForStorage() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final long[] startupTime = new long[1];
+        long start = System.currentTimeMillis();
+        proxy = new HttpProxyCacheServer.Builder(context)
+                .metrics(true, false)
+                .buildAsync(new ProxyStartupListener() {
+                    @Override
+                    public void onStarted(long startupTimeMillis) {
+                        startupTime[0] = startupTimeMillis;
+                        started.countDown();
+                    }
+
+                    @Override
+                    public void onStartupFailed(Throwable error) {
+                    }
+                });
+        long buildTime = System.currentTimeMillis() - start;
+
+        // caller isn't blocked by slow storage, url requested meanwhile is played directly
+        assertTrue("Building took " + buildTime + " ms", buildTime < SLOW_STORAGE_MILLIS);
+        assertFalse(proxy.isReady());
+        assertEquals(URL, proxy.getProxyUrl(URL));
+        // queries made from main thread meanwhile don't wait for storage either
+        assertFalse(proxy.isCached(URL));
+        assertTrue(proxy.getCachedRanges(URL).isEmpty());
+        assertTrue(proxy.getCachedTimeRanges(URL).isEmpty());
+        assertNull(proxy.getMetrics());
+        long queryTime = System.currentTimeMillis() - start;
+        assertTrue("Querying took " + queryTime + " ms", queryTime < SLOW_STORAGE_MILLIS);
+
+        Thread.sleep(SLOW_STORAGE_MILLIS);
+        context.storageReady.countDown();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(proxy.isReady());
+        assertTrue("Startup took " + startupTime[0] + " ms", startupTime[0] >= SLOW_STORAGE_MILLIS);
+        assertTrue(proxy.getProxyUrl(URL).startsWith("http://127.0.0.1:"));
+        assertEquals(1, proxy.getMetrics().startupBypasses);
+    }
+
+    @Test
+    public void testProxyUrlMatchesOwnPortOnly() throws Exception {
+        context.storageReady.countDown();
+        proxy = new HttpProxyCacheServer.Builder(context).build();
+
+        String proxyUrl = proxy.getProxyUrl(URL);
+        assertTrue(proxy.isProxyUrl(proxyUrl));
+        assertEquals(URL, proxy.getSourceUrl(proxyUrl));
+        // e.g. another proxy instance or local server of other library
+        String otherServerUrl = proxyUrl.replaceFirst(":\\d+/", ":1/");
+        assertFalse(proxy.isProxyUrl(otherServerUrl));
+        assertEquals(otherServerUrl, proxy.getSourceUrl(otherServerUrl));
+        assertFalse(proxy.isProxyUrl(URL));
+    }
+
+    /**
+     * Context with cache directory that isn't available until storage is ready.
+     */
+    private static final class SlowStorageContext extends ContextWrapper {
+
+        private final CountDownLatch storageReady = new CountDownLatch(1);
+        private final File cacheDirectory;
+
+        SlowStorageContext(File cacheDirectory) {
+            super(null);
+            this.cacheDirectory = cacheDirectory;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getCacheDir() {
+            try {
+                storageReady.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return cacheDirectory;
+        }
+    }
+}
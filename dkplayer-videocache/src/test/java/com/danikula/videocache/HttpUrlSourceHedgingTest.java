@@ -0,0 +1,76 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.headers.EmptyHeadersInjector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpUrlSourceHedgingTest {
+
+    private static final String URL = "http://origin.example.com/video.mp4";
+    private static final String MIRROR = "http://mirror.example.com/video.mp4";
+
+    private FakeTransport transport;
+    private OriginSelector originSelector;
+
+    @Before
+    public void setUp() {
+        transport = new FakeTransport(new byte[64 * 1024]);
+        // hedge request is sent if origin doesn't respond during 20 ms
+        originSelector = new OriginSelector(new HedgePolicy(0.95f, 10, 20));
+    }
+
+    @After
+    public void tearDown() {
+        originSelector.shutdown();
+    }
+
+    @Test
+    public void testLoserResponseIsClosedWhenBothMirrorsRespond() throws Exception {
+        transport.delay(URL, 150);
+        transport.delay(MIRROR, 50);
+        transport.ignoreCancel();
+        HttpUrlSource source = newSource();
+
+        source.open(0);
+        assertEquals(2, transport.getRequests().size());
+        source.close();
+
+        // loser responds after winner is taken, its response is closed right after it is received
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((transport.getResponses() < 2 || transport.getOpenResponses() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, transport.getResponses());
+        assertEquals(0, transport.getOpenResponses());
+    }
+
+    @Test
+    public void testWinnerResponseIsKeptOpen() throws Exception {
+        transport.delay(URL, 150);
+        transport.delay(MIRROR, 50);
+        transport.ignoreCancel();
+        HttpUrlSource source = newSource();
+
+        source.open(0);
+        Thread.sleep(300);
+        assertEquals(1, transport.getOpenResponses());
+        assertTrue(source.read(new byte[1024]) > 0);
+        source.close();
+        assertEquals(0, transport.getOpenResponses());
+    }
+
+    private HttpUrlSource newSource() {
+        MemorySourceInfoStorage storage = new MemorySourceInfoStorage();
+        // stored info lets source be created without platform's mime types
+        storage.put(URL, new SourceInfo(URL, Integer.MIN_VALUE, "video/mp4"));
+        return new HttpUrlSource(URL, URL, storage, new EmptyHeadersInjector(), ReconnectPolicy.NONE, HttpUrlSource.DEFAULT_RESOLVED_URL_TTL,
+                -1, Collections.singletonList(MIRROR), originSelector, ProxyMetrics.DISABLED, null, transport);
+    }
+}
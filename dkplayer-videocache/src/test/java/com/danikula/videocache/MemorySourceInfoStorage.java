@@ -0,0 +1,28 @@
+package com.danikula.videocache;
+
+import com.danikula.videocache.sourcestorage.SourceInfoStorage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link SourceInfoStorage} kept in memory.
+ */
+class MemorySourceInfoStorage implements SourceInfoStorage {
+
+    private final Map<String, SourceInfo> infos = new HashMap<>();
+
+    @Override
+    public synchronized SourceInfo get(String url) {
+        return infos.get(url);
+    }
+
+    @Override
+    public synchronized void put(String url, SourceInfo sourceInfo) {
+        infos.put(url, sourceInfo);
+    }
+
+    @Override
+    public void release() {
+    }
+}
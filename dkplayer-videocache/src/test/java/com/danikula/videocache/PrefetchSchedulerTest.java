@@ -0,0 +1,194 @@
+package com.danikula.videocache;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import com.danikula.videocache.transport.TransportRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrefetchSchedulerTest {
+
+    private static final long TIMEOUT = 5000;
+    // time worker is given to start prefetching it mustn't start
+    private static final long IDLE_CHECK_DELAY = 300;
+    private static final String URL_1 = "http://example.com/1.mp4";
+    private static final String URL_2 = "http://example.com/2.mp4";
+    private static final int DATA_LENGTH = 64 * 1024;
+    private static final int BUDGET = 1024;
+
+    private File cacheDirectory;
+    private FakeTransport transport;
+    private FakeDeviceState deviceState;
+    private HttpProxyCacheServer proxy;
+    private PrefetchScheduler scheduler;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDirectory = TestFiles.newTempDirectory("prefetch");
+        transport = new FakeTransport(new byte[DATA_LENGTH]);
+        MemorySourceInfoStorage storage = new MemorySourceInfoStorage();
+        // stored infos let sources be created without platform's mime types
+        storage.put(URL_1, new SourceInfo(URL_1, DATA_LENGTH, "video/mp4"));
+        storage.put(URL_2, new SourceInfo(URL_2, DATA_LENGTH, "video/mp4"));
+        proxy = new HttpProxyCacheServer.Builder(new CacheDirContext(cacheDirectory))
+                .sourceInfoStorage(storage)
+                .transport(transport)
+                .build();
+        // unmetered network only: conditions don't hold until test changes them
+        deviceState = new FakeDeviceState();
+        PrefetchConstraints constraints = new PrefetchConstraints(true, true, true, 0);
+        scheduler = new PrefetchScheduler(proxy, constraints, deviceState);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+        proxy.shutdown();
+        TestFiles.deleteRecursively(cacheDirectory);
+    }
+
+    @Test
+    public void testQueueIsStoredByWorker() throws Exception {
+        scheduler.schedule(Arrays.asList(
+                PrefetchRequest.bytes("http://example.com/1.mp4", 1024),
+                PrefetchRequest.bytes("http://example.com/2.mp4", 1024),
+                PrefetchRequest.seconds("http://example.com/3.mp4", 5)));
+        awaitStoredCount(3);
+
+        // worker waiting for conditions stores cleared queue too
+        scheduler.clear();
+        awaitStoredCount(0);
+
+        scheduler.schedule(Collections.singletonList(PrefetchRequest.bytes("http://example.com/4.mp4", 1024)));
+        scheduler.shutdown();
+        awaitStoredCount(1);
+    }
+
+    @Test
+    public void testPrefetchingFollowsConditions() throws Exception {
+        scheduler.schedule(Collections.singletonList(PrefetchRequest.bytes(URL_1, BUDGET)));
+        assertNotRequested(URL_1);
+
+        deviceState.charging = true;
+        scheduler.onConditionsChanged();
+        assertNotRequested(URL_1);
+
+        // screen is off, all conditions hold
+        deviceState.idle = true;
+        scheduler.onConditionsChanged();
+        awaitPrefetched(URL_1);
+
+        deviceState.unmetered = false;
+        scheduler.onConditionsChanged();
+        scheduler.schedule(Collections.singletonList(PrefetchRequest.bytes(URL_2, BUDGET)));
+        assertNotRequested(URL_2);
+
+        deviceState.unmetered = true;
+        scheduler.onConditionsChanged();
+        awaitPrefetched(URL_2);
+    }
+
+    private void assertNotRequested(String url) throws InterruptedException {
+        Thread.sleep(IDLE_CHECK_DELAY);
+        for (TransportRequest request : transport.getRequests()) {
+            assertFalse("Prefetching of " + url + " is started", url.equals(request.url));
+        }
+    }
+
+    private void awaitPrefetched(String url) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (getCachedLength(url) < BUDGET && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Source " + url + " isn't prefetched", getCachedLength(url) >= BUDGET);
+    }
+
+    private long getCachedLength(String url) {
+        List<CachedRange> ranges = proxy.getCachedRanges(url);
+        return ranges.isEmpty() ? 0 : ranges.get(0).end;
+    }
+
+    private void awaitStoredCount(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (readStoredCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, readStoredCount());
+    }
+
+    private int readStoredCount() {
+        File queueFile = new File(new File(proxy.getCacheRoot(), "prefetch"), "queue");
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(queueFile));
+            in.readInt();
+            return in.readInt();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            ProxyCacheUtils.close(in);
+        }
+    }
+
+    private static final class FakeDeviceState implements DeviceState {
+
+        private volatile boolean unmetered = true;
+        private volatile boolean charging;
+        private volatile boolean idle;
+
+        @Override
+        public boolean isUnmetered() {
+            return unmetered;
+        }
+
+        @Override
+        public boolean isCharging() {
+            return charging;
+        }
+
+        @Override
+        public boolean isIdle() {
+            return idle;
+        }
+
+        @Override
+        public long getFreeSpace(File directory) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static final class CacheDirContext extends ContextWrapper {
+
+        private final File cacheDirectory;
+
+        CacheDirContext(File cacheDirectory) {
+            super(null);
+            this.cacheDirectory = cacheDirectory;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public File getCacheDir() {
+            return cacheDirectory;
+        }
+    }
+}
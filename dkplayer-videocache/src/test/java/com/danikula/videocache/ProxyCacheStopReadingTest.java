@@ -0,0 +1,149 @@
+package com.danikula.videocache;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProxyCacheStopReadingTest {
+
+    private static final long TIMEOUT = 10000;
+
+    private final StuckSource source = new StuckSource();
+    private final MovableProxyCache proxyCache = new MovableProxyCache(source);
+
+    @After
+    public void tearDown() {
+        source.unstuck.countDown();
+        proxyCache.shutdown();
+    }
+
+    @Test
+    public void testStuckReaderIsNotDuplicated() throws Exception {
+        startClient();
+        assertTrue(source.stuck.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+        final CountDownLatch stopping = new CountDownLatch(1);
+        final Throwable[] stopError = new Throwable[1];
+        Thread mover = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stopping.countDown();
+                try {
+                    proxyCache.move(1024);
+                } catch (Throwable e) {
+                    stopError[0] = e;
+                }
+            }
+        });
+        mover.start();
+        assertTrue(stopping.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        Thread.sleep(100);
+
+        // reader is waited for without lock, so other clients aren't blocked
+        long start = System.currentTimeMillis();
+        synchronized (proxyCache) {
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+
+        mover.join(TIMEOUT);
+        assertTrue(stopError[0] instanceof ProxyCacheException);
+        // client keeps asking for data, but reader of the same source isn't started while stuck one is alive
+        startClient();
+        Thread.sleep(1500);
+        assertEquals(Arrays.asList("open", "read"), source.getEvents());
+
+        source.unstuck.countDown();
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (source.getEvents().size() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // new reader opens source only after stuck reader has closed it
+        assertEquals(Arrays.asList("open", "read", "close", "open"), source.getEvents().subList(0, 4));
+    }
+
+    private void startClient() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    proxyCache.read(new byte[16], 0, 16);
+                } catch (ProxyCacheException e) {
+                    // proxy cache is shut down
+                }
+            }
+        }).start();
+    }
+
+    private static final class MovableProxyCache extends ProxyCache {
+
+        MovableProxyCache(Source source) {
+            super(source, new ByteArrayCache());
+        }
+
+        void move(long offset) throws ProxyCacheException {
+            try {
+                stopSourceReading(offset);
+            } finally {
+                resumeSourceReading();
+            }
+        }
+    }
+
+    /**
+     * Source that is stuck in the first read and doesn't respond to interruption, e.g. socket read without timeout.
+     */
+    private static final class StuckSource implements Source {
+
+        private final CountDownLatch stuck = new CountDownLatch(1);
+        private final CountDownLatch unstuck = new CountDownLatch(1);
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void open(long offset) {
+            addEvent("open");
+        }
+
+        @Override
+        public long length() {
+            return 1024 * 1024;
+        }
+
+        @Override
+        public int read(byte[] buffer) throws ProxyCacheException {
+            if (stuck.getCount() == 0) {
+                return -1;
+            }
+            addEvent("read");
+            stuck.countDown();
+            while (true) {
+                try {
+                    unstuck.await();
+                    return -1;
+                } catch (InterruptedException e) {
+                    // ignored like by blocking socket read
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            addEvent("close");
+        }
+
+        synchronized List<String> getEvents() {
+            return new ArrayList<>(events);
+        }
+
+        private synchronized void addEvent(String event) {
+            events.add(event);
+        }
+    }
+}
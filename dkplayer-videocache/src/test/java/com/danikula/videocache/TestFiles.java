@@ -0,0 +1,31 @@
+package com.danikula.videocache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Temporary directories of tests.
+ */
+public final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    public static File newTempDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "test");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Error creating directory " + directory);
+        }
+        return directory;
+    }
+
+    public static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
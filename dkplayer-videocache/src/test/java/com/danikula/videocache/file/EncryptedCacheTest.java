@@ -0,0 +1,116 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.TestFiles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class EncryptedCacheTest {
+
+    private static final int LENGTH = 4096;
+
+    private final CacheEncryption encryption = new CacheEncryption("0123456789abcdef".getBytes());
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = TestFiles.newTempDirectory("encrypted");
+        file = new File(directory, "video.mp4");
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void testDiscardedCacheIsEncryptedWithNewKeystream() throws Exception {
+        byte[] data = generate(LENGTH);
+        ResumableCache cache = open();
+        cache.append(data, data.length);
+        cache.close();
+        byte[] first = readTempFile();
+
+        // source is changed, cache is reset and downloaded again
+        cache = open();
+        cache.discard();
+        cache.append(data, data.length);
+        cache.close();
+        byte[] second = readTempFile();
+
+        assertEquals(LENGTH + EncryptedCache.NONCE_LENGTH, second.length);
+        assertFalse(Arrays.equals(first, second));
+        assertReadable(data);
+    }
+
+    @Test
+    public void testResumedCacheKeepsKeystream() throws Exception {
+        byte[] data = generate(LENGTH);
+        ResumableCache cache = open();
+        cache.append(data, LENGTH / 2);
+        cache.close();
+
+        cache = open();
+        assertEquals(LENGTH / 2, cache.available());
+        cache.append(Arrays.copyOfRange(data, LENGTH / 2, LENGTH), LENGTH / 2);
+        cache.complete();
+        cache.close();
+
+        assertEquals(LENGTH + EncryptedCache.NONCE_LENGTH, file.length());
+        assertEquals(LENGTH, encryption.getDataLength(file.length()));
+        assertReadable(data);
+    }
+
+    private void assertReadable(byte[] data) throws Exception {
+        ResumableCache cache = open();
+        try {
+            assertEquals(data.length, cache.available());
+            // not aligned to AES block, so cipher is positioned inside block
+            int offset = 1000;
+            byte[] buffer = new byte[data.length - offset];
+            int read = 0;
+            while (read < buffer.length) {
+                byte[] chunk = new byte[buffer.length - read];
+                int count = cache.read(chunk, offset + read, chunk.length);
+                System.arraycopy(chunk, 0, buffer, read, count);
+                read += count;
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), buffer);
+        } finally {
+            cache.close();
+        }
+    }
+
+    private ResumableCache open() throws Exception {
+        return encryption.wrap(new FileCache(file), file.getName());
+    }
+
+    private byte[] readTempFile() throws Exception {
+        RandomAccessFile tempFile = new RandomAccessFile(new File(directory, file.getName() + FileCache.TEMP_POSTFIX), "r");
+        try {
+            byte[] bytes = new byte[(int) tempFile.length()];
+            tempFile.readFully(bytes);
+            return bytes;
+        } finally {
+            tempFile.close();
+        }
+    }
+
+    private byte[] generate(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
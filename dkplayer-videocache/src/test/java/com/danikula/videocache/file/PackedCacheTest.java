@@ -0,0 +1,78 @@
+package com.danikula.videocache.file;
+
+import com.danikula.videocache.TestFiles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackedCacheTest {
+
+    private static final int CHUNK = 256 * 1024;
+    // every write buffer goes to its own segment, so segments of promoted entry aren't active any more
+    private static final SegmentPolicy POLICY = new SegmentPolicy(16 * 1024 * 1024, 1024, CHUNK + 1024, 100, .5f);
+
+    private File directory;
+    private SegmentStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = TestFiles.newTempDirectory("packed");
+        store = SegmentStore.open(new File(directory, "segments"), POLICY);
+    }
+
+    @After
+    public void tearDown() {
+        store.release();
+        TestFiles.deleteRecursively(directory);
+    }
+
+    @Test
+    public void testPromoteWhileOtherCacheReads() throws Exception {
+        File file = new File(directory, "video.mp4");
+        byte[] data = generate(CHUNK + 4096);
+        ResumableCache writer = store.openCache(file, new UnlimitedDiskUsage());
+        ResumableCache reader = store.openCache(file, new UnlimitedDiskUsage());
+
+        writer.append(data, CHUNK);
+        writer.append(Arrays.copyOfRange(data, CHUNK, CHUNK + 2048), 2048);
+
+        // entry exceeds promoteBytes, but it is still read from segments by another cache
+        assertFalse(file.exists() || new File(directory, "video.mp4" + FileCache.TEMP_POSTFIX).exists());
+        byte[] buffer = new byte[CHUNK];
+        assertEquals(CHUNK, reader.read(buffer, 0, CHUNK));
+        assertArrayEquals(Arrays.copyOf(data, CHUNK), buffer);
+
+        // entry is promoted in background after the next append once it is opened by the writer only
+        reader.close();
+        writer.append(Arrays.copyOfRange(data, CHUNK + 2048, data.length), 2048);
+        writer.complete();
+        awaitExists(file);
+        assertEquals(data.length, file.length());
+        writer.close();
+    }
+
+    private void awaitExists(File file) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(file.exists());
+    }
+
+    private byte[] generate(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,107 @@
+package com.danikula.videocache.sourcestorage;
+
+import android.content.ContextWrapper;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.danikula.videocache.SourceInfo;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseSourceInfoStorageTest {
+
+    private static final String URL = "http://example.com/video.mp4";
+    // more infos than memory cache keeps, so the first one is looked up beyond it
+    private static final int INFOS_COUNT = 300;
+
+    @Test
+    public void testPutAfterRelease() throws Exception {
+        DatabaseSourceInfoStorage storage = new DatabaseSourceInfoStorage(new ContextWrapper(null));
+        storage.release();
+
+        // late writer, e.g. source reader finishing after proxy is shut down
+        storage.put(URL, new SourceInfo(URL, 1024, "video/mp4"));
+    }
+
+    @Test
+    public void testBatchIsVisibleUntilCommitted() throws Exception {
+        ControlledStorage storage = new ControlledStorage();
+        try {
+            SourceInfo sourceInfo = putInfos(storage);
+            assertTrue(storage.writeStarted.await(5, TimeUnit.SECONDS));
+
+            // batch is being written, database doesn't have it yet
+            assertEquals(sourceInfo, storage.get(URL));
+        } finally {
+            storage.writeError = new IllegalStateException("Database is closed");
+            storage.writeAllowed.countDown();
+            storage.release();
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsWrittenAgain() throws Exception {
+        ControlledStorage storage = new ControlledStorage();
+        storage.writeError = new IllegalStateException("Database is locked");
+        storage.writeAllowed.countDown();
+        try {
+            SourceInfo sourceInfo = putInfos(storage);
+            assertTrue(storage.writeStarted.await(5, TimeUnit.SECONDS));
+
+            assertTrue(storage.writeRetried.await(5, TimeUnit.SECONDS));
+            assertEquals(sourceInfo, storage.get(URL));
+        } finally {
+            storage.release();
+        }
+    }
+
+    private SourceInfo putInfos(DatabaseSourceInfoStorage storage) {
+        SourceInfo sourceInfo = new SourceInfo(URL, 1024, "video/mp4");
+        storage.put(URL, sourceInfo);
+        for (int i = 1; i < INFOS_COUNT; i++) {
+            String url = URL + "?id=" + i;
+            storage.put(url, new SourceInfo(url, 1024, "video/mp4"));
+        }
+        return sourceInfo;
+    }
+
+    /**
+     * Storage which database can be held or broken, infos not written yet must never be read from it.
+     */
+    private static final class ControlledStorage extends DatabaseSourceInfoStorage {
+
+        private final CountDownLatch writeStarted = new CountDownLatch(1);
+        private final CountDownLatch writeRetried = new CountDownLatch(2);
+        private final CountDownLatch writeAllowed = new CountDownLatch(1);
+        private volatile RuntimeException writeError;
+
+        ControlledStorage() {
+            super(new ContextWrapper(null));
+        }
+
+        @Override
+        public SQLiteDatabase getWritableDatabase() {
+            writeStarted.countDown();
+            writeRetried.countDown();
+            try {
+                writeAllowed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writeError != null) {
+                throw writeError;
+            }
+            return super.getWritableDatabase();
+        }
+
+        @Override
+        public SQLiteDatabase getReadableDatabase() {
+            throw new AssertionError("Info isn't written to database yet");
+        }
+    }
+}